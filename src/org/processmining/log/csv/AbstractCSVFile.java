@@ -4,10 +4,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import org.processmining.log.utils.ReadAheadInputStream;
+
 import com.google.common.io.Files;
 
 public abstract class AbstractCSVFile implements CSVFile {
@@ -54,9 +55,10 @@ public abstract class AbstractCSVFile implements CSVFile {
 			if (nextEntry == null) {
 				throw new IOException("ZIP files does not contain any files");
 			}
-			return zipInputStream;
+			// Decompress on a separate thread while the CSV is parsed
+			return ReadAheadInputStream.forStream(zipInputStream);
 		} else if (ext.equalsIgnoreCase("gz")) {
-			return new GZIPInputStream(new FileInputStream(getFile().toFile()));
+			return ReadAheadInputStream.forGZIP(new FileInputStream(getFile().toFile()));
 		}
 		throw new UnsupportedOperationException("Unsupported file type " + ext);
 	}
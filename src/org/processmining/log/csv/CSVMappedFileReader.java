@@ -0,0 +1,416 @@
+package org.processmining.log.csv;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.processmining.log.csv.config.CSVConfig;
+
+/**
+ * {@link ICSVReader} for uncompressed files that parses the bytes of the file
+ * directly from segments mapped with {@link FileChannel#map}, without any
+ * stream or reader in between. Values are decoded from the mapped bytes, which
+ * requires that the separator, the quote and line breaks are single ASCII bytes
+ * that never occur inside multi-byte sequences. Therefore, only UTF-8,
+ * ISO-8859-1 and US-ASCII are supported (see
+ * {@link #isSupported(CSVFile, CSVConfig)}). Rows and quoted values may span
+ * the boundaries of the mapped segments.
+ * <p>
+ * The parser follows the settings used by {@link CSVUnivocityImpl}: leading
+ * and trailing white space of unquoted values is removed, empty values are
+ * returned as NULL, quotes are escaped by doubling them, empty lines and lines
+ * starting with <code>#</code> are skipped, lines may end with
+ * <code>\n</code>, <code>\r\n</code> or <code>\r</code>, line breaks
+ * <code>\r\n</code> inside quoted values are returned as <code>\n</code>,
+ * and values longer than {@link CSVUnivocityImpl#MAX_CHARS_PER_COLUMN}
+ * characters are rejected with an {@link IOException}.
+ * <p>
+ * The byte offset of each row is available through {@link #getPosition()} and
+ * the reader can be moved to such an offset with {@link #seek(long)}.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVMappedFileReader implements ICSVReader {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final byte COMMENT = '#';
+
+	// States of the parser
+	private static final int FIELD_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+	private static final int AFTER_QUOTED = 4;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int segmentSize;
+	private final Charset charset;
+	private final byte separator;
+	private final byte quote;
+	private final boolean hasQuote;
+
+	private MappedByteBuffer segment;
+	// Offset of the current segment in the file
+	private long segmentStart;
+	private int segmentLimit;
+	// Position in the current segment
+	private int pos;
+	// Whether a line feed following a carriage return should be skipped
+	private boolean skipLineFeed = false;
+
+	// Bytes of the current value
+	private byte[] valueBuffer = new byte[256];
+	private int valueLength;
+	// Whether the last byte of a quoted value was a carriage return that has not yet been added
+	private boolean pendingCarriageReturn;
+	private final List<String> row = new ArrayList<>();
+
+	/**
+	 * Opens the file using segments of {@link #DEFAULT_SEGMENT_SIZE}.
+	 *
+	 * @param file
+	 * @param config
+	 * @throws IOException
+	 */
+	public CSVMappedFileReader(Path file, CSVConfig config) throws IOException {
+		this(file, config, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param file
+	 * @param config
+	 * @param segmentSize
+	 *            the number of bytes that are mapped at once
+	 * @throws IOException
+	 */
+	public CSVMappedFileReader(Path file, CSVConfig config, int segmentSize) throws IOException {
+		if (segmentSize < 1) {
+			throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.segmentSize = segmentSize;
+		this.charset = Charset.forName(config.getCharset());
+		this.separator = (byte) config.getSeparator().getSeperatorChar();
+		this.quote = (byte) config.getQuoteChar().getQuoteChar();
+		this.hasQuote = config.getQuoteChar().getQuoteChar() != '\0';
+		try {
+			map(0);
+			skipByteOrderMark();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param csvFile
+	 * @param config
+	 * @return whether the file is an uncompressed local file and the
+	 *         configuration can be parsed from the raw bytes
+	 */
+	public static boolean isSupported(CSVFile csvFile, CSVConfig config) {
+		String fileName = csvFile.getFile().getFileName().toString().toLowerCase();
+		if (!(fileName.endsWith(".csv") || fileName.endsWith(".txt")) || !Files.isRegularFile(csvFile.getFile())) {
+			return false;
+		}
+		Charset charset;
+		try {
+			charset = Charset.forName(config.getCharset());
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if (!(charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+				|| charset.equals(StandardCharsets.US_ASCII))) {
+			return false;
+		}
+		return config.getSeparator().getSeperatorChar() < 0x80 && config.getQuoteChar().getQuoteChar() < 0x80;
+	}
+
+	/**
+	 * @return the byte offset in the file at which the next row starts
+	 */
+	public long getPosition() {
+		return segmentStart + pos;
+	}
+
+	/**
+	 * Moves the reader to the byte offset, which needs to be the start of a
+	 * row (e.g., as returned by {@link #getPosition()}).
+	 *
+	 * @param position
+	 * @throws IOException
+	 */
+	public void seek(long position) throws IOException {
+		if (position < 0 || position > fileSize) {
+			throw new IllegalArgumentException("Invalid position " + position);
+		}
+		if (position >= segmentStart && position <= segmentStart + segmentLimit) {
+			pos = (int) (position - segmentStart);
+		} else {
+			map(position);
+		}
+		skipLineFeed = false;
+		if (position == 0) {
+			skipByteOrderMark();
+		}
+	}
+
+	public String[] readNext() throws IOException {
+		while (true) {
+			if (!hasRemaining()) {
+				return null;
+			}
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (segment.get(pos) == '\n') {
+					pos++;
+					continue;
+				}
+			}
+			if (segment.get(pos) == COMMENT) {
+				skipLine();
+				continue;
+			}
+			String[] values = parseRow();
+			if (values != null) {
+				return values;
+			}
+		}
+	}
+
+	/**
+	 * @return the values of the next row or NULL for an empty line
+	 */
+	private String[] parseRow() throws IOException {
+		row.clear();
+		valueLength = 0;
+		pendingCarriageReturn = false;
+		int state = FIELD_START;
+		boolean hasContent = false;
+		int valueStart = pos;
+		while (true) {
+			if (pos == segmentLimit) {
+				appendToValue(valueStart, pos);
+				if (!hasRemaining()) {
+					if (pendingCarriageReturn) {
+						appendToValue((byte) '\r');
+					}
+					// Last row without line break
+					if (hasContent) {
+						addValue(state);
+					}
+					break;
+				}
+				valueStart = pos;
+			}
+			byte b = segment.get(pos);
+			if (state == QUOTED) {
+				if (pendingCarriageReturn) {
+					pendingCarriageReturn = false;
+					if (b != '\n') {
+						// Only the line break \r\n is normalized, keep a single carriage return
+						appendToValue((byte) '\r');
+					}
+				}
+				if (b == '\r') {
+					appendToValue(valueStart, pos);
+					pendingCarriageReturn = true;
+					pos++;
+					valueStart = pos;
+					continue;
+				}
+				if (b == quote) {
+					appendToValue(valueStart, pos);
+					state = QUOTE_IN_QUOTED;
+					valueStart = pos + 1;
+				}
+				pos++;
+				continue;
+			}
+			if (state == QUOTE_IN_QUOTED) {
+				if (b == quote) {
+					// Escaped quote, keep the second quote as part of the value
+					valueStart = pos;
+					pos++;
+					state = QUOTED;
+					continue;
+				}
+				state = AFTER_QUOTED;
+			}
+			if (b == separator || b == '\n' || b == '\r') {
+				appendToValue(valueStart, pos);
+				pos++;
+				if (b == separator) {
+					addValue(state);
+					hasContent = true;
+					state = FIELD_START;
+					valueLength = 0;
+					valueStart = pos;
+					continue;
+				}
+				skipLineFeed = b == '\r';
+				if (hasContent || state != FIELD_START || valueLength > 0) {
+					addValue(state);
+					break;
+				}
+				// Empty line
+				return null;
+			}
+			if (state == FIELD_START) {
+				if (hasQuote && b == quote) {
+					state = QUOTED;
+					hasContent = true;
+					valueLength = 0;
+					pos++;
+					valueStart = pos;
+					continue;
+				} else if (isWhiteSpace(b)) {
+					// Leading white space is ignored
+					pos++;
+					valueStart = pos;
+					continue;
+				}
+				state = UNQUOTED;
+			} else if (state == AFTER_QUOTED && isWhiteSpace(b)) {
+				// White space after the closing quote is ignored
+				appendToValue(valueStart, pos);
+				pos++;
+				valueStart = pos;
+				continue;
+			}
+			hasContent = true;
+			pos++;
+		}
+		return row.isEmpty() ? null : row.toArray(new String[row.size()]);
+	}
+
+	private void addValue(int state) {
+		int length = valueLength;
+		if (state == UNQUOTED) {
+			while (length > 0 && isWhiteSpace(valueBuffer[length - 1])) {
+				length--;
+			}
+		}
+		row.add(length == 0 ? null : new String(valueBuffer, 0, length, charset));
+	}
+
+	private void appendToValue(int start, int end) throws IOException {
+		int length = end - start;
+		if (length <= 0) {
+			return;
+		}
+		ensureCapacity(length);
+		int oldPosition = segment.position();
+		segment.position(start);
+		segment.get(valueBuffer, valueLength, length);
+		segment.position(oldPosition);
+		valueLength += length;
+		checkValueLength();
+	}
+
+	private void appendToValue(byte b) throws IOException {
+		ensureCapacity(1);
+		valueBuffer[valueLength++] = b;
+		checkValueLength();
+	}
+
+	private void ensureCapacity(int length) {
+		if (valueLength + length > valueBuffer.length) {
+			valueBuffer = Arrays.copyOf(valueBuffer, Math.max(valueBuffer.length * 2, valueLength + length));
+		}
+	}
+
+	/**
+	 * Applies the same limit as the Univocity parser, which fails fast on a
+	 * missing closing quote instead of reading the rest of the file into a
+	 * single value.
+	 */
+	private void checkValueLength() throws IOException {
+		if (valueLength > CSVUnivocityImpl.MAX_CHARS_PER_COLUMN
+				&& countChars() > CSVUnivocityImpl.MAX_CHARS_PER_COLUMN) {
+			throw new IOException("Value of column " + (row.size() + 1) + " before byte offset " + getPosition()
+					+ " exceeds the maximum length of " + CSVUnivocityImpl.MAX_CHARS_PER_COLUMN
+					+ " characters. Is a closing quote missing?");
+		}
+	}
+
+	private int countChars() {
+		if (!charset.equals(StandardCharsets.UTF_8)) {
+			return valueLength;
+		}
+		// Characters outside the BMP count as one instead of two, which is close enough for the limit
+		int chars = 0;
+		for (int i = 0; i < valueLength; i++) {
+			if ((valueBuffer[i] & 0xC0) != 0x80) {
+				chars++;
+			}
+		}
+		return chars;
+	}
+
+	private void skipLine() throws IOException {
+		while (hasRemaining()) {
+			byte b = segment.get(pos++);
+			if (b == '\n') {
+				return;
+			} else if (b == '\r') {
+				skipLineFeed = true;
+				return;
+			}
+		}
+	}
+
+	private void skipByteOrderMark() throws IOException {
+		if (segmentStart == 0 && charset.equals(StandardCharsets.UTF_8) && segmentLimit >= 3
+				&& segment.get(0) == (byte) 0xEF && segment.get(1) == (byte) 0xBB && segment.get(2) == (byte) 0xBF) {
+			pos = 3;
+		}
+	}
+
+	/**
+	 * @return whether there are bytes left, maps the next segment if needed
+	 */
+	private boolean hasRemaining() throws IOException {
+		if (pos < segmentLimit) {
+			return true;
+		}
+		long next = segmentStart + segmentLimit;
+		if (next >= fileSize) {
+			return false;
+		}
+		map(next);
+		return true;
+	}
+
+	private void map(long position) throws IOException {
+		int length = (int) Math.min(segmentSize, fileSize - position);
+		segment = channel.map(MapMode.READ_ONLY, position, length);
+		segmentStart = position;
+		segmentLimit = length;
+		pos = 0;
+	}
+
+	private static boolean isWhiteSpace(byte b) {
+		// Same as the Univocity parser, bytes of multi-byte characters are negative
+		return b >= 0 && b <= ' ' && b != '\n' && b != '\r';
+	}
+
+	public void close() throws IOException {
+		segment = null;
+		channel.close();
+	}
+
+}
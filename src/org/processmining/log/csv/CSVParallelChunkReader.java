@@ -0,0 +1,329 @@
+package org.processmining.log.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.processmining.log.csv.config.CSVConfig;
+
+/**
+ * {@link ICSVReader} that splits the input into byte ranges aligned on record
+ * boundaries and parses each range with its own {@link ICSV} parser on a pool
+ * of worker threads. Rows are returned in the original order.
+ * <p>
+ * Record boundaries are found by a light-weight, quote-aware scan over the raw
+ * bytes that skips comment lines starting with <code>#</code> and accepts
+ * lines ending with <code>\n</code>, <code>\r\n</code> or <code>\r</code>.
+ * This only works for character sets in which the line feed, the quote
+ * and the separator character are encoded as single ASCII bytes that never
+ * occur inside multi-byte sequences (e.g., UTF-8 and the ISO-8859 family). Use
+ * {@link #isSupported(CSVConfig)} to check this before creating the reader.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVParallelChunkReader implements ICSVReader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum size of a single record in bytes, larger records most likely
+	 * are caused by a missing closing quote.
+	 */
+	private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+	private static final byte COMMENT = '#';
+
+	// States of the boundary scanner
+	private static final int FIELD_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+	private static final int LINE_START = 4;
+	private static final int COMMENT_LINE = 5;
+
+	private final ICSV csv;
+	private final InputStream is;
+	private final CSVConfig config;
+	private final int chunkSize;
+	private final int maxChunksInFlight;
+
+	private final byte quote;
+	private final byte separator;
+	private final boolean hasQuote;
+
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<List<String[]>>> chunksInFlight = new ArrayDeque<>();
+	private Iterator<String[]> currentRows = null;
+
+	// Bytes read from the stream that have not yet been assigned to a chunk
+	private byte[] buffer;
+	private int bufferFilled = 0;
+	private int scanPosition = 0;
+	private int scanState = LINE_START;
+	private boolean eof = false;
+	private boolean byteOrderMarkChecked = false;
+
+	/**
+	 * Creates a new reader parsing the {@link InputStream} with
+	 * <code>numThreads</code> parsers in parallel.
+	 *
+	 * @param csv
+	 *            the parser implementation used for each chunk
+	 * @param is
+	 *            the raw input, is closed when this reader is closed
+	 * @param config
+	 * @param numThreads
+	 * @param chunkSize
+	 *            the minimum size of each chunk in bytes
+	 */
+	public CSVParallelChunkReader(ICSV csv, InputStream is, CSVConfig config, int numThreads, int chunkSize) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, got " + numThreads);
+		}
+		this.csv = csv;
+		this.is = is;
+		this.config = config;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = numThreads + 2;
+		this.quote = (byte) config.getQuoteChar().getQuoteChar();
+		this.hasQuote = config.getQuoteChar().getQuoteChar() != '\0';
+		this.separator = (byte) config.getSeparator().getSeperatorChar();
+		this.buffer = new byte[chunkSize + READ_BUFFER_SIZE];
+		this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CSV parser " + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param config
+	 * @return whether the character set and special characters of the
+	 *         configuration allow to split the input on raw bytes
+	 */
+	public static boolean isSupported(CSVConfig config) {
+		Charset charset;
+		try {
+			charset = Charset.forName(config.getCharset());
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if (!charset.canEncode()) {
+			return false;
+		}
+		char[] specialChars = new char[] { '\n', '\r', ' ', '\t', config.getSeparator().getSeperatorChar(),
+				config.getQuoteChar().getQuoteChar() == '\0' ? '"' : config.getQuoteChar().getQuoteChar() };
+		for (char c : specialChars) {
+			byte[] encoded = String.valueOf(c).getBytes(charset);
+			if (encoded.length != 1 || encoded[0] != (byte) c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String[] readNext() throws IOException {
+		while (currentRows == null || !currentRows.hasNext()) {
+			fillChunksInFlight();
+			Future<List<String[]>> nextChunk = chunksInFlight.poll();
+			if (nextChunk == null) {
+				return null;
+			}
+			currentRows = waitForChunk(nextChunk).iterator();
+		}
+		return currentRows.next();
+	}
+
+	private List<String[]> waitForChunk(Future<List<String[]>> chunk) throws IOException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for CSV parser", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not parse CSV chunk", e.getCause());
+		}
+	}
+
+	private void fillChunksInFlight() throws IOException {
+		while (chunksInFlight.size() < maxChunksInFlight) {
+			final byte[] chunk = nextChunk();
+			if (chunk == null) {
+				return;
+			}
+			chunksInFlight.add(executor.submit(new Callable<List<String[]>>() {
+
+				public List<String[]> call() throws Exception {
+					List<String[]> rows = new ArrayList<>();
+					try (ICSVReader reader = csv.createReader(new ByteArrayInputStream(chunk), config)) {
+						String[] row;
+						while ((row = reader.readNext()) != null) {
+							rows.add(row);
+						}
+					}
+					return rows;
+				}
+			}));
+		}
+	}
+
+	/**
+	 * @return the bytes of the next chunk ending on a record boundary or NULL
+	 *         in case of EOF
+	 * @throws IOException
+	 */
+	private byte[] nextChunk() throws IOException {
+		while (true) {
+			if (!byteOrderMarkChecked && (bufferFilled >= 3 || eof)) {
+				byteOrderMarkChecked = true;
+				if (bufferFilled >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB
+						&& buffer[2] == (byte) 0xBF) {
+					// The BOM is removed by the parser, a comment may follow
+					scanPosition = 3;
+				}
+			}
+			int boundary = byteOrderMarkChecked ? scanForBoundary() : -1;
+			if (boundary != -1) {
+				return cutChunk(boundary);
+			}
+			if (eof) {
+				return bufferFilled > 0 ? cutChunk(bufferFilled) : null;
+			}
+			if (bufferFilled == buffer.length) {
+				// A single record is larger than the buffer
+				if (bufferFilled - chunkSize >= MAX_RECORD_SIZE) {
+					throw new IOException("Could not find the end of a record within " + MAX_RECORD_SIZE
+							+ " bytes. Is a closing quote missing?");
+				}
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			int read = is.read(buffer, bufferFilled, Math.min(READ_BUFFER_SIZE, buffer.length - bufferFilled));
+			if (read == -1) {
+				eof = true;
+			} else {
+				bufferFilled += read;
+			}
+		}
+	}
+
+	private byte[] cutChunk(int length) {
+		byte[] chunk = Arrays.copyOf(buffer, length);
+		System.arraycopy(buffer, length, buffer, 0, bufferFilled - length);
+		bufferFilled -= length;
+		scanPosition -= length;
+		return chunk;
+	}
+
+	/**
+	 * Scans the not yet assigned bytes for the end of a record after the
+	 * minimum chunk size is reached.
+	 *
+	 * @return the position after the line break ending the record or -1
+	 */
+	private int scanForBoundary() {
+		int state = scanState;
+		for (int i = scanPosition; i < bufferFilled; i++) {
+			byte b = buffer[i];
+			if (b == '\n' || b == '\r') {
+				if (state != QUOTED) {
+					int end = i + 1;
+					if (b == '\r') {
+						if (end == bufferFilled && !eof) {
+							// Need the next byte to know whether the line ends with \r\n
+							scanState = state;
+							scanPosition = i;
+							return -1;
+						}
+						if (end < bufferFilled && buffer[end] == '\n') {
+							end++;
+						}
+					}
+					state = LINE_START;
+					if (end >= chunkSize) {
+						scanState = state;
+						scanPosition = end;
+						return end;
+					}
+					i = end - 1;
+				}
+				continue;
+			}
+			switch (state) {
+				case LINE_START :
+					if (b == COMMENT) {
+						state = COMMENT_LINE;
+						continue;
+					}
+					state = FIELD_START;
+					break;
+				case COMMENT_LINE :
+					continue;
+				default :
+					break;
+			}
+			switch (state) {
+				case QUOTE_IN_QUOTED :
+					if (b == quote) {
+						// Escaped quote
+						state = QUOTED;
+						continue;
+					}
+					// Closing quote, treat the current byte as unquoted
+					state = UNQUOTED;
+					//$FALL-THROUGH$
+				case FIELD_START :
+				case UNQUOTED :
+					if (b == separator) {
+						state = FIELD_START;
+					} else if (hasQuote && b == quote && state == FIELD_START) {
+						state = QUOTED;
+					} else if (state == FIELD_START && (b == ' ' || b == '\t')) {
+						// Leading white space is ignored by the parser
+					} else {
+						state = UNQUOTED;
+					}
+					break;
+				case QUOTED :
+					if (b == quote) {
+						state = QUOTE_IN_QUOTED;
+					}
+					break;
+			}
+		}
+		scanState = state;
+		scanPosition = bufferFilled;
+		return -1;
+	}
+
+	public void close() throws IOException {
+		executor.shutdownNow();
+		chunksInFlight.clear();
+		currentRows = null;
+		is.close();
+	}
+
+}
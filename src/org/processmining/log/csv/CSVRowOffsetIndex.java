@@ -0,0 +1,178 @@
+package org.processmining.log.csv;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.processmining.log.csv.config.CSVConfig;
+
+/**
+ * In-memory index of the byte offsets of every n-th data row of an
+ * uncompressed CSV file. Any row can be reached by seeking to the closest
+ * indexed offset and skipping less than n rows, so that a preview can show
+ * arbitrary pages or a sample of rows spread over the whole file without
+ * reading the file from the start.
+ * <p>
+ * The index is built by a single pass of {@link CSVMappedFileReader} and needs
+ * only 8 bytes per n rows. It is only available for files supported by
+ * {@link CSVMappedFileReader#isSupported(CSVFile, CSVConfig)}.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVRowOffsetIndex {
+
+	public static final int DEFAULT_STRIDE = 1000;
+
+	/**
+	 * Receives the progress while building the index.
+	 */
+	public interface IndexProgress {
+
+		/**
+		 * @param rowCount
+		 *            number of rows indexed so far
+		 * @return whether indexing should continue
+		 */
+		boolean rowsIndexed(long rowCount);
+
+	}
+
+	private final CSVFile csvFile;
+	private final CSVConfig config;
+	private final int stride;
+	private final long[] offsets;
+	private final long rowCount;
+
+	private CSVRowOffsetIndex(CSVFile csvFile, CSVConfig config, int stride, long[] offsets, long rowCount) {
+		this.csvFile = csvFile;
+		this.config = config;
+		this.stride = stride;
+		this.offsets = offsets;
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * Builds the index of the data rows, the header row is not counted.
+	 *
+	 * @param csvFile
+	 * @param config
+	 * @param stride
+	 *            the offset of every stride-th row is recorded
+	 * @param progress
+	 *            may be NULL
+	 * @return the index or NULL if indexing was cancelled
+	 * @throws IOException
+	 */
+	public static CSVRowOffsetIndex build(CSVFile csvFile, CSVConfig config, int stride, IndexProgress progress)
+			throws IOException {
+		if (stride < 1) {
+			throw new IllegalArgumentException("Invalid stride " + stride);
+		}
+		long[] offsets = new long[64];
+		int numOffsets = 0;
+		long rowCount = 0;
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(csvFile.getFile(), config)) {
+			// Skip header
+			reader.readNext();
+			while (true) {
+				long position = reader.getPosition();
+				if (reader.readNext() == null) {
+					break;
+				}
+				if (rowCount % stride == 0) {
+					if (numOffsets == offsets.length) {
+						offsets = Arrays.copyOf(offsets, offsets.length * 2);
+					}
+					offsets[numOffsets++] = position;
+					if (progress != null && !progress.rowsIndexed(rowCount)) {
+						return null;
+					}
+				}
+				rowCount++;
+			}
+		}
+		if (progress != null) {
+			progress.rowsIndexed(rowCount);
+		}
+		return new CSVRowOffsetIndex(csvFile, config, stride, Arrays.copyOf(offsets, numOffsets), rowCount);
+	}
+
+	/**
+	 * @return the number of data rows
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the number of rows between two indexed offsets
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Reads the rows starting at the specified data row.
+	 *
+	 * @param firstRow
+	 *            index of the first data row (starting from 0)
+	 * @param maxRows
+	 * @return at most maxRows rows
+	 * @throws IOException
+	 */
+	public List<String[]> readRows(long firstRow, int maxRows) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		if (firstRow < 0 || firstRow >= rowCount) {
+			return rows;
+		}
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(csvFile.getFile(), config)) {
+			seekToRow(reader, firstRow);
+			String[] row;
+			while (rows.size() < maxRows && (row = reader.readNext()) != null) {
+				rows.add(row);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Reads rows that are evenly spread over the whole file.
+	 *
+	 * @param numRows
+	 * @return the sampled rows in the order of the file
+	 * @throws IOException
+	 */
+	public List<String[]> readSample(int numRows) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		if (rowCount == 0 || numRows < 1) {
+			return rows;
+		}
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(csvFile.getFile(), config)) {
+			long lastRow = -1;
+			for (int i = 0; i < numRows; i++) {
+				long rowIndex = i * rowCount / numRows;
+				if (rowIndex == lastRow) {
+					continue;
+				}
+				seekToRow(reader, rowIndex);
+				String[] row = reader.readNext();
+				if (row == null) {
+					break;
+				}
+				rows.add(row);
+				lastRow = rowIndex;
+			}
+		}
+		return rows;
+	}
+
+	private void seekToRow(CSVMappedFileReader reader, long rowIndex) throws IOException {
+		reader.seek(offsets[(int) (rowIndex / stride)]);
+		for (long i = rowIndex % stride; i > 0; i--) {
+			reader.readNext();
+		}
+	}
+
+}
@@ -18,7 +18,7 @@ import com.univocity.parsers.csv.CsvWriterSettings;
 
 public class CSVUnivocityImpl implements ICSV {
 	
-	private static final int MAX_CHARS_PER_COLUMN = 65536;
+	static final int MAX_CHARS_PER_COLUMN = 65536;
 	
 	private static final int BUFFER_SIZE = 8192 * 4;
 
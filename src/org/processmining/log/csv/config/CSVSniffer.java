@@ -0,0 +1,420 @@
+package org.processmining.log.csv.config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.mozilla.universalchardet.UniversalDetector;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.ICSVReader;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+
+import com.google.common.io.Files;
+
+/**
+ * Reads a bounded sample of a {@link CSVFile} once and detects the parameters
+ * of the {@link CSVConfig} (charset, separator and quote character) as well as
+ * the header and some rows to detect the data types of the columns. For
+ * uncompressed files the sample is memory-mapped and may be taken from several
+ * evenly spaced offsets in the file. For compressed files the sample is taken
+ * from the beginning of the file.
+ * <p>
+ * The sample is kept in memory, so that it can be parsed again after the user
+ * changed the {@link CSVConfig} without opening the file again.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVSniffer {
+
+	public static final int DEFAULT_SAMPLE_SIZE = 2 * 1024 * 1024;
+	public static final int DEFAULT_NUM_SAMPLES = 8;
+
+	private static final int SEPARATOR_DETECTION_ROW_LIMIT = 10;
+
+	// Fixed seed, so that the same rows are selected when sampling again
+	private static final long RESERVOIR_SEED = 0x5EED;
+
+	private final CSVFile csvFile;
+	// The first sample always starts at the beginning of the file
+	private final List<ByteBuffer> samples;
+
+	private final String charset;
+	private final CSVSeperator separator;
+	private final CSVQuoteCharacter quoteChar;
+
+	/**
+	 * Sniffs {@link #DEFAULT_NUM_SAMPLES} samples of
+	 * {@link #DEFAULT_SAMPLE_SIZE} bytes spread over the file, or the first
+	 * {@link #DEFAULT_SAMPLE_SIZE} bytes of a compressed file.
+	 *
+	 * @param csvFile
+	 * @throws CSVConversionException
+	 */
+	public CSVSniffer(CSVFile csvFile) throws CSVConversionException {
+		this(csvFile, DEFAULT_SAMPLE_SIZE, DEFAULT_NUM_SAMPLES);
+	}
+
+	/**
+	 * Sniffs the file by reading <code>numSamples</code> samples of
+	 * <code>sampleSize</code> bytes from evenly spaced offsets.
+	 *
+	 * @param csvFile
+	 * @param sampleSize
+	 *            in bytes
+	 * @param numSamples
+	 *            only used for uncompressed files
+	 * @throws CSVConversionException
+	 */
+	public CSVSniffer(CSVFile csvFile, int sampleSize, int numSamples) throws CSVConversionException {
+		this.csvFile = csvFile;
+		try {
+			if (isUncompressed(csvFile)) {
+				this.samples = mapSamples(csvFile, sampleSize, Math.max(1, numSamples));
+			} else {
+				this.samples = Collections.singletonList(readSample(csvFile, sampleSize));
+			}
+			this.charset = detectCharset(samples);
+			List<String> lines = readLines(samples.get(0), charset, SEPARATOR_DETECTION_ROW_LIMIT);
+			this.separator = detectSeparator(lines);
+			this.quoteChar = detectQuote(lines, separator);
+		} catch (IOException e) {
+			throw new CSVConversionException("Could not auto-detect CSV import parameters.", e);
+		}
+	}
+
+	private static boolean isUncompressed(CSVFile csvFile) {
+		String ext = Files.getFileExtension(csvFile.getFile().toFile().getName());
+		return ext.equalsIgnoreCase("csv") || ext.equalsIgnoreCase("txt");
+	}
+
+	private static List<ByteBuffer> mapSamples(CSVFile csvFile, int sampleSize, int numSamples) throws IOException {
+		try (FileChannel channel = FileChannel.open(csvFile.getFile(), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize <= (long) sampleSize * numSamples) {
+				// Small file, sniff everything
+				return Collections.<ByteBuffer>singletonList(channel.map(MapMode.READ_ONLY, 0, fileSize));
+			}
+			List<ByteBuffer> samples = new ArrayList<>(numSamples);
+			for (int i = 0; i < numSamples; i++) {
+				long offset = numSamples == 1 ? 0 : i * ((fileSize - sampleSize) / (numSamples - 1));
+				MappedByteBuffer sample = channel.map(MapMode.READ_ONLY, offset, sampleSize);
+				samples.add(trimToLines(sample, offset != 0, offset + sampleSize < fileSize));
+			}
+			return samples;
+		}
+	}
+
+	private static ByteBuffer readSample(CSVFile csvFile, int sampleSize) throws IOException {
+		byte[] buffer = new byte[sampleSize];
+		int length = 0;
+		try (InputStream is = csvFile.getInputStream()) {
+			int read;
+			while (length < sampleSize && (read = is.read(buffer, length, sampleSize - length)) != -1) {
+				length += read;
+			}
+			boolean truncated = length == sampleSize && is.read() != -1;
+			return trimToLines(ByteBuffer.wrap(buffer, 0, length).slice(), false, truncated);
+		}
+	}
+
+	/**
+	 * Removes the incomplete lines at the start and end of the sample.
+	 */
+	private static ByteBuffer trimToLines(ByteBuffer sample, boolean skipFirstLine, boolean skipLastLine) {
+		int start = sample.position();
+		int end = sample.limit();
+		if (skipFirstLine) {
+			while (start < end && sample.get(start) != '\n') {
+				start++;
+			}
+			start = Math.min(end, start + 1);
+		}
+		if (skipLastLine) {
+			while (end > start && sample.get(end - 1) != '\n') {
+				end--;
+			}
+		}
+		ByteBuffer trimmed = sample.duplicate();
+		trimmed.position(start);
+		trimmed.limit(end);
+		return trimmed.slice();
+	}
+
+	private static String detectCharset(List<ByteBuffer> samples) {
+		final UniversalDetector detector = new UniversalDetector(null);
+		byte[] buf = new byte[4096];
+		for (ByteBuffer sample : samples) {
+			ByteBuffer data = sample.duplicate();
+			while (data.hasRemaining() && !detector.isDone()) {
+				int length = Math.min(buf.length, data.remaining());
+				data.get(buf, 0, length);
+				detector.handleData(buf, 0, length);
+			}
+		}
+		detector.dataEnd();
+		String detectedCharset = detector.getDetectedCharset();
+		if (detectedCharset != null && isSupportedCharset(detectedCharset)) {
+			return detectedCharset;
+		} else {
+			// Nothing detected, assume OS default
+			return Charset.defaultCharset().name();
+		}
+	}
+
+	private static boolean isSupportedCharset(String charset) {
+		try {
+			return Charset.isSupported(charset);
+		} catch (IllegalCharsetNameException e) {
+			return false;
+		}
+	}
+
+	private static List<String> readLines(ByteBuffer sample, String charset, int limit) throws IOException {
+		List<String> lines = new ArrayList<>(limit);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(newInputStream(sample),
+				Charset.forName(charset)))) {
+			String line;
+			while (lines.size() < limit && (line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} catch (UnsupportedCharsetException e) {
+			throw new IOException(e);
+		}
+		return lines;
+	}
+
+	private static CSVSeperator detectSeparator(List<String> lines) {
+		Map<CSVSeperator, Integer> counter = new EnumMap<>(CSVSeperator.class);
+		for (String line : lines) {
+			updateCounter(counter, CSVSeperator.COMMA, ",", line);
+			updateCounter(counter, CSVSeperator.TAB, "\t", line);
+			updateCounter(counter, CSVSeperator.SEMICOLON, ";", line);
+		}
+		// now check which are still fine
+		for (CSVSeperator seperator : counter.keySet()) {
+			if (counter.get(seperator) > 1) {
+				return seperator;
+			}
+		}
+		// if none of them was properly detected go with inconsistent ones
+		for (CSVSeperator seperator : counter.keySet()) {
+			if (counter.get(seperator) == -1) {
+				return seperator;
+			}
+		}
+		// Fall back to default
+		return CSVSeperator.COMMA;
+	}
+
+	private static void updateCounter(Map<CSVSeperator, Integer> counter, CSVSeperator separator, String token,
+			String line) {
+		// Remove all text in between quotes as it should be ignored for separator detection
+		String lineWithoutQuotes = removeTextInQuotes(line);
+		int matchCount = StringUtils.countMatches(lineWithoutQuotes, token);
+		if (counter.get(separator) == null) {
+			counter.put(separator, matchCount);
+		} else if (counter.get(separator) != matchCount) {
+			// Inconsistent number of separator characters
+			counter.put(separator, -1);
+		}
+	}
+
+	private static String removeTextInQuotes(String line) {
+		StringBuilder sb = new StringBuilder(line.length());
+		boolean inQuotes = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (inQuotes) {
+					// replace the in between part of the string with some placeholder text
+					sb.append("placeholder");
+				}
+				inQuotes = !inQuotes;
+			} else if (!inQuotes) {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Counts the fields that are enclosed in double or single quotes.
+	 */
+	private static CSVQuoteCharacter detectQuote(List<String> lines, CSVSeperator separator) {
+		int doubleQuotedFields = 0;
+		int singleQuotedFields = 0;
+		String separatorToken = String.valueOf(separator.getSeperatorChar());
+		for (String line : lines) {
+			for (String field : StringUtils.splitPreserveAllTokens(line, separatorToken)) {
+				String trimmedField = field.trim();
+				if (trimmedField.length() < 2) {
+					continue;
+				}
+				char first = trimmedField.charAt(0);
+				char last = trimmedField.charAt(trimmedField.length() - 1);
+				if (first == '"' && last == '"') {
+					doubleQuotedFields++;
+				} else if (first == '\'' && last == '\'') {
+					singleQuotedFields++;
+				}
+			}
+		}
+		if (singleQuotedFields > doubleQuotedFields) {
+			return CSVQuoteCharacter.SINGLE_QUOTE;
+		}
+		return CSVQuoteCharacter.DOUBLE_QUOTE;
+	}
+
+	private static InputStream newInputStream(ByteBuffer sample) {
+		final ByteBuffer data = sample.duplicate();
+		return new InputStream() {
+
+			public int read() {
+				return data.hasRemaining() ? data.get() & 0xFF : -1;
+			}
+
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				}
+				if (!data.hasRemaining()) {
+					return -1;
+				}
+				int length = Math.min(len, data.remaining());
+				data.get(b, off, length);
+				return length;
+			}
+
+			public int available() {
+				return data.remaining();
+			}
+		};
+	}
+
+	/**
+	 * Applies the detected parameters to the configuration.
+	 *
+	 * @param config
+	 */
+	public void configure(CSVConfig config) {
+		config.setCharset(charset);
+		config.setSeparator(separator);
+		config.setQuoteChar(quoteChar);
+	}
+
+	public String getCharset() {
+		return charset;
+	}
+
+	public CSVSeperator getSeparator() {
+		return separator;
+	}
+
+	public CSVQuoteCharacter getQuoteChar() {
+		return quoteChar;
+	}
+
+	/**
+	 * @param config
+	 *            used to parse the sample, which might differ from the
+	 *            detected parameters
+	 * @return the first row of the file
+	 * @throws IOException
+	 */
+	public String[] readHeader(CSVConfig config) throws IOException {
+		try (ICSVReader reader = csvFile.getCSV().createReader(newInputStream(samples.get(0)), config)) {
+			String[] header = reader.readNext();
+			if (header == null) {
+				throw new IOException("The CSV file is empty");
+			}
+			return header;
+		}
+	}
+
+	/**
+	 * Parses the rows of all samples without the header and passes a uniform
+	 * random selection of at most <code>maxRows</code> rows (reservoir
+	 * sampling) to the visitor, so that also values that only appear late in
+	 * the file are seen. Rows of samples that were taken from the middle of
+	 * the file and do not have the same number of columns as the header are
+	 * skipped, as the sample might have started inside a quoted field.
+	 *
+	 * @param config
+	 *            used to parse the sample
+	 * @param visitor
+	 *            called for each selected row, not in the order of the file
+	 * @param maxRows
+	 *            maximum number of rows to select, which are kept in memory
+	 * @throws IOException
+	 */
+	public void readSampleRows(CSVConfig config, SampleRowVisitor visitor, int maxRows) throws IOException {
+		List<String[]> reservoir = new ArrayList<>(Math.min(maxRows, 1024));
+		Random random = new Random(RESERVOIR_SEED);
+		int numColumns = -1;
+		long numRows = 0;
+		for (int i = 0; i < samples.size(); i++) {
+			try (ICSVReader reader = csvFile.getCSV().createReader(newInputStream(samples.get(i)), config)) {
+				if (i == 0) {
+					String[] header = reader.readNext();
+					if (header == null) {
+						return;
+					}
+					numColumns = header.length;
+				}
+				String[] row;
+				while ((row = reader.readNext()) != null) {
+					if (i == 0 || row.length == numColumns) {
+						addToReservoir(reservoir, row, numRows++, maxRows, random);
+					}
+				}
+			} catch (RuntimeException e) {
+				if (i == 0) {
+					throw new IOException(e);
+				}
+				// Sample started at an unfortunate position, ignore the rest of it
+			}
+		}
+		for (String[] row : reservoir) {
+			visitor.visitRow(row);
+		}
+	}
+
+	private static void addToReservoir(List<String[]> reservoir, String[] row, long rowIndex, int maxRows,
+			Random random) {
+		if (rowIndex < maxRows) {
+			reservoir.add(row);
+		} else {
+			long replaced = (long) (random.nextDouble() * (rowIndex + 1));
+			if (replaced < maxRows) {
+				reservoir.set((int) replaced, row);
+			}
+		}
+	}
+
+	/**
+	 * Receives the rows of the sample.
+	 */
+	public interface SampleRowVisitor {
+
+		void visitRow(String[] row);
+
+	}
+
+}
@@ -26,6 +26,8 @@ import org.processmining.log.csv.config.CSVConfig;
 import org.processmining.log.csv.config.CSVQuoteCharacter;
 import org.processmining.log.csv.config.CSVSeperator;
 import org.processmining.log.csvimport.ui.preview.CSVPreviewPanel;
+import org.processmining.log.csvimport.ui.preview.CSVRowNavigator;
+import org.processmining.log.csvimport.ui.preview.CSVRowNavigator.RowListener;
 
 import com.fluxicon.slickerbox.factory.SlickerFactory;
 
@@ -50,6 +52,7 @@ final class CSVViewerPanel extends JPanel {
 	private final ProMComboBox<CSVQuoteCharacter> quoteField;
 
 	private final CSVPreviewPanel previewPanel;
+	private final CSVRowNavigator navigator;
 
 	private SwingWorker<Void, String[]> worker;
 
@@ -58,6 +61,16 @@ final class CSVViewerPanel extends JPanel {
 		this.importConfig = importConfig;
 		this.csv = csv;
 		this.previewPanel = new CSVPreviewPanel();
+		this.navigator = new CSVRowNavigator(csv, importConfig, MAX_PREVIEW, new RowListener() {
+
+			public void showRows(List<String[]> rows, String description) {
+				if (worker != null) {
+					worker.cancel(true);
+				}
+				previewPanel.clear();
+				previewPanel.addRows(rows);
+			}
+		});
 
 		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
 		setOpaque(false);
@@ -158,6 +171,7 @@ final class CSVViewerPanel extends JPanel {
 		layout.setHorizontalGroup(horizontalGroup);
 
 		add(topPanel);
+		add(navigator);
 		add(previewPanel);
 		refreshPreview();
 	}
@@ -169,6 +183,7 @@ final class CSVViewerPanel extends JPanel {
 		}
 
 		previewPanel.clear();
+		navigator.refresh();
 
 		// Update Header
 		try {
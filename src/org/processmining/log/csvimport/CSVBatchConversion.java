@@ -0,0 +1,415 @@
+package org.processmining.log.csvimport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.CSVFileReferenceUnivocityImpl;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csv.config.CSVSniffer;
+import org.processmining.log.csvimport.CSVConversion.ConversionResult;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.exception.CSVConversionConfigException;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+
+/**
+ * Converts many CSV files concurrently, each into its own result. The number
+ * of concurrent conversions is bounded by the available heap and the memory
+ * for sorting is split between them. Files with the same header line are
+ * sniffed and auto-detected only once, the configuration of the first such
+ * file is copied for the others.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVBatchConversion {
+
+	/**
+	 * Heap that is reserved for each concurrent conversion.
+	 */
+	public static final long HEAP_PER_CONVERSION = 256L * 1024 * 1024;
+
+	private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+	/**
+	 * Adjusts the auto-detected configuration, it is called once for each
+	 * distinct header.
+	 */
+	public interface ConfigCustomizer {
+
+		void customize(CSVConversionConfig conversionConfig) throws CSVConversionException;
+
+	}
+
+	/**
+	 * Converts a single file of the batch, it is called concurrently.
+	 */
+	public interface FileConverter {
+
+		ConversionResult<?> convert(CSVConversion conversion, CSVFile csvFile, CSVConfig importConfig,
+				CSVConversionConfig conversionConfig)
+				throws CSVConversionException, CSVConversionConfigException, IOException;
+
+	}
+
+	/**
+	 * Outcome of the conversion of one file.
+	 */
+	public static final class FileReport {
+
+		private final File file;
+		private boolean configReused;
+		private long elapsedMillis;
+		private long rows;
+		private boolean conversionErrors;
+		private Throwable failure;
+
+		private FileReport(File file) {
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return whether the configuration of another file with the same header
+		 *         was used
+		 */
+		public boolean isConfigReused() {
+			return configReused;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return number of rows that were converted
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		public boolean hasConversionErrors() {
+			return conversionErrors;
+		}
+
+		public boolean isFailed() {
+			return failure != null;
+		}
+
+		/**
+		 * @return the reason why the file could not be converted, or NULL
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+	}
+
+	/**
+	 * Outcome of the whole batch.
+	 */
+	public static final class BatchReport {
+
+		private final List<FileReport> files;
+		private final int numThreads;
+		private final int distinctHeaders;
+		private final long elapsedMillis;
+
+		private BatchReport(List<FileReport> files, int numThreads, int distinctHeaders, long elapsedMillis) {
+			this.files = files;
+			this.numThreads = numThreads;
+			this.distinctHeaders = distinctHeaders;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		/**
+		 * @return the report of each file in the order of the input files
+		 */
+		public List<FileReport> getFiles() {
+			return Collections.unmodifiableList(files);
+		}
+
+		public int getFailedCount() {
+			int failed = 0;
+			for (FileReport report : files) {
+				if (report.isFailed()) {
+					failed++;
+				}
+			}
+			return failed;
+		}
+
+		/**
+		 * @return number of configurations that were sniffed
+		 */
+		public int getDistinctHeaders() {
+			return distinctHeaders;
+		}
+
+		public int getNumThreads() {
+			return numThreads;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return a table with one line for each file followed by the totals
+		 */
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("%-40s %-8s %10s %12s %-6s%n", "File", "Status", "Time (s)", "Rows", "Config"));
+			long totalRows = 0;
+			for (FileReport report : files) {
+				String status = report.isFailed() ? "FAILED" : report.hasConversionErrors() ? "ERRORS" : "OK";
+				sb.append(String.format("%-40s %-8s %10.2f %,12d %-6s%n", report.getFile().getName(), status,
+						report.getElapsedMillis() / 1000.0d, report.getRows(),
+						report.isConfigReused() ? "reused" : "sniffed"));
+				if (report.isFailed()) {
+					sb.append("  ").append(report.getFailure()).append(String.format("%n"));
+				}
+				totalRows += report.getRows();
+			}
+			sb.append(String.format("%nConverted %s of %s files (%,d rows) in %.2f seconds using %s threads.",
+					files.size() - getFailedCount(), files.size(), totalRows, elapsedMillis / 1000.0d, numThreads));
+			sb.append(String.format("%nSniffed %s distinct headers.", distinctHeaders));
+			return sb.toString();
+		}
+
+	}
+
+	private static final class SniffedConfig {
+
+		private final CSVConfig importConfig;
+		private final CSVConversionConfig conversionConfig;
+
+		private SniffedConfig(CSVConfig importConfig, CSVConversionConfig conversionConfig) {
+			this.importConfig = importConfig;
+			this.conversionConfig = conversionConfig;
+		}
+
+	}
+
+	private final ConfigCustomizer customizer;
+	private final FileConverter converter;
+	private final ConcurrentMap<String, FutureTask<SniffedConfig>> configs = new ConcurrentHashMap<>();
+
+	private int numThreads;
+
+	/**
+	 * @param customizer
+	 *            adjusts the sniffed configurations
+	 * @param converter
+	 *            converts each file
+	 */
+	public CSVBatchConversion(ConfigCustomizer customizer, FileConverter converter) {
+		this.customizer = customizer;
+		this.converter = converter;
+		this.numThreads = getDefaultNumThreads();
+	}
+
+	/**
+	 * @return the number of conversions that fit into the heap, but not more
+	 *         than the number of processors
+	 */
+	public static int getDefaultNumThreads() {
+		long maxConversions = Runtime.getRuntime().maxMemory() / HEAP_PER_CONVERSION;
+		return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), maxConversions));
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Lists the CSV files of a directory (files ending with .csv, .csv.gz or
+	 * .csv.zip) or of a manifest, which is a text file with the path of one CSV
+	 * file per line. Empty lines and lines starting with # are ignored in
+	 * manifests, relative paths are resolved against the directory of the
+	 * manifest.
+	 *
+	 * @param directoryOrManifest
+	 * @return the CSV files
+	 * @throws IOException
+	 */
+	public static List<File> listFiles(File directoryOrManifest) throws IOException {
+		List<File> files = new ArrayList<>();
+		if (directoryOrManifest.isDirectory()) {
+			File[] children = directoryOrManifest.listFiles();
+			if (children == null) {
+				throw new IOException("Could not list " + directoryOrManifest);
+			}
+			Arrays.sort(children);
+			for (File child : children) {
+				String name = child.getName().toLowerCase(Locale.US);
+				if (child.isFile() && (name.endsWith(".csv") || name.endsWith(".csv.gz")
+						|| name.endsWith(".csv.zip"))) {
+					files.add(child);
+				}
+			}
+		} else {
+			File baseDirectory = directoryOrManifest.getAbsoluteFile().getParentFile();
+			try (BufferedReader reader = Files.newBufferedReader(directoryOrManifest.toPath(),
+					StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						File file = new File(line);
+						files.add(file.isAbsolute() ? file : new File(baseDirectory, line));
+					}
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Converts all files and waits until all conversions are finished. A file
+	 * that cannot be converted does not stop the conversion of the other files.
+	 *
+	 * @param inputFiles
+	 * @return a report for each file
+	 * @throws InterruptedException
+	 */
+	public BatchReport convert(List<File> inputFiles) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		List<FileReport> reports = new ArrayList<>();
+		for (File inputFile : inputFiles) {
+			reports.add(new FileReport(inputFile));
+		}
+
+		// Start with the largest files, otherwise one of them might be converted alone at the end
+		List<FileReport> byDecreasingSize = new ArrayList<>(reports);
+		Collections.sort(byDecreasingSize, new Comparator<FileReport>() {
+
+			public int compare(FileReport o1, FileReport o2) {
+				return Long.compare(o2.getFile().length(), o1.getFile().length());
+			}
+		});
+
+		int poolSize = Math.max(1, Math.min(numThreads, reports.size()));
+		final double maxSortingMemory = new CSVConversion().getMaxSortingMemory() / poolSize;
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			for (final FileReport report : byDecreasingSize) {
+				executor.execute(new Runnable() {
+
+					public void run() {
+						long fileStartTime = System.currentTimeMillis();
+						try {
+							convertFile(report, maxSortingMemory);
+						} catch (Exception | OutOfMemoryError e) {
+							report.failure = e;
+						} finally {
+							report.elapsedMillis = System.currentTimeMillis() - fileStartTime;
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return new BatchReport(reports, poolSize, configs.size(), System.currentTimeMillis() - startTime);
+	}
+
+	private void convertFile(FileReport report, double maxSortingMemory)
+			throws CSVConversionException, CSVConversionConfigException, IOException, InterruptedException {
+		CSVFile csvFile = new CSVFileReferenceUnivocityImpl(report.getFile().toPath());
+		SniffedConfig sniffedConfig = getConfig(csvFile, report);
+		CSVConfig importConfig = new CSVConfig(sniffedConfig.importConfig);
+		CSVConversionConfig conversionConfig = sniffedConfig.conversionConfig.copyFor(csvFile, importConfig);
+
+		CSVConversion conversion = new CSVConversion();
+		conversion.setMaxSortingMemory(maxSortingMemory);
+		ConversionResult<?> result = converter.convert(conversion, csvFile, importConfig, conversionConfig);
+		report.rows = result.getMetrics().getConvertedRows();
+		report.conversionErrors = result.hasConversionErrors();
+	}
+
+	private SniffedConfig getConfig(final CSVFile csvFile, FileReport report)
+			throws CSVConversionException, IOException, InterruptedException {
+		String fingerprint = readHeaderLine(csvFile);
+		FutureTask<SniffedConfig> sniffTask = new FutureTask<>(new Callable<SniffedConfig>() {
+
+			public SniffedConfig call() throws CSVConversionException {
+				CSVSniffer sniffer = new CSVSniffer(csvFile);
+				CSVConfig importConfig = new CSVConfig(sniffer);
+				CSVConversionConfig conversionConfig = new CSVConversionConfig(csvFile, importConfig, sniffer);
+				conversionConfig.autoDetect();
+				customizer.customize(conversionConfig);
+				return new SniffedConfig(importConfig, conversionConfig);
+			}
+		});
+		while (true) {
+			FutureTask<SniffedConfig> existingTask = configs.putIfAbsent(fingerprint, sniffTask);
+			if (existingTask == null) {
+				sniffTask.run();
+			}
+			FutureTask<SniffedConfig> usedTask = existingTask != null ? existingTask : sniffTask;
+			try {
+				// Waits in case another file with the same header is still being sniffed
+				SniffedConfig config = usedTask.get();
+				report.configReused = existingTask != null;
+				return config;
+			} catch (ExecutionException e) {
+				// Do not cache the failure, other files with the same header are sniffed again
+				configs.remove(fingerprint, usedTask);
+				if (existingTask == null) {
+					if (e.getCause() instanceof CSVConversionException) {
+						throw (CSVConversionException) e.getCause();
+					}
+					throw new CSVConversionException(
+							"Could not detect the configuration of " + csvFile.getFilename(), e.getCause());
+				}
+				// Sniffing another file failed, try this file
+			}
+		}
+	}
+
+	/**
+	 * @return the raw bytes of the first line, which identify the separator,
+	 *         quotes, and columns
+	 */
+	private static String readHeaderLine(CSVFile csvFile) throws IOException {
+		try (InputStream is = new BufferedInputStream(csvFile.getInputStream())) {
+			StringBuilder sb = new StringBuilder();
+			int b;
+			while (sb.length() < MAX_HEADER_BYTES && (b = is.read()) != -1 && b != '\n') {
+				sb.append((char) b);
+			}
+			return sb.toString();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.processmining.log.csvimport;
+
+/**
+ * Identifies the case of a row without building its case identifier, which is
+ * the concatenation of the case columns separated by the composite separator
+ * as formatted by {@link CSVLiteralTemplate#forColumns(int[], String)}.
+ * {@link #hash(String[])} is the same as the {@link String#hashCode()} of the
+ * identifier and {@link #matches(String[], String)} compares the cells of the
+ * row in place with an identifier. Thus, the identifier only needs to be
+ * created by {@link #format(String[])} once for each case, rather than for
+ * each row.
+ * <p>
+ * {@link #hash(String[])} and {@link #matches(String[], String)} may be called
+ * concurrently, {@link #format(String[])} is not thread-safe.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVCaseKey {
+
+	private final int[] columnIndex;
+	private final String separator;
+	private final CSVLiteralTemplate template;
+
+	CSVCaseKey(int[] columnIndex, String separator) {
+		this.columnIndex = columnIndex;
+		this.separator = separator;
+		this.template = CSVLiteralTemplate.forColumns(columnIndex, separator);
+	}
+
+	/**
+	 * @param row
+	 * @return the hash code of the case identifier of the row
+	 */
+	int hash(String[] row) {
+		int h = 0;
+		for (int i = 0; i < columnIndex.length; i++) {
+			if (i > 0) {
+				h = hash(h, separator);
+			}
+			h = hash(h, getCell(row, columnIndex[i]));
+		}
+		return h;
+	}
+
+	private static int hash(int h, String s) {
+		// Continues String.hashCode() over the concatenated cells
+		for (int i = 0; i < s.length(); i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h;
+	}
+
+	/**
+	 * @param row
+	 * @param caseId
+	 * @return whether the case identifier of the row is equal to caseId
+	 */
+	boolean matches(String[] row, String caseId) {
+		int offset = 0;
+		for (int i = 0; i < columnIndex.length; i++) {
+			if (i > 0) {
+				if (!caseId.startsWith(separator, offset)) {
+					return false;
+				}
+				offset += separator.length();
+			}
+			String cell = getCell(row, columnIndex[i]);
+			if (!caseId.startsWith(cell, offset)) {
+				return false;
+			}
+			offset += cell.length();
+		}
+		return offset == caseId.length();
+	}
+
+	/**
+	 * @param row
+	 * @return the case identifier of the row
+	 */
+	String format(String[] row) {
+		return template.format(null, row);
+	}
+
+	private static String getCell(String[] row, int index) {
+		if (index < row.length) {
+			String cell = row[index];
+			return cell != null ? cell : "";
+		}
+		// Same as the template for missing cells
+		return "{" + (index + 1) + "}";
+	}
+
+}
@@ -1,43 +1,40 @@
 package org.processmining.log.csvimport;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.file.Files;
 import java.text.DateFormat;
-import java.text.MessageFormat;
-import java.text.ParseException;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 import org.deckfour.xes.factory.XFactory;
 import org.deckfour.xes.model.XLog;
 import org.processmining.framework.plugin.Progress;
 import org.processmining.log.csv.CSVFile;
 import org.processmining.log.csv.CSVFileReferenceOpenCSVImpl;
+import org.processmining.log.csv.CSVMappedFileReader;
+import org.processmining.log.csv.CSVParallelChunkReader;
+import org.processmining.log.csv.CSVUnivocityImpl;
+import org.processmining.log.csv.ICSV;
 import org.processmining.log.csv.ICSVReader;
 import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVConversionMetrics.Phase;
 import org.processmining.log.csvimport.config.CSVConversionConfig;
-import org.processmining.log.csvimport.config.CSVConversionConfig.CSVEmptyCellHandlingMode;
-import org.processmining.log.csvimport.config.CSVConversionConfig.CSVErrorHandlingMode;
 import org.processmining.log.csvimport.config.CSVConversionConfig.CSVMapping;
+import org.processmining.log.csvimport.config.CSVConversionConfig.GroupingStrategy;
 import org.processmining.log.csvimport.exception.CSVConversionConfigException;
 import org.processmining.log.csvimport.exception.CSVConversionException;
 import org.processmining.log.csvimport.exception.CSVSortException;
 import org.processmining.log.csvimport.handler.CSVConversionHandler;
 import org.processmining.log.csvimport.handler.XESConversionHandlerImpl;
 
-import com.google.common.collect.ObjectArrays;
 import com.google.common.collect.Ordering;
-import com.google.common.primitives.Ints;
-import com.ning.compress.lzf.LZFInputStream;
 
 /**
  * Conversion from CSV to a structure like XES. Use
@@ -81,12 +78,37 @@ public final class CSVConversion {
 
 	private static final int PROGRESS_REPORT_WINDOW = 10000;
 
+	/**
+	 * Thrown when the input was assumed to be grouped by case, but a case
+	 * appears again after its rows have ended.
+	 */
+	private static final class CaseNotGroupedException extends CSVConversionException {
+
+		private static final long serialVersionUID = 2473860193567409417L;
+
+		public CaseNotGroupedException(String message) {
+			super(message);
+		}
+
+	}
+
 	public interface ConversionResult<R> {
 		R getResult();
 
 		boolean hasConversionErrors();
 
 		String getConversionErrors();
+
+		/**
+		 * @return the memory budget in bytes that was chosen for sorting the
+		 *         CSV file, or -1 if unknown
+		 */
+		long getSortingMemoryBudget();
+
+		/**
+		 * @return the measurements of each phase of the conversion
+		 */
+		CSVConversionMetrics getMetrics();
 	}
 
 	public interface ProgressListener {
@@ -190,6 +212,26 @@ public final class CSVConversion {
 				new XESConversionHandlerImpl(importConfig, conversionConfig));
 	}
 
+	/**
+	 * Convert several {@link CSVFile}s with the same columns into a single
+	 * {@link XLog} using the supplied configuration. The events of cases that
+	 * span several files are merged into one trace.
+	 * 
+	 * @param progressListener
+	 * @param csvFiles
+	 * @param importConfig
+	 * @param conversionConfig
+	 * @return
+	 * @throws CSVConversionException
+	 * @throws CSVConversionConfigException
+	 */
+	public ConversionResult<XLog> doConvertCSVToXES(final ProgressListener progressListener,
+			List<CSVFile> csvFiles, CSVConfig importConfig, CSVConversionConfig conversionConfig)
+			throws CSVConversionException, CSVConversionConfigException {
+		return convertCSV(progressListener, importConfig, conversionConfig, csvFiles,
+				new XESConversionHandlerImpl(importConfig, conversionConfig));
+	}
+
 	/**
 	 * Converts a {@link CSVFileReferenceOpenCSVImpl} into something determined
 	 * by the supplied {@link CSVConversionHandler}. Use
@@ -208,6 +250,34 @@ public final class CSVConversion {
 	public <R> ConversionResult<R> convertCSV(ProgressListener progress, CSVConfig importConfig,
 			CSVConversionConfig conversionConfig, CSVFile csvFile, final CSVConversionHandler<R> conversionHandler)
 			throws CSVConversionException, CSVConversionConfigException {
+		return convertCSV(progress, importConfig, conversionConfig, Collections.singletonList(csvFile),
+				conversionHandler);
+	}
+
+	/**
+	 * Converts several {@link CSVFile}s, e.g., exported per day or per region,
+	 * as if their rows were in a single file. All files need to have the same
+	 * columns as the first file, which is verified by a fingerprint of their
+	 * headers, but the order of the columns may differ. The rows of all files
+	 * are sorted (or grouped) together, so that the events of cases that span
+	 * several files are passed to the {@link CSVConversionHandler} as one
+	 * trace.
+	 * 
+	 * @param progress
+	 * @param importConfig
+	 *            used for all files
+	 * @param conversionConfig
+	 *            created for the first file
+	 * @param csvFiles
+	 * @param conversionHandler
+	 * @return
+	 * @throws CSVConversionException
+	 * @throws CSVConversionConfigException
+	 */
+	public <R> ConversionResult<R> convertCSV(ProgressListener progress, CSVConfig importConfig,
+			CSVConversionConfig conversionConfig, List<CSVFile> csvFiles,
+			final CSVConversionHandler<R> conversionHandler)
+			throws CSVConversionException, CSVConversionConfigException {
 
 		Progress p = progress.getProgress();
 
@@ -217,6 +287,12 @@ public final class CSVConversion {
 		p.setIndeterminate(true);
 
 		long startCSVTime = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
+
+		final CSVMemoryGovernor memoryGovernor = new CSVMemoryGovernor(maxSortingMemory);
+		final CSVConversionMetrics metrics = new CSVConversionMetrics();
+
+		CSVFile csvFile = csvFiles.get(0);
 
 		conversionHandler.startLog(csvFile);
 
@@ -225,12 +301,15 @@ public final class CSVConversion {
 		int completionTimeColumnIndex = -1;
 		int startTimeColumnIndex = -1;
 		String[] header = null;
+		CSVShards shards = null;
 
 		final Map<String, Integer> headerMap = new HashMap<>();
 		final Map<Integer, CSVMapping> columnMap = new HashMap<>();
 
 		try {
-			header = csvFile.readHeader(importConfig);
+			// Verifies that all files have the same columns
+			shards = CSVShards.open(csvFiles, importConfig);
+			header = shards.getHeader();
 			for (int i = 0; i < header.length; i++) {
 				String columnHeader = header[i];
 				Integer oldIndex = headerMap.put(columnHeader, i);
@@ -260,20 +339,124 @@ public final class CSVConversion {
 			throw new CSVConversionException("Could not read first row of CSV file with header information", e);
 		}
 
-		InputStream sortedCsvInputStream = null;
+		if (csvFiles.size() > 1) {
+			progress.log(String.format("Converting %d CSV files with the same columns (header fingerprint %016x) ...",
+					csvFiles.size(), shards.getFingerprint()));
+		}
+
+		GroupingStrategy groupingStrategy = conversionConfig.getGroupingStrategy();
+		if (groupingStrategy == GroupingStrategy.AUTO_DETECT) {
+			progress.log("Checking whether the CSV file is already grouped by case ...");
+			if (isGroupedByCase(shards, importConfig, header.length, caseColumnIndex,
+					conversionConfig.getCompositeAttributeSeparator(), p, metrics)) {
+				progress.log("CSV file is already grouped by case, skipping the sorting phase.");
+				groupingStrategy = GroupingStrategy.PRE_GROUPED;
+			} else {
+				progress.log("CSV file is not grouped by case.");
+				groupingStrategy = GroupingStrategy.SORT;
+			}
+		}
+		metrics.addElapsedNanos(Phase.SNIFFING, System.nanoTime() - startNanos);
+		metrics.sampleHeap(Phase.SNIFFING);
+
+		if (groupingStrategy == GroupingStrategy.PRE_GROUPED) {
+			try {
+				progress.log("Reading cases directly from the CSV file ...");
+				try (ICSVReader reader = new CSVSorter.UncompressedCSVReaderWithoutHeader(shards, importConfig,
+						header.length, numParserThreads)) {
+					metrics.addBytesRead(Phase.PARSING, shards.getSizeInBytes());
+					readCases(progress, conversionConfig, conversionHandler, reader, header, columnMap,
+							caseColumnIndex, eventNameColumnIndex, completionTimeColumnIndex, startTimeColumnIndex,
+							new HashSet<String>(), memoryGovernor, metrics);
+				} catch (IOException e) {
+					throw new CSVConversionException("Error converting the CSV file to XES", e);
+				}
+			} catch (CaseNotGroupedException e) {
+				progress.log(e.getMessage() + " Falling back to sorting the CSV file ...");
+				// Restart the conversion from scratch
+				conversionHandler.startLog(csvFile);
+				convertSortedCSV(progress, importConfig, conversionConfig, shards, conversionHandler,
+						GroupingStrategy.SORT, header, columnMap, caseColumnIndex, eventNameColumnIndex,
+						completionTimeColumnIndex, startTimeColumnIndex, memoryGovernor, metrics);
+			}
+		} else {
+			convertSortedCSV(progress, importConfig, conversionConfig, shards, conversionHandler, groupingStrategy,
+					header, columnMap, caseColumnIndex, eventNameColumnIndex, completionTimeColumnIndex,
+					startTimeColumnIndex, memoryGovernor, metrics);
+		}
+
+		long startPostProcessingNanos = System.nanoTime();
+		commitFactoryIfNeeded(conversionConfig.getFactory());
+		metrics.addElapsedNanos(Phase.POST_PROCESSING, System.nanoTime() - startPostProcessingNanos);
+		metrics.sampleHeap(Phase.POST_PROCESSING);
+		long endConvertTime = System.currentTimeMillis();
+		progress.log(String.format("Finished reading cases in %d seconds.", (endConvertTime - startCSVTime) / 1000));
+
+		return new ConversionResult<R>() {
+
+			public R getResult() {
+				return conversionHandler.getResult();
+			}
+
+			public boolean hasConversionErrors() {
+				return conversionHandler.hasConversionErrors();
+			}
+
+			public String getConversionErrors() {
+				return conversionHandler.getConversionErrors();
+			}
+
+			public long getSortingMemoryBudget() {
+				return memoryGovernor.getBudgetInBytes();
+			}
+
+			public CSVConversionMetrics getMetrics() {
+				return metrics;
+			}
+		};
+	}
+
+	private <R> void convertSortedCSV(ProgressListener progress, CSVConfig importConfig,
+			CSVConversionConfig conversionConfig, CSVShards shards, CSVConversionHandler<R> conversionHandler,
+			GroupingStrategy groupingStrategy, String[] header, Map<Integer, CSVMapping> columnMap,
+			int[] caseColumnIndex, int[] eventNameColumnIndex, int completionTimeColumnIndex,
+			int startTimeColumnIndex, CSVMemoryGovernor memoryGovernor, CSVConversionMetrics metrics)
+			throws CSVConversionException {
+
 		File sortedFile = null;
 
 		try {
 			try {
 				long startSortTime = System.currentTimeMillis();
-				int maxMemory = (int) ((Runtime.getRuntime().maxMemory() * maxSortingMemory) / 1024 / 1024);
-				progress.log(
-						String.format("Sorting CSV file (%.2f MB) by case and time using maximal %s MB of memory ...",
-								(getFileSizeInBytes(csvFile) / 1024 / 1024), maxMemory));
-				Ordering<String[]> caseComparator = new StringBasedImportOrdering(caseColumnIndex);
-				sortedFile = CSVSorter.sortCSV(csvFile, caseComparator, importConfig, maxMemory, header.length,
-						progress);
-				sortedCsvInputStream = new LZFInputStream(new FileInputStream(sortedFile));
+				// Also depends on the heap that is still available, the log is built in the same heap
+				int maxMemory = memoryGovernor.getBudgetInMB();
+				if (groupingStrategy == GroupingStrategy.HASH_PARTITION) {
+					progress.log(String.format(
+							"Grouping CSV file (%.2f MB) by case using maximal %s MB of memory ...",
+							(getFileSizeInBytes(shards) / 1024 / 1024), maxMemory));
+					sortedFile = CSVHashGrouper.groupCSV(shards, caseColumnIndex,
+							conversionConfig.getCompositeAttributeSeparator(), importConfig, maxMemory, header.length,
+							numParserThreads, memoryGovernor, progress, metrics);
+				} else {
+					progress.log(String.format(
+							"Sorting CSV file (%.2f MB) by case and time using maximal %s MB of memory ...",
+							(getFileSizeInBytes(shards) / 1024 / 1024), maxMemory));
+					// Rows of the same case are also sorted by time, so that events reach the handler in order
+					Ordering<String[]> caseComparator = new StringBasedImportOrdering(caseColumnIndex,
+							header.length);
+					TimeSortKeyFunction sortKeyFunction = new TimeSortKeyFunction(completionTimeColumnIndex,
+							getDateFormat(columnMap, completionTimeColumnIndex), startTimeColumnIndex,
+							getDateFormat(columnMap, startTimeColumnIndex));
+					if (numSortThreads > 1) {
+						sortedFile = ParallelCSVSorter.sortCSV(shards, caseComparator, importConfig, maxMemory,
+								header.length, numParserThreads, sortKeyFunction, numSortThreads, maxFilesToMerge,
+								memoryGovernor, progress, metrics);
+					} else {
+						sortedFile = CSVSorter.sortCSV(shards, caseComparator, importConfig, maxMemory,
+								header.length, numParserThreads, sortKeyFunction, maxFilesToMerge, memoryGovernor,
+								progress, metrics);
+					}
+				}
 				long endSortTime = System.currentTimeMillis();
 				progress.log(
 						String.format("Finished sorting in %.2f seconds", (endSortTime - startSortTime) / 1000.0d));
@@ -283,118 +466,190 @@ public final class CSVConversion {
 				throw new CSVSortException("Could not sort CSV file", e);
 			}
 
-			// The following code assumes that the file is sorted by cases and written to disk compressed with LZF
+			// The following code assumes that the file is sorted (or grouped) by cases
 			progress.log("Reading cases ...");
-			try (ICSVReader reader = csvFile.getCSV().createReader(sortedCsvInputStream, importConfig)) {
+			try (ICSVReader reader = CSVSorter.openSortedFile(sortedFile)) {
+				metrics.addBytesRead(Phase.PARSING, sortedFile.length());
+				long numRows = readCases(progress, conversionConfig, conversionHandler, reader, header, columnMap,
+						caseColumnIndex, eventNameColumnIndex, completionTimeColumnIndex, startTimeColumnIndex, null,
+						memoryGovernor, metrics);
+				// All rows went through both phases of sorting
+				metrics.addRows(Phase.SORTING, numRows);
+				metrics.addRows(Phase.SPILL_MERGING, numRows);
+			} catch (IOException e) {
+				throw new CSVConversionException("Error converting the CSV file to XES", e);
+			}
+		} finally {
+			if (sortedFile != null) {
+				sortedFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of the reader, which need to be grouped by case, and
+	 * passes them to the {@link CSVConversionHandler}.
+	 * 
+	 * @param closedCaseIds
+	 *            if not NULL, the identifiers of all finished cases are
+	 *            recorded and a {@link CaseNotGroupedException} is thrown in
+	 *            case a finished case appears again
+	 * @param memoryGovernor
+	 *            used to warn about a tight heap
+	 * @param metrics
+	 *            receives the measurements of the parsing, conversion and
+	 *            handler assembly phase
+	 * @return the number of rows that were read
+	 * @throws IOException
+	 * @throws CSVConversionException
+	 */
+	private <R> long readCases(ProgressListener progress, CSVConversionConfig conversionConfig,
+			CSVConversionHandler<R> conversionHandler, ICSVReader reader, String[] header,
+			Map<Integer, CSVMapping> columnMap, int[] caseColumnIndex, int[] eventNameColumnIndex,
+			int completionTimeColumnIndex, int startTimeColumnIndex, Set<String> closedCaseIds,
+			CSVMemoryGovernor memoryGovernor, CSVConversionMetrics metrics)
+			throws IOException, CSVConversionException {
+
+		CSVConversionPlan conversionPlan = new CSVConversionPlan(conversionConfig, header, columnMap,
+				caseColumnIndex, eventNameColumnIndex, completionTimeColumnIndex, startTimeColumnIndex,
+				maxDistinctValues);
+		CSVConversionPlan[] workerPlans = new CSVConversionPlan[numConversionThreads > 1 ? numConversionThreads : 0];
+		for (int i = 0; i < workerPlans.length; i++) {
+			// Plans are not thread-safe, values are shared by the dictionary of the main plan
+			workerPlans[i] = new CSVConversionPlan(conversionConfig, header, columnMap, caseColumnIndex,
+					eventNameColumnIndex, completionTimeColumnIndex, startTimeColumnIndex, 0);
+		}
 
-				int caseIndex = 0;
-				int eventIndex = 0;
-				int lineIndex = -1;
-				String[] nextLine;
-				String currentCaseId = null;
+		long numRows;
+		try (CSVConversionPipeline pipeline = new CSVConversionPipeline(reader, conversionPlan, workerPlans,
+				caseColumnIndex, conversionConfig.getCompositeAttributeSeparator(), metrics)) {
+			numRows = readCases(progress, conversionHandler, pipeline, closedCaseIds, memoryGovernor, metrics);
+		}
 
-				while ((nextLine = reader.readNext()) != null && (caseIndex % 100 != 0 || !p.isCancelled())) {
-					lineIndex++;
+		if (maxDistinctValues > 0) {
+			progress.log(conversionPlan.getCardinalityReport());
+		}
+		return numRows;
+	}
 
-					final String newCaseID = readCompositeAttribute(caseColumnIndex, nextLine,
-							conversionConfig.getCompositeAttributeSeparator());
+	private <R> long readCases(ProgressListener progress, CSVConversionHandler<R> conversionHandler,
+			CSVConversionPipeline pipeline, Set<String> closedCaseIds, CSVMemoryGovernor memoryGovernor,
+			CSVConversionMetrics metrics) throws IOException, CSVConversionException {
 
-					// Handle new traces
-					if (!newCaseID.equals(currentCaseId)) {
+		Progress p = progress.getProgress();
+		long startNanos = System.nanoTime();
 
-						if (currentCaseId != null) {
-							// Finished with current case
-							conversionHandler.endTrace(currentCaseId);
-						}
+		int caseIndex = 0;
+		int eventIndex = 0;
+		String currentCaseId = null;
+		int currentCaseHash = 0;
+		boolean warnedAboutMemory = false;
 
-						// Update current case id to next case id
-						currentCaseId = newCaseID;
+		while (pipeline.next() && (caseIndex % 100 != 0 || !p.isCancelled())) {
+			final int lineIndex = pipeline.getLineIndex();
 
-						// Create new case
-						conversionHandler.startTrace(currentCaseId);
-						caseIndex++;
+			// Handle new traces, the case identifier is only created for the first row of a case
+			if (currentCaseId == null || !pipeline.isCase(currentCaseId, currentCaseHash)) {
+				final String newCaseID = pipeline.getCaseId();
 
-						if (caseIndex % PROGRESS_REPORT_WINDOW == 0) {
-							progress.log("Reading line " + lineIndex + ", already " + caseIndex + " cases and "
-									+ eventIndex + " events processed ...");
-						}
+				if (currentCaseId != null) {
+					// Finished with current case
+					conversionHandler.endTrace(currentCaseId);
+				}
 
+				if (closedCaseIds != null) {
+					if (currentCaseId != null) {
+						closedCaseIds.add(currentCaseId);
 					}
+					if (closedCaseIds.contains(newCaseID)) {
+						throw new CaseNotGroupedException(String.format(
+								"Case %s appears again in line %s after its rows have ended.", newCaseID,
+								lineIndex));
+					}
+				}
 
-					// Create new event
-
-					// Read event name
-					final String eventClass = readCompositeAttribute(eventNameColumnIndex, nextLine,
-							conversionConfig.getCompositeAttributeSeparator());
+				// Update current case id to next case id
+				currentCaseId = newCaseID;
+				currentCaseHash = pipeline.getCaseHash();
+
+				// Create new case
+				conversionHandler.startTrace(currentCaseId);
+				caseIndex++;
+
+				if (caseIndex % PROGRESS_REPORT_WINDOW == 0) {
+					metrics.sampleHeap(Phase.HANDLER_ASSEMBLY);
+					progress.log("Reading line " + lineIndex + ", already " + caseIndex + " cases and " + eventIndex
+							+ " events processed ...");
+					if (!warnedAboutMemory && memoryGovernor.isMemoryTight()) {
+						progress.log(String.format(
+								"Warning: %.0f%% of the available memory is used. Consider writing the log directly to a file.",
+								memoryGovernor.getHeapUsage() * 100));
+						warnedAboutMemory = true;
+					}
+				}
 
-					// Read time stamps
-					Date completionTime = parseTime(conversionHandler, completionTimeColumnIndex, columnMap, lineIndex,
-							nextLine);
-					Date startTime = parseTime(conversionHandler, startTimeColumnIndex, columnMap, lineIndex, nextLine);
+			}
 
-					conversionHandler.startEvent(eventClass, completionTime, startTime);
+			// Create new event
+			pipeline.getEvent().emit(conversionHandler);
+			eventIndex++;
+		}
 
-					for (int i = 0; i < nextLine.length; i++) {
-						if (Ints.contains(eventNameColumnIndex, i) || Ints.contains(caseColumnIndex, i)
-								|| i == completionTimeColumnIndex || i == startTimeColumnIndex) {
-							// Is already mapped to a special column, do not include again
-							continue;
-						}
+		// Close last trace
+		if (currentCaseId != null) { // at least one trace is present
+			conversionHandler.endTrace(currentCaseId);
+		}
 
-						final String name = header[i];
-						final String value = nextLine[i];
+		// Everything else is done by the calling thread on behalf of the handler
+		metrics.addElapsedNanos(Phase.HANDLER_ASSEMBLY, System.nanoTime() - startNanos - pipeline.getWaitingNanos());
+		metrics.addRows(Phase.HANDLER_ASSEMBLY, eventIndex);
+		metrics.setConvertedRows(eventIndex);
+		metrics.sampleHeap(Phase.HANDLER_ASSEMBLY);
+		return eventIndex;
+	}
 
-						if (!(conversionConfig.getEmptyCellHandlingMode() == CSVEmptyCellHandlingMode.SPARSE
-								&& (value == null || conversionConfig.getTreatAsEmptyValues().contains(value)
-										|| value.isEmpty()))) {
-							parseAttributes(progress, conversionConfig, conversionHandler, columnMap.get(i), lineIndex,
-									i, name, nextLine);
-						}
+	/**
+	 * Checks in a single pass whether all rows of each case are contiguous in
+	 * the CSV file.
+	 * 
+	 * @return whether the CSV file is grouped by case
+	 * @throws CSVConversionException
+	 */
+	private boolean isGroupedByCase(CSVShards shards, CSVConfig importConfig, int numColumns, int[] caseColumnIndex,
+			String compositeSeparator, Progress p, CSVConversionMetrics metrics) throws CSVConversionException {
+		try (ICSVReader reader = new CSVSorter.UncompressedCSVReaderWithoutHeader(shards, importConfig,
+				numColumns, numParserThreads)) {
+			CSVCaseKey caseKey = new CSVCaseKey(caseColumnIndex, compositeSeparator);
+			Set<String> closedCaseIds = new HashSet<>();
+			String currentCaseId = null;
+			int currentCaseHash = 0;
+			String[] nextLine;
+			int lineIndex = 0;
+			while ((nextLine = reader.readNext()) != null) {
+				int caseHash = caseKey.hash(nextLine);
+				if (currentCaseId == null || caseHash != currentCaseHash
+						|| !caseKey.matches(nextLine, currentCaseId)) {
+					String caseId = caseKey.format(nextLine);
+					if (currentCaseId != null) {
+						closedCaseIds.add(currentCaseId);
 					}
-
-					// Already sorted by time
-					conversionHandler.endEvent();
-					eventIndex++;
+					if (closedCaseIds.contains(caseId)) {
+						metrics.addRows(Phase.SNIFFING, lineIndex);
+						return false;
+					}
+					currentCaseId = caseId;
+					currentCaseHash = caseHash;
 				}
-
-				// Close last trace
-				if (currentCaseId != null) { // at least one trace is present
-					conversionHandler.endTrace(currentCaseId);	
-				}				
-
-			} catch (IOException e) {
-				throw new CSVConversionException("Error converting the CSV file to XES", e);
-			}
-		} finally {
-			if (sortedCsvInputStream != null) {
-				try {
-					sortedCsvInputStream.close();
-				} catch (Exception e) {
-					throw new CSVConversionException("Error closing the CSV file", e);
+				if (++lineIndex % PROGRESS_REPORT_WINDOW == 0 && p.isCancelled()) {
+					throw new CSVConversionException("User cancelled the conversion");
 				}
 			}
-			if (sortedFile != null) {
-				sortedFile.delete();
-			}
+			metrics.addRows(Phase.SNIFFING, lineIndex);
+			metrics.addBytesRead(Phase.SNIFFING, shards.getSizeInBytes());
+			return true;
+		} catch (IOException e) {
+			throw new CSVConversionException("Could not check whether the CSV file is grouped by case", e);
 		}
-		commitFactoryIfNeeded(conversionConfig.getFactory());
-		long endConvertTime = System.currentTimeMillis();
-		progress.log(String.format("Finished reading cases in %d seconds.", (endConvertTime - startCSVTime) / 1000));
-
-		return new ConversionResult<R>() {
-
-			public R getResult() {
-				return conversionHandler.getResult();
-			}
-
-			public boolean hasConversionErrors() {
-				return conversionHandler.hasConversionErrors();
-			}
-
-			public String getConversionErrors() {
-				return conversionHandler.getConversionErrors();
-			}
-		};
 	}
 
 	/**
@@ -414,164 +669,163 @@ public final class CSVConversion {
 		}
 	}
 
-	private <R> Date parseTime(final CSVConversionHandler<R> conversionHandler, int timeColumnIndex,
-			final Map<Integer, CSVMapping> columnMap, int lineIndex, String[] nextLine) throws CSVConversionException {
-		if (timeColumnIndex == -1) {
-			return null;
+	/**
+	 * Creates a reader for the input stream that parses the CSV in parallel
+	 * chunks in case more than one thread is requested and the
+	 * {@link CSVConfig} allows splitting the input on raw bytes.
+	 * 
+	 * @param csv
+	 * @param is
+	 * @param importConfig
+	 * @param numParserThreads
+	 * @return a new {@link ICSVReader}
+	 * @throws IOException
+	 */
+	static ICSVReader createReader(ICSV csv, InputStream is, CSVConfig importConfig, int numParserThreads)
+			throws IOException {
+		if (numParserThreads > 1 && CSVParallelChunkReader.isSupported(importConfig)) {
+			return new CSVParallelChunkReader(csv, is, importConfig, numParserThreads,
+					CSVParallelChunkReader.DEFAULT_CHUNK_SIZE);
 		} else {
-			String timeValue = nextLine[timeColumnIndex];
-			try {
-				return parseDate((DateFormat) columnMap.get(timeColumnIndex).getFormat(), timeValue);
-			} catch (ParseException e) {
-				conversionHandler.errorDetected(lineIndex, timeColumnIndex,
-						columnMap.get(timeColumnIndex).getEventAttributeName(), timeValue, e);
-				return null;
-			}
+			return csv.createReader(is, importConfig);
 		}
 	}
 
-	private static double getFileSizeInBytes(CSVFile csvFile) throws IOException {
-		return Files.size(csvFile.getFile());
+	/**
+	 * Creates a reader for the CSV file. Uncompressed files read by a single
+	 * thread are parsed directly from memory-mapped segments of the file (see
+	 * {@link CSVMappedFileReader}), otherwise the same as
+	 * {@link #createReader(ICSV, InputStream, CSVConfig, int)}.
+	 * 
+	 * @param csvFile
+	 * @param importConfig
+	 * @param numParserThreads
+	 * @return a new {@link ICSVReader}
+	 * @throws IOException
+	 */
+	static ICSVReader createReader(CSVFile csvFile, CSVConfig importConfig, int numParserThreads)
+			throws IOException {
+		// The mapped reader behaves like the Univocity parser
+		if (numParserThreads <= 1 && csvFile.getCSV() instanceof CSVUnivocityImpl
+				&& CSVMappedFileReader.isSupported(csvFile, importConfig)) {
+			return new CSVMappedFileReader(csvFile.getFile(), importConfig);
+		}
+		return createReader(csvFile.getCSV(), csvFile.getInputStream(), importConfig, numParserThreads);
 	}
 
-	private <R> void parseAttributes(ProgressListener progress, CSVConversionConfig conversionConfig,
-			CSVConversionHandler<R> conversionHandler, CSVMapping csvMapping, int lineIndex, int columnIndex,
-			String name, String[] line) throws CSVConversionException {
+	private static double getFileSizeInBytes(CSVShards shards) throws IOException {
+		return shards.getSizeInBytes();
+	}
 
-		String value = line[columnIndex];
-		if (name == null) // TODO: Nicer would be to create names like "unknown-1", "unknown-2", etc. instead of skipping the attribute
-			return;
-		if (csvMapping.getDataType() == null) {
-			conversionHandler.startAttribute(name, value);
-		} else {
-			try {
-				switch (csvMapping.getDataType()) {
-					case BOOLEAN :
-						boolean boolVal;
-						if ("true".equalsIgnoreCase(value) || "J".equalsIgnoreCase(value) || "Y".equalsIgnoreCase(value)
-								|| "T".equalsIgnoreCase(value) || "1".equals(value)) {
-							boolVal = true;
-						} else if ("false".equalsIgnoreCase(value) || "N".equalsIgnoreCase(value)
-								|| "F".equalsIgnoreCase(value) || "0".equals(value)) {
-							boolVal = false;
-						} else {
-							throw new ParseException(value + " cannot be converted to a boolean", 0);
-						}
-						conversionHandler.startAttribute(name, boolVal);
-						break;
-					case CONTINUOUS :
-						if (csvMapping.getFormat() != null) {
-							conversionHandler.startAttribute(name, (Double) csvMapping.getFormat().parseObject(value));
-						} else {
-							conversionHandler.startAttribute(name, Double.parseDouble(value));
-						}
-						break;
-					case DISCRETE :
-						if (csvMapping.getFormat() != null) {
-							conversionHandler.startAttribute(name, (Integer) csvMapping.getFormat().parseObject(value));
-						} else {
-							conversionHandler.startAttribute(name, Long.parseLong(value));
-						}
-						break;
-					case TIME :
-						conversionHandler.startAttribute(name, parseDate((DateFormat) csvMapping.getFormat(), value));
-						break;
-					case LITERAL :
-					default :
-						if (csvMapping.getFormat() != null) {
-							value = ((MessageFormat) csvMapping.getFormat())
-									.format(ObjectArrays.concat(value, line), new StringBuffer(), null).toString();
-						}
-						conversionHandler.startAttribute(name, value);
-						break;
-				}
-			} catch (NumberFormatException e) {
-				conversionHandler.errorDetected(lineIndex, columnIndex, name, value, e);
-				if (conversionConfig.getErrorHandlingMode() == CSVErrorHandlingMode.BEST_EFFORT) {
-					conversionHandler.startAttribute(name, value);
-				}
-			} catch (ParseException e) {
-				conversionHandler.errorDetected(lineIndex, columnIndex, name, value, e);
-				if (conversionConfig.getErrorHandlingMode() == CSVErrorHandlingMode.BEST_EFFORT) {
-					conversionHandler.startAttribute(name, value);
-				}
-			}
+	private double maxSortingMemory = 0.30;
+	private int numParserThreads = 1;
+	private int numSortThreads = 1;
+	private int maxFilesToMerge = 0;
+	private int maxDistinctValues = 10000;
+	private int numConversionThreads = 1;
+
+	private static DateFormat getDateFormat(Map<Integer, CSVMapping> columnMap, int columnIndex) {
+		if (columnIndex == -1 || !(columnMap.get(columnIndex).getFormat() instanceof DateFormat)) {
+			return null;
 		}
-		conversionHandler.endAttribute();
+		return (DateFormat) columnMap.get(columnIndex).getFormat();
+	}
+
+	public double getMaxSortingMemory() {
+		return maxSortingMemory;
 	}
 
 	/**
-	 * Concatenates multiple composite attributes to a String representation.
+	 * Sets the maximum fraction of the heap that is used to sort the CSV file.
+	 * Less memory is used when less than twice the budget is still available
+	 * (see {@link ConversionResult#getSortingMemoryBudget()}). Defaults to
+	 * 0.3.
 	 * 
-	 * @param columnIndex
-	 * @param line
-	 * @param compositeSeparator
-	 * @return the composite attributes concatenated or an empty String in case
-	 *         no columns are selected
+	 * @param maxSortingMemory
 	 */
-	private static String readCompositeAttribute(int[] columnIndex, String[] line, String compositeSeparator) {
-		if (columnIndex.length == 0) {
-			return "";
-		}
-		int size = 0;
-		for (int index : columnIndex) {
-			String cell = line[index];
-			size += (cell == null ? 0 : cell.length());
-		}
-		StringBuilder sb = new StringBuilder(size + columnIndex.length);
-		for (int index : columnIndex) {
-			String cell = line[index];
-			if (cell != null) {
-				sb.append(cell);
-			}
-			sb.append(compositeSeparator);
-		}
-		return sb.substring(0, sb.length() - 1);
+	public void setMaxSortingMemory(double maxSortingMemory) {
+		this.maxSortingMemory = maxSortingMemory;
 	}
 
-	private static Pattern INVALID_MS_PATTERN = Pattern.compile("(:[0-5][0-9]\\.[0-9]{3})[0-9]*$");
-	private double maxSortingMemory = 0.30;
+	public int getNumParserThreads() {
+		return numParserThreads;
+	}
 
-	private static Date parseDate(DateFormat customDateFormat, String value) throws ParseException {
+	/**
+	 * Sets the number of threads used to parse the CSV file. With more than
+	 * one thread the input is split into chunks on record boundaries, which are
+	 * parsed in parallel (see {@link CSVParallelChunkReader}). Defaults to a
+	 * single thread.
+	 * 
+	 * @param numParserThreads
+	 */
+	public void setNumParserThreads(int numParserThreads) {
+		this.numParserThreads = numParserThreads;
+	}
 
-		if (value == null) {
-			throw new ParseException("Could not parse NULL timestamp!", 0);
-		}
+	public int getNumSortThreads() {
+		return numSortThreads;
+	}
 
-		if (customDateFormat != null) {
-			ParsePosition pos = new ParsePosition(0);
-			Date date = customDateFormat.parse(value, pos);
-			
-			// Fix if there are more than 3 digits for ms for example 44.00.540000, do not return and
-			// ensure string is formatted to 540 ms instead of 540000 ms
-			if (date != null && !INVALID_MS_PATTERN.matcher(value).find()) {
-				return date;
-			} else {
-				String fixedValue = INVALID_MS_PATTERN.matcher(value).replaceFirst("$1");
-				pos.setIndex(0);
-				date = customDateFormat.parse(fixedValue, pos);
-				if (date != null) {
-					return date;
-				} else {
-					String pattern = "unkown";
-					if (customDateFormat instanceof SimpleDateFormat) {
-						pattern = ((SimpleDateFormat) customDateFormat).toPattern();
-					}
-					throw new ParseException("Could not parse " + value + " using pattern '" + pattern + "'",
-							pos.getErrorIndex());
-				}
-			}
-		}
+	/**
+	 * Sets the number of threads used to sort the CSV file. With more than one
+	 * thread, segments of the CSV file are sorted in parallel while the next
+	 * segment is read (see {@link ParallelCSVSorter}). Defaults to a single
+	 * thread.
+	 * 
+	 * @param numSortThreads
+	 */
+	public void setNumSortThreads(int numSortThreads) {
+		this.numSortThreads = numSortThreads;
+	}
 
-		throw new ParseException("Could not parse " + value, -1);
+	public int getMaxFilesToMerge() {
+		return maxFilesToMerge;
 	}
 
-	public double getMaxSortingMemory() {
-		return maxSortingMemory;
+	/**
+	 * Sets the maximum number of temporary files that are merged at once when
+	 * sorting the CSV file. A value of 0 uses a default that depends on the
+	 * sorter and the available memory.
+	 * 
+	 * @param maxFilesToMerge
+	 */
+	public void setMaxFilesToMerge(int maxFilesToMerge) {
+		this.maxFilesToMerge = maxFilesToMerge;
 	}
 
-	public void setMaxSortingMemory(double maxSortingMemory) {
-		this.maxSortingMemory = maxSortingMemory;
+	public int getMaxDistinctValues() {
+		return maxDistinctValues;
+	}
+
+	/**
+	 * Sets the maximum number of distinct values per column for which
+	 * repeated literal values and event names share one instance. Columns
+	 * with more distinct values are not deduplicated. A value of 0 disables
+	 * the deduplication. Defaults to 10000.
+	 * 
+	 * @param maxDistinctValues
+	 */
+	public void setMaxDistinctValues(int maxDistinctValues) {
+		this.maxDistinctValues = maxDistinctValues;
+	}
+
+	public int getNumConversionThreads() {
+		return numConversionThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to convert the rows into events after
+	 * the CSV file has been sorted. With more than one thread, batches of rows
+	 * are read by a separate thread and converted in parallel, while the
+	 * {@link CSVConversionHandler} still receives the events in the original
+	 * order from a single thread (see {@link CSVConversionPipeline}). Defaults
+	 * to a single thread.
+	 * 
+	 * @param numConversionThreads
+	 */
+	public void setNumConversionThreads(int numConversionThreads) {
+		this.numConversionThreads = numConversionThreads;
 	}
 
 }
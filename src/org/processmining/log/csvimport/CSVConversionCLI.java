@@ -1,8 +1,13 @@
 package org.processmining.log.csvimport;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -16,11 +21,19 @@ import org.deckfour.xes.model.XLog;
 import org.processmining.log.csv.CSVFile;
 import org.processmining.log.csv.CSVFileReferenceUnivocityImpl;
 import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csv.config.CSVSniffer;
+import org.processmining.log.csvimport.CSVBatchConversion.BatchReport;
+import org.processmining.log.csvimport.CSVBatchConversion.ConfigCustomizer;
+import org.processmining.log.csvimport.CSVBatchConversion.FileConverter;
 import org.processmining.log.csvimport.CSVConversion.ConversionResult;
+import org.processmining.log.csvimport.CSVConversion.NoOpProgressListenerImpl;
 import org.processmining.log.csvimport.CSVConversion.ProgressListener;
 import org.processmining.log.csvimport.config.CSVConversionConfig;
 import org.processmining.log.csvimport.exception.CSVConversionConfigException;
 import org.processmining.log.csvimport.exception.CSVConversionException;
+import org.processmining.log.csvimport.handler.XESAppendConversionHandlerImpl;
+import org.processmining.log.csvimport.handler.XESConversionHandlerImpl;
+import org.processmining.log.csvimport.handler.XESStreamingConversionHandlerImpl;
 import org.processmining.log.utils.XUtils;
 
 import com.google.common.collect.ImmutableList;
@@ -55,6 +68,32 @@ public final class CSVConversionCLI {
 	private static final Option EVENT = OptionBuilder.hasArg().withArgName("eventColumn").create("event");
 	private static final Option START = OptionBuilder.hasArg().withArgName("startColumn").create("start");
 	private static final Option COMPLETE = OptionBuilder.hasArg().withArgName("completionColumn").create("complete");
+	private static final Option STREAM = OptionBuilder
+			.withDescription("write the XES file while converting without building the log in memory")
+			.create("stream");
+	private static final Option APPEND = OptionBuilder.hasArg().withArgName("filename")
+			.withDescription("append the events to an existing XES file, which is overwritten unless -xes is given")
+			.create("append");
+	private static final Option STATS = OptionBuilder.withLongOpt("stats")
+			.withDescription("print the time, rows, bytes and heap of each conversion phase").create();
+	private static final Option ERRORS = OptionBuilder.hasArg().withArgName("filename")
+			.withDescription("write all conversion errors to a gzip compressed, tab-separated file")
+			.create("errors");
+	private static final Option BATCH = OptionBuilder
+			.withDescription(
+					"convert each CSV file of the given directories or manifests (one path per line) into its own XES file, -xes and -errors are used as directories")
+			.create("batch");
+	private static final Option THREADS = OptionBuilder.hasArg().withArgName("number")
+			.withDescription("number of files that are converted concurrently in batch mode").create("threads");
+	private static final Option PARSER_THREADS = OptionBuilder.hasArg().withArgName("number")
+			.withDescription("number of threads that parse chunks of each CSV file in parallel")
+			.create("parserThreads");
+	private static final Option SORT_THREADS = OptionBuilder.hasArg().withArgName("number")
+			.withDescription("number of threads that sort segments of each CSV file in parallel")
+			.create("sortThreads");
+	private static final Option CONVERSION_THREADS = OptionBuilder.hasArg().withArgName("number")
+			.withDescription("number of threads that convert the sorted rows into events in parallel")
+			.create("conversionThreads");
 
 	static {
 		OPTIONS.addOption(HELP);
@@ -63,6 +102,15 @@ public final class CSVConversionCLI {
 		OPTIONS.addOption(EVENT);
 		OPTIONS.addOption(START);
 		OPTIONS.addOption(COMPLETE);
+		OPTIONS.addOption(STREAM);
+		OPTIONS.addOption(APPEND);
+		OPTIONS.addOption(STATS);
+		OPTIONS.addOption(ERRORS);
+		OPTIONS.addOption(BATCH);
+		OPTIONS.addOption(THREADS);
+		OPTIONS.addOption(PARSER_THREADS);
+		OPTIONS.addOption(SORT_THREADS);
+		OPTIONS.addOption(CONVERSION_THREADS);
 	}
 
 	public static void main(String[] args) {
@@ -76,21 +124,48 @@ public final class CSVConversionCLI {
 				return;
 			}
 
-			if (commandLine.getArgs().length != 1) {
+			if (commandLine.getArgs().length < 1) {
 				printUsage();
 				System.err.println("Missing filename of the CSV file!");
 				return;
 			}
 
-			File logFile = new File(commandLine.getArgs()[0]);
+			if (commandLine.hasOption(BATCH.getOpt())) {
+				try {
+					BatchReport report = batchCSV(commandLine);
+					System.out.println(report);
+					System.exit(report.getFailedCount() > 0 ? 1 : 0);
+				} catch (IOException | InterruptedException | IllegalArgumentException e) {
+					System.err.println(e.getMessage());
+					System.exit(1);
+				}
+			}
 
-			try {
-				XLog log = parseCSV(logFile, commandLine);
+			// Several CSV files with the same columns are converted into one log
+			List<File> logFiles = new ArrayList<>();
+			for (String filename : commandLine.getArgs()) {
+				logFiles.add(new File(filename));
+			}
+			File xesFile;
+			if (commandLine.hasOption(XES.getOpt())) {
+				xesFile = new File(commandLine.getOptionValue(XES.getOpt()));
+			} else if (commandLine.hasOption(APPEND.getOpt())) {
+				xesFile = new File(commandLine.getOptionValue(APPEND.getOpt()));
+			} else {
+				xesFile = new File(logFiles.get(0).getAbsolutePath() + ".xes.gz");
+			}
 
-				if (commandLine.hasOption(XES.getOpt())) {
-					XUtils.saveLogGzip(log, new File(commandLine.getOptionValue(XES.getOpt())));
+			try {
+				if (commandLine.hasOption(APPEND.getOpt())) {
+					XLog log = appendCSV(logFiles, new File(commandLine.getOptionValue(APPEND.getOpt())), commandLine);
+					XUtils.saveLogGzip(log, xesFile);
+				} else if (commandLine.hasOption(STREAM.getOpt())) {
+					// Compress unless a plain XES file is requested
+					boolean compress = !xesFile.getName().toLowerCase().endsWith(".xes");
+					streamCSV(logFiles, xesFile, compress, commandLine);
 				} else {
-					XUtils.saveLogGzip(log, new File(logFile.getAbsolutePath() + ".xes.gz"));
+					XLog log = parseCSV(logFiles, commandLine);
+					XUtils.saveLogGzip(log, xesFile);
 				}
 			} catch (CSVConversionException | IOException e) {
 				if (e.getMessage() != null) {
@@ -112,13 +187,210 @@ public final class CSVConversionCLI {
 
 	}
 
-	private static XLog parseCSV(File inputFile, CommandLine commandLine) throws CSVConversionException, CSVConversionConfigException {
+	private static XLog parseCSV(List<File> inputFiles, CommandLine commandLine) throws CSVConversionException, CSVConversionConfigException,
+			IOException {
+		CSVConversion conversion = createConversion(commandLine);
+		List<CSVFile> csvFiles = createCSVFiles(inputFiles);
+		// The configuration is detected on the first file and used for all files
+		CSVSniffer sniffer = new CSVSniffer(csvFiles.get(0));
+		CSVConfig importConfig = new CSVConfig(sniffer);
+		CSVConversionConfig conversionConfig = createConversionConfig(csvFiles.get(0), importConfig, sniffer,
+				commandLine);
+
+		ProgressListener cmdLineProgressListener = new ProgressListenerPrintStreamImpl(System.out);
+		XESConversionHandlerImpl xesHandler = new XESConversionHandlerImpl(importConfig, conversionConfig);
+		try (CSVErrorSink errorSink = createErrorSink(commandLine)) {
+			xesHandler.setErrorSink(errorSink);
+			ConversionResult<XLog> result = conversion.convertCSV(cmdLineProgressListener, importConfig,
+					conversionConfig, csvFiles, xesHandler);
+			printStats(result, commandLine);
+			printErrors(errorSink);
+			return result.getResult();
+		}
+	}
+
+	private static XLog appendCSV(List<File> inputFiles, File existingFile, CommandLine commandLine)
+			throws CSVConversionException, CSVConversionConfigException, IOException {
+		XLog existingLog;
+		try (InputStream is = existingFile.getName().toLowerCase().endsWith(".gz")
+				? new GZIPInputStream(new FileInputStream(existingFile)) : new FileInputStream(existingFile)) {
+			existingLog = XUtils.loadLog(is);
+		} catch (Exception e) {
+			throw new IOException("Could not load " + existingFile, e);
+		}
+
+		CSVConversion conversion = createConversion(commandLine);
+		List<CSVFile> csvFiles = createCSVFiles(inputFiles);
+		CSVSniffer sniffer = new CSVSniffer(csvFiles.get(0));
+		CSVConfig importConfig = new CSVConfig(sniffer);
+		CSVConversionConfig conversionConfig = createConversionConfig(csvFiles.get(0), importConfig, sniffer,
+				commandLine);
+
+		ProgressListener cmdLineProgressListener = new ProgressListenerPrintStreamImpl(System.out);
+		XESAppendConversionHandlerImpl appendHandler = new XESAppendConversionHandlerImpl(importConfig,
+				conversionConfig, existingLog);
+		ConversionResult<XLog> result;
+		try (CSVErrorSink errorSink = createErrorSink(commandLine)) {
+			appendHandler.setErrorSink(errorSink);
+			result = conversion.convertCSV(cmdLineProgressListener, importConfig, conversionConfig, csvFiles,
+					appendHandler);
+			printStats(result, commandLine);
+			printErrors(errorSink);
+		}
+		XLog log = result.getResult();
+		cmdLineProgressListener.log(String.format("Appended %s new traces and added events to %s existing traces.",
+				appendHandler.getAppendedTraces(), appendHandler.getMergedTraces()));
+		return log;
+	}
+
+	private static File streamCSV(List<File> inputFiles, File xesFile, boolean compress, CommandLine commandLine)
+			throws CSVConversionException, CSVConversionConfigException, IOException {
+		CSVConversion conversion = createConversion(commandLine);
+		List<CSVFile> csvFiles = createCSVFiles(inputFiles);
+		CSVSniffer sniffer = new CSVSniffer(csvFiles.get(0));
+		CSVConfig importConfig = new CSVConfig(sniffer);
+		CSVConversionConfig conversionConfig = createConversionConfig(csvFiles.get(0), importConfig, sniffer,
+				commandLine);
+
+		ProgressListener cmdLineProgressListener = new ProgressListenerPrintStreamImpl(System.out);
+		// Closing the handler removes the partial XES file if the conversion fails
+		try (XESStreamingConversionHandlerImpl streamingHandler = new XESStreamingConversionHandlerImpl(
+				importConfig, conversionConfig, xesFile, compress);
+				CSVErrorSink errorSink = createErrorSink(commandLine)) {
+			streamingHandler.setErrorSink(errorSink);
+			ConversionResult<File> result = conversion.convertCSV(cmdLineProgressListener, importConfig,
+					conversionConfig, csvFiles, streamingHandler);
+			printStats(result, commandLine);
+			printErrors(errorSink);
+			return result.getResult();
+		}
+	}
+
+	private static BatchReport batchCSV(final CommandLine commandLine) throws IOException, InterruptedException {
+		if (commandLine.hasOption(APPEND.getOpt())) {
+			throw new IllegalArgumentException("Appending is not supported in batch mode.");
+		}
+		List<File> inputFiles = new ArrayList<>();
+		for (String filename : commandLine.getArgs()) {
+			inputFiles.addAll(CSVBatchConversion.listFiles(new File(filename)));
+		}
+		final File outputDirectory = commandLine.hasOption(XES.getOpt())
+				? new File(commandLine.getOptionValue(XES.getOpt())) : null;
+		final File errorDirectory = commandLine.hasOption(ERRORS.getOpt())
+				? new File(commandLine.getOptionValue(ERRORS.getOpt())) : null;
+		for (File directory : new File[] { outputDirectory, errorDirectory }) {
+			if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create directory " + directory);
+			}
+		}
+
+		CSVBatchConversion batchConversion = new CSVBatchConversion(new ConfigCustomizer() {
+
+			public void customize(CSVConversionConfig conversionConfig) throws CSVConversionException {
+				applyOptions(conversionConfig, commandLine);
+			}
+		}, new FileConverter() {
+
+			public ConversionResult<?> convert(CSVConversion conversion, CSVFile csvFile, CSVConfig importConfig,
+					CSVConversionConfig conversionConfig)
+					throws CSVConversionException, CSVConversionConfigException, IOException {
+				File inputFile = csvFile.getFile().toFile();
+				File xesFile = new File(outputDirectory != null ? outputDirectory : inputFile.getParentFile(),
+						inputFile.getName() + ".xes.gz");
+				File errorFile = errorDirectory != null
+						? new File(errorDirectory, inputFile.getName() + ".errors.tsv.gz") : null;
+				applyOptions(conversion, commandLine);
+				List<CSVFile> csvFiles = ImmutableList.of(csvFile);
+				// Progress of concurrent conversions would be interleaved
+				ProgressListener progressListener = new NoOpProgressListenerImpl();
+				try (CSVErrorSink errorSink = new CSVErrorSink(CSVErrorSink.DEFAULT_MAX_SAMPLES, errorFile)) {
+					ConversionResult<?> result;
+					if (commandLine.hasOption(STREAM.getOpt())) {
+						try (XESStreamingConversionHandlerImpl handler = new XESStreamingConversionHandlerImpl(
+								importConfig, conversionConfig, xesFile, true)) {
+							handler.setErrorSink(errorSink);
+							result = conversion.convertCSV(progressListener, importConfig, conversionConfig,
+									csvFiles, handler);
+							result.getResult();
+						}
+					} else {
+						XESConversionHandlerImpl handler = new XESConversionHandlerImpl(importConfig,
+								conversionConfig);
+						handler.setErrorSink(errorSink);
+						ConversionResult<XLog> logResult = conversion.convertCSV(progressListener, importConfig,
+								conversionConfig, csvFiles, handler);
+						XUtils.saveLogGzip(logResult.getResult(), xesFile);
+						result = logResult;
+					}
+					System.out.println("Converted " + inputFile + " to " + xesFile);
+					return result;
+				}
+			}
+		});
+		if (commandLine.hasOption(THREADS.getOpt())) {
+			batchConversion.setNumThreads(Integer.parseInt(commandLine.getOptionValue(THREADS.getOpt())));
+		}
+		return batchConversion.convert(inputFiles);
+	}
+
+	private static CSVConversion createConversion(CommandLine commandLine) {
 		CSVConversion conversion = new CSVConversion();
-		CSVFile csvFile = new CSVFileReferenceUnivocityImpl(inputFile.toPath());
-		CSVConfig importConfig = new CSVConfig(csvFile);
-		CSVConversionConfig conversionConfig = new CSVConversionConfig(csvFile, importConfig);
+		applyOptions(conversion, commandLine);
+		return conversion;
+	}
+
+	private static void applyOptions(CSVConversion conversion, CommandLine commandLine) {
+		if (commandLine.hasOption(PARSER_THREADS.getOpt())) {
+			conversion.setNumParserThreads(Integer.parseInt(commandLine.getOptionValue(PARSER_THREADS.getOpt())));
+		}
+		if (commandLine.hasOption(SORT_THREADS.getOpt())) {
+			conversion.setNumSortThreads(Integer.parseInt(commandLine.getOptionValue(SORT_THREADS.getOpt())));
+		}
+		if (commandLine.hasOption(CONVERSION_THREADS.getOpt())) {
+			conversion.setNumConversionThreads(
+					Integer.parseInt(commandLine.getOptionValue(CONVERSION_THREADS.getOpt())));
+		}
+	}
+
+	private static CSVErrorSink createErrorSink(CommandLine commandLine) {
+		File errorFile = null;
+		if (commandLine.hasOption(ERRORS.getOpt())) {
+			errorFile = new File(commandLine.getOptionValue(ERRORS.getOpt()));
+		}
+		return new CSVErrorSink(CSVErrorSink.DEFAULT_MAX_SAMPLES, errorFile);
+	}
+
+	private static void printErrors(CSVErrorSink errorSink) throws IOException {
+		// Finish the error file before reporting it
+		errorSink.close();
+		if (errorSink.hasErrors()) {
+			System.err.println(errorSink.getSummary());
+		}
+	}
+
+	private static void printStats(ConversionResult<?> result, CommandLine commandLine) {
+		if (commandLine.hasOption(STATS.getLongOpt())) {
+			System.out.println(result.getMetrics());
+		}
+	}
+
+	private static List<CSVFile> createCSVFiles(List<File> inputFiles) {
+		List<CSVFile> csvFiles = new ArrayList<>();
+		for (File inputFile : inputFiles) {
+			csvFiles.add(new CSVFileReferenceUnivocityImpl(inputFile.toPath()));
+		}
+		return csvFiles;
+	}
+
+	private static CSVConversionConfig createConversionConfig(CSVFile csvFile, CSVConfig importConfig,
+			CSVSniffer sniffer, CommandLine commandLine) throws CSVConversionException {
+		CSVConversionConfig conversionConfig = new CSVConversionConfig(csvFile, importConfig, sniffer);
 		conversionConfig.autoDetect();
+		applyOptions(conversionConfig, commandLine);
+		return conversionConfig;
+	}
 
+	private static void applyOptions(CSVConversionConfig conversionConfig, CommandLine commandLine) {
 		if (commandLine.hasOption(TRACE.getOpt())) {
 			conversionConfig.setCaseColumns(ImmutableList.of(commandLine.getOptionValue(TRACE.getOpt())));
 		}
@@ -134,16 +406,11 @@ public final class CSVConversionCLI {
 		if (commandLine.hasOption(COMPLETE.getOpt())) {
 			conversionConfig.setCompletionTimeColumn(commandLine.getOptionValue(COMPLETE.getOpt()));
 		}
-		
-		ProgressListener cmdLineProgressListener = new ProgressListenerPrintStreamImpl(System.out);
-		ConversionResult<XLog> result = conversion.doConvertCSVToXES(cmdLineProgressListener, csvFile, importConfig,
-				conversionConfig);
-		return result.getResult();
 	}
 
 	private static void printUsage() {
 		HelpFormatter helpFormatter = new HelpFormatter();
-		helpFormatter.printHelp("mpe [CSVFILE]", OPTIONS, true);
+		helpFormatter.printHelp("mpe [CSVFILE]...", OPTIONS, true);
 		return;
 	}
 
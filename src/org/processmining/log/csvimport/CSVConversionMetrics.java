@@ -0,0 +1,248 @@
+package org.processmining.log.csvimport;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.processmining.log.csvimport.CSVConversion.ConversionResult;
+
+/**
+ * Measurements of the phases of a CSV conversion, which are collected while
+ * converting and available through {@link ConversionResult#getMetrics()}.
+ * Phases that run concurrently (e.g., parsing and conversion with several
+ * conversion threads) are measured as the time that threads spent working on
+ * that phase, so the times of all phases may add up to more than the
+ * wall-clock time of the conversion. Phases that were skipped, e.g., sorting
+ * a CSV file that is already grouped by case, have no measurements.
+ * <p>
+ * The peak heap is the highest amount of used heap that was observed while
+ * the phase was running. It includes garbage that was not yet collected and,
+ * thus, is only a rough estimate of the retained heap.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVConversionMetrics {
+
+	public enum Phase {
+		/**
+		 * Reading the headers and detecting whether the rows are grouped by
+		 * case
+		 */
+		SNIFFING("Sniffing"),
+		/**
+		 * Reading the rows, sorting (or partitioning) them in memory and
+		 * writing them to spill files
+		 */
+		SORTING("Sorting"),
+		/**
+		 * Merging (or grouping) the spill files into the sorted file
+		 */
+		SPILL_MERGING("Spill merging"),
+		/**
+		 * Reading the sorted rows, or the rows of the CSV file if it is
+		 * already grouped by case
+		 */
+		PARSING("Parsing"),
+		/**
+		 * Converting the values of the rows
+		 */
+		CONVERSION("Conversion"),
+		/**
+		 * Passing the converted rows to the handler
+		 */
+		HANDLER_ASSEMBLY("Handler assembly"),
+		/**
+		 * Finishing the log after all rows have been passed to the handler
+		 */
+		POST_PROCESSING("Post-processing");
+
+		private final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		public String toString() {
+			return label;
+		}
+
+	}
+
+	private static final int NUM_PHASES = Phase.values().length;
+
+	private final AtomicLongArray elapsedNanos = new AtomicLongArray(NUM_PHASES);
+	private final AtomicLongArray rows = new AtomicLongArray(NUM_PHASES);
+	private final AtomicLongArray bytesRead = new AtomicLongArray(NUM_PHASES);
+	private final AtomicLongArray spillBytesWritten = new AtomicLongArray(NUM_PHASES);
+	private final AtomicLongArray peakHeapBytes = new AtomicLongArray(NUM_PHASES);
+	private volatile long convertedRows = 0;
+
+	/**
+	 * @param phase
+	 * @return whether anything was measured for this phase
+	 */
+	public boolean hasMeasurements(Phase phase) {
+		return getElapsedNanos(phase) > 0 || getRows(phase) > 0;
+	}
+
+	/**
+	 * @param phase
+	 * @return the time spent in this phase in nanoseconds
+	 */
+	public long getElapsedNanos(Phase phase) {
+		return elapsedNanos.get(phase.ordinal());
+	}
+
+	/**
+	 * @param phase
+	 * @return the number of rows processed in this phase
+	 */
+	public long getRows(Phase phase) {
+		return rows.get(phase.ordinal());
+	}
+
+	/**
+	 * @return the number of rows that were passed to the handler by the last
+	 *         pass over the CSV file. Unlike {@link #getRows(Phase)}, rows of
+	 *         a pass that was restarted (e.g., after the CSV file turned out
+	 *         not to be grouped by case) are not included.
+	 */
+	public long getConvertedRows() {
+		return convertedRows;
+	}
+
+	/**
+	 * @param phase
+	 * @return the number of rows processed per second of the time spent in
+	 *         this phase, or 0 if nothing was measured
+	 */
+	public double getRowsPerSecond(Phase phase) {
+		long nanos = getElapsedNanos(phase);
+		return nanos > 0 ? getRows(phase) * 1000000000.0d / nanos : 0;
+	}
+
+	/**
+	 * @param phase
+	 * @return the number of bytes read from files (the CSV files or spill
+	 *         files) in this phase
+	 */
+	public long getBytesRead(Phase phase) {
+		return bytesRead.get(phase.ordinal());
+	}
+
+	/**
+	 * @param phase
+	 * @return the number of bytes written to temporary files in this phase
+	 */
+	public long getSpillBytesWritten(Phase phase) {
+		return spillBytesWritten.get(phase.ordinal());
+	}
+
+	/**
+	 * @param phase
+	 * @return the highest amount of used heap in bytes that was observed in
+	 *         this phase
+	 */
+	public long getPeakHeapBytes(Phase phase) {
+		return peakHeapBytes.get(phase.ordinal());
+	}
+
+	/**
+	 * @return the time spent in all phases in nanoseconds
+	 */
+	public long getTotalElapsedNanos() {
+		long total = 0;
+		for (Phase phase : Phase.values()) {
+			total += getElapsedNanos(phase);
+		}
+		return total;
+	}
+
+	void addElapsedNanos(Phase phase, long nanos) {
+		elapsedNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	void addRows(Phase phase, long numRows) {
+		rows.addAndGet(phase.ordinal(), numRows);
+	}
+
+	void setConvertedRows(long numRows) {
+		convertedRows = numRows;
+	}
+
+	void addBytesRead(Phase phase, long bytes) {
+		bytesRead.addAndGet(phase.ordinal(), bytes);
+	}
+
+	void addSpillBytesWritten(Phase phase, long bytes) {
+		spillBytesWritten.addAndGet(phase.ordinal(), bytes);
+	}
+
+	/**
+	 * Records the currently used heap for the phase, in case it is more than
+	 * what was observed before.
+	 *
+	 * @param phase
+	 */
+	void sampleHeap(Phase phase) {
+		Runtime runtime = Runtime.getRuntime();
+		long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+		int i = phase.ordinal();
+		long peak;
+		while ((peak = peakHeapBytes.get(i)) < usedHeap) {
+			if (peakHeapBytes.compareAndSet(i, peak, usedHeap)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Records an external sort that wrote spill files until mergeStartNanos
+	 * ({@link Phase#SORTING}) and merged them until endNanos
+	 * ({@link Phase#SPILL_MERGING}). The spill files are read once while
+	 * merging.
+	 *
+	 * @param inputBytes
+	 *            size of the CSV files
+	 * @param startNanos
+	 * @param mergeStartNanos
+	 * @param endNanos
+	 * @param spillBytesBeforeMerge
+	 *            bytes written until mergeStartNanos
+	 * @param spillBytes
+	 *            bytes written until endNanos
+	 */
+	void recordSort(long inputBytes, long startNanos, long mergeStartNanos, long endNanos,
+			long spillBytesBeforeMerge, long spillBytes) {
+		addElapsedNanos(Phase.SORTING, mergeStartNanos - startNanos);
+		addBytesRead(Phase.SORTING, inputBytes);
+		addSpillBytesWritten(Phase.SORTING, spillBytesBeforeMerge);
+		addElapsedNanos(Phase.SPILL_MERGING, endNanos - mergeStartNanos);
+		addBytesRead(Phase.SPILL_MERGING, spillBytesBeforeMerge);
+		addSpillBytesWritten(Phase.SPILL_MERGING, spillBytes - spillBytesBeforeMerge);
+		sampleHeap(Phase.SPILL_MERGING);
+	}
+
+	/**
+	 * @return a table with the measurements of each phase
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-17s %10s %12s %14s %12s %12s %12s%n", "Phase", "Time (s)", "Rows", "Rows/s",
+				"Read (MB)", "Spill (MB)", "Heap (MB)"));
+		for (Phase phase : Phase.values()) {
+			if (hasMeasurements(phase)) {
+				sb.append(String.format("%-17s %10.2f %,12d %,14.0f %12.1f %12.1f %12.1f%n", phase,
+						getElapsedNanos(phase) / 1000000000.0d, getRows(phase), getRowsPerSecond(phase),
+						toMB(getBytesRead(phase)), toMB(getSpillBytesWritten(phase)),
+						toMB(getPeakHeapBytes(phase))));
+			}
+		}
+		sb.append(String.format("%-17s %10.2f", "Total", getTotalElapsedNanos() / 1000000000.0d));
+		return sb.toString();
+	}
+
+	private static double toMB(long bytes) {
+		return bytes / 1024.0d / 1024.0d;
+	}
+
+}
@@ -0,0 +1,455 @@
+package org.processmining.log.csvimport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.processmining.log.csv.ICSVReader;
+import org.processmining.log.csvimport.handler.CSVConversionHandler;
+
+/**
+ * Converts the rows of an {@link ICSVReader} into {@link CSVConvertedEvent}s
+ * together with the hash of their case identifier ({@link CSVCaseKey}). Without worker plans each row is
+ * converted by the calling thread. Otherwise, a reader thread collects
+ * batches of rows, the batches are converted by one worker thread per worker
+ * plan, and the calling thread receives the converted events in the original
+ * order of the rows. In this way, a {@link CSVConversionHandler} is still
+ * called sequentially, while parsing and converting the values scales with
+ * the number of workers.
+ * <p>
+ * Literal values are shared through the {@link CSVValueDictionary} of the main
+ * plan by the calling thread, hence the worker plans should be created without
+ * dictionary.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVConversionPipeline implements AutoCloseable {
+
+	private static final int BATCH_SIZE = 1024;
+
+	// Batches that are read or converted ahead of the calling thread per worker
+	private static final int BATCHES_IN_FLIGHT_PER_WORKER = 2;
+
+	// Rows between two samples of the heap when converting in the calling thread
+	private static final int HEAP_SAMPLE_WINDOW = 8192;
+	// Rows between two timed rows when converting in the calling thread, must divide HEAP_SAMPLE_WINDOW
+	private static final int TIMING_SAMPLE_WINDOW = 64;
+
+	private static final class Batch {
+
+		private final String[][] rows = new String[BATCH_SIZE][];
+		private final int[] caseHashes = new int[BATCH_SIZE];
+		private final CSVConvertedEvent[] events = new CSVConvertedEvent[BATCH_SIZE];
+		private int firstLineIndex;
+		private int size;
+
+		private Batch(CSVConversionPlan plan) {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				events[i] = plan.createEvent();
+			}
+		}
+
+		private void clear() {
+			// Release references to the rows, the events are reset when converting the next rows
+			for (int i = 0; i < size; i++) {
+				rows[i] = null;
+			}
+			size = 0;
+		}
+
+	}
+
+	private static final class Worker {
+
+		private final CSVConversionPlan plan;
+		private final CSVCaseKey caseKey;
+
+		private Worker(CSVConversionPlan plan, CSVCaseKey caseKey) {
+			this.plan = plan;
+			this.caseKey = caseKey;
+		}
+
+		private void convert(Batch batch) {
+			for (int i = 0; i < batch.size; i++) {
+				convert(batch, i);
+			}
+		}
+
+		private void convert(Batch batch, int i) {
+			batch.caseHashes[i] = caseKey.hash(batch.rows[i]);
+			plan.convert(batch.rows[i], batch.firstLineIndex + i, batch.events[i]);
+		}
+
+	}
+
+	private final ICSVReader reader;
+	private final CSVConversionPlan plan;
+	private final CSVConversionMetrics metrics;
+	// Hashes are computed by the workers, identifiers are only formatted by the calling thread
+	private final CSVCaseKey caseKey;
+
+	// Used by the calling thread when there are no worker threads
+	private final Worker sequentialWorker;
+	private final Batch sequentialBatch;
+
+	private final ExecutorService readerExecutor;
+	private final ExecutorService workerExecutor;
+	private final BlockingQueue<Worker> idleWorkers;
+	private final BlockingQueue<Future<Batch>> batchesInFlight;
+	private final BlockingQueue<Batch> freeBatches;
+
+	private Batch currentBatch;
+	private int currentPosition;
+	private int sequentialLineIndex;
+	private boolean isFinished;
+	private boolean isClosed;
+
+	// Time spent by the calling thread in next(), and parsing and converting when there are no worker threads,
+	// which is extrapolated from every TIMING_SAMPLE_WINDOW-th row
+	private long waitingNanos;
+	private long sequentialParsingNanos;
+	private long sequentialConversionNanos;
+
+	/**
+	 * Starts converting the rows of the reader.
+	 *
+	 * @param reader
+	 *            rows without the header
+	 * @param plan
+	 *            the main plan that is used to share literal values
+	 * @param workerPlans
+	 *            one plan for each worker thread, an empty array to convert
+	 *            all rows in the calling thread
+	 * @param caseColumnIndex
+	 * @param compositeSeparator
+	 */
+	CSVConversionPipeline(ICSVReader reader, CSVConversionPlan plan, CSVConversionPlan[] workerPlans,
+			int[] caseColumnIndex, String compositeSeparator) {
+		this(reader, plan, workerPlans, caseColumnIndex, compositeSeparator, new CSVConversionMetrics());
+	}
+
+	/**
+	 * Starts converting the rows of the reader.
+	 *
+	 * @param reader
+	 *            rows without the header
+	 * @param plan
+	 *            the main plan that is used to share literal values
+	 * @param workerPlans
+	 *            one plan for each worker thread, an empty array to convert
+	 *            all rows in the calling thread
+	 * @param caseColumnIndex
+	 * @param compositeSeparator
+	 * @param metrics
+	 *            receives the measurements of the parsing and conversion
+	 *            phase
+	 */
+	CSVConversionPipeline(ICSVReader reader, CSVConversionPlan plan, CSVConversionPlan[] workerPlans,
+			int[] caseColumnIndex, String compositeSeparator, CSVConversionMetrics metrics) {
+		this.reader = reader;
+		this.plan = plan;
+		this.metrics = metrics;
+		this.caseKey = new CSVCaseKey(caseColumnIndex, compositeSeparator);
+		if (workerPlans.length == 0) {
+			this.sequentialWorker = new Worker(plan, caseKey);
+			this.sequentialBatch = new Batch(plan);
+			this.readerExecutor = null;
+			this.workerExecutor = null;
+			this.idleWorkers = null;
+			this.batchesInFlight = null;
+			this.freeBatches = null;
+		} else {
+			this.sequentialWorker = null;
+			this.sequentialBatch = null;
+			this.idleWorkers = new ArrayBlockingQueue<>(workerPlans.length);
+			for (CSVConversionPlan workerPlan : workerPlans) {
+				idleWorkers.add(new Worker(workerPlan, caseKey));
+			}
+			int maxBatchesInFlight = workerPlans.length * BATCHES_IN_FLIGHT_PER_WORKER;
+			this.batchesInFlight = new ArrayBlockingQueue<>(maxBatchesInFlight);
+			// In flight, waiting to be put in flight, and the current batch of the calling thread
+			this.freeBatches = new ArrayBlockingQueue<>(maxBatchesInFlight + 2);
+			this.workerExecutor = Executors.newFixedThreadPool(workerPlans.length, new ThreadFactory() {
+
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CSV converter " + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.readerExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CSV conversion reader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			readerExecutor.execute(new Runnable() {
+
+				public void run() {
+					readBatches();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Advances to the next converted row.
+	 *
+	 * @return whether there is another row
+	 * @throws IOException
+	 */
+	boolean next() throws IOException {
+		if (isFinished) {
+			return false;
+		}
+		if (sequentialWorker != null) {
+			if (sequentialLineIndex % TIMING_SAMPLE_WINDOW != 0) {
+				// Reading the clock for each row would add noticeably to the cost of a row
+				String[] row = reader.readNext();
+				if (row == null) {
+					isFinished = true;
+					return false;
+				}
+				convertSequentially(row);
+			} else {
+				long startNanos = System.nanoTime();
+				String[] row = reader.readNext();
+				long parsedNanos = System.nanoTime();
+				sequentialParsingNanos += (parsedNanos - startNanos) * TIMING_SAMPLE_WINDOW;
+				if (row == null) {
+					isFinished = true;
+					return false;
+				}
+				convertSequentially(row);
+				sequentialConversionNanos += (System.nanoTime() - parsedNanos) * TIMING_SAMPLE_WINDOW;
+				if (sequentialLineIndex % HEAP_SAMPLE_WINDOW == 1) {
+					metrics.sampleHeap(CSVConversionMetrics.Phase.PARSING);
+					metrics.sampleHeap(CSVConversionMetrics.Phase.CONVERSION);
+				}
+			}
+			currentBatch = sequentialBatch;
+			currentPosition = 0;
+			return true;
+		}
+		currentPosition++;
+		while (currentBatch == null || currentPosition >= currentBatch.size) {
+			if (currentBatch != null) {
+				currentBatch.clear();
+				freeBatches.offer(currentBatch);
+			}
+			long startNanos = System.nanoTime();
+			currentBatch = takeBatch();
+			waitingNanos += System.nanoTime() - startNanos;
+			currentPosition = 0;
+			if (currentBatch == null) {
+				isFinished = true;
+				return false;
+			}
+		}
+		// Values are shared by the calling thread as the dictionary is not thread-safe
+		plan.internValues(currentBatch.events[currentPosition]);
+		return true;
+	}
+
+	private void convertSequentially(String[] row) {
+		sequentialBatch.firstLineIndex = sequentialLineIndex++;
+		sequentialBatch.rows[0] = row;
+		sequentialBatch.size = 1;
+		sequentialWorker.convert(sequentialBatch, 0);
+	}
+
+	/**
+	 * @return the case identifier of the current row, which is formatted on
+	 *         each call and should only be obtained when a new case starts
+	 */
+	String getCaseId() {
+		return caseKey.format(currentBatch.rows[currentPosition]);
+	}
+
+	/**
+	 * @return the hash code of the case identifier of the current row
+	 */
+	int getCaseHash() {
+		return currentBatch.caseHashes[currentPosition];
+	}
+
+	/**
+	 * Checks whether the current row belongs to the case without formatting
+	 * its case identifier.
+	 * 
+	 * @param caseId
+	 * @param caseHash
+	 *            the hash code of caseId
+	 * @return whether the case identifier of the current row equals caseId
+	 */
+	boolean isCase(String caseId, int caseHash) {
+		return caseHash == currentBatch.caseHashes[currentPosition]
+				&& caseKey.matches(currentBatch.rows[currentPosition], caseId);
+	}
+
+	/**
+	 * @return the converted current row, which is only valid until the next
+	 *         call of {@link #next()}
+	 */
+	CSVConvertedEvent getEvent() {
+		return currentBatch.events[currentPosition];
+	}
+
+	/**
+	 * @return the index of the current row starting from 0
+	 */
+	int getLineIndex() {
+		return currentBatch.events[currentPosition].getLineIndex();
+	}
+
+	/**
+	 * @return the time in nanoseconds the calling thread spent in
+	 *         {@link #next()} to obtain the parsed and converted rows
+	 */
+	long getWaitingNanos() {
+		return sequentialWorker != null ? sequentialParsingNanos + sequentialConversionNanos : waitingNanos;
+	}
+
+	/**
+	 * Stops the reader and worker threads. Does not close the
+	 * {@link ICSVReader}.
+	 */
+	public void close() {
+		if (sequentialWorker != null && !isClosed) {
+			metrics.addElapsedNanos(CSVConversionMetrics.Phase.PARSING, sequentialParsingNanos);
+			metrics.addRows(CSVConversionMetrics.Phase.PARSING, sequentialLineIndex);
+			metrics.addElapsedNanos(CSVConversionMetrics.Phase.CONVERSION, sequentialConversionNanos);
+			metrics.addRows(CSVConversionMetrics.Phase.CONVERSION, sequentialLineIndex);
+			metrics.sampleHeap(CSVConversionMetrics.Phase.PARSING);
+			metrics.sampleHeap(CSVConversionMetrics.Phase.CONVERSION);
+		}
+		isClosed = true;
+		isFinished = true;
+		if (readerExecutor != null) {
+			readerExecutor.shutdownNow();
+			workerExecutor.shutdownNow();
+			// Make sure the reader is no longer used, when it is closed afterwards
+			try {
+				readerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private Batch takeBatch() throws IOException {
+		try {
+			return batchesInFlight.take().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for converted rows");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException("Could not convert rows", e.getCause());
+		}
+	}
+
+	/**
+	 * Runs in the reader thread, a Future returning NULL marks the end of the
+	 * rows.
+	 */
+	private void readBatches() {
+		try {
+			int lineIndex = 0;
+			while (true) {
+				Batch batch = freeBatches.poll();
+				if (batch == null) {
+					batch = new Batch(plan);
+				}
+				batch.firstLineIndex = lineIndex;
+				long startNanos = System.nanoTime();
+				String[] row;
+				while (batch.size < BATCH_SIZE && (row = reader.readNext()) != null) {
+					batch.rows[batch.size++] = row;
+				}
+				// The batch may be recycled as soon as it is in flight
+				int size = batch.size;
+				lineIndex += size;
+				metrics.addElapsedNanos(CSVConversionMetrics.Phase.PARSING, System.nanoTime() - startNanos);
+				metrics.addRows(CSVConversionMetrics.Phase.PARSING, size);
+				metrics.sampleHeap(CSVConversionMetrics.Phase.PARSING);
+				if (size > 0) {
+					batchesInFlight.put(workerExecutor.submit(createConversionTask(batch)));
+				}
+				if (size < BATCH_SIZE) {
+					batchesInFlight.put(createFuture(null, null));
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// Closed by the calling thread
+		} catch (Throwable e) {
+			// Also pass on errors, e.g., OutOfMemoryError, otherwise the calling thread waits forever
+			try {
+				batchesInFlight.put(createFuture(null, e));
+			} catch (InterruptedException e1) {
+				// Closed by the calling thread
+			}
+		}
+	}
+
+	private Callable<Batch> createConversionTask(final Batch batch) {
+		return new Callable<Batch>() {
+
+			public Batch call() throws Exception {
+				// There are as many workers as threads
+				Worker worker = idleWorkers.take();
+				try {
+					long startNanos = System.nanoTime();
+					worker.convert(batch);
+					metrics.addElapsedNanos(CSVConversionMetrics.Phase.CONVERSION, System.nanoTime() - startNanos);
+					metrics.addRows(CSVConversionMetrics.Phase.CONVERSION, batch.size);
+					metrics.sampleHeap(CSVConversionMetrics.Phase.CONVERSION);
+				} finally {
+					idleWorkers.offer(worker);
+				}
+				return batch;
+			}
+		};
+	}
+
+	private static Future<Batch> createFuture(final Batch batch, final Throwable e) {
+		FutureTask<Batch> future = new FutureTask<>(new Callable<Batch>() {
+
+			public Batch call() throws Exception {
+				if (e instanceof Error) {
+					throw (Error) e;
+				} else if (e instanceof Exception) {
+					throw (Exception) e;
+				} else if (e != null) {
+					throw new IOException("Could not read rows", e);
+				}
+				return batch;
+			}
+		});
+		future.run();
+		return future;
+	}
+
+}
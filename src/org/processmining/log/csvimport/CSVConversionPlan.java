@@ -0,0 +1,384 @@
+package org.processmining.log.csvimport;
+
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig.CSVEmptyCellHandlingMode;
+import org.processmining.log.csvimport.config.CSVConversionConfig.CSVErrorHandlingMode;
+import org.processmining.log.csvimport.config.CSVConversionConfig.CSVMapping;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * Precompiled conversion of the rows of a CSV file into
+ * {@link CSVConvertedEvent}s. The columns that are converted to attributes and
+ * a specialised converter for each of them are determined once, so that
+ * converting a row does not need any lookups in the configuration.
+ * <p>
+ * Instances are not thread-safe as the formats used to parse values are not.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVConversionPlan {
+
+	private static abstract class ColumnConverter {
+
+		protected final int columnIndex;
+		protected final String name;
+
+		ColumnConverter(int columnIndex, String name) {
+			this.columnIndex = columnIndex;
+			this.name = name;
+		}
+
+		abstract void convert(String value, String[] line, CSVConvertedEvent event) throws ParseException;
+
+	}
+
+	private static final class LiteralConverter extends ColumnConverter {
+
+		private final CSVValueDictionary dictionary;
+
+		LiteralConverter(int columnIndex, String name, CSVValueDictionary dictionary) {
+			super(columnIndex, name);
+			this.dictionary = dictionary;
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) {
+			event.addLiteral(columnIndex, name, dictionary.intern(columnIndex, value));
+		}
+
+	}
+
+	private static final class TemplateLiteralConverter extends ColumnConverter {
+
+		private final CSVLiteralTemplate template;
+		private final CSVValueDictionary dictionary;
+
+		TemplateLiteralConverter(int columnIndex, String name, CSVLiteralTemplate template,
+				CSVValueDictionary dictionary) {
+			super(columnIndex, name);
+			this.template = template;
+			this.dictionary = dictionary;
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) {
+			// The value itself is argument {0}, the cells of the row are {1}, {2}, ...
+			event.addLiteral(columnIndex, name, dictionary.intern(columnIndex, template.format(value, line)));
+		}
+
+	}
+
+	/**
+	 * Fallback for templates that use sub-formats of {@link MessageFormat}.
+	 */
+	private static final class MessageFormatLiteralConverter extends ColumnConverter {
+
+		private final MessageFormat format;
+		private final CSVValueDictionary dictionary;
+		private final StringBuffer buffer = new StringBuffer();
+		private Object[] arguments = new Object[0];
+
+		MessageFormatLiteralConverter(int columnIndex, String name, MessageFormat format,
+				CSVValueDictionary dictionary) {
+			super(columnIndex, name);
+			this.format = format;
+			this.dictionary = dictionary;
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) {
+			// The value itself is argument {0}, the cells of the row are {1}, {2}, ...
+			if (arguments.length != line.length + 1) {
+				arguments = new Object[line.length + 1];
+			}
+			arguments[0] = value;
+			System.arraycopy(line, 0, arguments, 1, line.length);
+			buffer.setLength(0);
+			event.addLiteral(columnIndex, name,
+					dictionary.intern(columnIndex, format.format(arguments, buffer, null).toString()));
+		}
+
+	}
+
+	private static final class DiscreteConverter extends ColumnConverter {
+
+		private final Format format;
+
+		DiscreteConverter(int columnIndex, String name, Format format) {
+			super(columnIndex, name);
+			this.format = format;
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) throws ParseException {
+			if (format != null) {
+				event.addDiscrete(columnIndex, name, ((Number) format.parseObject(value)).longValue());
+			} else {
+				event.addDiscrete(columnIndex, name, Long.parseLong(value));
+			}
+		}
+
+	}
+
+	private static final class ContinuousConverter extends ColumnConverter {
+
+		private final Format format;
+
+		ContinuousConverter(int columnIndex, String name, Format format) {
+			super(columnIndex, name);
+			this.format = format;
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) throws ParseException {
+			if (format != null) {
+				event.addContinuous(columnIndex, name, ((Number) format.parseObject(value)).doubleValue());
+			} else {
+				event.addContinuous(columnIndex, name, Double.parseDouble(value));
+			}
+		}
+
+	}
+
+	private static final class TimeConverter extends ColumnConverter {
+
+		private final CSVTimestampParser parser;
+
+		TimeConverter(int columnIndex, String name, DateFormat format) {
+			super(columnIndex, name);
+			this.parser = new CSVTimestampParser(format);
+		}
+
+		Date parse(String value) throws ParseException {
+			return parser.parse(value);
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) throws ParseException {
+			event.addTime(columnIndex, name, parse(value));
+		}
+
+	}
+
+	private static final class BooleanConverter extends ColumnConverter {
+
+		BooleanConverter(int columnIndex, String name) {
+			super(columnIndex, name);
+		}
+
+		void convert(String value, String[] line, CSVConvertedEvent event) throws ParseException {
+			event.addBoolean(columnIndex, name, parseBoolean(value));
+		}
+
+		private static boolean parseBoolean(String value) throws ParseException {
+			if (value != null) {
+				if (value.length() == 1) {
+					switch (value.charAt(0)) {
+						case 'J' :
+						case 'j' :
+						case 'Y' :
+						case 'y' :
+						case 'T' :
+						case 't' :
+						case '1' :
+							return true;
+						case 'N' :
+						case 'n' :
+						case 'F' :
+						case 'f' :
+						case '0' :
+							return false;
+						default :
+							break;
+					}
+				} else if ("true".equalsIgnoreCase(value)) {
+					return true;
+				} else if ("false".equalsIgnoreCase(value)) {
+					return false;
+				}
+			}
+			throw new ParseException(value + " cannot be converted to a boolean", 0);
+		}
+
+	}
+
+	private final CSVLiteralTemplate eventNameTemplate;
+	private final CSVValueDictionary dictionary;
+	// Names of the columns in the dictionary, the event name uses the last index
+	private final String[] dictionaryColumnNames;
+	private final TimeConverter completionTimeConverter;
+	private final TimeConverter startTimeConverter;
+
+	private final int[] attributeColumns;
+	private final ColumnConverter[] converters;
+
+	private final boolean sparse;
+	private final Set<String> treatAsEmptyValues;
+	private final boolean keepInvalidValues;
+
+	/**
+	 * Creates a plan for the CSV file with the given header.
+	 *
+	 * @param conversionConfig
+	 * @param header
+	 * @param columnMap
+	 * @param caseColumnIndex
+	 * @param eventNameColumnIndex
+	 * @param completionTimeColumnIndex
+	 *            or -1
+	 * @param startTimeColumnIndex
+	 *            or -1
+	 * @param maxDistinctValues
+	 *            maximum number of distinct values per column for which
+	 *            literal values are shared, 0 to disable
+	 */
+	CSVConversionPlan(CSVConversionConfig conversionConfig, String[] header, Map<Integer, CSVMapping> columnMap,
+			int[] caseColumnIndex, int[] eventNameColumnIndex, int completionTimeColumnIndex,
+			int startTimeColumnIndex, int maxDistinctValues) {
+		this.eventNameTemplate = CSVLiteralTemplate.forColumns(eventNameColumnIndex,
+				conversionConfig.getCompositeAttributeSeparator());
+		this.dictionary = new CSVValueDictionary(header.length + 1, maxDistinctValues);
+		this.dictionaryColumnNames = new String[header.length + 1];
+		if (eventNameColumnIndex.length > 0) {
+			dictionaryColumnNames[header.length] = "event name";
+		}
+		this.completionTimeConverter = createTimeConverter(columnMap, completionTimeColumnIndex);
+		this.startTimeConverter = createTimeConverter(columnMap, startTimeColumnIndex);
+		this.sparse = conversionConfig.getEmptyCellHandlingMode() == CSVEmptyCellHandlingMode.SPARSE;
+		this.treatAsEmptyValues = conversionConfig.getTreatAsEmptyValues();
+		this.keepInvalidValues = conversionConfig.getErrorHandlingMode() == CSVErrorHandlingMode.BEST_EFFORT;
+
+		List<ColumnConverter> converterList = new ArrayList<>();
+		for (int i = 0; i < header.length; i++) {
+			if (Ints.contains(eventNameColumnIndex, i) || Ints.contains(caseColumnIndex, i)
+					|| i == completionTimeColumnIndex || i == startTimeColumnIndex) {
+				// Is already mapped to a special column, do not include again
+				continue;
+			}
+			if (header[i] == null) {
+				// TODO: Nicer would be to create names like "unknown-1", "unknown-2", etc. instead of skipping the attribute
+				continue;
+			}
+			ColumnConverter converter = createConverter(i, header[i], columnMap.get(i), dictionary);
+			if (converter instanceof LiteralConverter || converter instanceof TemplateLiteralConverter
+					|| converter instanceof MessageFormatLiteralConverter) {
+				dictionaryColumnNames[i] = header[i];
+			}
+			converterList.add(converter);
+		}
+		this.converters = converterList.toArray(new ColumnConverter[converterList.size()]);
+		this.attributeColumns = new int[converters.length];
+		for (int i = 0; i < converters.length; i++) {
+			attributeColumns[i] = converters[i].columnIndex;
+		}
+	}
+
+	private static TimeConverter createTimeConverter(Map<Integer, CSVMapping> columnMap, int columnIndex) {
+		if (columnIndex == -1) {
+			return null;
+		}
+		CSVMapping mapping = columnMap.get(columnIndex);
+		return new TimeConverter(columnIndex, mapping.getEventAttributeName(), (DateFormat) mapping.getFormat());
+	}
+
+	private static ColumnConverter createConverter(int columnIndex, String name, CSVMapping mapping,
+			CSVValueDictionary dictionary) {
+		if (mapping == null || mapping.getDataType() == null) {
+			return new LiteralConverter(columnIndex, name, dictionary);
+		}
+		// Formats are created once per column instead of once per cell
+		Format format = mapping.getFormat();
+		switch (mapping.getDataType()) {
+			case BOOLEAN :
+				return new BooleanConverter(columnIndex, name);
+			case CONTINUOUS :
+				return new ContinuousConverter(columnIndex, name, format);
+			case DISCRETE :
+				return new DiscreteConverter(columnIndex, name, format);
+			case TIME :
+				return new TimeConverter(columnIndex, name, (DateFormat) format);
+			case LITERAL :
+			default :
+				if (format != null) {
+					// Compiled once, MessageFormat is only needed for sub-formats such as {1,number}
+					CSVLiteralTemplate template = CSVLiteralTemplate.compile(mapping.getPattern());
+					if (template != null) {
+						return new TemplateLiteralConverter(columnIndex, name, template, dictionary);
+					}
+					return new MessageFormatLiteralConverter(columnIndex, name, (MessageFormat) format, dictionary);
+				}
+				return new LiteralConverter(columnIndex, name, dictionary);
+		}
+	}
+
+	/**
+	 * @return a new event with enough capacity for all attributes of a row
+	 */
+	CSVConvertedEvent createEvent() {
+		return new CSVConvertedEvent(converters.length);
+	}
+
+	/**
+	 * Converts the row into the event, which is reset before.
+	 *
+	 * @param line
+	 * @param lineIndex
+	 * @param event
+	 */
+	void convert(String[] line, int lineIndex, CSVConvertedEvent event) {
+		event.reset(lineIndex);
+		event.setEventClass(dictionary.intern(dictionaryColumnNames.length - 1, eventNameTemplate.format(null, line)));
+		event.setCompletionTime(parseTime(completionTimeConverter, line, event));
+		event.setStartTime(parseTime(startTimeConverter, line, event));
+
+		for (int i = 0; i < attributeColumns.length; i++) {
+			final String value = line[attributeColumns[i]];
+			if (sparse && (value == null || value.isEmpty() || treatAsEmptyValues.contains(value))) {
+				continue;
+			}
+			ColumnConverter converter = converters[i];
+			try {
+				converter.convert(value, line, event);
+			} catch (NumberFormatException | ParseException e) {
+				event.addError(converter.columnIndex, converter.name, value, e, keepInvalidValues);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the literal values and the event name of an event converted by
+	 * a plan without dictionary with the shared instances of this plan.
+	 *
+	 * @param event
+	 */
+	void internValues(CSVConvertedEvent event) {
+		event.internLiterals(dictionary, dictionaryColumnNames.length - 1);
+	}
+
+	/**
+	 * @return the number of distinct literal values and event names
+	 */
+	String getCardinalityReport() {
+		return dictionary.getCardinalityReport(dictionaryColumnNames);
+	}
+
+	private static Date parseTime(TimeConverter converter, String[] line, CSVConvertedEvent event) {
+		if (converter == null) {
+			return null;
+		}
+		String value = line[converter.columnIndex];
+		try {
+			return converter.parse(value);
+		} catch (ParseException e) {
+			event.addTimeError(converter.columnIndex, converter.name, value, e);
+			return null;
+		}
+	}
+
+}
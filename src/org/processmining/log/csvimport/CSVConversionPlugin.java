@@ -16,6 +16,7 @@ import org.processmining.framework.plugin.events.Logger.MessageLevel;
 import org.processmining.framework.util.ui.widgets.helper.ProMUIHelper;
 import org.processmining.log.csv.CSVFile;
 import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csv.config.CSVSniffer;
 import org.processmining.log.csvimport.CSVConversion.ConversionResult;
 import org.processmining.log.csvimport.CSVConversion.ProgressListener;
 import org.processmining.log.csvimport.config.CSVConversionConfig;
@@ -48,7 +49,9 @@ public final class CSVConversionPlugin {
 		InteractionResult result = InteractionResult.CONTINUE;
 
 		try {
-			CSVConfig importConfig = new CSVConfig(csvFile);
+			// Sample the file once and reuse it for both the import and the conversion configuration
+			CSVSniffer sniffer = new CSVSniffer(csvFile);
+			CSVConfig importConfig = new CSVConfig(sniffer);
 			CSVConversionConfig csvConversionConfig = null;
 
 			int i = 0;
@@ -57,7 +60,7 @@ public final class CSVConversionPlugin {
 					case 0 :
 						result = queryImportConfig(context, csvFile, importConfig);
 						try {
-							csvConversionConfig = new CSVConversionConfig(csvFile, importConfig);
+							csvConversionConfig = new CSVConversionConfig(csvFile, importConfig, sniffer);
 							csvConversionConfig.autoDetect();
 						} catch (CSVConversionException e) {								
 							// Due to the strange wizard framework, we cannot cancel this dialog. So show again. The only way to cancel is through the user.
@@ -183,6 +186,14 @@ public final class CSVConversionPlugin {
 			public String getConversionErrors() {
 				return conversionResult.getConversionErrors();
 			}
+
+			public long getSortingMemoryBudget() {
+				return conversionResult.getSortingMemoryBudget();
+			}
+
+			public CSVConversionMetrics getMetrics() {
+				return conversionResult.getMetrics();
+			}
 		};
 
 	}
@@ -0,0 +1,219 @@
+package org.processmining.log.csvimport;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.processmining.log.csvimport.exception.CSVConversionException;
+import org.processmining.log.csvimport.handler.CSVConversionHandler;
+
+/**
+ * Reusable record of the converted values of one row of the CSV file. Values
+ * are stored in typed slots without boxing and passed to the
+ * {@link CSVConversionHandler} by {@link #emit(CSVConversionHandler)}. Errors
+ * detected during the conversion are recorded together with the values and
+ * reported to the handler in the order in which they occurred.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVConvertedEvent {
+
+	// Types of the attribute slots
+	private static final int NO_VALUE = 0;
+	private static final int LITERAL = 1;
+	private static final int DISCRETE = 2;
+	private static final int CONTINUOUS = 3;
+	private static final int TIME = 4;
+	private static final int BOOLEAN = 5;
+
+	// At most two errors for the completion and start time
+	private static final int MAX_TIME_ERRORS = 2;
+
+	private int lineIndex;
+	private String eventClass;
+	private Date completionTime;
+	private Date startTime;
+
+	private int numTimeErrors;
+	private final int[] timeErrorColumns = new int[MAX_TIME_ERRORS];
+	private final String[] timeErrorNames = new String[MAX_TIME_ERRORS];
+	private final String[] timeErrorValues = new String[MAX_TIME_ERRORS];
+	private final Exception[] timeErrors = new Exception[MAX_TIME_ERRORS];
+
+	private int size;
+	private int[] columns;
+	private String[] names;
+	private int[] types;
+	private String[] strings;
+	private long[] longs;
+	private double[] doubles;
+	private Date[] dates;
+	private Exception[] errors;
+
+	CSVConvertedEvent(int capacity) {
+		this.columns = new int[capacity];
+		this.names = new String[capacity];
+		this.types = new int[capacity];
+		this.strings = new String[capacity];
+		this.longs = new long[capacity];
+		this.doubles = new double[capacity];
+		this.dates = new Date[capacity];
+		this.errors = new Exception[capacity];
+	}
+
+	void reset(int lineIndex) {
+		this.lineIndex = lineIndex;
+		this.eventClass = null;
+		this.completionTime = null;
+		this.startTime = null;
+		Arrays.fill(timeErrors, 0, numTimeErrors, null);
+		this.numTimeErrors = 0;
+		// Release references to the values of the last row
+		Arrays.fill(strings, 0, size, null);
+		Arrays.fill(dates, 0, size, null);
+		Arrays.fill(errors, 0, size, null);
+		this.size = 0;
+	}
+
+	int getLineIndex() {
+		return lineIndex;
+	}
+
+	void setEventClass(String eventClass) {
+		this.eventClass = eventClass;
+	}
+
+	void setCompletionTime(Date completionTime) {
+		this.completionTime = completionTime;
+	}
+
+	void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	void addTimeError(int columnIndex, String name, String value, Exception e) {
+		timeErrorColumns[numTimeErrors] = columnIndex;
+		timeErrorNames[numTimeErrors] = name;
+		timeErrorValues[numTimeErrors] = value;
+		timeErrors[numTimeErrors] = e;
+		numTimeErrors++;
+	}
+
+	void addLiteral(int columnIndex, String name, String value) {
+		strings[addSlot(columnIndex, name, LITERAL)] = value;
+	}
+
+	void addDiscrete(int columnIndex, String name, long value) {
+		longs[addSlot(columnIndex, name, DISCRETE)] = value;
+	}
+
+	void addContinuous(int columnIndex, String name, double value) {
+		doubles[addSlot(columnIndex, name, CONTINUOUS)] = value;
+	}
+
+	void addTime(int columnIndex, String name, Date value) {
+		dates[addSlot(columnIndex, name, TIME)] = value;
+	}
+
+	void addBoolean(int columnIndex, String name, boolean value) {
+		longs[addSlot(columnIndex, name, BOOLEAN)] = value ? 1 : 0;
+	}
+
+	/**
+	 * Records an error for the cell, optionally keeping the original value as
+	 * literal attribute.
+	 *
+	 * @param columnIndex
+	 * @param name
+	 * @param value
+	 * @param e
+	 * @param keepValue
+	 */
+	void addError(int columnIndex, String name, String value, Exception e, boolean keepValue) {
+		int slot = addSlot(columnIndex, name, keepValue ? LITERAL : NO_VALUE);
+		strings[slot] = value;
+		errors[slot] = e;
+	}
+
+	/**
+	 * Replaces the event class and all literal values, except for invalid
+	 * values that were kept, with their canonical instance.
+	 *
+	 * @param dictionary
+	 * @param eventClassColumn
+	 *            column index of the event class in the dictionary
+	 */
+	void internLiterals(CSVValueDictionary dictionary, int eventClassColumn) {
+		eventClass = dictionary.intern(eventClassColumn, eventClass);
+		for (int i = 0; i < size; i++) {
+			if (types[i] == LITERAL && errors[i] == null) {
+				strings[i] = dictionary.intern(columns[i], strings[i]);
+			}
+		}
+	}
+
+	private int addSlot(int columnIndex, String name, int type) {
+		if (size == columns.length) {
+			grow();
+		}
+		columns[size] = columnIndex;
+		names[size] = name;
+		types[size] = type;
+		return size++;
+	}
+
+	private void grow() {
+		int capacity = Math.max(4, columns.length * 2);
+		columns = Arrays.copyOf(columns, capacity);
+		names = Arrays.copyOf(names, capacity);
+		types = Arrays.copyOf(types, capacity);
+		strings = Arrays.copyOf(strings, capacity);
+		longs = Arrays.copyOf(longs, capacity);
+		doubles = Arrays.copyOf(doubles, capacity);
+		dates = Arrays.copyOf(dates, capacity);
+		errors = Arrays.copyOf(errors, capacity);
+	}
+
+	/**
+	 * Passes the event with all its attributes and errors to the handler.
+	 *
+	 * @param conversionHandler
+	 * @throws CSVConversionException
+	 */
+	<R> void emit(CSVConversionHandler<R> conversionHandler) throws CSVConversionException {
+		for (int i = 0; i < numTimeErrors; i++) {
+			conversionHandler.errorDetected(lineIndex, timeErrorColumns[i], timeErrorNames[i], timeErrorValues[i],
+					timeErrors[i]);
+		}
+		conversionHandler.startEvent(eventClass, completionTime, startTime);
+		for (int i = 0; i < size; i++) {
+			String name = names[i];
+			if (errors[i] != null) {
+				conversionHandler.errorDetected(lineIndex, columns[i], name, strings[i], errors[i]);
+			}
+			switch (types[i]) {
+				case LITERAL :
+					conversionHandler.startAttribute(name, strings[i]);
+					break;
+				case DISCRETE :
+					conversionHandler.startAttribute(name, longs[i]);
+					break;
+				case CONTINUOUS :
+					conversionHandler.startAttribute(name, doubles[i]);
+					break;
+				case TIME :
+					conversionHandler.startAttribute(name, dates[i]);
+					break;
+				case BOOLEAN :
+					conversionHandler.startAttribute(name, longs[i] != 0);
+					break;
+				case NO_VALUE :
+				default :
+					break;
+			}
+			conversionHandler.endAttribute();
+		}
+		conversionHandler.endEvent();
+	}
+
+}
@@ -0,0 +1,347 @@
+package org.processmining.log.csvimport;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.processmining.log.csvimport.handler.CSVConversionHandler;
+
+/**
+ * Collects the errors that are reported to a {@link CSVConversionHandler}
+ * without formatting a message for each of them. Errors are grouped by their
+ * {@link ErrorKind}, i.e., the column and the type of the error. For each kind
+ * the exact number of errors and the first errors as samples are kept, so the
+ * memory used is bounded by the number of kinds regardless of the number of
+ * invalid cells. Optionally, all errors are written to a gzip compressed,
+ * tab-separated file with the columns line, column index, attribute, error
+ * type, and value.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVErrorSink implements Closeable {
+
+	public static final int DEFAULT_MAX_SAMPLES = 10;
+
+	/**
+	 * Errors in the same column with the same type of error.
+	 */
+	public static final class ErrorKind {
+
+		private final int columnIndex;
+		private final String attributeName;
+		private final Class<? extends Exception> errorType;
+		private final String errorTypeName;
+
+		private long count;
+		private final List<ConversionError> samples = new ArrayList<>();
+
+		private ErrorKind(int columnIndex, String attributeName, Class<? extends Exception> errorType) {
+			this.columnIndex = columnIndex;
+			this.attributeName = attributeName;
+			this.errorType = errorType;
+			this.errorTypeName = errorType.getSimpleName();
+		}
+
+		private boolean matches(int columnIndex, String attributeName, Class<? extends Exception> errorType) {
+			return this.columnIndex == columnIndex && this.errorType == errorType
+					&& (this.attributeName == null ? attributeName == null : this.attributeName.equals(attributeName));
+		}
+
+		public int getColumnIndex() {
+			return columnIndex;
+		}
+
+		public String getAttributeName() {
+			return attributeName;
+		}
+
+		public String getErrorType() {
+			return errorTypeName;
+		}
+
+		/**
+		 * @return the exact number of errors of this kind
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the first errors of this kind
+		 */
+		public List<ConversionError> getSamples() {
+			return Collections.unmodifiableList(samples);
+		}
+
+		public String toString() {
+			return String.format("%s in attribute '%s' (column %s)", getErrorType(), attributeName, columnIndex);
+		}
+
+	}
+
+	/**
+	 * An invalid cell of the CSV file.
+	 */
+	public static final class ConversionError {
+
+		private final int lineNumber;
+		private final String rawValue;
+		private final String message;
+		private final ErrorKind kind;
+
+		private ConversionError(int lineNumber, String rawValue, String message, ErrorKind kind) {
+			this.lineNumber = lineNumber;
+			this.rawValue = rawValue;
+			this.message = message;
+			this.kind = kind;
+		}
+
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		public int getColumnIndex() {
+			return kind.getColumnIndex();
+		}
+
+		public String getAttributeName() {
+			return kind.getAttributeName();
+		}
+
+		/**
+		 * @return the content of the cell, may be NULL
+		 */
+		public String getRawValue() {
+			return rawValue;
+		}
+
+		/**
+		 * @return the message of the exception, may be NULL
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		public ErrorKind getKind() {
+			return kind;
+		}
+
+		public String toString() {
+			return String.format("Line %s: %s (%s)", lineNumber, rawValue == null ? "NULL" : rawValue, message);
+		}
+
+	}
+
+	private final int maxSamplesPerKind;
+	private final File errorFile;
+
+	private final List<ErrorKind> kinds = new ArrayList<>();
+	private ErrorKind lastKind;
+	private long errorCount;
+	private Writer errorWriter;
+
+	/**
+	 * Creates a sink that keeps {@link #DEFAULT_MAX_SAMPLES} samples of each
+	 * kind without writing errors to a file.
+	 */
+	public CSVErrorSink() {
+		this(DEFAULT_MAX_SAMPLES, null);
+	}
+
+	/**
+	 * @param maxSamplesPerKind
+	 *            number of errors of each kind that are kept in memory
+	 * @param errorFile
+	 *            receives all errors, is created on the first error, may be
+	 *            NULL
+	 */
+	public CSVErrorSink(int maxSamplesPerKind, File errorFile) {
+		this.maxSamplesPerKind = maxSamplesPerKind;
+		this.errorFile = errorFile;
+	}
+
+	/**
+	 * Records an error.
+	 *
+	 * @param lineNumber
+	 * @param columnIndex
+	 * @param attributeName
+	 * @param cellContent
+	 *            the invalid value
+	 * @param e
+	 *            the cause, its message is only retrieved for the samples
+	 * @throws IOException
+	 *             in case the error could not be written to the file
+	 */
+	public synchronized void add(int lineNumber, int columnIndex, String attributeName, Object cellContent,
+			Exception e) throws IOException {
+		ErrorKind kind = getKind(columnIndex, attributeName, e.getClass());
+		kind.count++;
+		errorCount++;
+		if (kind.samples.size() < maxSamplesPerKind) {
+			kind.samples.add(new ConversionError(lineNumber, toString(cellContent), e.getMessage(), kind));
+		}
+		if (errorFile != null) {
+			writeError(lineNumber, kind, toString(cellContent));
+		}
+	}
+
+	private ErrorKind getKind(int columnIndex, String attributeName, Class<? extends Exception> errorType) {
+		// Invalid cells usually come in runs of the same kind
+		if (lastKind != null && lastKind.matches(columnIndex, attributeName, errorType)) {
+			return lastKind;
+		}
+		for (ErrorKind kind : kinds) {
+			if (kind.matches(columnIndex, attributeName, errorType)) {
+				return lastKind = kind;
+			}
+		}
+		ErrorKind kind = new ErrorKind(columnIndex, attributeName, errorType);
+		kinds.add(kind);
+		return lastKind = kind;
+	}
+
+	private void writeError(int lineNumber, ErrorKind kind, String value) throws IOException {
+		if (errorWriter == null) {
+			errorWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(
+					errorFile)), StandardCharsets.UTF_8));
+			errorWriter.write("line\tcolumn\tattribute\terror\tvalue\n");
+		}
+		errorWriter.write(Integer.toString(lineNumber));
+		errorWriter.write('\t');
+		errorWriter.write(Integer.toString(kind.columnIndex));
+		errorWriter.write('\t');
+		writeEscaped(kind.attributeName);
+		errorWriter.write('\t');
+		errorWriter.write(kind.getErrorType());
+		errorWriter.write('\t');
+		writeEscaped(value);
+		errorWriter.write('\n');
+	}
+
+	private void writeEscaped(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '\t' :
+					errorWriter.write("\\t");
+					break;
+				case '\n' :
+					errorWriter.write("\\n");
+					break;
+				case '\r' :
+					errorWriter.write("\\r");
+					break;
+				case '\\' :
+					errorWriter.write("\\\\");
+					break;
+				default :
+					errorWriter.write(c);
+			}
+		}
+	}
+
+	private static String toString(Object obj) {
+		if (obj == null) {
+			return null;
+		} else if (obj instanceof Object[]) {
+			return Arrays.toString((Object[]) obj);
+		} else {
+			return obj.toString();
+		}
+	}
+
+	/**
+	 * Forgets all errors, e.g., when the conversion is restarted. A file that
+	 * is still being written is deleted.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException {
+		kinds.clear();
+		lastKind = null;
+		errorCount = 0;
+		if (errorWriter != null) {
+			close();
+			errorFile.delete();
+		}
+	}
+
+	/**
+	 * @return the exact number of errors
+	 */
+	public synchronized long getErrorCount() {
+		return errorCount;
+	}
+
+	public synchronized boolean hasErrors() {
+		return errorCount > 0;
+	}
+
+	/**
+	 * @return the kinds of errors in the order of their first occurrence
+	 */
+	public synchronized List<ErrorKind> getKinds() {
+		return new ArrayList<>(kinds);
+	}
+
+	/**
+	 * @return the file that receives all errors, or NULL
+	 */
+	public File getErrorFile() {
+		return errorFile;
+	}
+
+	/**
+	 * @return a report with the number of errors and the samples of each kind
+	 */
+	public synchronized String getSummary() {
+		if (errorCount == 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%,d errors of %s kinds:%n", errorCount, kinds.size()));
+		for (ErrorKind kind : kinds) {
+			sb.append(String.format("%n%s: %,d errors", kind, kind.count));
+			if (kind.count > kind.samples.size()) {
+				sb.append(String.format(", the first %s are", kind.samples.size()));
+			}
+			sb.append('\n');
+			for (ConversionError error : kind.samples) {
+				sb.append("  ").append(error).append('\n');
+			}
+		}
+		if (errorFile != null) {
+			sb.append(String.format("%nAll errors are listed in %s%n", errorFile));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Finishes writing the file with all errors.
+	 */
+	public synchronized void close() throws IOException {
+		if (errorWriter != null) {
+			try {
+				errorWriter.close();
+			} finally {
+				errorWriter = null;
+			}
+		}
+	}
+
+}
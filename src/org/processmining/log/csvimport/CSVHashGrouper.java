@@ -0,0 +1,265 @@
+package org.processmining.log.csvimport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVConversion.ProgressListener;
+import org.processmining.log.csvimport.CSVRowCodec.RowReaderFactory;
+import org.processmining.log.csvimport.CSVRowCodec.RowWriterFactory;
+import org.processmining.log.csvimport.CSVSorter.UncompressedCSVReaderWithoutHeader;
+import org.processmining.log.csvimport.exception.CSVSortException;
+
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataWriter;
+
+/**
+ * Groups the rows of a {@link CSVFile} by case without sorting them. Rows are
+ * first partitioned into several spill files by the hash of their case
+ * identifier, then each partition is grouped in memory in a single pass. Rows
+ * of the same case keep their original order, but the cases themselves are not
+ * ordered. While memory is tight (see {@link CSVMemoryGovernor}), smaller
+ * partitions are grouped in memory and larger ones are partitioned again.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVHashGrouper {
+
+	private static final int MAX_PARTITIONS = 256;
+	private static final int MAX_REPARTITION_DEPTH = 4;
+	private static final int CANCEL_CHECK_WINDOW = 10000;
+	private static final long MIN_IN_MEMORY_SIZE = 4 * 1024 * 1024;
+
+	// Rough factor of the in-memory size of the parsed rows to the size of the CSV file
+	private static final int IN_MEMORY_EXPANSION_FACTOR = 4;
+
+	private final CSVShards shards;
+	private final CSVCaseKey caseKey;
+	private final long maxMemoryInBytes;
+	private final CSVMemoryGovernor memoryGovernor;
+	private final ProgressListener progress;
+	private final CSVConversionMetrics metrics;
+	private final AtomicLong spillBytes = new AtomicLong();
+	private final RowReaderFactory dataReaderFactory = new RowReaderFactory();
+	private final RowWriterFactory dataWriterFactory = new RowWriterFactory(spillBytes);
+
+	// Partitioning the input ends at the first grouped partition
+	private long groupStartNanos = 0;
+	private long spillBytesBeforeGrouping = 0;
+
+	private CSVHashGrouper(CSVShards shards, int[] caseColumnIndex, String compositeSeparator, int maxMemory,
+			CSVMemoryGovernor memoryGovernor, ProgressListener progress, CSVConversionMetrics metrics) {
+		this.shards = shards;
+		this.caseKey = new CSVCaseKey(caseColumnIndex, compositeSeparator);
+		this.maxMemoryInBytes = maxMemory * 1024l * 1024l;
+		this.memoryGovernor = memoryGovernor;
+		this.progress = progress;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Groups the rows of {@link CSVShards} by case using only a configurable,
+	 * limited amount of memory.
+	 *
+	 * @param shards
+	 * @param caseColumnIndex
+	 * @param compositeSeparator
+	 * @param importConfig
+	 * @param maxMemory
+	 * @param numOfColumnsInCSV
+	 * @param numParserThreads
+	 * @param memoryGovernor
+	 *            used to group smaller partitions in memory while memory is
+	 *            tight
+	 * @param progress
+	 * @param metrics
+	 *            receives the measurements of the partitioning
+	 *            ({@link CSVConversionMetrics.Phase#SORTING}) and grouping
+	 *            ({@link CSVConversionMetrics.Phase#SPILL_MERGING}) phase
+	 * @return a {@link File} containing the grouped CSV in the same format as
+	 *         returned by {@link CSVSorter}
+	 * @throws CSVSortException
+	 */
+	public static File groupCSV(CSVShards shards, int[] caseColumnIndex, String compositeSeparator,
+			CSVConfig importConfig, int maxMemory, int numOfColumnsInCSV, int numParserThreads,
+			CSVMemoryGovernor memoryGovernor, ProgressListener progress, CSVConversionMetrics metrics)
+			throws CSVSortException {
+		CSVHashGrouper grouper = new CSVHashGrouper(shards, caseColumnIndex, compositeSeparator, maxMemory,
+				memoryGovernor, progress, metrics);
+		try {
+			long startNanos = System.nanoTime();
+			int numPartitions = grouper.choosePartitions(shards.getSizeInBytes() * IN_MEMORY_EXPANSION_FACTOR);
+			progress.log(MessageFormat.format("Partitioning CSV file by case into {0} partitions ...", numPartitions));
+			File groupedFile = Files.createTempFile(shards.getFilename() + "-grouped", ".rows").toFile();
+			try (DataReader<String[]> input = new UncompressedCSVReaderWithoutHeader(shards, importConfig,
+					numOfColumnsInCSV, numParserThreads)) {
+				DataWriter<String[]> output = grouper.dataWriterFactory.constructWriter(new FileOutputStream(
+						groupedFile));
+				try {
+					grouper.partitionAndGroup(input, numPartitions, 0, output);
+				} finally {
+					closeQuietly(output);
+				}
+			} catch (IOException | RuntimeException | CSVSortException e) {
+				groupedFile.delete();
+				throw e;
+			}
+			metrics.recordSort(shards.getSizeInBytes(), startNanos, grouper.groupStartNanos, System.nanoTime(),
+					grouper.spillBytesBeforeGrouping, grouper.spillBytes.get());
+			return groupedFile;
+		} catch (IOException e) {
+			throw new CSVSortException("Could not group CSV file by case", e);
+		}
+	}
+
+	private int choosePartitions(long estimatedSize) {
+		long partitions = (estimatedSize / getInMemoryLimit()) + 1;
+		// Each partition writer needs its buffer and dictionaries, the input and output are open as well
+		int maxPartitions = CSVRowCodec.getMaxOpenStreams(maxMemoryInBytes, MAX_PARTITIONS + 2) - 2;
+		// Leave some head room as the hash distribution is not perfect
+		return (int) Math.max(2, Math.min(maxPartitions, partitions * 2));
+	}
+
+	private void partitionAndGroup(DataReader<String[]> input, int numPartitions, int depth,
+			DataWriter<String[]> output) throws IOException, CSVSortException {
+		File[] partitionFiles = new File[numPartitions];
+		long[] partitionSizes = new long[numPartitions];
+		try {
+			writePartitions(input, numPartitions, depth, partitionFiles, partitionSizes);
+			if (depth == 0) {
+				markGroupStart();
+			}
+			for (int i = 0; i < numPartitions; i++) {
+				if (partitionSizes[i] == 0) {
+					continue;
+				}
+				try (DataReader<String[]> partitionReader = dataReaderFactory.constructReader(new FileInputStream(
+						partitionFiles[i]))) {
+					if (partitionSizes[i] > getInMemoryLimit() && depth < MAX_REPARTITION_DEPTH) {
+						// Skewed partition, split again using a different hash function
+						partitionAndGroup(partitionReader, choosePartitions(partitionSizes[i]), depth + 1, output);
+					} else {
+						groupInMemory(partitionReader, output);
+					}
+				}
+				partitionFiles[i].delete();
+				if (depth == 0) {
+					progress.log(MessageFormat.format("Grouping finished partition {0}/{1} ...", i + 1,
+							numPartitions));
+				}
+			}
+		} finally {
+			for (File partitionFile : partitionFiles) {
+				if (partitionFile != null) {
+					partitionFile.delete();
+				}
+			}
+		}
+	}
+
+	private void writePartitions(DataReader<String[]> input, int numPartitions, int depth, File[] partitionFiles,
+			long[] partitionSizes) throws IOException, CSVSortException {
+		@SuppressWarnings("unchecked")
+		DataWriter<String[]>[] partitionWriters = new DataWriter[numPartitions];
+		try {
+			for (int i = 0; i < numPartitions; i++) {
+				partitionFiles[i] = Files.createTempFile(shards.getFilename() + "-partition", ".rows").toFile();
+				partitionWriters[i] = dataWriterFactory.constructWriter(new FileOutputStream(partitionFiles[i]));
+			}
+			String[] row;
+			int rowCount = 0;
+			while ((row = input.readNext()) != null) {
+				int partition = partitionOf(caseKey.hash(row), depth, numPartitions);
+				partitionWriters[partition].writeEntry(row);
+				partitionSizes[partition] += input.estimateSizeInBytes(row);
+				if (++rowCount % CANCEL_CHECK_WINDOW == 0) {
+					if (progress.getProgress().isCancelled()) {
+						throw new CSVSortException("User cancelled grouping");
+					}
+					metrics.sampleHeap(depth == 0 ? CSVConversionMetrics.Phase.SORTING
+							: CSVConversionMetrics.Phase.SPILL_MERGING);
+				}
+			}
+		} finally {
+			for (DataWriter<String[]> writer : partitionWriters) {
+				if (writer != null) {
+					closeQuietly(writer);
+				}
+			}
+		}
+	}
+
+	private void groupInMemory(DataReader<String[]> partitionReader, DataWriter<String[]> output)
+			throws IOException {
+		// Keeps the order of first appearance of each case and the order of rows within a case
+		Map<String, List<String[]>> groups = new LinkedHashMap<>();
+		String lastCaseId = null;
+		int lastCaseHash = 0;
+		List<String[]> rows = null;
+		String[] row;
+		while ((row = partitionReader.readNext()) != null) {
+			// Rows of the same case often follow each other, only create the key for another case
+			int caseHash = caseKey.hash(row);
+			if (lastCaseId == null || caseHash != lastCaseHash || !caseKey.matches(row, lastCaseId)) {
+				lastCaseId = caseKey.format(row);
+				lastCaseHash = caseHash;
+				rows = groups.get(lastCaseId);
+				if (rows == null) {
+					rows = new ArrayList<>(4);
+					groups.put(lastCaseId, rows);
+				}
+			}
+			rows.add(row);
+		}
+		// All rows of the partition are in memory
+		metrics.sampleHeap(CSVConversionMetrics.Phase.SPILL_MERGING);
+		for (List<String[]> groupRows : groups.values()) {
+			for (String[] groupedRow : groupRows) {
+				output.writeEntry(groupedRow);
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the largest partition that is grouped in memory,
+	 *         the input and output streams need memory as well
+	 */
+	private long getInMemoryLimit() {
+		long limit = Math.max(MIN_IN_MEMORY_SIZE, maxMemoryInBytes - CSVRowCodec.STREAM_MEMORY);
+		return memoryGovernor.adjustBufferSize(limit, MIN_IN_MEMORY_SIZE);
+	}
+
+	private void markGroupStart() {
+		groupStartNanos = System.nanoTime();
+		spillBytesBeforeGrouping = spillBytes.get();
+	}
+
+	private static int partitionOf(int caseHash, int depth, int numPartitions) {
+		// Mix in the depth to get a different distribution when re-partitioning a skewed partition
+		int h = caseHash * 0x9E3779B9 + depth * 0x85EBCA6B;
+		h ^= (h >>> 16);
+		h *= 0x7FEB352D;
+		h ^= (h >>> 15);
+		return (h & Integer.MAX_VALUE) % numPartitions;
+	}
+
+	private static void closeQuietly(DataWriter<String[]> writer) throws IOException {
+		try {
+			writer.close();
+		} catch (IllegalStateException e) {
+			// already closed - ignore here to propagate the real exception
+		}
+	}
+
+}
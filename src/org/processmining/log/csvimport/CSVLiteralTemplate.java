@@ -0,0 +1,185 @@
+package org.processmining.log.csvimport;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Template for literal values that is compiled once into a sequence of
+ * literal fragments and references to the cells of a row. Formatting a row
+ * appends the segments to a buffer that is reused for all rows.
+ * <p>
+ * Templates are either compiled from a {@link MessageFormat} pattern, in which
+ * argument <code>{0}</code> is the value of the cell itself and
+ * <code>{1}</code>, <code>{2}</code>, ... are the cells of the row, or they
+ * concatenate the cells of multiple columns with a separator (e.g., for
+ * composite case identifiers).
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVLiteralTemplate {
+
+	// Argument that refers to the value of the cell itself
+	private static final int VALUE_ARGUMENT = 0;
+	// Marks a literal fragment in the arguments array
+	private static final int NO_ARGUMENT = -1;
+
+	private final String[] fragments;
+	private final int[] arguments;
+	private final String nullText;
+	private final StringBuilder buffer = new StringBuilder();
+
+	private CSVLiteralTemplate(List<String> fragments, List<Integer> arguments, String nullText) {
+		this.fragments = fragments.toArray(new String[fragments.size()]);
+		this.arguments = new int[arguments.size()];
+		for (int i = 0; i < this.arguments.length; i++) {
+			this.arguments[i] = arguments.get(i);
+		}
+		this.nullText = nullText;
+	}
+
+	/**
+	 * Compiles a {@link MessageFormat} pattern that only uses plain arguments
+	 * such as <code>{1}</code>.
+	 *
+	 * @param pattern
+	 * @return the template or NULL in case the pattern uses sub-formats (e.g.,
+	 *         <code>{1,number}</code> or <code>{1,choice,...}</code>) and needs
+	 *         to be formatted by {@link MessageFormat}
+	 */
+	static CSVLiteralTemplate compile(String pattern) {
+		List<String> fragments = new ArrayList<>();
+		List<Integer> arguments = new ArrayList<>();
+		StringBuilder fragment = new StringBuilder();
+		boolean inQuote = false;
+		int i = 0;
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+					// Escaped quote
+					fragment.append(c);
+					i += 2;
+					continue;
+				}
+				inQuote = !inQuote;
+				i++;
+			} else if (c == '{' && !inQuote) {
+				int end = pattern.indexOf('}', i);
+				if (end == -1) {
+					return null;
+				}
+				int argument = parseArgument(pattern, i + 1, end);
+				if (argument == NO_ARGUMENT) {
+					// Sub-format or something else MessageFormat has to handle
+					return null;
+				}
+				addFragment(fragments, arguments, fragment);
+				fragments.add(null);
+				arguments.add(argument);
+				i = end + 1;
+			} else {
+				fragment.append(c);
+				i++;
+			}
+		}
+		addFragment(fragments, arguments, fragment);
+		// MessageFormat formats NULL arguments as "null"
+		return new CSVLiteralTemplate(fragments, arguments, "null");
+	}
+
+	/**
+	 * Creates a template that concatenates the cells of the columns separated
+	 * by the separator. Empty cells are treated as empty strings.
+	 *
+	 * @param columnIndex
+	 * @param separator
+	 * @return the template
+	 */
+	static CSVLiteralTemplate forColumns(int[] columnIndex, String separator) {
+		List<String> fragments = new ArrayList<>();
+		List<Integer> arguments = new ArrayList<>();
+		for (int i = 0; i < columnIndex.length; i++) {
+			if (i > 0 && !separator.isEmpty()) {
+				fragments.add(separator);
+				arguments.add(NO_ARGUMENT);
+			}
+			fragments.add(null);
+			arguments.add(columnIndex[i] + 1);
+		}
+		return new CSVLiteralTemplate(fragments, arguments, "");
+	}
+
+	private static void addFragment(List<String> fragments, List<Integer> arguments, StringBuilder fragment) {
+		if (fragment.length() > 0) {
+			fragments.add(fragment.toString());
+			arguments.add(NO_ARGUMENT);
+			fragment.setLength(0);
+		}
+	}
+
+	/**
+	 * @return the argument index or {@link #NO_ARGUMENT} if the argument is
+	 *         not a plain number
+	 */
+	private static int parseArgument(String pattern, int start, int end) {
+		if (start == end || end - start > 6) {
+			return NO_ARGUMENT;
+		}
+		int argument = 0;
+		for (int i = start; i < end; i++) {
+			char c = pattern.charAt(i);
+			if (c < '0' || c > '9') {
+				return NO_ARGUMENT;
+			}
+			argument = argument * 10 + (c - '0');
+		}
+		return argument;
+	}
+
+	/**
+	 * Formats the template for one row.
+	 *
+	 * @param value
+	 *            the value of the cell itself, argument <code>{0}</code>
+	 * @param line
+	 *            the cells of the row, arguments <code>{1}</code> to
+	 *            <code>{n}</code>
+	 * @return the formatted String
+	 */
+	String format(String value, String[] line) {
+		if (fragments.length == 1 && arguments[0] != NO_ARGUMENT) {
+			// Only a single argument, no need to copy the cell
+			String cell = getArgument(arguments[0], value, line);
+			return cell != null ? cell : nullText;
+		}
+		buffer.setLength(0);
+		for (int i = 0; i < fragments.length; i++) {
+			int argument = arguments[i];
+			if (argument == NO_ARGUMENT) {
+				buffer.append(fragments[i]);
+			} else if (argument - 1 >= line.length) {
+				// Same as MessageFormat for missing arguments
+				buffer.append('{').append(argument).append('}');
+			} else {
+				String cell = getArgument(argument, value, line);
+				buffer.append(cell != null ? cell : nullText);
+			}
+		}
+		return buffer.toString();
+	}
+
+	private static String getArgument(int argument, String value, String[] line) {
+		if (argument == VALUE_ARGUMENT) {
+			return value;
+		} else if (argument - 1 < line.length) {
+			return line[argument - 1];
+		} else {
+			return "{" + argument + "}";
+		}
+	}
+
+}
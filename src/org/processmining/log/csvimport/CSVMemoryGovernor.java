@@ -0,0 +1,126 @@
+package org.processmining.log.csvimport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sizes the memory used by the import based on the heap usage reported by the
+ * {@link MemoryMXBean}. The budget for sorting is chosen once when the
+ * conversion starts. It is the configured fraction of the maximum heap, but at
+ * most half of the heap that is still available, since the converted log is
+ * built in the same heap afterwards. While the import is running, buffers are
+ * reduced whenever the heap usage exceeds a threshold.
+ * <p>
+ * The current usage of the heap includes garbage that has not been collected
+ * yet, which would make the heap look full most of the time. Therefore, the
+ * usage of each heap pool is taken as reported after its last collection
+ * ({@link MemoryPoolMXBean#getCollectionUsage()}), which only changes when the
+ * garbage collector runs.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVMemoryGovernor {
+
+	// Heap usage above which buffers are reduced
+	static final double TIGHT_HEAP_USAGE = 0.80;
+
+	private static final long MIN_BUDGET_IN_BYTES = 16 * 1024 * 1024;
+
+	private final MemoryMXBean memoryBean;
+	private final List<MemoryPoolMXBean> heapPools;
+	private final long budgetInBytes;
+
+	/**
+	 * @param maxHeapFraction
+	 *            the maximum fraction of the heap used for sorting
+	 */
+	CSVMemoryGovernor(double maxHeapFraction) {
+		this.memoryBean = ManagementFactory.getMemoryMXBean();
+		this.heapPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				heapPools.add(pool);
+			}
+		}
+		long maxHeap = getMaxHeap(memoryBean.getHeapMemoryUsage());
+		long available = Math.max(0, maxHeap - getLiveHeap());
+		long budget = Math.min((long) (maxHeap * maxHeapFraction), available / 2);
+		this.budgetInBytes = Math.max(MIN_BUDGET_IN_BYTES, budget);
+	}
+
+	/**
+	 * @return the memory budget for sorting in bytes
+	 */
+	long getBudgetInBytes() {
+		return budgetInBytes;
+	}
+
+	/**
+	 * @return the memory budget for sorting in MB
+	 */
+	int getBudgetInMB() {
+		return (int) (budgetInBytes / 1024 / 1024);
+	}
+
+	/**
+	 * @return the fraction of the maximum heap that was used after the last
+	 *         garbage collection
+	 */
+	double getHeapUsage() {
+		return getLiveHeap() / (double) getMaxHeap(memoryBean.getHeapMemoryUsage());
+	}
+
+	/**
+	 * @return the heap in bytes that was used after the last garbage
+	 *         collection of each pool, or the current usage of pools that do
+	 *         not report it
+	 */
+	private long getLiveHeap() {
+		if (heapPools.isEmpty()) {
+			return memoryBean.getHeapMemoryUsage().getUsed();
+		}
+		long used = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage == null) {
+				usage = pool.getUsage();
+			}
+			if (usage != null) {
+				used += usage.getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return whether the heap usage exceeds {@link #TIGHT_HEAP_USAGE}
+	 */
+	boolean isMemoryTight() {
+		return getHeapUsage() >= TIGHT_HEAP_USAGE;
+	}
+
+	/**
+	 * @param preferredSize
+	 * @param minSize
+	 * @return the preferred size, or a quarter of it (but at least the minimum
+	 *         size) in case memory is tight
+	 */
+	long adjustBufferSize(long preferredSize, long minSize) {
+		if (isMemoryTight()) {
+			return Math.max(minSize, preferredSize / 4);
+		}
+		return preferredSize;
+	}
+
+	private static long getMaxHeap(MemoryUsage usage) {
+		// The maximum may be undefined
+		return usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+	}
+
+}
@@ -0,0 +1,488 @@
+package org.processmining.log.csvimport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.processmining.log.csv.ICSVReader;
+
+import com.fasterxml.sort.DataReader;
+import com.fasterxml.sort.DataReaderFactory;
+import com.fasterxml.sort.DataWriter;
+import com.fasterxml.sort.DataWriterFactory;
+
+/**
+ * Compact binary encoding of CSV rows used for the temporary files of the
+ * {@link CSVSorter}. Each row is stored as the number of cells followed by the
+ * cells. A cell is either NULL, a length-prefixed UTF-8 string, or a reference
+ * to a value that was seen before in the same column. Repeated values (e.g.,
+ * activity names, resources, status codes) are thereby only stored once per
+ * file. All numbers are stored as variable length integers. Unpaired
+ * surrogates are stored as three byte sequences, so that any string is
+ * restored as it was written.
+ * <p>
+ * The dictionaries of a stream are bounded in their number of entries per
+ * column and in their total heap size ({@link #MAX_DICTIONARY_BYTES}); once
+ * they are full or in case of long values, cells are stored as plain strings.
+ * The dictionary of a column in which values are rarely repeated (e.g.,
+ * time-stamps or identifiers) is dropped by writer and reader. Thus, each open
+ * reader or writer needs at most {@link #STREAM_MEMORY} bytes of heap, which
+ * should be charged to the memory budget for each stream that is kept open.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVRowCodec {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Estimated heap used by the dictionaries of all columns of one stream
+	 */
+	static final int MAX_DICTIONARY_BYTES = 256 * 1024;
+
+	/**
+	 * Estimated heap used by one open reader or writer
+	 */
+	static final int STREAM_MEMORY = BUFFER_SIZE + MAX_DICTIONARY_BYTES;
+
+	private static final int MAX_DICTIONARY_SIZE = 16 * 1024;
+	private static final int MAX_DICTIONARY_VALUE_LENGTH = 128;
+
+	// Cells of a column after which the hit rate of its dictionary is checked
+	private static final int DICTIONARY_CHECK_WINDOW = 1024;
+	private static final int MIN_DICTIONARY_HITS_PER_WINDOW = DICTIONARY_CHECK_WINDOW / 2;
+
+	// Cell tags, tags >= FIRST_REFERENCE refer to dictionary entries
+	private static final int TAG_NULL = 0;
+	private static final int TAG_VALUE = 1;
+	private static final int TAG_DICTIONARY_VALUE = 2;
+	// Plain value, the dictionary of the column is dropped
+	private static final int TAG_DROP_DICTIONARY = 3;
+	private static final int FIRST_REFERENCE = 4;
+
+	// Approximate heap layout of a String[] (64-bit JVM with compressed oops)
+	private static final int ARRAY_HEADER_SIZE = 16;
+	private static final int REFERENCE_SIZE = 4;
+	private static final int STRING_OBJECT_SIZE = 24;
+	// Map node, boxed id and table slot of a dictionary entry of the writer
+	private static final int DICTIONARY_ENTRY_SIZE = 56;
+
+	private CSVRowCodec() {
+	}
+
+	/**
+	 * @param memoryInBytes
+	 * @param maxStreams
+	 * @return how many readers or writers can be kept open within the memory,
+	 *         but at least 2 and at most maxStreams
+	 */
+	static int getMaxOpenStreams(long memoryInBytes, int maxStreams) {
+		return (int) Math.max(2, Math.min(maxStreams, memoryInBytes / STREAM_MEMORY));
+	}
+
+	static final class RowWriterFactory extends DataWriterFactory<String[]> {
+
+		private final AtomicLong bytesWritten;
+
+		RowWriterFactory() {
+			this(null);
+		}
+
+		/**
+		 * @param bytesWritten
+		 *            incremented by the number of bytes written to the files,
+		 *            may be NULL
+		 */
+		RowWriterFactory(AtomicLong bytesWritten) {
+			this.bytesWritten = bytesWritten;
+		}
+
+		public DataWriter<String[]> constructWriter(OutputStream os) throws IOException {
+			return new RowWriter(bytesWritten != null ? new CountingOutputStream(os, bytesWritten) : os);
+		}
+
+	}
+
+	/**
+	 * Counts the bytes written to the underlying stream, the count may be
+	 * shared by several streams.
+	 */
+	static final class CountingOutputStream extends FilterOutputStream {
+
+		private final AtomicLong bytesWritten;
+
+		CountingOutputStream(OutputStream out, AtomicLong bytesWritten) {
+			super(out);
+			this.bytesWritten = bytesWritten;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			bytesWritten.incrementAndGet();
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			bytesWritten.addAndGet(len);
+		}
+
+	}
+
+	static final class RowReaderFactory extends DataReaderFactory<String[]> {
+
+		public DataReader<String[]> constructReader(InputStream is) throws IOException {
+			return new RowReader(is);
+		}
+
+	}
+
+	/**
+	 * Dictionary of one column of the writer.
+	 */
+	private static final class ColumnDictionary {
+
+		private Map<String, Integer> ids = new HashMap<>();
+		private long bytes;
+		private int lookups;
+		private int hits;
+
+	}
+
+	static final class RowWriter extends DataWriter<String[]> {
+
+		private final OutputStream os;
+		private final List<ColumnDictionary> dictionaries = new ArrayList<>();
+		private long dictionaryBytes;
+		private byte[] encodingBuffer = new byte[256];
+
+		RowWriter(OutputStream os) {
+			this.os = new BufferedOutputStream(os, BUFFER_SIZE);
+		}
+
+		public void writeEntry(String[] row) throws IOException {
+			writeVarInt(row.length);
+			for (int i = 0; i < row.length; i++) {
+				writeCell(i, row[i]);
+			}
+		}
+
+		private void writeCell(int column, String value) throws IOException {
+			if (value == null) {
+				writeVarInt(TAG_NULL);
+				return;
+			}
+			if (value.length() > MAX_DICTIONARY_VALUE_LENGTH) {
+				writeVarInt(TAG_VALUE);
+				writeString(value);
+				return;
+			}
+			ColumnDictionary dictionary = getDictionary(column);
+			if (dictionary.ids == null) {
+				writeVarInt(TAG_VALUE);
+				writeString(value);
+				return;
+			}
+			Integer id = dictionary.ids.get(value);
+			if (id != null) {
+				dictionary.hits++;
+			}
+			if (++dictionary.lookups == DICTIONARY_CHECK_WINDOW) {
+				if (dictionary.hits < MIN_DICTIONARY_HITS_PER_WINDOW) {
+					// Values are rarely repeated, the memory is better used for other columns
+					dictionaryBytes -= dictionary.bytes;
+					dictionary.ids = null;
+					writeVarInt(TAG_DROP_DICTIONARY);
+					writeString(value);
+					return;
+				}
+				dictionary.lookups = 0;
+				dictionary.hits = 0;
+			}
+			if (id != null) {
+				writeVarInt(FIRST_REFERENCE + id);
+				return;
+			}
+			long entrySize = DICTIONARY_ENTRY_SIZE + estimateSize(value);
+			if (dictionary.ids.size() < MAX_DICTIONARY_SIZE && dictionaryBytes + entrySize <= MAX_DICTIONARY_BYTES) {
+				dictionary.ids.put(value, dictionary.ids.size());
+				dictionary.bytes += entrySize;
+				dictionaryBytes += entrySize;
+				writeVarInt(TAG_DICTIONARY_VALUE);
+				writeString(value);
+			} else {
+				writeVarInt(TAG_VALUE);
+				writeString(value);
+			}
+		}
+
+		private ColumnDictionary getDictionary(int column) {
+			while (dictionaries.size() <= column) {
+				dictionaries.add(new ColumnDictionary());
+			}
+			return dictionaries.get(column);
+		}
+
+		/**
+		 * @return the estimated heap used by the dictionaries of all columns
+		 */
+		long getDictionaryBytes() {
+			return dictionaryBytes;
+		}
+
+		private void writeString(String value) throws IOException {
+			int length = encodeUTF8(value);
+			writeVarInt(length);
+			os.write(encodingBuffer, 0, length);
+		}
+
+		/**
+		 * Encodes the string as UTF-8 into the encoding buffer.
+		 *
+		 * @return the number of bytes used
+		 */
+		private int encodeUTF8(String value) {
+			int maxLength = value.length() * 3;
+			if (encodingBuffer.length < maxLength) {
+				encodingBuffer = new byte[Math.max(maxLength, encodingBuffer.length * 2)];
+			}
+			byte[] buf = encodingBuffer;
+			int pos = 0;
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					buf[pos++] = (byte) c;
+				} else if (c < 0x800) {
+					buf[pos++] = (byte) (0xC0 | (c >> 6));
+					buf[pos++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+					buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else {
+					// Unpaired surrogates are encoded as is and restored by the decoder
+					buf[pos++] = (byte) (0xE0 | (c >> 12));
+					buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buf[pos++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+			return pos;
+		}
+
+		private void writeVarInt(int value) throws IOException {
+			while ((value & ~0x7F) != 0) {
+				os.write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			os.write(value);
+		}
+
+		public void close() throws IOException {
+			os.close();
+		}
+
+	}
+
+	static final class RowReader extends DataReader<String[]> implements ICSVReader {
+
+		private final InputStream is;
+		private final List<List<String>> dictionaries = new ArrayList<>();
+		private byte[] decodingBuffer = new byte[256];
+		private char[] charBuffer = new char[256];
+
+		// Cells of the last row that refer to a shared dictionary value
+		private String[] lastRow;
+		private boolean[] lastRowShared = new boolean[0];
+
+		RowReader(InputStream is) {
+			this.is = new BufferedInputStream(is, BUFFER_SIZE);
+		}
+
+		public String[] readNext() throws IOException {
+			int length = readVarInt(true);
+			if (length == -1) {
+				return null;
+			}
+			String[] row = new String[length];
+			if (lastRowShared.length < length) {
+				lastRowShared = new boolean[length];
+			}
+			for (int i = 0; i < length; i++) {
+				row[i] = readCell(i);
+			}
+			lastRow = row;
+			return row;
+		}
+
+		private String readCell(int column) throws IOException {
+			int tag = readVarInt(false);
+			lastRowShared[column] = false;
+			switch (tag) {
+				case TAG_NULL :
+					return null;
+				case TAG_VALUE :
+					return readString();
+				case TAG_DICTIONARY_VALUE :
+					String value = readString();
+					getDictionary(column).add(value);
+					return value;
+				case TAG_DROP_DICTIONARY :
+					// The writer does not refer to the dictionary of this column anymore
+					getDictionary(column);
+					dictionaries.set(column, new ArrayList<String>(0));
+					return readString();
+				default :
+					List<String> dictionary = getDictionary(column);
+					int id = tag - FIRST_REFERENCE;
+					if (id >= dictionary.size()) {
+						throw new IOException("Corrupt temporary file, unknown dictionary entry " + id
+								+ " in column " + column);
+					}
+					lastRowShared[column] = true;
+					return dictionary.get(id);
+			}
+		}
+
+		private List<String> getDictionary(int column) {
+			while (dictionaries.size() <= column) {
+				dictionaries.add(new ArrayList<String>());
+			}
+			return dictionaries.get(column);
+		}
+
+		private String readString() throws IOException {
+			int length = readVarInt(false);
+			if (decodingBuffer.length < length) {
+				decodingBuffer = new byte[Math.max(length, decodingBuffer.length * 2)];
+			}
+			int read = 0;
+			while (read < length) {
+				int n = is.read(decodingBuffer, read, length - read);
+				if (n == -1) {
+					throw new EOFException("Unexpected end of temporary file");
+				}
+				read += n;
+			}
+			return decodeUTF8(length);
+		}
+
+		/**
+		 * Decodes the UTF-8 written by the writer. Other than a
+		 * {@link java.nio.charset.CharsetDecoder}, this restores unpaired
+		 * surrogates instead of replacing them.
+		 *
+		 * @param length
+		 *            number of bytes in the decoding buffer
+		 * @return the decoded string
+		 * @throws IOException
+		 */
+		private String decodeUTF8(int length) throws IOException {
+			// Never more characters than bytes
+			if (charBuffer.length < length) {
+				charBuffer = new char[Math.max(length, charBuffer.length * 2)];
+			}
+			byte[] buf = decodingBuffer;
+			char[] chars = charBuffer;
+			int count = 0;
+			int pos = 0;
+			while (pos < length) {
+				int b = buf[pos++] & 0xFF;
+				if (b < 0x80) {
+					chars[count++] = (char) b;
+				} else if (b < 0xE0 && pos + 1 <= length) {
+					chars[count++] = (char) (((b & 0x1F) << 6) | (buf[pos++] & 0x3F));
+				} else if (b < 0xF0 && pos + 2 <= length) {
+					chars[count++] = (char) (((b & 0x0F) << 12) | ((buf[pos++] & 0x3F) << 6) | (buf[pos++] & 0x3F));
+				} else if (b >= 0xF0 && pos + 3 <= length) {
+					int codePoint = ((b & 0x07) << 18) | ((buf[pos++] & 0x3F) << 12) | ((buf[pos++] & 0x3F) << 6)
+							| (buf[pos++] & 0x3F);
+					chars[count++] = Character.highSurrogate(codePoint);
+					chars[count++] = Character.lowSurrogate(codePoint);
+				} else {
+					throw new IOException("Corrupt temporary file, truncated character");
+				}
+			}
+			return new String(chars, 0, count);
+		}
+
+		/**
+		 * @param allowEOF
+		 * @return the next variable length integer or -1 in case EOF is
+		 *         allowed and encountered
+		 * @throws IOException
+		 */
+		private int readVarInt(boolean allowEOF) throws IOException {
+			int value = 0;
+			int shift = 0;
+			while (true) {
+				int b = is.read();
+				if (b == -1) {
+					if (allowEOF && shift == 0) {
+						return -1;
+					}
+					throw new EOFException("Unexpected end of temporary file");
+				}
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+				shift += 7;
+			}
+		}
+
+		public int estimateSizeInBytes(String[] row) {
+			if (row == lastRow) {
+				// Values from the dictionary are shared and do not occupy additional memory
+				return estimateSize(row, lastRowShared);
+			} else {
+				return estimateSize(row, null);
+			}
+		}
+
+		public void close() throws IOException {
+			is.close();
+		}
+
+	}
+
+	/**
+	 * Estimates the heap size of a row, only counting the references for cells
+	 * that are marked as shared.
+	 *
+	 * @param row
+	 * @param shared
+	 *            may be NULL
+	 * @return the estimated size in bytes
+	 */
+	static int estimateSize(String[] row, boolean[] shared) {
+		int size = align(ARRAY_HEADER_SIZE + REFERENCE_SIZE * row.length);
+		for (int i = 0; i < row.length; i++) {
+			String s = row[i];
+			if (s != null && (shared == null || !shared[i])) {
+				size += estimateSize(s);
+			}
+		}
+		return size;
+	}
+
+	private static int estimateSize(String s) {
+		return STRING_OBJECT_SIZE + align(ARRAY_HEADER_SIZE + 2 * s.length());
+	}
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+}
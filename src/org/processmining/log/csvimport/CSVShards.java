@@ -0,0 +1,173 @@
+package org.processmining.log.csvimport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+
+/**
+ * One or more {@link CSVFile}s, e.g., exported per day or region, that are
+ * converted as if their rows were in a single CSV file. All files need the same
+ * columns, which is verified by a fingerprint of their headers. The columns may
+ * appear in a different order, rows of such files are re-arranged to the column
+ * order of the first file.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVShards {
+
+	private final List<CSVFile> files;
+	private final String[] header;
+	private final long fingerprint;
+	// Position of each column of the first file in the rows of each file, NULL for the same order
+	private final int[][] columnMappings;
+
+	private CSVShards(List<CSVFile> files, String[] header, long fingerprint, int[][] columnMappings) {
+		this.files = files;
+		this.header = header;
+		this.fingerprint = fingerprint;
+		this.columnMappings = columnMappings;
+	}
+
+	/**
+	 * Reads the headers of all files and verifies that the files have the same
+	 * columns.
+	 *
+	 * @param files
+	 * @param importConfig
+	 * @return the shards
+	 * @throws IOException
+	 *             in case a header cannot be read
+	 * @throws CSVConversionException
+	 *             in case a file has different columns than the first file
+	 */
+	static CSVShards open(List<CSVFile> files, CSVConfig importConfig) throws IOException, CSVConversionException {
+		if (files.isEmpty()) {
+			throw new CSVConversionException("No CSV file to convert");
+		}
+		String[] header = files.get(0).readHeader(importConfig);
+		long fingerprint = fingerprint(header);
+		Map<String, Integer> headerIndex = new HashMap<>();
+		for (int i = 0; i < header.length; i++) {
+			headerIndex.put(header[i], i);
+		}
+		int[][] columnMappings = new int[files.size()][];
+		for (int i = 1; i < files.size(); i++) {
+			CSVFile file = files.get(i);
+			String[] shardHeader = file.readHeader(importConfig);
+			if (fingerprint(shardHeader) != fingerprint || shardHeader.length != header.length) {
+				throw new CSVConversionException(String.format(
+						"The columns of CSV file %s %s do not match the columns of CSV file %s %s. All files need to have the same columns.",
+						file.getFilename(), Arrays.toString(shardHeader), files.get(0).getFilename(),
+						Arrays.toString(header)));
+			}
+			if (!Arrays.equals(header, shardHeader)) {
+				int[] mapping = new int[header.length];
+				for (int j = 0; j < shardHeader.length; j++) {
+					Integer index = headerIndex.get(shardHeader[j]);
+					if (index == null) {
+						throw new CSVConversionException(String.format(
+								"Column %s of CSV file %s does not exist in CSV file %s.", shardHeader[j],
+								file.getFilename(), files.get(0).getFilename()));
+					}
+					mapping[index] = j;
+				}
+				columnMappings[i] = mapping;
+			}
+		}
+		return new CSVShards(Collections.unmodifiableList(new ArrayList<>(files)), header, fingerprint, columnMappings);
+	}
+
+	/**
+	 * Fingerprint of the column names that does not depend on the order of the
+	 * columns.
+	 *
+	 * @param header
+	 * @return the fingerprint
+	 */
+	static long fingerprint(String[] header) {
+		String[] columns = header.clone();
+		Arrays.sort(columns, new Comparator<String>() {
+
+			public int compare(String o1, String o2) {
+				if (o1 == null) {
+					return o2 == null ? 0 : -1;
+				}
+				return o2 == null ? 1 : o1.compareTo(o2);
+			}
+		});
+		// 64-bit FNV-1a over the sorted column names
+		long hash = 0xcbf29ce484222325L;
+		for (String column : columns) {
+			String value = column == null ? "" : column;
+			for (int i = 0; i < value.length(); i++) {
+				hash ^= value.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			// Separates the column names, cannot appear in a name read from the header
+			hash ^= 0x10000;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the files in the order in which their rows are read
+	 */
+	List<CSVFile> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return the header of the first file
+	 */
+	String[] getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the fingerprint of the header shared by all files
+	 */
+	long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @param fileIndex
+	 * @return the index of each column of the first file in the rows of the
+	 *         file, or NULL if the file has the same column order
+	 */
+	int[] getColumnMapping(int fileIndex) {
+		return columnMappings[fileIndex];
+	}
+
+	/**
+	 * @return the name of the first file, e.g., to name temporary files
+	 */
+	String getFilename() {
+		return files.get(0).getFilename();
+	}
+
+	/**
+	 * @return the total size of all files
+	 * @throws IOException
+	 */
+	long getSizeInBytes() throws IOException {
+		long size = 0;
+		for (CSVFile file : files) {
+			size += Files.size(file.getFile());
+		}
+		return size;
+	}
+
+}
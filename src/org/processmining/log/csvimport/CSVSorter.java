@@ -1,10 +1,9 @@
 package org.processmining.log.csvimport;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.Comparator;
@@ -15,52 +14,76 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.processmining.log.csv.CSVFile;
 import org.processmining.log.csv.ICSVReader;
-import org.processmining.log.csv.ICSVWriter;
 import org.processmining.log.csv.config.CSVConfig;
 import org.processmining.log.csvimport.CSVConversion.ProgressListener;
+import org.processmining.log.csvimport.CSVRowCodec.RowReader;
+import org.processmining.log.csvimport.CSVRowCodec.RowReaderFactory;
+import org.processmining.log.csvimport.CSVRowCodec.RowWriterFactory;
 import org.processmining.log.csvimport.exception.CSVSortException;
 
 import com.fasterxml.sort.DataReader;
-import com.fasterxml.sort.DataReaderFactory;
 import com.fasterxml.sort.DataWriter;
-import com.fasterxml.sort.DataWriterFactory;
 import com.fasterxml.sort.IteratingSorter;
 import com.fasterxml.sort.SortConfig;
 import com.fasterxml.sort.SortingState.Phase;
 import com.fasterxml.sort.TempFileProvider;
-import com.ning.compress.lzf.LZFInputStream;
-import com.ning.compress.lzf.parallel.PLZFOutputStream;
+import com.google.common.base.Function;
 
 /**
- * Sorts an {@link CSVFile}
+ * Sorts an {@link CSVFile}. Temporary files are written in the binary format of
+ * {@link CSVRowCodec}.
  * 
  * @author F. Mannhardt
  * 
  */
 final class CSVSorter {
 
-	private static final class UncompressedCSVReaderWithoutHeader extends DataReader<String[]> {
+	/**
+	 * Reads the rows of all {@link CSVShards} one file after the other,
+	 * skipping the header of each file.
+	 */
+	static final class UncompressedCSVReaderWithoutHeader extends DataReader<String[]> implements ICSVReader {
 
 		private static final int MAX_COLUMNS_FOR_ERROR_REPORTING = 32;
 		private static final int MAX_FIELD_LENGTH_FOR_ERROR_REPORTING = 64;
 
-		private final ICSVReader reader;
+		private final CSVShards shards;
+		private final CSVConfig importConfig;
 		private final int numColumns;
+		private final int numParserThreads;
+
+		private ICSVReader reader;
+		private int[] columnMapping;
+		private int currentFile = 0;
 		private int currentRow = 1;
 
-		private UncompressedCSVReaderWithoutHeader(CSVFile csvFile, CSVConfig importConfig, int numColumns)
-				throws IOException {
+		UncompressedCSVReaderWithoutHeader(CSVShards shards, CSVConfig importConfig, int numColumns,
+				int numParserThreads) throws IOException {
+			this.shards = shards;
+			this.importConfig = importConfig;
 			this.numColumns = numColumns;
-			this.reader = csvFile.createReader(importConfig);
+			this.numParserThreads = numParserThreads;
+			openFile();
+		}
+
+		private void openFile() throws IOException {
+			this.reader = CSVConversion.createReader(shards.getFiles().get(currentFile), importConfig,
+					numParserThreads);
+			this.columnMapping = shards.getColumnMapping(currentFile);
+			this.currentRow = 1;
 			// Skip header line
 			this.reader.readNext();
 		}
 
 		public void close() throws IOException {
-			reader.close();
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
 		}
 
 		public int estimateSizeInBytes(String[] val) {
@@ -68,15 +91,33 @@ final class CSVSorter {
 		}
 
 		public String[] readNext() throws IOException {
+			if (reader == null) {
+				return null;
+			}
 			String[] val = reader.readNext();
+			while (val == null && currentFile < shards.getFiles().size() - 1) {
+				reader.close();
+				currentFile++;
+				openFile();
+				val = reader.readNext();
+			}
 			if (val != null && val.length != numColumns) {
 				String offendingLine = safeToString(val);
 				throw new IOException(
 						MessageFormat
-								.format("The number of fields in rows of the CSV file is inconsistent. There should be {0} fields in each row according to the header, but there was a row with {1} fields in the CSV file! Row {2} is invalid: {3}",
-										numColumns, val.length, currentRow, offendingLine));
+								.format("The number of fields in rows of the CSV file {4} is inconsistent. There should be {0} fields in each row according to the header, but there was a row with {1} fields in the CSV file! Row {2} is invalid: {3}",
+										numColumns, val.length, currentRow, offendingLine,
+										shards.getFiles().get(currentFile).getFilename()));
 			}
 			currentRow++;
+			if (val != null && columnMapping != null) {
+				// Re-arrange to the column order of the first file
+				String[] mappedVal = new String[numColumns];
+				for (int i = 0; i < numColumns; i++) {
+					mappedVal[i] = val[columnMapping[i]];
+				}
+				return mappedVal;
+			}
 			return val;
 		}
 
@@ -110,93 +151,139 @@ final class CSVSorter {
 		}
 	}
 
-	private static final class CompressedCSVDataWriterFactory extends DataWriterFactory<String[]> {
+	/**
+	 * Applies a {@link Function} to each row before it is sorted.
+	 */
+	private static final class TransformingReader extends DataReader<String[]> {
 
-		private final CSVConfig importConfig;
-		private final CSVFile csvFile;
+		private final DataReader<String[]> reader;
+		private final Function<String[], String[]> rowFunction;
 
-		private CompressedCSVDataWriterFactory(CSVFile csvFile, CSVConfig importConfig) {
-			this.csvFile = csvFile;
-			this.importConfig = importConfig;
+		TransformingReader(DataReader<String[]> reader, Function<String[], String[]> rowFunction) {
+			this.reader = reader;
+			this.rowFunction = rowFunction;
 		}
 
-		public DataWriter<String[]> constructWriter(OutputStream os) throws IOException {
-			final ICSVWriter writer = csvFile.getCSV().createWriter(new PLZFOutputStream(os), importConfig);
-			// Write Header
-			return new DataWriter<String[]>() {
+		public String[] readNext() throws IOException {
+			String[] val = reader.readNext();
+			return val != null ? rowFunction.apply(val) : null;
+		}
 
-				public void close() throws IOException {
-					writer.close(); // catch IllegalStateException
-				}
+		public int estimateSizeInBytes(String[] val) {
+			return estimateSize(val);
+		}
 
-				public void writeEntry(String[] val) throws IOException {
-					writer.writeNext(val);
-				}
-			};
+		public void close() throws IOException {
+			reader.close();
 		}
+
 	}
 
-	private static final class CompressedCSVDataReaderFactory extends DataReaderFactory<String[]> {
+	/**
+	 * Reports larger row sizes to the sorting library while memory is tight,
+	 * so that it sorts and spills smaller segments. The sorting library only
+	 * supports a fixed memory limit, this has the same effect as reducing it
+	 * with {@link CSVMemoryGovernor#adjustBufferSize(long, long)}.
+	 */
+	private static final class GovernedReader extends DataReader<String[]> {
 
-		private final CSVConfig importConfig;
-		private final CSVFile csvFile;
+		private final DataReader<String[]> reader;
+		private final CSVMemoryGovernor memoryGovernor;
+		private final long maxMemoryInBytes;
 
-		private CompressedCSVDataReaderFactory(CSVFile csvFile, CSVConfig importConfig) {
-			this.csvFile = csvFile;
-			this.importConfig = importConfig;
-		}
+		private int rowCount = 0;
+		private int sizeFactor = 1;
 
-		public DataReader<String[]> constructReader(InputStream is) throws IOException {
-			final ICSVReader reader = csvFile.getCSV().createReader(new LZFInputStream(is), importConfig);
-			return new DataReader<String[]>() {
+		GovernedReader(DataReader<String[]> reader, CSVMemoryGovernor memoryGovernor, long maxMemoryInBytes) {
+			this.reader = reader;
+			this.memoryGovernor = memoryGovernor;
+			this.maxMemoryInBytes = maxMemoryInBytes;
+		}
 
-				public void close() throws IOException {
-					reader.close();
-				}
+		public String[] readNext() throws IOException {
+			if (++rowCount % MEMORY_CHECK_WINDOW == 0) {
+				long segmentSize = memoryGovernor.adjustBufferSize(maxMemoryInBytes, MIN_SEGMENT_SIZE);
+				sizeFactor = (int) Math.max(1, maxMemoryInBytes / segmentSize);
+			}
+			return reader.readNext();
+		}
 
-				public int estimateSizeInBytes(String[] item) {
-					return estimateSize(item);
-				}
+		public int estimateSizeInBytes(String[] val) {
+			return reader.estimateSizeInBytes(val) * sizeFactor;
+		}
 
-				public String[] readNext() throws IOException {
-					return reader.readNext();
-				}
-			};
+		public void close() throws IOException {
+			reader.close();
 		}
+
 	}
 
+	// Same as the default of the sorting library
+	private static final int DEFAULT_MAX_FILES_TO_MERGE = 16;
+
+	private static final int MEMORY_CHECK_WINDOW = 10000;
+	private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
 	private CSVSorter() {
 	}
 
 	/**
-	 * Sorts an {@link CSVFile} using only a configurable, limited amount of
-	 * memory.
+	 * Sorts the rows of {@link CSVShards} using only a configurable, limited
+	 * amount of memory.
 	 * 
-	 * @param csvFile
+	 * @param shards
 	 * @param rowComparator
 	 * @param importConfig
 	 * @param maxMemory
 	 * @param numOfColumnsInCSV
+	 * @param numParserThreads
+	 *            number of threads used to parse the input CSV
+	 * @param rowFunction
+	 *            applied to each row before sorting (e.g., to add a sort key),
+	 *            may be NULL
+	 * @param maxFilesToMerge
+	 *            the maximum number of files merged at once, values smaller
+	 *            than 2 choose the fan-in based on the memory budget
+	 * @param memoryGovernor
+	 *            used to sort smaller segments while memory is tight
 	 * @param progress
-	 * @return a {@link File} containing the sorted CSV
+	 * @param metrics
+	 *            receives the measurements of the sorting and merging phase
+	 * @return a {@link File} containing the sorted CSV, use
+	 *         {@link #openSortedFile(File)} to read it
 	 * @throws CSVSortException
 	 */
-	public static File sortCSV(final CSVFile csvFile, final Comparator<String[]> rowComparator,
+	public static File sortCSV(final CSVShards shards, final Comparator<String[]> rowComparator,
 			final CSVConfig importConfig, final int maxMemory, final int numOfColumnsInCSV,
-			final ProgressListener progress) throws CSVSortException {
+			final int numParserThreads, final Function<String[], String[]> rowFunction, final int maxFilesToMerge,
+			final CSVMemoryGovernor memoryGovernor, final ProgressListener progress, CSVConversionMetrics metrics)
+			throws CSVSortException {
+
+		final long startNanos = System.nanoTime();
+		// Set once the pre-sorted files are merged, the sorting library does not report more details
+		final AtomicLong mergeStartNanos = new AtomicLong();
+		final AtomicLong spillBytesBeforeMerge = new AtomicLong();
+		final AtomicLong spillBytes = new AtomicLong();
 
 		// Create Sorter
-		final CompressedCSVDataReaderFactory dataReaderFactory = new CompressedCSVDataReaderFactory(csvFile,
-				importConfig);
-		final CompressedCSVDataWriterFactory dataWriterFactory = new CompressedCSVDataWriterFactory(csvFile,
-				importConfig);
-		final IteratingSorter<String[]> sorter = new IteratingSorter<>(new SortConfig().withMaxMemoryUsage(
-				maxMemory * 1024l * 1024l).withTempFileProvider(new TempFileProvider() {
-
-			public File provide() throws IOException {
-				return Files.createTempFile(csvFile.getFilename() + "-merge-sort", ".lzf").toFile();
-			}
-		}), dataReaderFactory, dataWriterFactory, rowComparator);
+		final RowReaderFactory dataReaderFactory = new RowReaderFactory();
+		final RowWriterFactory dataWriterFactory = new RowWriterFactory(spillBytes);
+		SortConfig sortConfig = new SortConfig().withMaxMemoryUsage(maxMemory * 1024l * 1024l).withTempFileProvider(
+				new TempFileProvider() {
+
+					public File provide() throws IOException {
+						return Files.createTempFile(shards.getFilename() + "-merge-sort", ".rows").toFile();
+					}
+				});
+		if (maxFilesToMerge > 1) {
+			sortConfig = sortConfig.withMaxFilesToMerge(maxFilesToMerge);
+		} else {
+			// Each merged file needs its own buffer and dictionaries, which are not part of the estimated row sizes
+			sortConfig = sortConfig.withMaxFilesToMerge(CSVRowCodec.getMaxOpenStreams(maxMemory * 1024l * 1024l,
+					DEFAULT_MAX_FILES_TO_MERGE));
+		}
+		final IteratingSorter<String[]> sorter = new IteratingSorter<>(sortConfig, dataReaderFactory,
+				dataWriterFactory, rowComparator);
 
 		ExecutorService executorService = Executors.newSingleThreadExecutor();
 		Future<File> future = executorService.submit(new Callable<File>() {
@@ -204,14 +291,16 @@ final class CSVSorter {
 			public File call() throws Exception {
 
 				// Read uncompressed CSV
-				DataReader<String[]> inputDataReader = new UncompressedCSVReaderWithoutHeader(csvFile, importConfig,
-						numOfColumnsInCSV);
+				DataReader<String[]> inputDataReader = new GovernedReader(openInput(shards, importConfig,
+						numOfColumnsInCSV, numParserThreads, rowFunction), memoryGovernor, maxMemory * 1024l * 1024l);
 				try {
 					Iterator<String[]> result = sorter.sort(inputDataReader);
+					// The last merge round runs while writing the result
+					markMergeStart(mergeStartNanos, spillBytesBeforeMerge, spillBytes);
 
-					// Write sorted result to compressed file
+					// Write sorted result to a binary file
 					if (result != null) {
-						File sortedCsvFile = Files.createTempFile(csvFile.getFilename() + "-sorted", ".lzf").toFile();
+						File sortedCsvFile = Files.createTempFile(shards.getFilename() + "-sorted", ".rows").toFile();
 						DataWriter<String[]> dataWriter = dataWriterFactory.constructWriter(new FileOutputStream(
 								sortedCsvFile));
 						try {
@@ -247,6 +336,8 @@ final class CSVSorter {
 					sorter.cancel(new RuntimeException("Cancelled"));
 					throw new CSVSortException("User cancelled sorting");
 				}
+				metrics.sampleHeap(mergeStartNanos.get() == 0 ? CSVConversionMetrics.Phase.SORTING
+						: CSVConversionMetrics.Phase.SPILL_MERGING);
 				if (sorter.getPhase() == Phase.PRE_SORTING) {
 					if (sorter.getSortRound() != sortRound) {
 						sortRound = sorter.getSortRound();
@@ -258,6 +349,7 @@ final class CSVSorter {
 						progress.log(MessageFormat.format("Pre-sorting finished segment {0} ...", preSortFiles + 1));
 					}
 				} else if (sorter.getPhase() == Phase.SORTING) {
+					markMergeStart(mergeStartNanos, spillBytesBeforeMerge, spillBytes);
 					if (sorter.getSortRound() != sortRound) {
 						sortRound = sorter.getSortRound();
 						progress.log(MessageFormat.format("Sorting finished round {0}/{1} ...", sortRound + 1,
@@ -265,7 +357,12 @@ final class CSVSorter {
 					}
 				}
 			}
-			return future.get();
+			File sortedFile = future.get();
+			metrics.recordSort(shards.getSizeInBytes(), startNanos, mergeStartNanos.get(), System.nanoTime(),
+					spillBytesBeforeMerge.get(), spillBytes.get());
+			return sortedFile;
+		} catch (IOException e) {
+			throw new CSVSortException("Could not sort file.", e);
 		} catch (InterruptedException e) {
 			progress.log("Cancelling sorting, this might take a while ...");
 			sorter.cancel();
@@ -275,14 +372,51 @@ final class CSVSorter {
 		}
 	}
 
-	private static int estimateSize(String[] item) {
-		int size = 8 * ((item.length * 4 + 12) / 8);
-		for (String s : item) {
-			if (s != null) {
-				size += 8 * ((((s.length()) * 4) + 45) / 8);
-			}
+	private static void markMergeStart(AtomicLong mergeStartNanos, AtomicLong spillBytesBeforeMerge,
+			AtomicLong spillBytes) {
+		if (mergeStartNanos.compareAndSet(0, System.nanoTime())) {
+			spillBytesBeforeMerge.set(spillBytes.get());
 		}
-		return size;
+	}
+
+	/**
+	 * Opens a file returned by
+	 * {@link #sortCSV(CSVShards, Comparator, CSVConfig, int, int, int, Function, int, ProgressListener, CSVConversionMetrics)}
+	 * for reading. The caller is responsible for calling
+	 * {@link ICSVReader#close()} on the reader.
+	 * 
+	 * @param sortedFile
+	 * @return a reader returning the sorted rows without header
+	 * @throws IOException
+	 */
+	static ICSVReader openSortedFile(File sortedFile) throws IOException {
+		return new RowReader(new FileInputStream(sortedFile));
+	}
+
+	/**
+	 * Opens the {@link CSVShards} for reading the rows to be sorted.
+	 * 
+	 * @param shards
+	 * @param importConfig
+	 * @param numOfColumnsInCSV
+	 * @param numParserThreads
+	 * @param rowFunction
+	 *            may be NULL
+	 * @return a reader returning the rows without header
+	 * @throws IOException
+	 */
+	static DataReader<String[]> openInput(CSVShards shards, CSVConfig importConfig, int numOfColumnsInCSV,
+			int numParserThreads, Function<String[], String[]> rowFunction) throws IOException {
+		DataReader<String[]> reader = new UncompressedCSVReaderWithoutHeader(shards, importConfig,
+				numOfColumnsInCSV, numParserThreads);
+		if (rowFunction != null) {
+			return new TransformingReader(reader, rowFunction);
+		}
+		return reader;
+	}
+
+	static int estimateSize(String[] item) {
+		return CSVRowCodec.estimateSize(item, null);
 	}
 
 }
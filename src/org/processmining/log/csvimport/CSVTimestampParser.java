@@ -0,0 +1,346 @@
+package org.processmining.log.csvimport;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Thread-safe parser for the time stamps of one column that is created once
+ * per column. Values in the common ISO-8601 shapes (e.g.,
+ * <code>yyyy-MM-dd'T'HH:mm:ss.SSSXXX</code> or
+ * <code>yyyy-MM-dd HH:mm:ss</code>) are parsed directly to milliseconds since
+ * the epoch when the pattern of the column has this shape. Fractions of a
+ * second are read like {@link SimpleDateFormat} reads them, i.e., as number of
+ * milliseconds (<code>.5</code> is 5 ms), and digits after the third one are
+ * dropped at the end of a value (e.g., micro- or nanoseconds) as in
+ * {@link #countExcessFractionDigits(String)}. All other values and patterns
+ * are parsed by a copy of the {@link DateFormat} of the column.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVTimestampParser {
+
+	// Patterns that are parsed by the fast path, the time and the zone are optional
+	private static final Pattern ISO_PATTERN = Pattern
+			.compile("yyyy-MM-dd(?:('T'| )HH:mm(?::ss(?:\\.(S+))?)?)?(XXX|XX|X|Z)?");
+
+	private static final long MILLIS_PER_MINUTE = 60 * 1000l;
+	private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+	private final DateFormat prototype;
+	private final ThreadLocal<DateFormat> dateFormats;
+
+	// Fast path configuration
+	private final boolean fastPath;
+	private final char dateTimeSeparator;
+	private final boolean hasTime;
+	private final boolean hasSeconds;
+	private final boolean hasFraction;
+	private final boolean hasZone;
+	private final int isoZoneLetters;
+	private final TimeZone timeZone;
+
+	/**
+	 * @param dateFormat
+	 *            the format of the column, may be NULL in which case no value
+	 *            can be parsed
+	 */
+	CSVTimestampParser(DateFormat dateFormat) {
+		this.prototype = dateFormat;
+		this.dateFormats = new ThreadLocal<DateFormat>() {
+
+			protected DateFormat initialValue() {
+				return prototype != null ? (DateFormat) prototype.clone() : null;
+			}
+		};
+		Matcher matcher = null;
+		if (dateFormat instanceof SimpleDateFormat) {
+			matcher = ISO_PATTERN.matcher(((SimpleDateFormat) dateFormat).toPattern());
+		}
+		if (matcher != null && matcher.matches()) {
+			String separator = matcher.group(1);
+			this.fastPath = true;
+			this.hasTime = separator != null;
+			this.dateTimeSeparator = "'T'".equals(separator) ? 'T' : ' ';
+			this.hasSeconds = matcher.group(0).contains("ss");
+			this.hasFraction = matcher.group(2) != null;
+			this.hasZone = matcher.group(3) != null;
+			this.isoZoneLetters = hasZone && matcher.group(3).startsWith("X") ? matcher.group(3).length() : 0;
+			this.timeZone = dateFormat.getTimeZone();
+		} else {
+			this.fastPath = false;
+			this.hasTime = false;
+			this.dateTimeSeparator = ' ';
+			this.hasSeconds = false;
+			this.hasFraction = false;
+			this.hasZone = false;
+			this.isoZoneLetters = 0;
+			this.timeZone = null;
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return the parsed time stamp
+	 * @throws ParseException
+	 */
+	Date parse(String value) throws ParseException {
+		return new Date(parseMillis(value));
+	}
+
+	/**
+	 * @param value
+	 * @return the parsed time stamp in milliseconds since the epoch
+	 * @throws ParseException
+	 */
+	long parseMillis(String value) throws ParseException {
+		if (value == null) {
+			throw new ParseException("Could not parse NULL timestamp!", 0);
+		}
+		if (fastPath) {
+			long millis = parseISO(value);
+			if (millis != Long.MIN_VALUE) {
+				return millis;
+			}
+		}
+		return parseWithDateFormat(value).getTime();
+	}
+
+	/**
+	 * Parses the value without any allocation.
+	 *
+	 * @return the time in milliseconds or {@link Long#MIN_VALUE} in case the
+	 *         value does not have the expected shape
+	 */
+	private long parseISO(String value) {
+		int length = value.length();
+		if (length < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+			return Long.MIN_VALUE;
+		}
+		int year = digits(value, 0, 4);
+		int month = digits(value, 5, 2);
+		int day = digits(value, 8, 2);
+		if (year < 1583 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+			// Let the lenient DateFormat decide, also for dates before the Gregorian calendar
+			return Long.MIN_VALUE;
+		}
+		int pos = 10;
+		int hour = 0, minute = 0, second = 0, millis = 0;
+		if (hasTime) {
+			if (length < pos + 6 || value.charAt(pos) != dateTimeSeparator || value.charAt(pos + 3) != ':') {
+				return Long.MIN_VALUE;
+			}
+			hour = digits(value, pos + 1, 2);
+			minute = digits(value, pos + 4, 2);
+			pos += 6;
+			if (hasSeconds) {
+				if (length < pos + 3 || value.charAt(pos) != ':') {
+					return Long.MIN_VALUE;
+				}
+				second = digits(value, pos + 1, 2);
+				pos += 3;
+				if (hasFraction) {
+					if (length < pos + 2 || value.charAt(pos) != '.') {
+						return Long.MIN_VALUE;
+					}
+					pos++;
+					int start = pos;
+					while (pos < length && isDigit(value.charAt(pos))) {
+						if (pos - start < 3) {
+							millis = millis * 10 + (value.charAt(pos) - '0');
+						}
+						pos++;
+					}
+					int fractionDigits = pos - start;
+					if (fractionDigits == 0 || (fractionDigits > 3 && pos != length)) {
+						// Excess digits are only dropped at the end of the value, see the DateFormat
+						return Long.MIN_VALUE;
+					}
+				}
+			}
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+				return Long.MIN_VALUE;
+			}
+		}
+		long localMillis = daysSinceEpoch(year, month, day) * MILLIS_PER_DAY + hour * 3600000l + minute
+				* MILLIS_PER_MINUTE + second * 1000l + millis;
+		if (hasZone) {
+			return parseOffset(value, pos, localMillis, isoZoneLetters);
+		} else if (pos != length) {
+			return Long.MIN_VALUE;
+		} else {
+			return toUTC(localMillis);
+		}
+	}
+
+	/**
+	 * Parses an offset of the shape required by the pattern: +HHmm for Z, and
+	 * +HH, +HHmm or +HH:mm for X, XX or XXX, which also accept Z. Any other
+	 * shape is left to the {@link DateFormat}.
+	 *
+	 * @param isoZoneLetters
+	 *            number of X letters in the pattern, or 0 for Z
+	 */
+	private static long parseOffset(String value, int pos, long localMillis, int isoZoneLetters) {
+		int length = value.length();
+		if (isoZoneLetters > 0 && pos == length - 1 && value.charAt(pos) == 'Z') {
+			return localMillis;
+		}
+		int offsetLength;
+		switch (isoZoneLetters) {
+			case 1 :
+				offsetLength = 3;
+				break;
+			case 3 :
+				offsetLength = 6;
+				break;
+			default :
+				offsetLength = 5;
+				break;
+		}
+		if (length != pos + offsetLength) {
+			return Long.MIN_VALUE;
+		}
+		char sign = value.charAt(pos);
+		if (sign != '+' && sign != '-') {
+			return Long.MIN_VALUE;
+		}
+		int offsetHours = digits(value, pos + 1, 2);
+		int offsetMinutes = 0;
+		if (isoZoneLetters == 3) {
+			if (value.charAt(pos + 3) != ':') {
+				return Long.MIN_VALUE;
+			}
+			offsetMinutes = digits(value, pos + 4, 2);
+		} else if (offsetLength == 5) {
+			offsetMinutes = digits(value, pos + 3, 2);
+		}
+		if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+			return Long.MIN_VALUE;
+		}
+		long offset = (offsetHours * 60 + offsetMinutes) * MILLIS_PER_MINUTE;
+		return sign == '+' ? localMillis - offset : localMillis + offset;
+	}
+
+	/**
+	 * Converts the local time in the time zone of the column to UTC.
+	 */
+	private long toUTC(long localMillis) {
+		long utcMillis = localMillis - timeZone.getOffset(localMillis - timeZone.getRawOffset());
+		int offset = timeZone.getOffset(utcMillis);
+		if (localMillis - offset != utcMillis) {
+			// Around a daylight saving time transition
+			utcMillis = localMillis - offset;
+		}
+		return utcMillis;
+	}
+
+	private Date parseWithDateFormat(String value) throws ParseException {
+		DateFormat dateFormat = dateFormats.get();
+		if (dateFormat != null) {
+			ParsePosition pos = new ParsePosition(0);
+			Date date = dateFormat.parse(value, pos);
+
+			// Fix if there are more than 3 digits for ms for example 44.00.540000, do not return and
+			// ensure string is formatted to 540 ms instead of 540000 ms
+			int excessDigits = countExcessFractionDigits(value);
+			if (date != null && excessDigits == 0) {
+				return date;
+			} else {
+				String fixedValue = value.substring(0, value.length() - excessDigits);
+				pos.setIndex(0);
+				date = dateFormat.parse(fixedValue, pos);
+				if (date != null) {
+					return date;
+				} else {
+					String pattern = "unkown";
+					if (dateFormat instanceof SimpleDateFormat) {
+						pattern = ((SimpleDateFormat) dateFormat).toPattern();
+					}
+					throw new ParseException("Could not parse " + value + " using pattern '" + pattern + "'",
+							pos.getErrorIndex());
+				}
+			}
+		}
+		throw new ParseException("Could not parse " + value, -1);
+	}
+
+	/**
+	 * Replaces the regular expression <code>:[0-5][0-9]\.[0-9]{3}[0-9]*$</code>
+	 * that was applied to each value before.
+	 *
+	 * @return the number of fraction digits after the third one at the end of
+	 *         a value of the form ...:ss.SSS...
+	 */
+	static int countExcessFractionDigits(String value) {
+		int end = value.length();
+		int pos = end;
+		while (pos > 0 && isDigit(value.charAt(pos - 1))) {
+			pos--;
+		}
+		int fractionDigits = end - pos;
+		if (fractionDigits <= 3 || pos < 4 || value.charAt(pos - 1) != '.' || value.charAt(pos - 4) != ':') {
+			return 0;
+		}
+		char secondsTens = value.charAt(pos - 3);
+		if (secondsTens < '0' || secondsTens > '5' || !isDigit(value.charAt(pos - 2))) {
+			return 0;
+		}
+		return fractionDigits - 3;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return the number or -1 if there is a non-digit character
+	 */
+	private static int digits(String value, int start, int count) {
+		int result = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = value.charAt(i);
+			if (!isDigit(c)) {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+			case 2 :
+				boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+				return leapYear ? 29 : 28;
+			case 4 :
+			case 6 :
+			case 9 :
+			case 11 :
+				return 30;
+			default :
+				return 31;
+		}
+	}
+
+	/**
+	 * @return the number of days since 1970-01-01 in the proleptic Gregorian
+	 *         calendar
+	 */
+	private static long daysSinceEpoch(int year, int month, int day) {
+		// Shift the year to start in March, so that the leap day is the last day of the year
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+}
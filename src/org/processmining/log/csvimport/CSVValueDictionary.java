@@ -0,0 +1,108 @@
+package org.processmining.log.csvimport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded dictionary of the distinct values of each column, which is used to
+ * share one canonical instance of repeated values (e.g., activity names or
+ * resources) across all events. Once a column exceeds the maximum number of
+ * distinct values, its dictionary is dropped and values of that column are
+ * passed through unchanged.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class CSVValueDictionary {
+
+	private final int maxSize;
+	private final Map<String, String>[] dictionaries;
+	private final boolean[] exceeded;
+
+	/**
+	 * @param numColumns
+	 *            number of columns, values are interned for column indices
+	 *            from 0 to numColumns - 1
+	 * @param maxSize
+	 *            maximum number of distinct values per column, 0 disables the
+	 *            dictionary
+	 */
+	@SuppressWarnings("unchecked")
+	CSVValueDictionary(int numColumns, int maxSize) {
+		this.maxSize = maxSize;
+		this.dictionaries = new Map[numColumns];
+		this.exceeded = new boolean[numColumns];
+		for (int i = 0; i < numColumns; i++) {
+			if (maxSize > 0) {
+				dictionaries[i] = new HashMap<>();
+			} else {
+				exceeded[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * @param columnIndex
+	 * @param value
+	 * @return the canonical instance of the value, or the value itself in case
+	 *         the column has too many distinct values
+	 */
+	String intern(int columnIndex, String value) {
+		Map<String, String> dictionary = dictionaries[columnIndex];
+		if (dictionary == null || value == null) {
+			return value;
+		}
+		String canonical = dictionary.get(value);
+		if (canonical != null) {
+			return canonical;
+		}
+		if (dictionary.size() >= maxSize) {
+			// Values of this column are mostly unique, stop wasting memory
+			dictionaries[columnIndex] = null;
+			exceeded[columnIndex] = true;
+			return value;
+		}
+		dictionary.put(value, value);
+		return value;
+	}
+
+	/**
+	 * @param columnIndex
+	 * @return the number of distinct values seen in the column or -1 if the
+	 *         column exceeded the maximum number of distinct values
+	 */
+	int getCardinality(int columnIndex) {
+		return exceeded[columnIndex] ? -1 : dictionaries[columnIndex].size();
+	}
+
+	/**
+	 * @param columnNames
+	 *            names of the columns, the name of columns without dictionary
+	 *            may be NULL
+	 * @return a description of the number of distinct values per column
+	 */
+	String getCardinalityReport(String[] columnNames) {
+		StringBuilder sb = new StringBuilder("Distinct values per column: ");
+		boolean first = true;
+		for (int i = 0; i < columnNames.length && i < dictionaries.length; i++) {
+			if (columnNames[i] == null) {
+				continue;
+			}
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			sb.append(columnNames[i]).append(": ");
+			int cardinality = getCardinality(i);
+			if (cardinality == -1) {
+				sb.append("more than ").append(maxSize);
+			} else {
+				sb.append(cardinality);
+			}
+		}
+		return sb.toString();
+	}
+
+}
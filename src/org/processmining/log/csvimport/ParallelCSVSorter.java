@@ -0,0 +1,386 @@
+package org.processmining.log.csvimport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVConversion.ProgressListener;
+import org.processmining.log.csvimport.CSVRowCodec.CountingOutputStream;
+import org.processmining.log.csvimport.CSVRowCodec.RowReader;
+import org.processmining.log.csvimport.CSVRowCodec.RowWriter;
+import org.processmining.log.csvimport.exception.CSVSortException;
+
+import com.fasterxml.sort.DataReader;
+import com.google.common.base.Function;
+
+/**
+ * External merge sort for an {@link CSVFile} that sorts the in-memory segments
+ * on a {@link ForkJoinPool} while the next segment is read. Sorted segments are
+ * written in the format of {@link CSVRowCodec} and merged with a configurable
+ * fan-in. By default, the fan-in is chosen such that a single merge round is
+ * sufficient at the given memory budget. The sort is stable, rows that are
+ * equal according to the comparator keep their original order. While the heap
+ * is tight (see {@link CSVMemoryGovernor}), smaller segments are written and
+ * only one segment is sorted at a time.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class ParallelCSVSorter {
+
+	private static final int MAX_FILES_TO_MERGE = 512;
+	private static final int CANCEL_CHECK_WINDOW = 10000;
+	private static final long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	private static final class MergeEntry {
+
+		private final RowReader reader;
+		private final int source;
+		private String[] row;
+
+		private MergeEntry(RowReader reader, int source) {
+			this.reader = reader;
+			this.source = source;
+		}
+
+	}
+
+	private final CSVShards shards;
+	private final Comparator<String[]> rowComparator;
+	private final long segmentSizeInBytes;
+	private final int maxFilesToMerge;
+	private final CSVMemoryGovernor memoryGovernor;
+	private final ProgressListener progress;
+	private final CSVConversionMetrics metrics;
+	private final ForkJoinPool pool;
+	private final AtomicLong spillBytes = new AtomicLong();
+	// Stops the remaining tasks after one of them failed
+	private volatile boolean aborted = false;
+
+	private ParallelCSVSorter(CSVShards shards, Comparator<String[]> rowComparator, int maxMemory,
+			int numSortThreads, int maxFilesToMerge, CSVMemoryGovernor memoryGovernor, ProgressListener progress,
+			CSVConversionMetrics metrics) {
+		this.shards = shards;
+		this.rowComparator = rowComparator;
+		long maxMemoryInBytes = maxMemory * 1024l * 1024l;
+		// One segment is read while the others are sorted and written
+		this.segmentSizeInBytes = maxMemoryInBytes / (numSortThreads + 1);
+		if (maxFilesToMerge > 1) {
+			this.maxFilesToMerge = maxFilesToMerge;
+		} else {
+			// Up to numSortThreads groups are merged in parallel, each reader and writer needs its buffer and dictionaries
+			long memoryPerMerge = maxMemoryInBytes / numSortThreads;
+			this.maxFilesToMerge = Math.max(2,
+					CSVRowCodec.getMaxOpenStreams(memoryPerMerge, MAX_FILES_TO_MERGE + 1) - 1);
+		}
+		this.memoryGovernor = memoryGovernor;
+		this.progress = progress;
+		this.metrics = metrics;
+		this.pool = new ForkJoinPool(numSortThreads);
+	}
+
+	/**
+	 * Sorts the rows of {@link CSVShards} using only a configurable, limited
+	 * amount of memory and multiple threads.
+	 *
+	 * @param shards
+	 * @param rowComparator
+	 *            needs to be thread-safe
+	 * @param importConfig
+	 * @param maxMemory
+	 * @param numOfColumnsInCSV
+	 * @param numParserThreads
+	 *            number of threads used to parse the input CSV
+	 * @param rowFunction
+	 *            applied to each row before sorting (e.g., to add a sort key),
+	 *            may be NULL
+	 * @param numSortThreads
+	 *            number of threads used to sort segments in parallel
+	 * @param maxFilesToMerge
+	 *            the maximum number of files merged at once, values smaller
+	 *            than 2 choose the fan-in based on the memory budget
+	 * @param memoryGovernor
+	 *            used to reduce the segment size when the heap is tight
+	 * @param progress
+	 * @param metrics
+	 *            receives the measurements of the sorting and merging phase
+	 * @return a {@link File} containing the sorted CSV, use
+	 *         {@link CSVSorter#openSortedFile(File)} to read it
+	 * @throws CSVSortException
+	 */
+	public static File sortCSV(CSVShards shards, Comparator<String[]> rowComparator, CSVConfig importConfig,
+			int maxMemory, int numOfColumnsInCSV, int numParserThreads, Function<String[], String[]> rowFunction,
+			int numSortThreads, int maxFilesToMerge, CSVMemoryGovernor memoryGovernor, ProgressListener progress,
+			CSVConversionMetrics metrics) throws CSVSortException {
+		ParallelCSVSorter sorter = new ParallelCSVSorter(shards, rowComparator, maxMemory, numSortThreads,
+				maxFilesToMerge, memoryGovernor, progress, metrics);
+		try {
+			long startNanos = System.nanoTime();
+			long startPreSortTime = System.currentTimeMillis();
+			List<File> segmentFiles;
+			try (DataReader<String[]> reader = CSVSorter.openInput(shards, importConfig, numOfColumnsInCSV,
+					numParserThreads, rowFunction)) {
+				segmentFiles = sorter.preSort(reader);
+			}
+			long endPreSortTime = System.currentTimeMillis();
+			long mergeStartNanos = System.nanoTime();
+			long spillBytesBeforeMerge = sorter.spillBytes.get();
+			progress.log(MessageFormat.format("Pre-sorting {0} segments using {1} threads took {2} seconds.",
+					segmentFiles.size(), numSortThreads, (endPreSortTime - startPreSortTime) / 1000.0d));
+			File sortedFile = sorter.merge(segmentFiles);
+			long endMergeTime = System.currentTimeMillis();
+			progress.log(MessageFormat.format("Merging {0} segments with a fan-in of {1} took {2} seconds.",
+					segmentFiles.size(), sorter.maxFilesToMerge, (endMergeTime - endPreSortTime) / 1000.0d));
+			metrics.recordSort(shards.getSizeInBytes(), startNanos, mergeStartNanos, System.nanoTime(),
+					spillBytesBeforeMerge, sorter.spillBytes.get());
+			return sortedFile;
+		} catch (IOException e) {
+			throw new CSVSortException("Could not sort file.", e);
+		} finally {
+			sorter.pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads segments that fit into the memory budget and sorts them in
+	 * parallel.
+	 *
+	 * @return the sorted segment files in the order of the input
+	 */
+	private List<File> preSort(DataReader<String[]> reader) throws IOException, CSVSortException {
+		List<File> segmentFiles = new ArrayList<>();
+		Deque<Future<File>> pendingSegments = new ArrayDeque<>();
+		boolean success = false;
+		try {
+			List<String[]> segment = new ArrayList<>();
+			long segmentSize = 0;
+			long maxSegmentSize = segmentSizeInBytes;
+			int rowCount = 0;
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				segment.add(row);
+				segmentSize += reader.estimateSizeInBytes(row);
+				if (segmentSize >= maxSegmentSize) {
+					submitSegment(segment, pendingSegments, segmentFiles);
+					segment = new ArrayList<>(segment.size());
+					segmentSize = 0;
+				}
+				if (++rowCount % CANCEL_CHECK_WINDOW == 0) {
+					checkCancelled();
+					metrics.sampleHeap(CSVConversionMetrics.Phase.SORTING);
+					maxSegmentSize = memoryGovernor.adjustBufferSize(segmentSizeInBytes, MIN_SEGMENT_SIZE);
+				}
+			}
+			if (!segment.isEmpty() || (segmentFiles.isEmpty() && pendingSegments.isEmpty())) {
+				submitSegment(segment, pendingSegments, segmentFiles);
+			}
+			while (!pendingSegments.isEmpty()) {
+				segmentFiles.add(await(pendingSegments.poll()));
+			}
+			success = true;
+			return segmentFiles;
+		} finally {
+			if (!success) {
+				abort(pendingSegments);
+				deleteAll(segmentFiles);
+			}
+		}
+	}
+
+	private void submitSegment(final List<String[]> segment, Deque<Future<File>> pendingSegments,
+			List<File> segmentFiles) throws IOException, CSVSortException {
+		// Limit the number of segments in memory, only keep one if the heap is tight
+		int maxPendingSegments = memoryGovernor.isMemoryTight() ? 1 : pool.getParallelism();
+		while (pendingSegments.size() >= maxPendingSegments) {
+			segmentFiles.add(await(pendingSegments.poll()));
+		}
+		pendingSegments.add(pool.submit(new Callable<File>() {
+
+			public File call() throws Exception {
+				checkCancelled();
+				String[][] rows = segment.toArray(new String[segment.size()][]);
+				segment.clear();
+				// Stable sort
+				Arrays.sort(rows, rowComparator);
+				File segmentFile = createTempFile("-pre-sort");
+				try (RowWriter writer = createWriter(segmentFile)) {
+					for (String[] row : rows) {
+						writer.writeEntry(row);
+					}
+				} catch (IOException | RuntimeException e) {
+					segmentFile.delete();
+					throw e;
+				}
+				return segmentFile;
+			}
+		}));
+	}
+
+	/**
+	 * Merges the files in as few rounds as possible. All rounds but the last
+	 * one merge groups of files in parallel.
+	 */
+	private File merge(List<File> files) throws IOException, CSVSortException {
+		try {
+			while (files.size() > maxFilesToMerge) {
+				List<Future<File>> mergedGroups = new ArrayList<>();
+				for (int i = 0; i < files.size(); i += maxFilesToMerge) {
+					final List<File> group = files.subList(i, Math.min(files.size(), i + maxFilesToMerge));
+					mergedGroups.add(pool.submit(new Callable<File>() {
+
+						public File call() throws Exception {
+							return mergeFiles(group);
+						}
+					}));
+				}
+				List<File> mergedFiles = new ArrayList<>();
+				try {
+					for (Future<File> mergedGroup : mergedGroups) {
+						mergedFiles.add(await(mergedGroup));
+					}
+				} catch (IOException | CSVSortException e) {
+					// Also removes the files that have already been merged
+					abort(mergedGroups);
+					throw e;
+				}
+				files = mergedFiles;
+			}
+			return files.size() == 1 ? files.get(0) : mergeFiles(files);
+		} catch (IOException | CSVSortException e) {
+			deleteAll(files);
+			throw e;
+		}
+	}
+
+	private File mergeFiles(List<File> files) throws IOException, CSVSortException {
+		// Ties are broken by the position of the file to keep the sort stable
+		PriorityQueue<MergeEntry> queue = new PriorityQueue<>(files.size(), new Comparator<MergeEntry>() {
+
+			public int compare(MergeEntry o1, MergeEntry o2) {
+				int comp = rowComparator.compare(o1.row, o2.row);
+				return comp != 0 ? comp : Integer.compare(o1.source, o2.source);
+			}
+		});
+		List<RowReader> readers = new ArrayList<>(files.size());
+		File mergedFile = createTempFile("-merge-sort");
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				RowReader reader = new RowReader(new FileInputStream(files.get(i)));
+				readers.add(reader);
+				MergeEntry entry = new MergeEntry(reader, i);
+				if ((entry.row = reader.readNext()) != null) {
+					queue.add(entry);
+				}
+			}
+			try (RowWriter writer = createWriter(mergedFile)) {
+				int rowCount = 0;
+				MergeEntry entry;
+				while ((entry = queue.poll()) != null) {
+					writer.writeEntry(entry.row);
+					if ((entry.row = entry.reader.readNext()) != null) {
+						queue.add(entry);
+					}
+					if (++rowCount % CANCEL_CHECK_WINDOW == 0) {
+						checkCancelled();
+						metrics.sampleHeap(CSVConversionMetrics.Phase.SPILL_MERGING);
+					}
+				}
+			}
+		} catch (IOException | CSVSortException | RuntimeException e) {
+			mergedFile.delete();
+			throw e;
+		} finally {
+			for (RowReader reader : readers) {
+				reader.close();
+			}
+		}
+		deleteAll(files);
+		return mergedFile;
+	}
+
+	private RowWriter createWriter(File file) throws IOException {
+		return new RowWriter(new CountingOutputStream(new FileOutputStream(file), spillBytes));
+	}
+
+	private File createTempFile(String suffix) throws IOException {
+		return Files.createTempFile(shards.getFilename() + suffix, ".rows").toFile();
+	}
+
+	private void checkCancelled() throws CSVSortException {
+		if (progress.getProgress().isCancelled()) {
+			throw new CSVSortException("User cancelled sorting");
+		}
+		if (aborted) {
+			throw new CSVSortException("Sorting was aborted");
+		}
+	}
+
+	/**
+	 * Stops the tasks after a failure and deletes the files they have written.
+	 * Cancelling a task of the {@link ForkJoinPool} does not stop it when it is
+	 * already running, therefore all tasks are awaited.
+	 */
+	private void abort(Collection<Future<File>> tasks) {
+		aborted = true;
+		boolean interrupted = false;
+		for (Future<File> task : tasks) {
+			while (true) {
+				try {
+					task.get().delete();
+					break;
+				} catch (InterruptedException e) {
+					// The tasks stop soon, keep waiting to not miss their files
+					interrupted = true;
+				} catch (ExecutionException | CancellationException e) {
+					// Failed tasks remove their own file
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static File await(Future<File> future) throws IOException, CSVSortException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CSVSortException("Cancelled sorting", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof CSVSortException) {
+				throw (CSVSortException) e.getCause();
+			}
+			throw new CSVSortException("Could not sort file.", e.getCause());
+		}
+	}
+
+	private static void deleteAll(List<File> files) {
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+}
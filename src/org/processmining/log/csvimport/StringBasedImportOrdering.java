@@ -5,9 +5,22 @@ import com.google.common.collect.Ordering;
 final class StringBasedImportOrdering extends Ordering<String[]> {
 
 	private final int[] sortingIndices;
+	private final int sortKeyIndex;
 
 	public StringBasedImportOrdering(int[] sortingIndicies) {
+		this(sortingIndicies, -1);
+	}
+
+	/**
+	 * @param sortingIndicies
+	 *            the case columns
+	 * @param sortKeyIndex
+	 *            the column of the key added by {@link TimeSortKeyFunction}
+	 *            that is compared for rows of the same case, or -1
+	 */
+	public StringBasedImportOrdering(int[] sortingIndicies, int sortKeyIndex) {
 		this.sortingIndices = sortingIndicies;
+		this.sortKeyIndex = sortKeyIndex;
 	}
 
 	public int compare(String[] o1, String[] o2) {
@@ -27,6 +40,10 @@ final class StringBasedImportOrdering extends Ordering<String[]> {
 				return comp;
 			}
 		}
+		if (sortKeyIndex != -1) {
+			// Same case, order by time and original position
+			return o1[sortKeyIndex].compareTo(o2[sortKeyIndex]);
+		}
 		// Keep ordering -> using a stable sort algorithm
 		return 0;
 	}
@@ -0,0 +1,102 @@
+package org.processmining.log.csvimport;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import com.google.common.base.Function;
+
+/**
+ * Appends a hidden cell to each row of the CSV file that allows the sorter to
+ * order the rows of a case by their time. The key consists of the start time
+ * (or the completion time if there is no start time) in milliseconds followed
+ * by the row number, both encoded as fixed-length hexadecimal strings. Rows
+ * without a valid time are sorted first, rows with the same time keep their
+ * original order.
+ * <p>
+ * Errors while parsing the time are ignored here, they are reported when the
+ * sorted rows are converted.
+ * 
+ * @author F. Mannhardt
+ *
+ */
+final class TimeSortKeyFunction implements Function<String[], String[]> {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int TIME_DIGITS = 16;
+	private static final int ROW_DIGITS = 12;
+
+	static final long NO_TIME = Long.MIN_VALUE;
+
+	private final int completionTimeColumnIndex;
+	private final CSVTimestampParser completionTimeParser;
+	private final int startTimeColumnIndex;
+	private final CSVTimestampParser startTimeParser;
+
+	private long rowIndex = 0;
+
+	/**
+	 * @param completionTimeColumnIndex
+	 *            or -1
+	 * @param completionTimeFormat
+	 *            may be NULL
+	 * @param startTimeColumnIndex
+	 *            or -1
+	 * @param startTimeFormat
+	 *            may be NULL
+	 */
+	TimeSortKeyFunction(int completionTimeColumnIndex, DateFormat completionTimeFormat, int startTimeColumnIndex,
+			DateFormat startTimeFormat) {
+		this.completionTimeColumnIndex = completionTimeColumnIndex;
+		this.completionTimeParser = new CSVTimestampParser(completionTimeFormat);
+		this.startTimeColumnIndex = startTimeColumnIndex;
+		this.startTimeParser = new CSVTimestampParser(startTimeFormat);
+	}
+
+	public String[] apply(String[] row) {
+		String[] rowWithKey = Arrays.copyOf(row, row.length + 1);
+		long time = parseTime(row, startTimeColumnIndex, startTimeParser);
+		if (time == NO_TIME) {
+			time = parseTime(row, completionTimeColumnIndex, completionTimeParser);
+		}
+		rowWithKey[row.length] = encode(time, rowIndex++);
+		return rowWithKey;
+	}
+
+	private static long parseTime(String[] row, int columnIndex, CSVTimestampParser parser) {
+		if (columnIndex == -1) {
+			return NO_TIME;
+		}
+		try {
+			return parser.parseMillis(row[columnIndex]);
+		} catch (ParseException e) {
+			return NO_TIME;
+		}
+	}
+
+	/**
+	 * Encodes the time and row number such that the lexicographical order of
+	 * the keys matches the order by time and row number.
+	 * 
+	 * @param time
+	 *            in milliseconds or {@link #NO_TIME}
+	 * @param rowIndex
+	 * @return the sort key
+	 */
+	static String encode(long time, long rowIndex) {
+		char[] key = new char[TIME_DIGITS + ROW_DIGITS];
+		// Flip the sign bit so that negative times are ordered before positive times, NO_TIME becomes 0
+		long timeBits = time ^ Long.MIN_VALUE;
+		writeHex(key, 0, TIME_DIGITS, timeBits);
+		writeHex(key, TIME_DIGITS, ROW_DIGITS, rowIndex);
+		return new String(key);
+	}
+
+	private static void writeHex(char[] buffer, int offset, int digits, long value) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			buffer[i] = HEX_DIGITS[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+	}
+
+}
@@ -5,19 +5,16 @@ import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.Format;
 import java.text.MessageFormat;
-import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import org.deckfour.xes.extension.XExtension;
 import org.deckfour.xes.extension.std.XConceptExtension;
@@ -29,10 +26,10 @@ import org.deckfour.xes.factory.XFactory;
 import org.deckfour.xes.factory.XFactoryRegistry;
 import org.deckfour.xes.model.XAttribute;
 import org.processmining.log.csv.CSVFile;
-import org.processmining.log.csv.ICSVReader;
 import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csv.config.CSVSniffer;
+import org.processmining.log.csv.config.CSVSniffer.SampleRowVisitor;
 import org.processmining.log.csvimport.exception.CSVConversionException;
-import org.processmining.log.formats.StandardDateFormats;
 
 import com.google.common.collect.ImmutableList;
 
@@ -220,6 +217,24 @@ public final class CSVConversionConfig {
 
 	}
 
+	public enum GroupingStrategy {
+		SORT("Sort rows by case"), HASH_PARTITION("Group rows by case (hash partitioning, faster)"), PRE_GROUPED(
+				"Rows are already grouped by case (no sorting)"), AUTO_DETECT(
+						"Check whether rows are already grouped by case, otherwise sort");
+
+		private String desc;
+
+		GroupingStrategy(String desc) {
+			this.desc = desc;
+		}
+
+		@Override
+		public String toString() {
+			return desc;
+		}
+
+	}
+
 	public enum Datatype {
 		LITERAL, DISCRETE, CONTINUOUS, TIME, BOOLEAN
 	}
@@ -343,17 +358,37 @@ public final class CSVConversionConfig {
 	private CSVEmptyCellHandlingMode emptyCellHandlingMode = CSVEmptyCellHandlingMode.SPARSE;
 	private Set<String> treatAsEmptyValues = new HashSet<>();
 	private boolean shouldAddStartEventAttributes = true;
+	private GroupingStrategy groupingStrategy = GroupingStrategy.SORT;
 
 	// Internal only
 	private final CSVFile csvFile;
 	private final CSVConfig csvConfig;
+	private final CSVSniffer sniffer; // may be NULL
 
 	public CSVConversionConfig(CSVFile csvFile, CSVConfig csvConfig) throws CSVConversionException {
+		this(csvFile, csvConfig, null);
+	}
+
+	/**
+	 * Creates the configuration reusing the sample of the {@link CSVSniffer} to
+	 * read the header and to auto-detect the data types. The sample is read
+	 * with the (possibly changed) {@link CSVConfig}.
+	 * 
+	 * @param csvFile
+	 * @param csvConfig
+	 * @param sniffer
+	 *            sample of the CSV file, may be NULL in which case the file is
+	 *            read again
+	 * @throws CSVConversionException
+	 */
+	public CSVConversionConfig(CSVFile csvFile, CSVConfig csvConfig, CSVSniffer sniffer)
+			throws CSVConversionException {
 		this.csvFile = csvFile;
 		this.csvConfig = csvConfig;
+		this.sniffer = sniffer;
 
 		try {
-			String[] headers = csvFile.readHeader(csvConfig);
+			String[] headers = readHeader();
 			for (String columnHeader : headers) {
 				CSVMapping mapping = new CSVMapping();
 				if (!conversionMap.containsKey(columnHeader) && columnHeader != null) {
@@ -387,7 +422,7 @@ public final class CSVConversionConfig {
 
 	public void autoDetect() throws CSVConversionException {
 		try {
-			String[] headers = csvFile.readHeader(csvConfig);
+			String[] headers = readHeader();
 			//TODO put those auto detection methods in a new class
 			autoDetectCaseColumn(headers);
 			autoDetectEventColumn(headers);
@@ -399,6 +434,50 @@ public final class CSVConversionConfig {
 		}
 	}
 
+	/**
+	 * Creates a configuration for another CSV file with the same columns that
+	 * uses all settings of this configuration. The other file is neither
+	 * sniffed nor auto-detected, only its header is read.
+	 * 
+	 * @param otherFile
+	 * @param otherCsvConfig
+	 * @return the configuration for the other file
+	 * @throws CSVConversionException
+	 *             if the other file has different columns
+	 */
+	public CSVConversionConfig copyFor(CSVFile otherFile, CSVConfig otherCsvConfig) throws CSVConversionException {
+		CSVConversionConfig copy = new CSVConversionConfig(otherFile, otherCsvConfig);
+		if (!copy.conversionMap.keySet().equals(conversionMap.keySet())) {
+			throw new CSVConversionException(MessageFormat.format("The columns of {0} differ from the columns of {1}.",
+					otherFile.getFilename(), csvFile.getFilename()));
+		}
+		for (Map.Entry<String, CSVMapping> entry : conversionMap.entrySet()) {
+			CSVMapping mapping = entry.getValue();
+			CSVMapping copiedMapping = copy.conversionMap.get(entry.getKey());
+			copiedMapping.setDataType(mapping.getDataType());
+			copiedMapping.setPattern(mapping.getPattern());
+			copiedMapping.setTraceAttributeName(mapping.getTraceAttributeName());
+			copiedMapping.setEventAttributeName(mapping.getEventAttributeName());
+			copiedMapping.setEventExtensionAttribute(mapping.getEventExtensionAttribute());
+		}
+		copy.factory = factory;
+		copy.caseColumns = caseColumns;
+		copy.eventNameColumns = eventNameColumns;
+		copy.completionTimeColumn = completionTimeColumn;
+		copy.previousCompletionTimeExtension = previousCompletionTimeExtension;
+		copy.previousCompletionTimeDataType = previousCompletionTimeDataType;
+		copy.startTimeColumn = startTimeColumn;
+		copy.previousStartTimeExtension = previousStartTimeExtension;
+		copy.previousStartTimeDataType = previousStartTimeDataType;
+		copy.compositeAttributeSeparator = compositeAttributeSeparator;
+		copy.errorHandlingMode = errorHandlingMode;
+		copy.emptyCellHandlingMode = emptyCellHandlingMode;
+		copy.treatAsEmptyValues = new HashSet<>(treatAsEmptyValues);
+		copy.shouldAddStartEventAttributes = shouldAddStartEventAttributes;
+		copy.groupingStrategy = groupingStrategy;
+		return copy;
+	}
+
 	private void autoDetectCaseColumn(String[] headers) {
 		List<String> caseColumns = new ArrayList<>();
 		for (int i = 0; i < headers.length; i++) {
@@ -443,41 +522,34 @@ public final class CSVConversionConfig {
 	}
 
 	public void autoDetectDataTypes() throws CSVConversionException {
-		try (ICSVReader reader = csvFile.createReader(csvConfig)) {
-			String[] header = reader.readNext();
-
-			//TODO FM, can't this be done in a more streaming fashion?
-			Map<String, List<String>> valuesPerColumn = new HashMap<>();
-			for (String h : header) {
-				if (h != null) {
-					valuesPerColumn.put(h, new ArrayList<String>(DATA_TYPE_FORMAT_AUTO_DETECT_NUM_LINES));
+		try {
+			final String[] header = readHeader();
+			final ColumnTypeInference[] inferences = new ColumnTypeInference[header.length];
+			for (int i = 0; i < header.length; i++) {
+				if (header[i] != null) {
+					inferences[i] = new ColumnTypeInference(treatAsEmptyValues);
 				}
 			}
-			// now read some lines or so to guess the data type
-			for (int i = 0; i < DATA_TYPE_FORMAT_AUTO_DETECT_NUM_LINES; i++) {
-				String[] cells = reader.readNext();
-				if (cells == null) {
-					//TODO FM, shouldn't that be a return?
-					break;
-				}
-				for (int j = 0; j < cells.length; j++) {
-					if (header[j] != null) {
-						List<String> values = valuesPerColumn.get(header[j]);
-						values.add(cells[j]);
-						valuesPerColumn.put(header[j], values);
+			// Each value only narrows down the candidate types of its column, the values are not kept
+			SampleRowVisitor visitor = new SampleRowVisitor() {
+
+				public void visitRow(String[] cells) {
+					for (int j = 0; j < cells.length && j < inferences.length; j++) {
+						if (inferences[j] != null) {
+							inferences[j].addValue(cells[j]);
+						}
 					}
 				}
-			}
+			};
+			// Rows are sampled from the whole file, not only from its beginning
+			CSVSniffer rowSniffer = sniffer != null ? sniffer : new CSVSniffer(csvFile);
+			rowSniffer.readSampleRows(csvConfig, visitor, DATA_TYPE_FORMAT_AUTO_DETECT_NUM_LINES);
 			// now we can guess the data type
-			for (String column : header) {
-				if (column != null) {
-					List<String> values = valuesPerColumn.get(column);
-					if (values != null) {
-						DatatypeWithPattern inferred = inferDataType(values);
-						getConversionMap().get(column).setDataType(inferred.getType());
-						getConversionMap().get(column).setPattern(inferred.getPattern());
-					}
-
+			for (int i = 0; i < header.length; i++) {
+				if (inferences[i] != null) {
+					DatatypeWithPattern inferred = inferences[i].getResult();
+					getConversionMap().get(header[i]).setDataType(inferred.getType());
+					getConversionMap().get(header[i]).setPattern(inferred.getPattern());
 				}
 			}
 		} catch (IOException e) {
@@ -485,24 +557,12 @@ public final class CSVConversionConfig {
 		}
 	}
 
-	private static boolean isInteger(String s) {
-		return isInteger(s, 10); // check for base-10 number (plus optional minus sign)
-	}
-
-	private static boolean isInteger(String s, int radix) {
-		if (s.isEmpty())
-			return false;
-		for (int i = 0; i < s.length(); i++) {
-			if (i == 0 && s.charAt(i) == '-') {
-				if (s.length() == 1)
-					return false;
-				else
-					continue;
-			}
-			if (Character.digit(s.charAt(i), radix) < 0)
-				return false;
+	private String[] readHeader() throws IOException {
+		if (sniffer != null) {
+			return sniffer.readHeader(csvConfig);
+		} else {
+			return csvFile.readHeader(csvConfig);
 		}
-		return true;
 	}
 
 	public interface DatatypeWithPattern {
@@ -511,167 +571,6 @@ public final class CSVConversionConfig {
 		String getPattern();
 	}
 
-	private DatatypeWithPattern inferDataType(List<String> values) {
-
-		boolean allEmpty = true;
-		for (String value : values) {
-			if (value != null && !value.isEmpty()) {
-				allEmpty = false;
-				break;
-			}
-		}
-		if (allEmpty)
-			return new DatatypeWithPattern() {
-
-				public Datatype getType() {
-					return Datatype.LITERAL;
-				}
-
-				public String getPattern() {
-					return "";
-				}
-			};
-
-		boolean hasParsed = false;
-
-		// check whether type is boolean
-		boolean isBoolean = true;
-		for (String value : values) {
-			if (value == null || value.isEmpty() || treatAsEmptyValues.contains(value)) {
-				continue;
-			}
-			hasParsed = true;
-			//TODO what about mixed
-			if (!("J".equalsIgnoreCase(value) || "Y".equalsIgnoreCase(value) || "T".equalsIgnoreCase(value)
-					|| "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value) || "N".equalsIgnoreCase(value)
-					|| "F".equalsIgnoreCase(value))) {
-				isBoolean = false;
-				break;
-			}
-		}
-		if (hasParsed && isBoolean)
-			return new DatatypeWithPattern() {
-
-				public Datatype getType() {
-					return Datatype.BOOLEAN;
-				}
-
-				public String getPattern() {
-					return "";
-				}
-			};
-
-		// check whether type is discrete
-		hasParsed = false;
-		boolean isDiscrete = true;
-		for (String value : values) {
-			if (value == null || value.isEmpty() || treatAsEmptyValues.contains(value)) {
-				continue;
-			}
-			hasParsed = true;
-			if (!isInteger(value)) {
-				isDiscrete = false;
-				break;
-			}
-		}
-		if (hasParsed && isDiscrete)
-			return new DatatypeWithPattern() {
-
-				public Datatype getType() {
-					return Datatype.DISCRETE;
-				}
-
-				public String getPattern() {
-					return "";
-				}
-			};
-
-		// check whether type is continuous
-		final Pattern CONTINUOUS_PATTERN = Pattern
-				.compile("((-)?[0-9]*\\.[0-9]+)|((-)?[0-9]+(\\.[0-9]+)?(e|E)\\+[0-9]+)");
-		hasParsed = false;
-		boolean isContinuous = true;
-		for (String value : values) {
-			if (value == null || value.isEmpty() || treatAsEmptyValues.contains(value)) {
-				continue;
-			}
-			hasParsed = true;
-			if (!CONTINUOUS_PATTERN.matcher(value).matches()) {
-				isContinuous = false;
-				break;
-			}
-		}
-		if (hasParsed && isContinuous)
-			return new DatatypeWithPattern() {
-
-				public Datatype getType() {
-					return Datatype.CONTINUOUS;
-				}
-
-				public String getPattern() {
-					return "";
-				}
-			};
-
-		// check whether type is date
-		boolean isConsistentDateFormat = true;
-		// Millisecond fix for Java SimpleDateFormat in case of a date like this 14:08:09.100000 
-		// where the milliseconds would be treated as 100000ms instead of 100ms
-		// Only matche when at the end of the string to avoid capturing year values when using the '.' as separator
-		final Pattern INVALID_MS_PATTERN = Pattern.compile("(\\.[0-9]{3})[0-9]*$"); 
-		for (SimpleDateFormat formatter : StandardDateFormats.getStandardDateFormats()) {
-			if (canParseAllValues(values, isConsistentDateFormat, INVALID_MS_PATTERN, formatter)) {
-				final String pattern = formatter.toPattern();
-				return new DatatypeWithPattern() {
-
-					public Datatype getType() {
-						return Datatype.TIME;
-					}
-
-					public String getPattern() {
-						return pattern;
-					}
-				};
-			}
-		}
-
-		return new DatatypeWithPattern() {
-
-			public Datatype getType() {
-				return Datatype.LITERAL;
-			}
-
-			public String getPattern() {
-				return "";
-			}
-		};
-	}
-
-	private boolean canParseAllValues(List<String> values, boolean isConsistentDateFormat,
-			final Pattern INVALID_MS_PATTERN, DateFormat formatter) {
-		boolean hasParsed = false;
-		for (String value : values) {
-			if (value == null || value.isEmpty() || treatAsEmptyValues.contains(value))
-				continue;
-
-			// Millisecond fix for Java SimpleDateFormat
-			String fixedValue = INVALID_MS_PATTERN.matcher(value).replaceFirst("$1");
-
-			ParsePosition pos = new ParsePosition(0);
-			pos.setIndex(0);
-			Date date = formatter.parse(fixedValue, pos);
-
-			hasParsed = true;
-
-			// check whether date is not parsable, or date format for parsing is inconsistent
-			if (date == null) {
-				return false;
-			}
-
-		}
-		return hasParsed;
-	}
-
 	public XFactory getFactory() {
 		return factory;
 	}
@@ -817,4 +716,26 @@ public final class CSVConversionConfig {
 		this.shouldAddStartEventAttributes = shouldAddStartEventAttributes;
 	}
 
+	public GroupingStrategy getGroupingStrategy() {
+		return groupingStrategy;
+	}
+
+	/**
+	 * Sets how rows of the same case are brought together before the
+	 * conversion. {@link GroupingStrategy#SORT} sorts the whole file by case,
+	 * whereas {@link GroupingStrategy#HASH_PARTITION} only groups the rows of
+	 * each case without ordering the cases, which avoids the merge rounds of
+	 * the external sort. {@link GroupingStrategy#PRE_GROUPED} declares that the
+	 * rows of each case are already contiguous in the file and converts the
+	 * file directly; should a case re-appear after its rows have ended the
+	 * conversion is restarted with sorting. {@link GroupingStrategy#AUTO_DETECT}
+	 * checks this in an additional pass over the file before deciding whether
+	 * to sort.
+	 * 
+	 * @param groupingStrategy
+	 */
+	public void setGroupingStrategy(GroupingStrategy groupingStrategy) {
+		this.groupingStrategy = groupingStrategy;
+	}
+
 }
\ No newline at end of file
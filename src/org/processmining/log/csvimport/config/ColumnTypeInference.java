@@ -0,0 +1,155 @@
+package org.processmining.log.csvimport.config;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.processmining.log.csvimport.config.CSVConversionConfig.Datatype;
+import org.processmining.log.csvimport.config.CSVConversionConfig.DatatypeWithPattern;
+import org.processmining.log.formats.DateFormatClassifier;
+import org.processmining.log.formats.StandardDateFormats;
+
+/**
+ * Infers the data type of a column from a stream of values. Each value removes
+ * the data types (and date formats) that cannot represent it from the set of
+ * candidates, so that the values do not need to be buffered. The result is the
+ * first remaining candidate in the order BOOLEAN, DISCRETE, CONTINUOUS, TIME
+ * and LITERAL.
+ * <p>
+ * Instances of different columns may be used by different threads, e.g., when
+ * converting several files at once. The shared {@link DateFormatClassifier}
+ * only selects the candidate formats, values are parsed with copies of the
+ * formats that are owned by the current thread.
+ *
+ * @author F. Mannhardt
+ *
+ */
+final class ColumnTypeInference {
+
+	private static final Pattern CONTINUOUS_PATTERN = Pattern
+			.compile("((-)?[0-9]*\\.[0-9]+)|((-)?[0-9]+(\\.[0-9]+)?(e|E)\\+[0-9]+)");
+
+	// Millisecond fix for Java SimpleDateFormat in case of a date like this 14:08:09.100000
+	// where the milliseconds would be treated as 100000ms instead of 100ms
+	// Only matche when at the end of the string to avoid capturing year values when using the '.' as separator
+	private static final Pattern INVALID_MS_PATTERN = Pattern.compile("(\\.[0-9]{3})[0-9]*$");
+
+	// SimpleDateFormat is not thread-safe, same order as the formats of the classifier
+	private static final ThreadLocal<List<DateFormat>> DATE_FORMATS = new ThreadLocal<List<DateFormat>>() {
+
+		protected List<DateFormat> initialValue() {
+			List<DateFormat> formats = new ArrayList<>();
+			for (DateFormat format : StandardDateFormats.getStandardDateFormatClassifier().getFormats()) {
+				formats.add((DateFormat) format.clone());
+			}
+			return formats;
+		}
+	};
+
+	private final Set<String> treatAsEmptyValues;
+	private final DateFormatClassifier dateFormatClassifier = StandardDateFormats.getStandardDateFormatClassifier();
+
+	private boolean hasNonEmptyValue = false;
+	private boolean hasParsed = false;
+
+	private boolean isBoolean = true;
+	private boolean isDiscrete = true;
+	private boolean isContinuous = true;
+	// Indices of the date formats that could parse all values so far, null until the first value is seen
+	private BitSet dateFormatCandidates = null;
+
+	ColumnTypeInference(Set<String> treatAsEmptyValues) {
+		this.treatAsEmptyValues = treatAsEmptyValues;
+	}
+
+	void addValue(String value) {
+		if (value == null || value.isEmpty()) {
+			return;
+		}
+		hasNonEmptyValue = true;
+		if (treatAsEmptyValues.contains(value)) {
+			return;
+		}
+		hasParsed = true;
+		if (isBoolean) {
+			//TODO what about mixed
+			isBoolean = "J".equalsIgnoreCase(value) || "Y".equalsIgnoreCase(value) || "T".equalsIgnoreCase(value)
+					|| "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)
+					|| "N".equalsIgnoreCase(value) || "F".equalsIgnoreCase(value);
+		}
+		if (isDiscrete) {
+			isDiscrete = isInteger(value);
+		}
+		if (isContinuous) {
+			isContinuous = CONTINUOUS_PATTERN.matcher(value).matches();
+		}
+		if (dateFormatCandidates == null) {
+			dateFormatCandidates = new BitSet();
+			dateFormatCandidates.set(0, dateFormatClassifier.getFormats().size());
+		}
+		if (!dateFormatCandidates.isEmpty()) {
+			// Millisecond fix for Java SimpleDateFormat
+			String fixedValue = INVALID_MS_PATTERN.matcher(value).replaceFirst("$1");
+			// Only parse with the formats that match the shape of the value
+			dateFormatCandidates.and(dateFormatClassifier.getCandidates(fixedValue));
+			List<DateFormat> formats = DATE_FORMATS.get();
+			for (int i = dateFormatCandidates.nextSetBit(0); i >= 0; i = dateFormatCandidates.nextSetBit(i + 1)) {
+				if (formats.get(i).parse(fixedValue, new ParsePosition(0)) == null) {
+					dateFormatCandidates.clear(i);
+				}
+			}
+		}
+	}
+
+	DatatypeWithPattern getResult() {
+		if (!hasNonEmptyValue || !hasParsed) {
+			return createResult(Datatype.LITERAL, "");
+		} else if (isBoolean) {
+			return createResult(Datatype.BOOLEAN, "");
+		} else if (isDiscrete) {
+			return createResult(Datatype.DISCRETE, "");
+		} else if (isContinuous) {
+			return createResult(Datatype.CONTINUOUS, "");
+		} else if (!dateFormatCandidates.isEmpty()) {
+			DateFormat format = dateFormatClassifier.getFormats().get(dateFormatCandidates.nextSetBit(0));
+			return createResult(Datatype.TIME, ((SimpleDateFormat) format).toPattern());
+		} else {
+			return createResult(Datatype.LITERAL, "");
+		}
+	}
+
+	private static DatatypeWithPattern createResult(final Datatype type, final String pattern) {
+		return new DatatypeWithPattern() {
+
+			public Datatype getType() {
+				return type;
+			}
+
+			public String getPattern() {
+				return pattern;
+			}
+		};
+	}
+
+	private static boolean isInteger(String s) {
+		if (s.isEmpty())
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (i == 0 && s.charAt(i) == '-') {
+				if (s.length() == 1)
+					return false;
+				else
+					continue;
+			}
+			if (Character.digit(s.charAt(i), 10) < 0)
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,478 @@
+package org.processmining.log.csvimport.handler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.deckfour.xes.extension.XExtension;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.extension.std.XLifecycleExtension;
+import org.deckfour.xes.extension.std.XLifecycleExtension.StandardModel;
+import org.deckfour.xes.extension.std.XTimeExtension;
+import org.deckfour.xes.factory.XFactory;
+import org.deckfour.xes.info.impl.XLogInfoImpl;
+import org.deckfour.xes.model.XAttributable;
+import org.deckfour.xes.model.XAttribute;
+import org.deckfour.xes.model.XAttributeBoolean;
+import org.deckfour.xes.model.XAttributeContinuous;
+import org.deckfour.xes.model.XAttributeDiscrete;
+import org.deckfour.xes.model.XAttributeLiteral;
+import org.deckfour.xes.model.XAttributeTimestamp;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVErrorSink;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig.CSVErrorHandlingMode;
+import org.processmining.log.csvimport.config.CSVConversionConfig.CSVMapping;
+import org.processmining.log.csvimport.config.CSVConversionConfig.ExtensionAttribute;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+import org.processmining.log.utils.XUtils;
+
+import com.google.common.collect.Ordering;
+
+/**
+ * Base class of the handlers that create XES traces from a CSV. Events of the
+ * current trace are kept in memory until the trace is completed and then passed
+ * to {@link #traceCompleted(XTrace)}.
+ * 
+ * @author F. Mannhardt
+ *
+ * @param <R>
+ */
+public abstract class AbstractXESConversionHandler<R> implements CSVConversionHandler<R> {
+
+	private static final Comparator<? super XEvent> TIME_COMPARATOR = new Comparator<XEvent>() {
+
+		public int compare(XEvent o1, XEvent o2) {
+			// assumes stable sorting so start events will be always before complete events
+			Date time1 = XUtils.getTimestamp(o1);
+			Date time2 = XUtils.getTimestamp(o2);
+			return Ordering.natural() // use Date built-in comparator
+					.nullsFirst() // null aware since some events might not have times
+					.compare(time1, time2);
+		}
+	};
+
+	private final XFactory factory;
+	private final CSVConversionConfig conversionConfig;
+	private CSVErrorSink errorSink;
+
+	private XLog log = null;
+
+	private XTrace currentTrace = null;
+	private List<XEvent> currentEvents = new ArrayList<>();
+
+	private int instanceCounter = 0;
+
+	private XEvent currentEvent = null;
+	private XEvent currentStartEvent;
+
+	// Times of the current events, used to skip sorting traces that are already in order
+	private long currentEventTime = Long.MIN_VALUE;
+	private long currentStartEventTime = Long.MIN_VALUE;
+	private long lastEventTime = Long.MIN_VALUE;
+	private boolean currentEventsSorted = true;
+
+	private boolean errorDetected = false;
+
+	public AbstractXESConversionHandler(CSVConfig importConfig, CSVConversionConfig conversionConfig) {
+		this.conversionConfig = conversionConfig;
+		this.factory = conversionConfig.getFactory();
+		this.errorSink = new CSVErrorSink();
+	}
+
+	@Override
+	public String getConversionErrors() {
+		if (!errorSink.hasErrors()) {
+			return "";
+		}
+		return getErrorHandlingDescription() + "\n" + errorSink.getSummary();
+	}
+
+	private String getErrorHandlingDescription() {
+		switch (conversionConfig.getErrorHandlingMode()) {
+			case BEST_EFFORT :
+				return "Invalid values have been kept as literal attributes.";
+			case OMIT_EVENT_ON_ERROR :
+				return "Events with invalid values have been skipped.";
+			case OMIT_TRACE_ON_ERROR :
+				return "Traces with invalid values have been skipped.";
+			case ABORT_ON_ERROR :
+			default :
+				return "The conversion has been aborted.";
+		}
+	}
+
+	@Override
+	public boolean hasConversionErrors() {
+		return errorSink.hasErrors();
+	}
+
+	/**
+	 * @return the sink that collects the errors of the conversion
+	 */
+	public CSVErrorSink getErrorSink() {
+		return errorSink;
+	}
+
+	/**
+	 * Replaces the default sink, which only keeps samples of the errors in
+	 * memory, e.g., to write all errors to a file.
+	 * 
+	 * @param errorSink
+	 */
+	public void setErrorSink(CSVErrorSink errorSink) {
+		this.errorSink = errorSink;
+	}
+
+	@Override
+	public void startLog(CSVFile inputFile) {
+		try {
+			errorSink.clear();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not reset the errors of the conversion", e);
+		}
+		instanceCounter = 0;
+		log = createLog(inputFile);
+		if (conversionConfig.getEventNameColumns() != null) {
+			log.getExtensions().add(XConceptExtension.instance());
+			if (!log.getClassifiers().contains(XLogInfoImpl.NAME_CLASSIFIER)) {
+				log.getClassifiers().add(XLogInfoImpl.NAME_CLASSIFIER);
+			}
+		}
+		if (conversionConfig.getCompletionTimeColumn() != null || conversionConfig.getStartTimeColumn() != null) {
+			log.getExtensions().add(XTimeExtension.instance());
+			log.getExtensions().add(XLifecycleExtension.instance());
+			if (!log.getClassifiers().contains(XUtils.STANDARDCLASSIFIER)) {
+				log.getClassifiers().add(XUtils.STANDARDCLASSIFIER);
+			}
+		}
+		logStarted(log);
+	}
+
+	/**
+	 * Creates the log that is passed to {@link #logStarted(XLog)}. Extensions
+	 * and classifiers required by the conversion are added afterwards. By
+	 * default a new log named after the input file is created.
+	 * 
+	 * @param inputFile
+	 * @return the log
+	 */
+	protected XLog createLog(CSVFile inputFile) {
+		XLog newLog = factory.createLog();
+		assignName(factory, newLog, inputFile.getFilename());
+		return newLog;
+	}
+
+	/**
+	 * Sets the next value used for the concept:instance attribute that links
+	 * start and complete events, e.g., to avoid clashes with the instances of
+	 * events that are already part of the log.
+	 * 
+	 * @param instanceCounter
+	 */
+	protected void setInstanceCounter(int instanceCounter) {
+		this.instanceCounter = instanceCounter;
+	}
+
+	/**
+	 * Called after the log with its extensions, classifiers and attributes has
+	 * been created. Might be called again in case the conversion is restarted.
+	 * 
+	 * @param log
+	 *            the log without any traces
+	 */
+	protected abstract void logStarted(XLog log);
+
+	/**
+	 * Called for each trace that has been converted and should be included.
+	 * 
+	 * @param trace
+	 *            the trace including all its events sorted by time
+	 */
+	protected abstract void traceCompleted(XTrace trace);
+
+	@Override
+	public void startTrace(String caseId) {
+		currentEvents.clear();
+		currentEventsSorted = true;
+		lastEventTime = Long.MIN_VALUE;
+		errorDetected = false;
+		currentTrace = factory.createTrace();
+		assignName(factory, currentTrace, caseId);
+	}
+
+	@Override
+	public void endTrace(String caseId) {
+		if (errorDetected && conversionConfig.getErrorHandlingMode() == CSVErrorHandlingMode.OMIT_TRACE_ON_ERROR) {
+			// Skip the entire trace
+			return;
+		}
+		if (!currentEventsSorted) {
+			// Rows were not sorted by time before, e.g., when grouping without sorting
+			sortEventsByTimestamp();
+		}
+		currentTrace.addAll(currentEvents);
+		traceCompleted(currentTrace);
+	}
+
+	private void sortEventsByTimestamp() {
+		Collections.sort(currentEvents, TIME_COMPARATOR);
+	}
+
+	@Override
+	public void startEvent(String eventClass, Date completionTime, Date startTime) {
+		if (conversionConfig.getErrorHandlingMode() == CSVErrorHandlingMode.OMIT_EVENT_ON_ERROR) {
+			// Include the other events in that trace
+			errorDetected = false;
+		}
+
+		currentEvent = factory.createEvent();
+		if (eventClass != null) {
+			assignName(factory, currentEvent, eventClass);
+		}
+		// Events without time are ordered first, see TIME_COMPARATOR
+		currentEventTime = completionTime != null ? completionTime.getTime()
+				: (startTime != null ? startTime.getTime() : Long.MIN_VALUE);
+		currentStartEventTime = startTime != null ? startTime.getTime() : Long.MIN_VALUE;
+
+		if (startTime == null && completionTime == null) {
+			// Both times are unknown only create an event assuming it is the completion event
+			assignLifecycleTransition(factory, currentEvent, XLifecycleExtension.StandardModel.COMPLETE);
+		} else if (startTime != null && completionTime != null) {
+			// Both start and complete are present
+			String instance = String.valueOf((instanceCounter++));
+
+			// Assign attribute for complete event (currentEvent)			
+			assignTimestamp(factory, currentEvent, completionTime);
+			assignInstance(factory, currentEvent, instance);
+			assignLifecycleTransition(factory, currentEvent, XLifecycleExtension.StandardModel.COMPLETE);
+
+			// Add additional start event
+			currentStartEvent = factory.createEvent();
+			if (eventClass != null) {
+				assignName(factory, currentStartEvent, eventClass);
+			}
+			assignTimestamp(factory, currentStartEvent, startTime);
+			assignInstance(factory, currentStartEvent, instance);
+			assignLifecycleTransition(factory, currentStartEvent, XLifecycleExtension.StandardModel.START);
+
+		} else {
+			// Either start or complete are present
+			if (completionTime != null) {
+				// Only create Complete
+				assignTimestamp(factory, currentEvent, completionTime);
+				assignLifecycleTransition(factory, currentEvent, XLifecycleExtension.StandardModel.COMPLETE);
+			} else if (startTime != null) {
+				// Only create Start
+				assignTimestamp(factory, currentEvent, startTime);
+				assignLifecycleTransition(factory, currentEvent, XLifecycleExtension.StandardModel.START);
+			} else {
+				throw new IllegalStateException(
+						"Both start and complete time are NULL. This should never be the case here!");
+			}
+		}
+	}
+
+	@Override
+	public void startAttribute(String name, String value) {
+		if (!specialColumn(name)) {
+			assignAttribute(currentEvent, createLiteral(name, value));
+			if (isShouldAddStartEventAttributes() && currentStartEvent != null) {
+				assignAttribute(currentStartEvent, createLiteral(name, value));
+			}
+		}
+	}
+
+	private XAttributeLiteral createLiteral(String name, String value) {
+		return factory.createAttributeLiteral(getNameFromConfig(name), value, getExtensionFromConfig(name));
+	}
+
+	@Override
+	public void startAttribute(String name, long value) {
+		if (!specialColumn(name)) {
+			assignAttribute(currentEvent, createDiscrete(name, value));
+			if (isShouldAddStartEventAttributes() && currentStartEvent != null) {
+				assignAttribute(currentStartEvent, createDiscrete(name, value));
+			}
+		}
+	}
+
+	private XAttributeDiscrete createDiscrete(String name, long value) {
+		return factory.createAttributeDiscrete(getNameFromConfig(name), value, getExtensionFromConfig(name));
+	}
+
+	@Override
+	public void startAttribute(String name, double value) {
+		if (!specialColumn(name)) {
+			assignAttribute(currentEvent, createContinuous(name, value));
+			if (isShouldAddStartEventAttributes() && currentStartEvent != null) {
+				assignAttribute(currentStartEvent, createContinuous(name, value));
+			}
+		}
+	}
+
+	private XAttributeContinuous createContinuous(String name, double value) {
+		return factory.createAttributeContinuous(getNameFromConfig(name), value, getExtensionFromConfig(name));
+	}
+
+	@Override
+	public void startAttribute(String name, Date value) {
+		if (!specialColumn(name)) {
+			assignAttribute(currentEvent, createDate(name, value));
+			if (isShouldAddStartEventAttributes() && currentStartEvent != null) {
+				assignAttribute(currentStartEvent, createDate(name, value));
+			}
+		}
+	}
+
+	private XAttributeTimestamp createDate(String name, Date value) {
+		return factory.createAttributeTimestamp(getNameFromConfig(name), value, getExtensionFromConfig(name));
+	}
+
+	@Override
+	public void startAttribute(String name, boolean value) {
+		if (!specialColumn(name)) {
+			assignAttribute(currentEvent, createBoolean(name, value));
+			if (isShouldAddStartEventAttributes() && currentStartEvent != null) {
+				assignAttribute(currentStartEvent, createBoolean(name, value));
+			}
+		}
+	}
+
+	private XAttributeBoolean createBoolean(String name, boolean value) {
+		return factory.createAttributeBoolean(getNameFromConfig(name), value, getExtensionFromConfig(name));
+	}
+
+	private XExtension getExtensionFromConfig(String name) {
+		ExtensionAttribute extensionAttribute = getExtensionAttribute(name);
+		return extensionAttribute == null ? null : extensionAttribute.extension;
+	}
+
+	private String getNameFromConfig(String columnName) {
+		CSVMapping csvMapping = getMapping(columnName);
+		if (csvMapping.getEventExtensionAttribute() != null
+				&& csvMapping.getEventExtensionAttribute() != CSVConversionConfig.NO_EXTENSION_ATTRIBUTE) {
+			return csvMapping.getEventExtensionAttribute().key;
+		} else if (csvMapping.getEventAttributeName() != null && !csvMapping.getEventAttributeName().isEmpty()) {
+			return csvMapping.getEventAttributeName();
+		} else {
+			return columnName;
+		}
+	}
+
+	private ExtensionAttribute getExtensionAttribute(String name) {
+		return getMapping(name).getEventExtensionAttribute();
+	}
+
+	private CSVMapping getMapping(String name) {
+		return conversionConfig.getConversionMap().get(name);
+	}
+
+	@Override
+	public void endAttribute() {
+		//No-op
+	}
+
+	@Override
+	public void endEvent() {
+		if (errorDetected && conversionConfig.getErrorHandlingMode() == CSVErrorHandlingMode.OMIT_EVENT_ON_ERROR) {
+			// Do not include the event
+			return;
+		}
+		// Add start event before complete event to guarantee order for events with same time-stamp
+		if (currentStartEvent != null) {
+			addEvent(currentStartEvent, currentStartEventTime);
+			currentStartEvent = null;
+		}
+		addEvent(currentEvent, currentEventTime);
+		currentEvent = null;
+	}
+
+	private void addEvent(XEvent event, long time) {
+		if (time < lastEventTime) {
+			currentEventsSorted = false;
+		}
+		lastEventTime = time;
+		currentEvents.add(event);
+	}
+
+	/**
+	 * @return the log without traces or NULL before {@link #startLog(CSVFile)}
+	 */
+	protected XLog getLog() {
+		return log;
+	}
+
+
+	private static void assignAttribute(XAttributable a, XAttribute value) {
+		XUtils.putAttribute(a, value);
+	}
+
+	private static void assignLifecycleTransition(XFactory factory, XAttributable a, StandardModel lifecycle) {
+		assignAttribute(a, factory.createAttributeLiteral(XLifecycleExtension.KEY_TRANSITION, lifecycle.getEncoding(),
+				XLifecycleExtension.instance()));
+	}
+
+	private static void assignInstance(XFactory factory, XAttributable a, String value) {
+		assignAttribute(a,
+				factory.createAttributeLiteral(XConceptExtension.KEY_INSTANCE, value, XConceptExtension.instance()));
+	}
+
+	private static void assignTimestamp(XFactory factory, XAttributable a, Date value) {
+		assignAttribute(a,
+				factory.createAttributeTimestamp(XTimeExtension.KEY_TIMESTAMP, value, XTimeExtension.instance()));
+	}
+
+	private static void assignName(XFactory factory, XAttributable a, String value) {
+		assignAttribute(a,
+				factory.createAttributeLiteral(XConceptExtension.KEY_NAME, value, XConceptExtension.instance()));
+	}
+
+	@Override
+	public void errorDetected(int lineNumber, int columnIndex, String attributeName, Object content, Exception e)
+			throws CSVConversionException {
+		CSVErrorHandlingMode errorMode = conversionConfig.getErrorHandlingMode();
+		errorDetected = true;
+		if (errorMode == CSVErrorHandlingMode.ABORT_ON_ERROR) {
+			throw new CSVConversionException("Error converting " + nullSafeToString(content) + " at line "
+					+ lineNumber + " and column " + columnIndex, e);
+		}
+		// Messages are only formatted for the samples kept by the sink
+		try {
+			errorSink.add(lineNumber, columnIndex, attributeName, content, e);
+		} catch (IOException ioException) {
+			throw new CSVConversionException("Could not write the error at line " + lineNumber, ioException);
+		}
+	}
+
+	private static String nullSafeToString(Object obj) {
+		if (obj == null) {
+			return "NULL";
+		} else if (obj.getClass().isArray()) {
+			return Arrays.toString((Object[]) obj);
+		} else {
+			return obj.toString();
+		}
+	}
+
+	private boolean specialColumn(String columnName) {
+		return columnName == null
+				|| (XConceptExtension.KEY_NAME.equals(columnName) && !conversionConfig.getEventNameColumns().isEmpty())
+				|| (XTimeExtension.KEY_TIMESTAMP.equals(columnName)
+						&& conversionConfig.getCompletionTimeColumn() != null)
+				|| (XConceptExtension.KEY_INSTANCE.equals(columnName) && conversionConfig.getStartTimeColumn() != null);
+	}
+
+	public boolean isShouldAddStartEventAttributes() {
+		return conversionConfig.isShouldAddStartEventAttributes();
+	}
+
+}
\ No newline at end of file
@@ -15,7 +15,10 @@ import org.processmining.log.csvimport.exception.CSVConversionException;
 public interface CSVConversionHandler<R> {
 
 	/**
-	 * Called upon start parsing the {@link CSVFile}.
+	 * Called upon start parsing the {@link CSVFile}. Might be called again in
+	 * case the conversion needs to be restarted, e.g., when the input turned
+	 * out not to be grouped by case. In that case, all previously converted
+	 * data should be discarded.
 	 * 
 	 * @param inputFile
 	 */
@@ -0,0 +1,221 @@
+package org.processmining.log.csvimport.handler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.utils.XUtils;
+
+/**
+ * Handler that appends the events of a CSV to an existing XLog. Events of cases
+ * that are already part of the log are merged into the existing trace by their
+ * time-stamp, events of new cases are added as new traces. Only the CSV with
+ * the new events needs to be converted (and sorted), the existing log is
+ * neither re-read nor re-sorted.
+ * <p>
+ * The existing log is only modified when calling {@link #getResult()}, so that
+ * it stays untouched if the conversion fails or is restarted. Until then, the
+ * extensions and classifiers required by the conversion are collected on a
+ * separate log and copied to the existing log by {@link #getResult()}.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public class XESAppendConversionHandlerImpl extends AbstractXESConversionHandler<XLog> {
+
+	private final XLog existingLog;
+	private final Map<String, XTrace> traceIndex;
+	private final List<XTrace> completedTraces = new ArrayList<>();
+
+	private int appendedTraces = 0;
+	private int mergedTraces = 0;
+
+	/**
+	 * Creates a handler that indexes the traces of the existing log by their
+	 * concept:name.
+	 *
+	 * @param importConfig
+	 * @param conversionConfig
+	 * @param existingLog
+	 *            the log to which events are appended
+	 */
+	public XESAppendConversionHandlerImpl(CSVConfig importConfig, CSVConversionConfig conversionConfig,
+			XLog existingLog) {
+		this(importConfig, conversionConfig, existingLog, createTraceIndex(existingLog));
+	}
+
+	/**
+	 * Creates a handler using an index of the existing log that has been kept
+	 * from a previous import.
+	 *
+	 * @param importConfig
+	 * @param conversionConfig
+	 * @param existingLog
+	 *            the log to which events are appended
+	 * @param traceIndex
+	 *            maps the case identifiers to the traces of the existing log,
+	 *            is updated with the appended traces
+	 */
+	public XESAppendConversionHandlerImpl(CSVConfig importConfig, CSVConversionConfig conversionConfig,
+			XLog existingLog, Map<String, XTrace> traceIndex) {
+		super(importConfig, conversionConfig);
+		this.existingLog = existingLog;
+		this.traceIndex = traceIndex;
+	}
+
+	/**
+	 * @param log
+	 * @return map from the concept:name of each trace to the trace, for
+	 *         duplicate names the first trace is used
+	 */
+	public static Map<String, XTrace> createTraceIndex(XLog log) {
+		Map<String, XTrace> traceIndex = new HashMap<>(Math.max(16, log.size() * 2));
+		for (XTrace trace : log) {
+			String caseId = XUtils.getConceptName(trace);
+			if (caseId != null && !traceIndex.containsKey(caseId)) {
+				traceIndex.put(caseId, trace);
+			}
+		}
+		return traceIndex;
+	}
+
+	@Override
+	protected XLog createLog(CSVFile inputFile) {
+		// Continue after the highest instance, otherwise start and complete events of old and new events might be linked
+		setInstanceCounter(getMaxInstance(existingLog) + 1);
+		// Collects the extensions and classifiers without touching the existing log
+		return super.createLog(inputFile);
+	}
+
+	private static int getMaxInstance(XLog log) {
+		int maxInstance = -1;
+		XConceptExtension concept = XConceptExtension.instance();
+		for (XTrace trace : log) {
+			for (XEvent event : trace) {
+				String instance = concept.extractInstance(event);
+				if (instance != null) {
+					try {
+						maxInstance = Math.max(maxInstance, Integer.parseInt(instance));
+					} catch (NumberFormatException e) {
+						// Not created by the conversion
+					}
+				}
+			}
+		}
+		return maxInstance;
+	}
+
+	@Override
+	protected void logStarted(XLog log) {
+		// Conversion has been restarted, discard what has been converted so far
+		completedTraces.clear();
+	}
+
+	@Override
+	protected void traceCompleted(XTrace trace) {
+		completedTraces.add(trace);
+	}
+
+	/**
+	 * Merges the converted traces into the existing log. Calling this method
+	 * again does not change the log any further.
+	 *
+	 * @return the existing log including the new events
+	 */
+	public XLog getResult() {
+		XLog log = getLog();
+		if (log != null) {
+			existingLog.getExtensions().addAll(log.getExtensions());
+			for (XEventClassifier classifier : log.getClassifiers()) {
+				if (!existingLog.getClassifiers().contains(classifier)) {
+					existingLog.getClassifiers().add(classifier);
+				}
+			}
+		}
+		for (XTrace trace : completedTraces) {
+			String caseId = XUtils.getConceptName(trace);
+			XTrace existingTrace = traceIndex.get(caseId);
+			if (existingTrace == null) {
+				existingLog.add(trace);
+				traceIndex.put(caseId, trace);
+				appendedTraces++;
+			} else {
+				mergeEvents(existingTrace, trace);
+				mergedTraces++;
+			}
+		}
+		completedTraces.clear();
+		return existingLog;
+	}
+
+	/**
+	 * Merges the new events, which are sorted by time, into the existing trace.
+	 * Existing events are kept before new events with the same time-stamp, new
+	 * events without time-stamp are added at the end.
+	 */
+	private static void mergeEvents(XTrace existingTrace, List<XEvent> newEvents) {
+		// Events without time are sorted first by the conversion
+		int firstTimed = 0;
+		while (firstTimed < newEvents.size() && XUtils.getTimestamp(newEvents.get(firstTimed)) == null) {
+			firstTimed++;
+		}
+		if (firstTimed == newEvents.size() || existingTrace.isEmpty() || !isBefore(newEvents.get(firstTimed),
+				existingTrace.get(existingTrace.size() - 1))) {
+			// Usually the case for a delta, nothing to merge
+			existingTrace.addAll(newEvents.subList(firstTimed, newEvents.size()));
+			existingTrace.addAll(newEvents.subList(0, firstTimed));
+			return;
+		}
+		List<XEvent> merged = new ArrayList<>(existingTrace.size() + newEvents.size());
+		int i = 0;
+		int j = firstTimed;
+		while (i < existingTrace.size() && j < newEvents.size()) {
+			XEvent existingEvent = existingTrace.get(i);
+			XEvent newEvent = newEvents.get(j);
+			if (isBefore(newEvent, existingEvent)) {
+				merged.add(newEvent);
+				j++;
+			} else {
+				merged.add(existingEvent);
+				i++;
+			}
+		}
+		merged.addAll(existingTrace.subList(i, existingTrace.size()));
+		merged.addAll(newEvents.subList(j, newEvents.size()));
+		merged.addAll(newEvents.subList(0, firstTimed));
+		existingTrace.clear();
+		existingTrace.addAll(merged);
+	}
+
+	private static boolean isBefore(XEvent newEvent, XEvent existingEvent) {
+		Date newTime = XUtils.getTimestamp(newEvent);
+		Date existingTime = XUtils.getTimestamp(existingEvent);
+		return existingTime != null && newTime.before(existingTime);
+	}
+
+	/**
+	 * @return number of new traces added to the log by {@link #getResult()}
+	 */
+	public int getAppendedTraces() {
+		return appendedTraces;
+	}
+
+	/**
+	 * @return number of existing traces that received new events in
+	 *         {@link #getResult()}
+	 */
+	public int getMergedTraces() {
+		return mergedTraces;
+	}
+
+}
@@ -0,0 +1,305 @@
+package org.processmining.log.csvimport.handler;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.extension.XExtension;
+import org.deckfour.xes.model.XAttributable;
+import org.deckfour.xes.model.XAttribute;
+import org.deckfour.xes.model.XAttributeBoolean;
+import org.deckfour.xes.model.XAttributeContinuous;
+import org.deckfour.xes.model.XAttributeDiscrete;
+import org.deckfour.xes.model.XAttributeLiteral;
+import org.deckfour.xes.model.XAttributeTimestamp;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+
+/**
+ * Handler that writes the XES XML of the converted log directly to a file,
+ * optionally compressed with GZIP. Only the events of the current trace are
+ * kept in memory, each trace is written once it is completed. The XML is
+ * written to a temporary file next to the output file, which is renamed to the
+ * output file when calling {@link #getResult()}. Thus, an existing output file
+ * is only replaced by a complete log. Call {@link #close()} when the conversion
+ * fails to remove the temporary file.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public class XESStreamingConversionHandlerImpl extends AbstractXESConversionHandler<File> implements Closeable {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final File outputFile;
+	private final boolean compress;
+
+	// Same format as used by the OpenXES serializer
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+	private File tempFile = null;
+	private Writer writer = null;
+	private boolean finished = false;
+
+	/**
+	 * @param importConfig
+	 * @param conversionConfig
+	 * @param outputFile
+	 *            the file to which the XES XML is written, it will be
+	 *            replaced once the conversion is finished
+	 * @param compress
+	 *            whether the file should be compressed with GZIP
+	 */
+	public XESStreamingConversionHandlerImpl(CSVConfig importConfig, CSVConversionConfig conversionConfig,
+			File outputFile, boolean compress) {
+		super(importConfig, conversionConfig);
+		this.outputFile = outputFile;
+		this.compress = compress;
+	}
+
+	@Override
+	protected void logStarted(XLog log) {
+		// Conversion might have been restarted, discard what was written before
+		abort();
+		finished = false;
+		try {
+			File directory = outputFile.getAbsoluteFile().getParentFile();
+			tempFile = File.createTempFile(outputFile.getName() + "-", ".tmp", directory);
+			OutputStream os = new FileOutputStream(tempFile);
+			if (compress) {
+				os = new GZIPOutputStream(os, BUFFER_SIZE);
+			}
+			writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+			writeLogHeader(log);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write XES file " + outputFile, e);
+		}
+	}
+
+	@Override
+	protected void traceCompleted(XTrace trace) {
+		try {
+			writer.write("\t<trace>\n");
+			writeAttributes(trace, 2);
+			for (XEvent event : trace) {
+				writer.write("\t\t<event>\n");
+				writeAttributes(event, 3);
+				writer.write("\t\t</event>\n");
+			}
+			writer.write("\t</trace>\n");
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write XES file " + outputFile, e);
+		}
+	}
+
+	/**
+	 * Finishes writing the XES file and moves it to the output file.
+	 *
+	 * @return the XES file or NULL if the conversion has not been started
+	 */
+	public File getResult() {
+		if (finished) {
+			return outputFile;
+		}
+		if (writer == null) {
+			return null;
+		}
+		try {
+			writer.write("</log>\n");
+			writer.close();
+			writer = null;
+			Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			tempFile = null;
+			finished = true;
+		} catch (IOException e) {
+			abort();
+			throw new RuntimeException("Could not write XES file " + outputFile, e);
+		}
+		return outputFile;
+	}
+
+	/**
+	 * Discards the partially written XES file unless {@link #getResult()} has
+	 * finished it. The output file is left untouched in that case.
+	 */
+	public void close() {
+		abort();
+	}
+
+	private void abort() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				// Ignore, the file is deleted anyway
+			}
+			writer = null;
+		}
+		if (tempFile != null) {
+			tempFile.delete();
+			tempFile = null;
+		}
+	}
+
+	private void writeLogHeader(XLog log) throws IOException {
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+		writer.write("<log xes.version=\"1.0\" xes.features=\"nested-attributes\">\n");
+		for (XExtension extension : log.getExtensions()) {
+			writer.write("\t<extension name=\"");
+			writeEscaped(extension.getName());
+			writer.write("\" prefix=\"");
+			writeEscaped(extension.getPrefix());
+			writer.write("\" uri=\"");
+			writeEscaped(extension.getUri().toString());
+			writer.write("\"/>\n");
+		}
+		writeGlobals("trace", log.getGlobalTraceAttributes());
+		writeGlobals("event", log.getGlobalEventAttributes());
+		for (XEventClassifier classifier : log.getClassifiers()) {
+			writer.write("\t<classifier name=\"");
+			writeEscaped(classifier.name());
+			writer.write("\" keys=\"");
+			String[] keys = classifier.getDefiningAttributeKeys();
+			for (int i = 0; i < keys.length; i++) {
+				if (i > 0) {
+					writer.write(' ');
+				}
+				if (keys[i].indexOf(' ') != -1) {
+					writer.write('\'');
+					writeEscaped(keys[i]);
+					writer.write('\'');
+				} else {
+					writeEscaped(keys[i]);
+				}
+			}
+			writer.write("\"/>\n");
+		}
+		writeAttributes(log, 1);
+	}
+
+	private void writeGlobals(String scope, Collection<XAttribute> attributes) throws IOException {
+		if (!attributes.isEmpty()) {
+			writer.write("\t<global scope=\"");
+			writer.write(scope);
+			writer.write("\">\n");
+			for (XAttribute attribute : attributes) {
+				writeAttribute(attribute, 2);
+			}
+			writer.write("\t</global>\n");
+		}
+	}
+
+	private void writeAttributes(XAttributable element, int indent) throws IOException {
+		if (element.hasAttributes()) {
+			for (XAttribute attribute : element.getAttributes().values()) {
+				writeAttribute(attribute, indent);
+			}
+		}
+	}
+
+	private void writeAttribute(XAttribute attribute, int indent) throws IOException {
+		writeIndent(indent);
+		String tag;
+		String value;
+		if (attribute instanceof XAttributeTimestamp) {
+			tag = "date";
+			value = dateFormat.format(((XAttributeTimestamp) attribute).getValue());
+		} else if (attribute instanceof XAttributeDiscrete) {
+			tag = "int";
+			value = String.valueOf(((XAttributeDiscrete) attribute).getValue());
+		} else if (attribute instanceof XAttributeContinuous) {
+			tag = "float";
+			value = String.valueOf(((XAttributeContinuous) attribute).getValue());
+		} else if (attribute instanceof XAttributeBoolean) {
+			tag = "boolean";
+			value = String.valueOf(((XAttributeBoolean) attribute).getValue());
+		} else if (attribute instanceof XAttributeLiteral) {
+			tag = "string";
+			value = ((XAttributeLiteral) attribute).getValue();
+		} else {
+			tag = "string";
+			value = attribute.toString();
+		}
+		writer.write('<');
+		writer.write(tag);
+		writer.write(" key=\"");
+		writeEscaped(attribute.getKey());
+		writer.write("\" value=\"");
+		writeEscaped(value);
+		if (attribute.hasAttributes()) {
+			writer.write("\">\n");
+			writeAttributes(attribute, indent + 1);
+			writeIndent(indent);
+			writer.write("</");
+			writer.write(tag);
+			writer.write(">\n");
+		} else {
+			writer.write("\"/>\n");
+		}
+	}
+
+	private void writeIndent(int indent) throws IOException {
+		for (int i = 0; i < indent; i++) {
+			writer.write('\t');
+		}
+	}
+
+	private void writeEscaped(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '&' :
+					writer.write("&amp;");
+					break;
+				case '<' :
+					writer.write("&lt;");
+					break;
+				case '>' :
+					writer.write("&gt;");
+					break;
+				case '"' :
+					writer.write("&quot;");
+					break;
+				case '\'' :
+					writer.write("&apos;");
+					break;
+				case '\n' :
+					writer.write("&#10;");
+					break;
+				case '\r' :
+					writer.write("&#13;");
+					break;
+				case '\t' :
+					writer.write("&#9;");
+					break;
+				default :
+					if (c < 0x20) {
+						// Not allowed in XML 1.0
+						writer.write(' ');
+					} else {
+						writer.write(c);
+					}
+					break;
+			}
+		}
+	}
+
+}
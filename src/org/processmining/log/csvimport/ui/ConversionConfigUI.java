@@ -10,7 +10,9 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.GroupLayout;
@@ -35,6 +37,8 @@ import org.processmining.log.csv.config.CSVConfig;
 import org.processmining.log.csvimport.config.CSVConversionConfig;
 import org.processmining.log.csvimport.config.CSVConversionConfig.CSVMapping;
 import org.processmining.log.csvimport.ui.preview.CSVPreviewFrame;
+import org.processmining.log.csvimport.ui.preview.CSVRowNavigator;
+import org.processmining.log.csvimport.ui.preview.CSVRowNavigator.RowListener;
 
 import com.fluxicon.slickerbox.components.SlickerButton;
 import com.fluxicon.slickerbox.factory.SlickerFactory;
@@ -123,9 +127,24 @@ public final class ConversionConfigUI extends CSVConfigurationPanel implements A
 		}
 
 		protected void process(List<String[]> chunks) {
-			previewFrame.addRows(chunks);
-			previewFrame.setTitle(String.format("CSV Preview (%s rows - scroll down to load more)",
-					previewFrame.getPreviewTable().getModel().getRowCount()));
+			loadedRows.addAll(chunks);
+			if (!isPaging) {
+				previewFrame.addRows(chunks);
+				previewFrame.setTitle(String.format("CSV Preview (%s rows - scroll down to load more)",
+						previewFrame.getPreviewTable().getModel().getRowCount()));
+			}
+		}
+
+		protected void done() {
+			isLoading = false;
+			try {
+				get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				JOptionPane.showMessageDialog(previewFrame, "Error parsing CSV " + e.getCause().getMessage(),
+						"CSV Parsing Error", JOptionPane.ERROR_MESSAGE);
+			}
 		}
 	}
 
@@ -148,7 +167,12 @@ public final class ConversionConfigUI extends CSVConfigurationPanel implements A
 
 	private final ICSVReader reader;
 	private final CSVPreviewFrame previewFrame;
+	private final CSVRowNavigator navigator;
 	private int maxLoad = 1000;
+	private boolean isIndexed = false;
+	private boolean isPaging = false;
+	private boolean isLoading = false;
+	private final List<String[]> loadedRows = new ArrayList<>();
 
 	private ProMTextField completionTimeFormat;
 	private ProMTextField startTimeFormat;
@@ -368,10 +392,20 @@ public final class ConversionConfigUI extends CSVConfigurationPanel implements A
 				int maximum = e.getAdjustable().getMaximum();
 				int current = e.getValue();
 				if (Math.abs(maximum - current) < 1000 && !e.getValueIsAdjusting()) {
-					new LoadCSVRecordsWorker().execute();
+					loadMoreRows();
 				}
 			}
 		});
+		navigator = new CSVRowNavigator(csv, importConfig, maxLoad, new RowListener() {
+
+			public void showRows(List<String[]> rows, String description) {
+				// Stop loading more rows when scrolling, the navigator decides which rows are shown 
+				isPaging = true;
+				previewFrame.setRows(rows);
+				previewFrame.setTitle("Expert Configuration & Preview - " + description);
+			}
+		});
+		previewFrame.addNavigation(navigator);
 
 		changeListener.updateSettings();
 	}
@@ -379,18 +413,35 @@ public final class ConversionConfigUI extends CSVConfigurationPanel implements A
 	private void togglePreviewFrame() {
 		if (!previewFrame.isVisible()) {
 			previewFrame.showFrame(this);
-			try {
-				// Update Content
-				new LoadCSVRecordsWorker().execute();
-			} catch (Exception e) {
-				JOptionPane.showMessageDialog(this, "Error parsing CSV " + e.getMessage(), "CSV Parsing Error",
-						JOptionPane.ERROR_MESSAGE);
+			if (!isIndexed) {
+				// Index only once the preview is requested as this reads the whole file
+				navigator.refresh();
+				isIndexed = true;
+			}
+			if (isPaging) {
+				// Reopening the preview goes back to the rows loaded by scrolling
+				showLoadedRows();
 			}
+			loadMoreRows();
 		} else {
 			previewFrame.setVisible(false);
 		}
 	}
 
+	private void loadMoreRows() {
+		// Rows are read sequentially from the reader, only one worker may use it at a time
+		if (!isPaging && !isLoading) {
+			isLoading = true;
+			new LoadCSVRecordsWorker().execute();
+		}
+	}
+
+	private void showLoadedRows() {
+		isPaging = false;
+		previewFrame.setRows(loadedRows);
+		previewFrame.setTitle(String.format("CSV Preview (%s rows - scroll down to load more)", loadedRows.size()));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -424,6 +475,7 @@ public final class ConversionConfigUI extends CSVConfigurationPanel implements A
 	 * @see java.lang.AutoCloseable#close()
 	 */
 	public void close() {
+		navigator.cancel();
 		try {
 			reader.close();
 		} catch (IOException e) {
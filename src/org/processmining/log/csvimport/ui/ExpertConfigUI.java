@@ -22,6 +22,7 @@ import org.processmining.log.csvimport.config.CSVConversionConfig;
 import org.processmining.log.csvimport.config.CSVConversionConfig.CSVAttributeConversionMode;
 import org.processmining.log.csvimport.config.CSVConversionConfig.CSVEmptyCellHandlingMode;
 import org.processmining.log.csvimport.config.CSVConversionConfig.CSVErrorHandlingMode;
+import org.processmining.log.csvimport.config.CSVConversionConfig.GroupingStrategy;
 
 import com.fluxicon.slickerbox.factory.SlickerFactory;
 import com.google.common.base.Function;
@@ -82,6 +83,7 @@ public class ExpertConfigUI extends CSVConfigurationPanel {
 	private final ProMComboBox<CSVEmptyCellHandlingMode> emptyCellHandlingModeCbx;
 	private final ProMComboBox<CSVErrorHandlingMode> errorHandlingModeCbx;
 	private final ProMComboBox<CSVAttributeConversionMode> attributeConversionModeCbx;
+	private final ProMComboBox<GroupingStrategy> groupingStrategyCbx;
 
 	public ExpertConfigUI(final CSVFile csv, final CSVConfig importConfig, final CSVConversionConfig conversionConfig) {
 		super();
@@ -154,6 +156,20 @@ public class ExpertConfigUI extends CSVConfigurationPanel {
 			}
 		});
 
+		groupingStrategyCbx = new ProMComboBox<>(GroupingStrategy.values());
+		groupingStrategyCbx.setSelectedItem(conversionConfig.getGroupingStrategy());
+		JLabel groupingStrategyLabel = createLabel(
+				"Case Grouping",
+				"Sort all rows by case or only group the rows of each case. "
+				+ "Grouping is faster for huge files, but the traces in the resulting log are not ordered by their case identifier. "
+				+ "If the rows of each case are already contiguous in the file, sorting can be skipped entirely.");
+		groupingStrategyCbx.addActionListener(new ActionListener() {
+
+			public void actionPerformed(ActionEvent e) {
+				conversionConfig.setGroupingStrategy((GroupingStrategy) groupingStrategyCbx.getSelectedItem());
+			}
+		});
+
 		SequentialGroup verticalGroup = layout.createSequentialGroup();
 		verticalGroup.addGroup(layout
 				.createParallelGroup()
@@ -169,6 +185,8 @@ public class ExpertConfigUI extends CSVConfigurationPanel {
 						layout.createSequentialGroup().addComponent(emptyCellHandlingModeLabel)
 							.addComponent(emptyCellHandlingModeCbx))
 				.addGroup(layout.createSequentialGroup().addComponent(attributeConversionModeLabel).addComponent(attributeConversionModeCbx)));
+		verticalGroup.addGroup(layout.createSequentialGroup().addComponent(groupingStrategyLabel)
+				.addComponent(groupingStrategyCbx));
 
 		ParallelGroup horizontalGroup = layout.createParallelGroup();
 		horizontalGroup.addGroup(layout
@@ -193,8 +211,13 @@ public class ExpertConfigUI extends CSVConfigurationPanel {
 						layout.createParallelGroup()
 								.addComponent(attributeConversionModeLabel, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH)
 								.addComponent(attributeConversionModeCbx, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH)));
+		horizontalGroup.addGroup(layout
+				.createParallelGroup()
+				.addComponent(groupingStrategyLabel, Alignment.LEADING, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH)
+				.addComponent(groupingStrategyCbx, COLUMN_WIDTH, COLUMN_WIDTH, COLUMN_WIDTH));
 
-		layout.linkSize(errorHandlingModeLabel, xFactoryLabel, emptyCellHandlingModeLabel, attributeConversionModeLabel);
+		layout.linkSize(errorHandlingModeLabel, xFactoryLabel, emptyCellHandlingModeLabel, attributeConversionModeLabel,
+				groupingStrategyLabel);
 
 		layout.setAutoCreateContainerGaps(true);
 		layout.setAutoCreateGaps(true);
@@ -381,6 +381,26 @@ public final class CSVPreviewFrame extends JFrame {
 		previewTableModel.addRows(rows);
 	}
 
+	/**
+	 * Replaces all rows that are currently shown.
+	 * 
+	 * @param rows
+	 */
+	public void setRows(List<String[]> rows) {
+		previewTableModel.setRowCount(0);
+		previewTableModel.addRows(rows);
+	}
+
+	/**
+	 * Adds a component above the preview, e.g., to navigate the CSV file.
+	 * 
+	 * @param component
+	 */
+	public void addNavigation(JComponent component) {
+		getContentPane().add(component, 0);
+		pack();
+	}
+
 	public void refresh() {
 		if (datatypeTable != null) {
 			datatypeTable.repaint();
@@ -0,0 +1,272 @@
+package org.processmining.log.csvimport.ui.preview;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.SwingWorker;
+
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.CSVMappedFileReader;
+import org.processmining.log.csv.CSVRowOffsetIndex;
+import org.processmining.log.csv.CSVRowOffsetIndex.IndexProgress;
+import org.processmining.log.csv.config.CSVConfig;
+
+/**
+ * Controls for paging through a CSV file. A {@link CSVRowOffsetIndex} is built
+ * in the background when calling {@link #refresh()}, once it is available any
+ * page of the file or a sample of rows spread over the whole file can be shown.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVRowNavigator extends JPanel {
+
+	private static final long serialVersionUID = -2954140926571627410L;
+
+	/**
+	 * Receives the rows that should be shown.
+	 */
+	public interface RowListener {
+
+		/**
+		 * Called on the event dispatch thread.
+		 *
+		 * @param rows
+		 * @param description
+		 *            describes which rows are shown
+		 */
+		void showRows(List<String[]> rows, String description);
+
+	}
+
+	private final CSVFile csvFile;
+	private final CSVConfig importConfig;
+	private final int pageSize;
+	private final RowListener listener;
+
+	private final JButton previousButton;
+	private final JButton nextButton;
+	private final JTextField rowField;
+	private final JButton goButton;
+	private final JButton sampleButton;
+	private final JLabel statusLabel;
+
+	private SwingWorker<CSVRowOffsetIndex, Long> indexWorker;
+	private SwingWorker<List<String[]>, Void> rowWorker;
+	private CSVRowOffsetIndex index;
+	private long currentRow = 0;
+
+	/**
+	 * @param csvFile
+	 * @param importConfig
+	 * @param pageSize
+	 *            number of rows per page and number of sampled rows
+	 * @param listener
+	 */
+	public CSVRowNavigator(CSVFile csvFile, CSVConfig importConfig, int pageSize, RowListener listener) {
+		super();
+		this.csvFile = csvFile;
+		this.importConfig = importConfig;
+		this.pageSize = pageSize;
+		this.listener = listener;
+
+		setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
+		setOpaque(false);
+
+		previousButton = new JButton("Previous Page");
+		previousButton.addActionListener(new ActionListener() {
+
+			public void actionPerformed(ActionEvent e) {
+				showPage(currentRow - CSVRowNavigator.this.pageSize);
+			}
+		});
+		nextButton = new JButton("Next Page");
+		nextButton.addActionListener(new ActionListener() {
+
+			public void actionPerformed(ActionEvent e) {
+				showPage(currentRow + CSVRowNavigator.this.pageSize);
+			}
+		});
+		rowField = new JTextField(10);
+		rowField.setMaximumSize(rowField.getPreferredSize());
+		rowField.setToolTipText("Number of the first row to show");
+		goButton = new JButton("Go to Row");
+		ActionListener goListener = new ActionListener() {
+
+			public void actionPerformed(ActionEvent e) {
+				try {
+					showPage(Long.parseLong(rowField.getText().trim()) - 1);
+				} catch (NumberFormatException ex) {
+					statusLabel.setText("Invalid row number " + rowField.getText());
+				}
+			}
+		};
+		goButton.addActionListener(goListener);
+		rowField.addActionListener(goListener);
+		sampleButton = new JButton("Sample Whole File");
+		sampleButton.setToolTipText("Show rows that are evenly spread over the whole file");
+		sampleButton.addActionListener(new ActionListener() {
+
+			public void actionPerformed(ActionEvent e) {
+				showSample();
+			}
+		});
+		statusLabel = new JLabel();
+
+		add(previousButton);
+		add(nextButton);
+		add(rowField);
+		add(goButton);
+		add(sampleButton);
+		add(statusLabel);
+
+		setButtonsEnabled(false);
+	}
+
+	/**
+	 * Rebuilds the index, e.g., after the {@link CSVConfig} has been changed.
+	 */
+	public void refresh() {
+		cancel();
+		index = null;
+		currentRow = 0;
+		setButtonsEnabled(false);
+		if (!CSVMappedFileReader.isSupported(csvFile, importConfig)) {
+			statusLabel.setText("Paging is only available for uncompressed files in UTF-8 or ISO-8859-1.");
+			return;
+		}
+		statusLabel.setText("Indexing rows ...");
+		indexWorker = new SwingWorker<CSVRowOffsetIndex, Long>() {
+
+			protected CSVRowOffsetIndex doInBackground() throws Exception {
+				return CSVRowOffsetIndex.build(csvFile, importConfig, CSVRowOffsetIndex.DEFAULT_STRIDE,
+						new IndexProgress() {
+
+							public boolean rowsIndexed(long rowCount) {
+								if (rowCount % (CSVRowOffsetIndex.DEFAULT_STRIDE * 1000) == 0) {
+									publish(rowCount);
+								}
+								return !isCancelled();
+							}
+						});
+			}
+
+			protected void process(List<Long> chunks) {
+				statusLabel.setText(String.format("Indexing rows (%,d so far) ...", chunks.get(chunks.size() - 1)));
+			}
+
+			protected void done() {
+				if (isCancelled()) {
+					return;
+				}
+				try {
+					index = get();
+					if (index != null) {
+						statusLabel.setText(String.format("%,d rows", index.getRowCount()));
+						setButtonsEnabled(true);
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					statusLabel.setText("Could not index rows: " + e.getCause());
+				}
+			}
+
+		};
+		indexWorker.execute();
+	}
+
+	/**
+	 * Stops building the index and loading rows.
+	 */
+	public void cancel() {
+		if (indexWorker != null) {
+			indexWorker.cancel(true);
+			indexWorker = null;
+		}
+		if (rowWorker != null) {
+			rowWorker.cancel(true);
+			rowWorker = null;
+		}
+	}
+
+	private void showPage(long firstRow) {
+		if (index == null) {
+			return;
+		}
+		final long row = Math.max(0, Math.min(firstRow, index.getRowCount() - 1));
+		final CSVRowOffsetIndex currentIndex = index;
+		loadRows(new SwingWorker<List<String[]>, Void>() {
+
+			protected List<String[]> doInBackground() throws Exception {
+				return currentIndex.readRows(row, pageSize);
+			}
+
+			protected void done() {
+				if (!isCancelled()) {
+					try {
+						List<String[]> rows = get();
+						currentRow = row;
+						String description = String.format("Rows %,d to %,d of %,d", row + 1, row + rows.size(),
+								currentIndex.getRowCount());
+						statusLabel.setText(description);
+						listener.showRows(rows, description);
+					} catch (InterruptedException | ExecutionException e) {
+						statusLabel.setText("Could not read rows: " + e.getCause());
+					}
+				}
+			}
+
+		});
+	}
+
+	private void showSample() {
+		if (index == null) {
+			return;
+		}
+		final CSVRowOffsetIndex currentIndex = index;
+		loadRows(new SwingWorker<List<String[]>, Void>() {
+
+			protected List<String[]> doInBackground() throws Exception {
+				return currentIndex.readSample(pageSize);
+			}
+
+			protected void done() {
+				if (!isCancelled()) {
+					try {
+						List<String[]> rows = get();
+						String description = String.format("Sample of %,d rows spread over all %,d rows",
+								rows.size(), currentIndex.getRowCount());
+						statusLabel.setText(description);
+						listener.showRows(rows, description);
+					} catch (InterruptedException | ExecutionException e) {
+						statusLabel.setText("Could not read rows: " + e.getCause());
+					}
+				}
+			}
+
+		});
+	}
+
+	private void loadRows(SwingWorker<List<String[]>, Void> worker) {
+		if (rowWorker != null) {
+			rowWorker.cancel(true);
+		}
+		rowWorker = worker;
+		rowWorker.execute();
+	}
+
+	private void setButtonsEnabled(boolean enabled) {
+		previousButton.setEnabled(enabled);
+		nextButton.setEnabled(enabled);
+		rowField.setEnabled(enabled);
+		goButton.setEnabled(enabled);
+		sampleButton.setEnabled(enabled);
+	}
+
+}
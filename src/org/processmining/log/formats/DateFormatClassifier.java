@@ -0,0 +1,230 @@
+package org.processmining.log.formats;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the candidate {@link DateFormat}s for a value without trying to
+ * parse it with every format. Each value is reduced to a shape signature, in
+ * which digits are replaced by <code>d</code>, letters by <code>a</code> and
+ * tabs by a space (e.g., <code>dddd-dd-ddadd:dd:dd.ddd+dd:dd</code>). The
+ * pattern of each {@link SimpleDateFormat} is compiled once into an expression
+ * over such shapes, which accepts at least all values that the format can
+ * parse. The candidates are computed once per shape and cached, so that only
+ * the few candidates need to be parsed.
+ * <p>
+ * Formats that are not a {@link SimpleDateFormat} are always candidates. Like
+ * {@link DateFormat#parse(String, ParsePosition)}, formats are candidates if
+ * they might parse a prefix of the value.
+ * <p>
+ * Instances are thread-safe, the {@link DateFormat}s are not.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class DateFormatClassifier {
+
+	// Longer values are classified without caching their shape
+	private static final int MAX_CACHED_SHAPE_LENGTH = 64;
+	private static final int MAX_CACHED_SHAPES = 4096;
+
+	private static final String SPACES = "[ ]*";
+	private static final String NUMBER = SPACES + "-?d+";
+	private static final String TEXT = SPACES + "[^ ]+?";
+	private static final String ZONE = SPACES + ".+";
+
+	private final List<DateFormat> formats;
+	// NULL for formats that are always candidates
+	private final Pattern[] shapePatterns;
+	private final ConcurrentMap<String, BitSet> candidatesByShape = new ConcurrentHashMap<>();
+
+	/**
+	 * @param dateFormats
+	 *            in the order in which they should be tried
+	 */
+	public DateFormatClassifier(Iterable<? extends DateFormat> dateFormats) {
+		this.formats = new ArrayList<>();
+		for (DateFormat format : dateFormats) {
+			formats.add(format);
+		}
+		this.shapePatterns = new Pattern[formats.size()];
+		for (int i = 0; i < shapePatterns.length; i++) {
+			DateFormat format = formats.get(i);
+			if (format instanceof SimpleDateFormat) {
+				shapePatterns[i] = compileShapePattern(((SimpleDateFormat) format).toPattern());
+			}
+		}
+	}
+
+	/**
+	 * @return the formats in the order used for the indices of
+	 *         {@link #getCandidates(String)}
+	 */
+	public List<DateFormat> getFormats() {
+		return formats;
+	}
+
+	/**
+	 * @param value
+	 * @return the indices of the formats that might parse the value, the
+	 *         returned {@link BitSet} is shared and must not be modified
+	 */
+	public BitSet getCandidates(String value) {
+		String shape = getShape(value);
+		if (shape.length() > MAX_CACHED_SHAPE_LENGTH) {
+			return computeCandidates(shape);
+		}
+		BitSet candidates = candidatesByShape.get(shape);
+		if (candidates == null) {
+			candidates = computeCandidates(shape);
+			if (candidatesByShape.size() < MAX_CACHED_SHAPES) {
+				candidatesByShape.putIfAbsent(shape, candidates);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Parses the value with the first candidate format that parses the whole
+	 * value.
+	 *
+	 * @param value
+	 * @return the date or NULL if no format parses the value
+	 */
+	public Date parse(String value) {
+		BitSet candidates = getCandidates(value);
+		ParsePosition pos = new ParsePosition(0);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			pos.setIndex(0);
+			pos.setErrorIndex(-1);
+			Date date = formats.get(i).parse(value, pos);
+			if (date != null && pos.getIndex() == value.length()) {
+				return date;
+			}
+		}
+		return null;
+	}
+
+	private BitSet computeCandidates(String shape) {
+		BitSet candidates = new BitSet(formats.size());
+		for (int i = 0; i < shapePatterns.length; i++) {
+			if (shapePatterns[i] == null || shapePatterns[i].matcher(shape).lookingAt()) {
+				candidates.set(i);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * @param value
+	 * @return the shape signature of the value
+	 */
+	static String getShape(String value) {
+		char[] shape = new char[value.length()];
+		for (int i = 0; i < shape.length; i++) {
+			shape[i] = getShapeChar(value.charAt(i));
+		}
+		return new String(shape);
+	}
+
+	private static char getShapeChar(char c) {
+		if (Character.isDigit(c)) {
+			return 'd';
+		} else if (Character.isLetter(c)) {
+			return 'a';
+		} else if (c == '\t') {
+			// SimpleDateFormat skips spaces and tabs before fields
+			return ' ';
+		} else {
+			return c;
+		}
+	}
+
+	/**
+	 * Compiles the pattern of a {@link SimpleDateFormat} into an expression
+	 * over shapes. Numeric fields accept any number of digits, since
+	 * SimpleDateFormat ignores the number of pattern letters when parsing
+	 * numbers that are not adjacent to other numbers.
+	 */
+	static Pattern compileShapePattern(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		int i = 0;
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+					appendLiteral(regex, '\'');
+					i += 2;
+				} else {
+					int end = pattern.indexOf('\'', i + 1);
+					if (end == -1) {
+						end = pattern.length();
+					}
+					for (int j = i + 1; j < end; j++) {
+						appendLiteral(regex, pattern.charAt(j));
+					}
+					i = end + 1;
+				}
+			} else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				int count = 1;
+				while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+					count++;
+				}
+				regex.append(getFieldExpression(c, count));
+				i += count;
+			} else {
+				appendLiteral(regex, c);
+				i++;
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	private static String getFieldExpression(char letter, int count) {
+		switch (letter) {
+			case 'M' :
+			case 'L' :
+				return count >= 3 ? TEXT : NUMBER;
+			case 'y' :
+			case 'Y' :
+			case 'd' :
+			case 'D' :
+			case 'F' :
+			case 'w' :
+			case 'W' :
+			case 'H' :
+			case 'k' :
+			case 'K' :
+			case 'h' :
+			case 'm' :
+			case 's' :
+			case 'S' :
+			case 'u' :
+				return NUMBER;
+			case 'E' :
+			case 'a' :
+			case 'G' :
+				return TEXT;
+			case 'z' :
+			case 'Z' :
+			case 'X' :
+				return ZONE;
+			default :
+				// Unknown field, accept anything
+				return ".*";
+		}
+	}
+
+	private static void appendLiteral(StringBuilder regex, char c) {
+		regex.append(Pattern.quote(String.valueOf(getShapeChar(c))));
+	}
+
+}
@@ -178,6 +178,9 @@ public final class StandardDateFormats {
 		}
 	}
 
+	private static final DateFormatClassifier STANDARD_DATE_FORMAT_CLASSIFIER = new DateFormatClassifier(
+			STANDARD_DATE_FORMATS);
+
 	private StandardDateFormats() {
 		super();
 	}
@@ -190,4 +193,12 @@ public final class StandardDateFormats {
 		return STANDARD_DATE_FORMATS;
 	}
 
+	/**
+	 * @return a shared {@link DateFormatClassifier} for the formats returned
+	 *         by {@link #getStandardDateFormats()}
+	 */
+	public static DateFormatClassifier getStandardDateFormatClassifier() {
+		return STANDARD_DATE_FORMAT_CLASSIFIER;
+	}
+
 }
@@ -4,7 +4,6 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.text.DateFormat;
-import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -49,6 +48,7 @@ import org.processmining.framework.plugin.Progress;
 import org.processmining.framework.util.ui.widgets.ProMScrollPane;
 import org.processmining.framework.util.ui.widgets.helper.ProMUIHelper;
 import org.processmining.framework.util.ui.widgets.helper.UserCancelledException;
+import org.processmining.log.formats.DateFormatClassifier;
 import org.processmining.log.formats.StandardDateFormats;
 
 import com.google.common.collect.ImmutableList;
@@ -172,6 +172,8 @@ public final class RepairAttributeDataType {
 	public void doRepairEventAttributes(PluginContext context, XLog log, Iterable<? extends DateFormat> dateFormats,
 			ReviewCallback reviewCallback) {
 
+		DateFormatClassifier dateClassifier = new DateFormatClassifier(dateFormats);
+
 		Progress progBar = context.getProgress();
 		progBar.setMinimum(0);
 		progBar.setMaximum(log.size() * 2); // two pass
@@ -182,7 +184,7 @@ public final class RepairAttributeDataType {
 		// Determine best datatype
 		for (XTrace trace : log) {
 			for (XEvent event : trace) {
-				buildDataTypeMap(event.getAttributes(), guessedDataType, dateFormats);
+				buildDataTypeMap(event.getAttributes(), guessedDataType, dateClassifier);
 			}
 			if (progBar.isCancelled()) {
 				return;
@@ -209,7 +211,7 @@ public final class RepairAttributeDataType {
 				int eventIndex = eventIterator.nextIndex();
 				XEvent event = eventIterator.next();
 				XAttributeMap eventAttr = event.getAttributes();
-				repairAttributes(context, factory, eventAttr, dateFormats, guessedDataType, isDefinite);
+				repairAttributes(context, factory, eventAttr, dateClassifier, guessedDataType, isDefinite);
 				trace.set(eventIndex, event);
 			}
 			if (progBar.isCancelled()) {
@@ -227,6 +229,8 @@ public final class RepairAttributeDataType {
 	public void doRepairTraceAttributes(PluginContext context, XLog log, Iterable<? extends DateFormat> dateFormats,
 			ReviewCallback reviewCallback) {
 
+		DateFormatClassifier dateClassifier = new DateFormatClassifier(dateFormats);
+
 		Progress progBar = context.getProgress();
 		progBar.setMinimum(0);
 		progBar.setMaximum(log.size() * 2); // two pass
@@ -236,7 +240,7 @@ public final class RepairAttributeDataType {
 
 		// Determine best datatype
 		for (XTrace trace : log) {
-			buildDataTypeMap(trace.getAttributes(), guessedDataType, dateFormats);
+			buildDataTypeMap(trace.getAttributes(), guessedDataType, dateClassifier);
 			if (progBar.isCancelled()) {
 				return;
 			}
@@ -258,7 +262,7 @@ public final class RepairAttributeDataType {
 
 			XTrace trace = traceIterator.next();
 			XAttributeMap traceAttr = trace.getAttributes();
-			repairAttributes(context, factory, traceAttr, dateFormats, guessedDataType, isDefinite);
+			repairAttributes(context, factory, traceAttr, dateClassifier, guessedDataType, isDefinite);
 
 			if (progBar.isCancelled()) {
 				return;
@@ -317,7 +321,7 @@ public final class RepairAttributeDataType {
 	}
 
 	private static void repairAttributes(PluginContext context, XFactory factory, XAttributeMap attributes,
-			Iterable<? extends DateFormat> dateFormats, Map<String, Class<? extends XAttribute>> attributeDataType,
+			DateFormatClassifier dateClassifier, Map<String, Class<? extends XAttribute>> attributeDataType,
 			boolean isDefinite) {
 		// Use entrySet here, to avoid a lot of 'put' operations, maybe the underlying map can optimize the replacement operation using 'entry.setValue'
 		Iterator<Entry<String, XAttribute>> traceAttr = attributes.entrySet().iterator();
@@ -329,7 +333,7 @@ public final class RepairAttributeDataType {
 					Class<? extends XAttribute> dataType = attributeDataType.get(entry.getKey());
 					if (dataType != null) {
 						try {
-							XAttribute newAttribute = createAttribute(dataType, entry, factory, dateFormats);
+							XAttribute newAttribute = createAttribute(dataType, entry, factory, dateClassifier);
 							if (newAttribute != null) {
 								entry.setValue(newAttribute);
 							} else {
@@ -362,14 +366,14 @@ public final class RepairAttributeDataType {
 	}
 
 	private static void buildDataTypeMap(XAttributeMap attributes,
-			Map<String, Class<? extends XAttribute>> attributeDataType, Iterable<? extends DateFormat> dateFormats) {
+			Map<String, Class<? extends XAttribute>> attributeDataType, DateFormatClassifier dateClassifier) {
 		for (XAttribute attribute : attributes.values()) {
 
 			if (!(attribute instanceof XAttributeTimestamp)) {
 
 				try {
 					String value = getAttrAsString(attribute);
-					Class<? extends XAttribute> currentDataType = inferDataType(value, dateFormats);
+					Class<? extends XAttribute> currentDataType = inferDataType(value, dateClassifier);
 					Class<? extends XAttribute> lastDataType = attributeDataType.get(attribute.getKey());
 
 					if (lastDataType == null) {
@@ -420,7 +424,7 @@ public final class RepairAttributeDataType {
 	}
 
 	private static XAttribute createAttribute(Class<? extends XAttribute> dataType, Entry<String, XAttribute> entry,
-			XFactory factory, Iterable<? extends DateFormat> dateFormats) throws UnexpectedDataTypeException {
+			XFactory factory, DateFormatClassifier dateClassifier) throws UnexpectedDataTypeException {
 		if (XAttributeDiscrete.class.equals(dataType)) {
 			return factory.createAttributeDiscrete(entry.getKey(), getAttrAsLong(entry.getValue()), null);
 		} else if (XAttributeContinuous.class.equals(dataType)) {
@@ -430,17 +434,17 @@ public final class RepairAttributeDataType {
 		} else if (XAttributeLiteral.class.equals(dataType)) {
 			return factory.createAttributeLiteral(entry.getKey(), getAttrAsString(entry.getValue()), null);
 		} else if (XAttributeTimestamp.class.equals(dataType)) {
-			return factory.createAttributeTimestamp(entry.getKey(), getAttrAsDate(entry.getValue(), dateFormats), null);
+			return factory.createAttributeTimestamp(entry.getKey(), getAttrAsDate(entry.getValue(), dateClassifier), null);
 		} else {
 			throw new IllegalArgumentException(String.format("Unexpected Attribute %s: Type %s instead %s",
 					entry.getValue(), entry.getValue().getClass().getSimpleName(), dataType.getSimpleName()));
 		}
 	}
 
-	private static Date getAttrAsDate(XAttribute value, Iterable<? extends DateFormat> dateFormats)
+	private static Date getAttrAsDate(XAttribute value, DateFormatClassifier dateClassifier)
 			throws UnexpectedDataTypeException {
 		if (value instanceof XAttributeLiteral) {
-			Date date = tryParseDate(((XAttributeLiteral) value).getValue(), dateFormats);
+			Date date = dateClassifier.parse(((XAttributeLiteral) value).getValue());
 			if (date == null) {
 				throw new UnexpectedDataTypeException("Unexpected date format " + value);
 			}
@@ -450,18 +454,6 @@ public final class RepairAttributeDataType {
 		}
 	}
 
-	private static Date tryParseDate(String value, Iterable<? extends DateFormat> dateFormats) {
-		ParsePosition pos = new ParsePosition(0);
-		for (DateFormat formatter : dateFormats) {
-			pos.setIndex(0);
-			Date date = formatter.parse(value, pos);
-			if (date != null && pos.getIndex() == value.length()) {
-				return date;
-			}
-		}
-		return null;
-	}
-
 	private static String getAttrAsString(XAttribute value) throws UnexpectedDataTypeException {
 		if (value instanceof XAttributeDiscrete) {
 			return Long.toString(((XAttributeDiscrete) value).getValue());
@@ -534,7 +526,7 @@ public final class RepairAttributeDataType {
 			.compile("((-)?[0-9]*\\.[0-9]+)|((-)?[0-9]+(\\.[0-9]+)?(e|E)\\+[0-9]+)");
 	private static Pattern BOOLEAN_PATTERN = Pattern.compile("(true)|(false)|(TRUE)|(FALSE)|(0)|(1)|(Y)|(N)|(J)");
 
-	private static Class<? extends XAttribute> inferDataType(String value, Iterable<? extends DateFormat> dateFormats) {
+	private static Class<? extends XAttribute> inferDataType(String value, DateFormatClassifier dateClassifier) {
 		if (BOOLEAN_PATTERN.matcher(value).matches()) {
 			return XAttributeBoolean.class;
 		} else if (DISCRETE_PATTERN.matcher(value).matches()) {
@@ -546,7 +538,7 @@ public final class RepairAttributeDataType {
 			}
 		} else if (CONTINUOUS_PATTERN.matcher(value).matches()) {
 			return XAttributeContinuous.class;
-		} else if (tryParseDate(value, dateFormats) != null) {
+		} else if (dateClassifier.parse(value) != null) {
 			return XAttributeTimestamp.class;
 		} else {
 			return XAttributeLiteral.class;
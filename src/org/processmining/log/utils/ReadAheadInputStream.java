@@ -0,0 +1,452 @@
+package org.processmining.log.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.lang.ref.WeakReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * {@link InputStream} that decompresses its input on a separate thread ahead
+ * of the reader. The decompressed data is handed over through a bounded ring
+ * of chunks, so that decompression and parsing run concurrently without
+ * buffering the whole input.
+ * <p>
+ * GZIP files consisting of BGZF members (e.g., written by bgzip), which record
+ * the compressed size of each member in the header, are split into their
+ * members and the members are inflated concurrently on a shared pool. All
+ * other GZIP files, including multi-member files without size information, are
+ * inflated sequentially on the read-ahead thread, since member boundaries
+ * cannot be found without inflating the data.
+ * <p>
+ * The read-ahead thread stops when the stream is closed. It also stops when
+ * the stream is no longer referenced without being closed, e.g., after the
+ * reader failed, and closes the underlying stream in that case.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class ReadAheadInputStream extends InputStream {
+
+	private static final int RING_SIZE = 32;
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+	private static final long OFFER_TIMEOUT_MILLIS = 1000;
+
+	// Size of the fixed GZIP header including the length of the extra field
+	private static final int GZIP_HEADER_SIZE = 12;
+	private static final int GZIP_TRAILER_SIZE = 8;
+	private static final int FEXTRA = 4;
+
+	private static final ExecutorService INFLATER_POOL = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("GZIP inflater"));
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		private DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + " " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+	private interface ChunkProducer {
+
+		/**
+		 * Puts the chunks of decompressed data into the ring in order.
+		 */
+		void produce(Ring ring) throws IOException, InterruptedException;
+
+	}
+
+	/**
+	 * Bounded queue of chunks between the read-ahead thread and the reader.
+	 * Only holds a weak reference to the reader, so that an abandoned stream
+	 * can be garbage collected and the read-ahead thread notices it.
+	 */
+	private static final class Ring {
+
+		private final BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<>(RING_SIZE);
+		private volatile boolean closed = false;
+		private WeakReference<ReadAheadInputStream> reader;
+
+		/**
+		 * Waits until there is space for the chunk.
+		 *
+		 * @throws InterruptedException
+		 *             if the stream was closed or is no longer referenced
+		 */
+		private void put(Future<byte[]> chunk) throws InterruptedException {
+			while (!chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (isAbandoned()) {
+					throw new InterruptedException("Stream is no longer read");
+				}
+			}
+		}
+
+		private boolean isAbandoned() {
+			return closed || reader.get() == null;
+		}
+
+	}
+
+	/**
+	 * Runs on the read-ahead thread. Must not reference the stream, otherwise
+	 * an abandoned stream would never become unreachable.
+	 */
+	private static final class ProducerTask implements Runnable {
+
+		private final InputStream source;
+		private final ChunkProducer producer;
+		private final Ring ring;
+
+		private ProducerTask(InputStream source, ChunkProducer producer, Ring ring) {
+			this.source = source;
+			this.producer = producer;
+			this.ring = ring;
+		}
+
+		public void run() {
+			try {
+				producer.produce(ring);
+				ring.put(completed(null));
+			} catch (InterruptedException e) {
+				// Closed or abandoned
+			} catch (IOException | RuntimeException e) {
+				if (!ring.closed) {
+					try {
+						ring.put(failed(e));
+					} catch (InterruptedException e1) {
+						// Closed or abandoned
+					}
+				}
+			}
+			if (!ring.closed && ring.reader.get() == null) {
+				// Abandoned without being closed, release the chunks and the input
+				ring.chunks.clear();
+				try {
+					source.close();
+				} catch (IOException e) {
+					// Nobody left to report it to
+				}
+			}
+		}
+
+	}
+
+	private final InputStream source;
+	private final Ring ring = new Ring();
+	private final Thread producerThread;
+
+	private byte[] chunk = new byte[0];
+	private int chunkPosition = 0;
+	private boolean eof = false;
+	private IOException failure = null;
+
+	private ReadAheadInputStream(InputStream source, ChunkProducer producer) {
+		this.source = source;
+		this.ring.reader = new WeakReference<>(this);
+		this.producerThread = new Thread(new ProducerTask(source, producer, ring), "Read-ahead decompression");
+		this.producerThread.setDaemon(true);
+		this.producerThread.start();
+	}
+
+	/**
+	 * Creates a stream that inflates the GZIP data read from the compressed
+	 * stream ahead of the reader, members in the BGZF format are inflated
+	 * concurrently.
+	 *
+	 * @param compressed
+	 *            is closed when the returned stream is closed
+	 * @return a stream with the decompressed data
+	 */
+	public static InputStream forGZIP(final InputStream compressed) {
+		return new ReadAheadInputStream(compressed, new ChunkProducer() {
+
+			public void produce(Ring ring) throws IOException, InterruptedException {
+				produceGZIP(compressed, ring);
+			}
+		});
+	}
+
+	/**
+	 * Creates a stream that reads the stream (e.g., a
+	 * {@link java.util.zip.ZipInputStream}) on a separate thread ahead of the
+	 * reader.
+	 *
+	 * @param in
+	 *            is closed when the returned stream is closed
+	 * @return a stream with the same data
+	 */
+	public static InputStream forStream(final InputStream in) {
+		return new ReadAheadInputStream(in, new ChunkProducer() {
+
+			public void produce(Ring ring) throws IOException, InterruptedException {
+				produceChunks(in, ring);
+			}
+		});
+	}
+
+	private static void produceGZIP(InputStream compressed, Ring ring)
+			throws IOException, InterruptedException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(compressed, INPUT_BUFFER_SIZE));
+		while (true) {
+			byte[] header = new byte[GZIP_HEADER_SIZE];
+			int headerRead = readFully(in, header, 0, header.length);
+			if (headerRead == 0) {
+				return;
+			}
+			if (headerRead < header.length || !isBGZFCandidate(header)) {
+				produceSequentialGZIP(in, header, headerRead, ring);
+				return;
+			}
+			int extraLength = readUnsignedShort(header, 10);
+			byte[] extra = new byte[extraLength];
+			int extraRead = readFully(in, extra, 0, extraLength);
+			int blockSize = extraRead == extraLength ? getBGZFBlockSize(extra) : -1;
+			if (blockSize < GZIP_HEADER_SIZE + extraLength + GZIP_TRAILER_SIZE) {
+				byte[] readBytes = new byte[headerRead + extraRead];
+				System.arraycopy(header, 0, readBytes, 0, headerRead);
+				System.arraycopy(extra, 0, readBytes, headerRead, extraRead);
+				produceSequentialGZIP(in, readBytes, readBytes.length, ring);
+				return;
+			}
+			final byte[] block = new byte[blockSize];
+			System.arraycopy(header, 0, block, 0, GZIP_HEADER_SIZE);
+			System.arraycopy(extra, 0, block, GZIP_HEADER_SIZE, extraLength);
+			in.readFully(block, GZIP_HEADER_SIZE + extraLength, blockSize - GZIP_HEADER_SIZE - extraLength);
+			final int dataOffset = GZIP_HEADER_SIZE + extraLength;
+			ring.put(INFLATER_POOL.submit(new Callable<byte[]>() {
+
+				public byte[] call() throws Exception {
+					return inflateBlock(block, dataOffset);
+				}
+			}));
+		}
+	}
+
+	private static void produceSequentialGZIP(InputStream in, byte[] readBytes, int readLength, Ring ring)
+			throws IOException, InterruptedException {
+		InputStream compressed = new SequenceInputStream(new ByteArrayInputStream(readBytes, 0, readLength), in);
+		// Also handles multiple members
+		produceChunks(new GZIPInputStream(compressed, INPUT_BUFFER_SIZE), ring);
+	}
+
+	private static void produceChunks(InputStream in, Ring ring)
+			throws IOException, InterruptedException {
+		while (true) {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int length = readFully(in, buffer, 0, buffer.length);
+			if (length == 0) {
+				return;
+			}
+			if (length < buffer.length) {
+				byte[] lastChunk = new byte[length];
+				System.arraycopy(buffer, 0, lastChunk, 0, length);
+				ring.put(completed(lastChunk));
+				return;
+			}
+			ring.put(completed(buffer));
+		}
+	}
+
+	private static boolean isBGZFCandidate(byte[] header) {
+		return (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B && header[2] == 8
+				&& (header[3] & FEXTRA) != 0;
+	}
+
+	/**
+	 * @return the total size of the member as stored in the BC subfield of the
+	 *         extra field, or -1 if there is no such subfield
+	 */
+	private static int getBGZFBlockSize(byte[] extra) {
+		int i = 0;
+		while (i + 4 <= extra.length) {
+			int subfieldLength = readUnsignedShort(extra, i + 2);
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= extra.length) {
+				return readUnsignedShort(extra, i + 4) + 1;
+			}
+			i += 4 + subfieldLength;
+		}
+		return -1;
+	}
+
+	private static byte[] inflateBlock(byte[] block, int dataOffset) throws IOException {
+		int expectedCRC = readInt(block, block.length - 8);
+		int size = readInt(block, block.length - 4);
+		byte[] data = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, dataOffset, block.length - dataOffset - GZIP_TRAILER_SIZE);
+			int length = 0;
+			while (length < size && !inflater.finished()) {
+				int inflated = inflater.inflate(data, length, size - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != size) {
+				throw new ZipException("Corrupt GZIP member, expected " + size + " bytes but got " + length);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupt GZIP member: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		if ((int) crc.getValue() != expectedCRC) {
+			throw new ZipException("Corrupt GZIP member, CRC mismatch");
+		}
+		return data;
+	}
+
+	private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int read = in.read(buffer, offset + total, length - total);
+			if (read == -1) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private static int readUnsignedShort(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+	}
+
+	private static int readInt(byte[] b, int offset) {
+		return readUnsignedShort(b, offset) | (readUnsignedShort(b, offset + 2) << 16);
+	}
+
+	private static Future<byte[]> completed(final byte[] chunk) {
+		FutureTask<byte[]> future = new FutureTask<>(new Callable<byte[]>() {
+
+			public byte[] call() throws Exception {
+				return chunk;
+			}
+		});
+		future.run();
+		return future;
+	}
+
+	private static Future<byte[]> failed(final Exception e) {
+		FutureTask<byte[]> future = new FutureTask<>(new Callable<byte[]>() {
+
+			public byte[] call() throws Exception {
+				throw e;
+			}
+		});
+		future.run();
+		return future;
+	}
+
+	/**
+	 * @return whether there is data left, takes the next chunk from the ring
+	 *         if needed
+	 */
+	private boolean nextChunk() throws IOException {
+		while (chunkPosition == chunk.length) {
+			if (eof) {
+				return false;
+			}
+			if (ring.closed) {
+				throw new IOException("Stream closed");
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			try {
+				byte[] next = ring.chunks.take().get();
+				if (next == null) {
+					eof = true;
+					return false;
+				}
+				chunk = next;
+				chunkPosition = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					failure = (IOException) e.getCause();
+				} else {
+					failure = new IOException("Could not decompress input", e.getCause());
+				}
+				throw failure;
+			}
+		}
+		return true;
+	}
+
+	public int read() throws IOException {
+		if (!nextChunk()) {
+			return -1;
+		}
+		return chunk[chunkPosition++] & 0xFF;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextChunk()) {
+			return -1;
+		}
+		int length = Math.min(len, chunk.length - chunkPosition);
+		System.arraycopy(chunk, chunkPosition, b, off, length);
+		chunkPosition += length;
+		return length;
+	}
+
+	public int available() throws IOException {
+		return chunk.length - chunkPosition;
+	}
+
+	public void close() throws IOException {
+		if (!ring.closed) {
+			ring.closed = true;
+			producerThread.interrupt();
+			for (Future<byte[]> pending : ring.chunks) {
+				pending.cancel(true);
+			}
+			ring.chunks.clear();
+			source.close();
+		}
+	}
+
+}
@@ -3,11 +3,11 @@ package org.processmining.plugins.log;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.InvalidParameterException;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -21,6 +21,7 @@ import org.deckfour.xes.model.XLog;
 import org.processmining.framework.abstractplugins.AbstractImportPlugin;
 import org.processmining.framework.plugin.PluginContext;
 import org.processmining.framework.plugin.annotations.Plugin;
+import org.processmining.log.utils.ReadAheadInputStream;
 
 @Plugin(name = "Open XES Log File", parameterLabels = { "Filename" }, returnLabels = {
 		"Log (single process)" }, returnTypes = { XLog.class })
@@ -71,6 +72,13 @@ public class OpenLogFilePlugin extends AbstractImportPlugin {
 			logs = null;
 			firstException = e;
 			errorMessage = errorMessage + e;
+		} finally {
+			// Parsers do not close the stream on failure, which would keep the read-ahead thread of compressed files
+			try {
+				input.close();
+			} catch (IOException e) {
+				// The log has been read or parsing failed already
+			}
 		}
 //		if (logs == null || logs.isEmpty()) {
 //			// try any other parser
@@ -144,7 +152,8 @@ public class OpenLogFilePlugin extends AbstractImportPlugin {
 	protected InputStream getInputStream(File file) throws Exception {
 		FileInputStream stream = new FileInputStream(file);
 		if (file.getName().endsWith(".gz") || file.getName().endsWith(".xez")) {
-			return new GZIPInputStream(stream);
+			// Decompress on a separate thread while the log is parsed
+			return ReadAheadInputStream.forGZIP(stream);
 		}
 		if (file.getName().endsWith(".zip")) {
 			// Open zip file.
@@ -161,7 +170,7 @@ public class OpenLogFilePlugin extends AbstractImportPlugin {
 			zipName = zipEntry.getName();
 			// Return stream of only entry in zip file.
 			// Do not yet close zip file, as the retruend stream still needs to be read.
-			return zipFile.getInputStream(zipEntry);
+			return ReadAheadInputStream.forStream(zipFile.getInputStream(zipEntry));
 		}
 		return stream;
 	}
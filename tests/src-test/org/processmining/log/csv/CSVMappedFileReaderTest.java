@@ -0,0 +1,101 @@
+package org.processmining.log.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+import static org.processmining.log.csv.CSVTestUtils.createTempFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CSVMappedFileReaderTest {
+
+	private static final String CSV = "case,activity,comment\r\n" //
+			+ "1, A ,\"quoted, with \"\"quotes\"\"\"\n" //
+			+ "\n" //
+			+ "# comment line\n" //
+			+ "2,B,\"multi\nline\"\r" //
+			+ "3,Ä,\n" //
+			+ "5,C,\"crlf\r\nline\rcr\r\"\r\n" //
+			+ "4,,\"\"";
+
+	private static final String[][] EXPECTED = new String[][] { //
+			{ "case", "activity", "comment" }, //
+			{ "1", "A", "quoted, with \"quotes\"" }, //
+			{ "2", "B", "multi\nline" }, //
+			{ "3", "Ä", null }, //
+			{ "5", "C", "crlf\nline\rcr\r" }, //
+			{ "4", null, null } };
+
+	private static List<String[]> readAll(CSVMappedFileReader reader) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		String[] row;
+		while ((row = reader.readNext()) != null) {
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	@Test
+	public void testSegmentBoundaries() throws IOException {
+		Path file = createTempFile(CSV);
+		// Place the segment boundaries everywhere, including inside quoted values and multi-byte characters
+		for (int segmentSize = 1; segmentSize <= CSV.length() + 1; segmentSize++) {
+			try (CSVMappedFileReader reader = new CSVMappedFileReader(file, createConfig(), segmentSize)) {
+				List<String[]> rows = readAll(reader);
+				assertEquals(EXPECTED.length, rows.size());
+				for (int i = 0; i < EXPECTED.length; i++) {
+					assertArrayEquals("Segment size " + segmentSize, EXPECTED[i], rows.get(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMaxCharsPerColumn() throws IOException {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < CSVUnivocityImpl.MAX_CHARS_PER_COLUMN; i++) {
+			value.append('ä');
+		}
+		// The limit applies to characters, not to bytes
+		Path file = createTempFile("a,\"" + value + "\"\n");
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(file, createConfig(), 1024)) {
+			assertEquals(value.toString(), reader.readNext()[1]);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingClosingQuote() throws IOException {
+		StringBuilder csv = new StringBuilder("a,b\n1,\"2\n");
+		for (int i = 0; i < CSVUnivocityImpl.MAX_CHARS_PER_COLUMN; i++) {
+			csv.append("3,4\n");
+		}
+		Path file = createTempFile(csv.toString());
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(file, createConfig(), 1024)) {
+			assertArrayEquals(new String[] { "a", "b" }, reader.readNext());
+			reader.readNext();
+		}
+	}
+
+	@Test
+	public void testSeek() throws IOException {
+		Path file = createTempFile("\uFEFFa,b\n1,2\r\n3,4\n");
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(file, createConfig(), 4)) {
+			assertArrayEquals(new String[] { "a", "b" }, reader.readNext());
+			reader.readNext();
+			long position = reader.getPosition();
+			assertArrayEquals(new String[] { "3", "4" }, reader.readNext());
+			assertNull(reader.readNext());
+			reader.seek(position);
+			assertArrayEquals(new String[] { "3", "4" }, reader.readNext());
+			reader.seek(0);
+			assertArrayEquals(new String[] { "a", "b" }, reader.readNext());
+		}
+	}
+
+}
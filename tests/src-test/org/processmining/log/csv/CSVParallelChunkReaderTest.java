@@ -0,0 +1,85 @@
+package org.processmining.log.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.processmining.log.csv.config.CSVConfig;
+
+public class CSVParallelChunkReaderTest {
+
+	private static final String CSV = "case,activity,comment\n" //
+			+ "1, A ,\"quoted, with \"\"quotes\"\"\"\n" //
+			+ "\n" //
+			+ "# comment, \"with a quote\n" //
+			+ "2,B,\"multi\nline\"\n" //
+			+ "#,\"\n" //
+			+ "3,\"#\",\"\n# not a comment\"\n" //
+			+ "4,Ä,\"\"\n";
+
+	private static List<String[]> readAll(ICSVReader reader) throws IOException {
+		try {
+			List<String[]> rows = new ArrayList<>();
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				rows.add(row);
+			}
+			return rows;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void assertSameAsSequential(String csv) throws IOException {
+		ICSV parser = new CSVUnivocityImpl();
+		CSVConfig config = createConfig();
+		byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+		List<String[]> expected = readAll(parser.createReader(new ByteArrayInputStream(bytes), config));
+		assertTrue(CSVParallelChunkReader.isSupported(config));
+		// Place the chunk boundaries everywhere, including inside quoted values and comments
+		for (int chunkSize = 1; chunkSize <= bytes.length + 1; chunkSize++) {
+			for (int numThreads = 1; numThreads <= 3; numThreads++) {
+				List<String[]> rows = readAll(new CSVParallelChunkReader(parser, new ByteArrayInputStream(bytes),
+						config, numThreads, chunkSize));
+				assertEquals("Chunk size " + chunkSize, expected.size(), rows.size());
+				for (int i = 0; i < expected.size(); i++) {
+					assertArrayEquals("Chunk size " + chunkSize, expected.get(i), rows.get(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLineFeed() throws IOException {
+		assertSameAsSequential(CSV);
+	}
+
+	@Test
+	public void testCarriageReturnLineFeed() throws IOException {
+		assertSameAsSequential(CSV.replace("\n", "\r\n"));
+	}
+
+	@Test
+	public void testCarriageReturn() throws IOException {
+		assertSameAsSequential(CSV.replace("\n", "\r"));
+	}
+
+	@Test
+	public void testByteOrderMark() throws IOException {
+		assertSameAsSequential("\uFEFF# comment, \"with a quote\na,b\n1,2\n");
+	}
+
+	@Test
+	public void testWithoutTrailingLineBreak() throws IOException {
+		assertSameAsSequential("a,b\r1,\"2\r\"");
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.processmining.log.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CSVRowOffsetIndexTest {
+
+	private static CSVFile createFile(int numRows) throws IOException {
+		StringBuilder sb = new StringBuilder("case,comment\n");
+		for (int i = 0; i < numRows; i++) {
+			sb.append(i).append(i % 7 == 0 ? ",\"multi\nline\"\n" : ",x\n");
+		}
+		return CSVTestUtils.createCSVFile(sb.toString());
+	}
+
+	@Test
+	public void testReadRows() throws IOException {
+		CSVRowOffsetIndex index = CSVRowOffsetIndex.build(createFile(1234), createConfig(), 10, null);
+		assertEquals(1234, index.getRowCount());
+		for (long firstRow : new long[] { 0, 9, 10, 11, 555, 1230 }) {
+			List<String[]> rows = index.readRows(firstRow, 5);
+			assertEquals(Math.min(5, 1234 - firstRow), rows.size());
+			for (int i = 0; i < rows.size(); i++) {
+				assertEquals(String.valueOf(firstRow + i), rows.get(i)[0]);
+			}
+		}
+		assertEquals(0, index.readRows(1234, 5).size());
+	}
+
+	@Test
+	public void testReadSample() throws IOException {
+		CSVRowOffsetIndex index = CSVRowOffsetIndex.build(createFile(1000), createConfig(), 64, null);
+		List<String[]> rows = index.readSample(10);
+		assertEquals(10, rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			assertEquals(String.valueOf(i * 100), rows.get(i)[0]);
+		}
+	}
+
+	@Test
+	public void testCancel() throws IOException {
+		assertNull(CSVRowOffsetIndex.build(createFile(100), createConfig(), 10, new CSVRowOffsetIndex.IndexProgress() {
+
+			public boolean rowsIndexed(long rowCount) {
+				return rowCount < 50;
+			}
+		}));
+	}
+
+}
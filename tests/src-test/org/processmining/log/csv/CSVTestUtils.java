@@ -0,0 +1,97 @@
+package org.processmining.log.csv;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.deckfour.xes.factory.XFactoryNaiveImpl;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+
+/**
+ * Fixtures shared by the tests of the CSV import. All files are temporary and
+ * deleted on exit.
+ *
+ * @author F. Mannhardt
+ *
+ */
+public final class CSVTestUtils {
+
+	private CSVTestUtils() {
+	}
+
+	/**
+	 * @return a new empty temporary directory
+	 * @throws IOException
+	 */
+	public static Path createTempDirectory() throws IOException {
+		Path directory = Files.createTempDirectory("csv-test");
+		directory.toFile().deleteOnExit();
+		return directory;
+	}
+
+	/**
+	 * @param content
+	 * @return a temporary file containing the UTF-8 encoded content
+	 * @throws IOException
+	 */
+	public static Path createTempFile(String content) throws IOException {
+		return write(Files.createTempFile("csv-test", ".csv"), content);
+	}
+
+	/**
+	 * @param directory
+	 * @param name
+	 * @param content
+	 * @return a file in the directory containing the UTF-8 encoded content
+	 * @throws IOException
+	 */
+	public static Path createTempFile(Path directory, String name, String content) throws IOException {
+		return write(directory.resolve(name), content);
+	}
+
+	private static Path write(Path file, String content) throws IOException {
+		file.toFile().deleteOnExit();
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * @param content
+	 * @return a {@link CSVFile} of a temporary file with the content
+	 * @throws IOException
+	 */
+	public static CSVFile createCSVFile(String content) throws IOException {
+		return new CSVFileReferenceUnivocityImpl(createTempFile(content));
+	}
+
+	/**
+	 * @return the default {@link CSVConfig} reading UTF-8
+	 */
+	public static CSVConfig createConfig() {
+		CSVConfig config = new CSVConfig();
+		config.setCharset("UTF-8");
+		return config;
+	}
+
+	/**
+	 * @param csvFile
+	 *            with the columns <code>case</code> and <code>activity</code>
+	 * @param config
+	 * @return the configuration with the case and event name columns set and a
+	 *         factory that does not depend on the XES registry
+	 * @throws CSVConversionException
+	 */
+	public static CSVConversionConfig createConversionConfig(CSVFile csvFile, CSVConfig config)
+			throws CSVConversionException {
+		CSVConversionConfig conversionConfig = new CSVConversionConfig(csvFile, config);
+		conversionConfig.setFactory(new XFactoryNaiveImpl());
+		conversionConfig.setCaseColumns(Collections.singletonList("case"));
+		conversionConfig.setEventNameColumns(Collections.singletonList("activity"));
+		return conversionConfig;
+	}
+
+}
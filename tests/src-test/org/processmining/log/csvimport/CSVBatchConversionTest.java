@@ -0,0 +1,175 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.processmining.log.csv.CSVTestUtils.createTempDirectory;
+import static org.processmining.log.csv.CSVTestUtils.createTempFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVBatchConversion.BatchReport;
+import org.processmining.log.csvimport.CSVBatchConversion.ConfigCustomizer;
+import org.processmining.log.csvimport.CSVBatchConversion.FileConverter;
+import org.processmining.log.csvimport.CSVBatchConversion.FileReport;
+import org.processmining.log.csvimport.CSVConversion.ConversionResult;
+import org.processmining.log.csvimport.CSVConversion.NoOpProgressListenerImpl;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig.GroupingStrategy;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+
+public class CSVBatchConversionTest {
+
+	private static File createFile(Path directory, String name, String content) throws IOException {
+		return createTempFile(directory, name, content).toFile();
+	}
+
+	@Test
+	public void testListFiles() throws IOException {
+		Path directory = createTempDirectory();
+		File b = createFile(directory, "b.csv", "case,activity\n");
+		File a = createFile(directory, "a.CSV", "case,activity\n");
+		createFile(directory, "notes.txt", "");
+		assertEquals(Arrays.asList(a, b), CSVBatchConversion.listFiles(directory.toFile()));
+
+		File manifest = createFile(directory, "manifest.txt", "# nightly\nb.csv\n\n" + a.getAbsolutePath() + "\n");
+		assertEquals(Arrays.asList(b, a), CSVBatchConversion.listFiles(manifest));
+	}
+
+	@Test
+	public void testReuseConfig() throws Exception {
+		Path directory = createTempDirectory();
+		File first = createFile(directory, "first.csv", "case;activity;amount\n1;A;10\n1;B;20\n");
+		File second = createFile(directory, "second.csv", "case;activity;amount\n2;C;30\n");
+		File other = createFile(directory, "other.csv", "case,activity\n3,D\n");
+		File missing = new File(directory.toFile(), "missing.csv");
+
+		final AtomicInteger customized = new AtomicInteger();
+		final ConcurrentMap<String, CSVConversionConfig> configs = new ConcurrentHashMap<>();
+		CSVBatchConversion batchConversion = new CSVBatchConversion(new ConfigCustomizer() {
+
+			public void customize(CSVConversionConfig conversionConfig) throws CSVConversionException {
+				customized.incrementAndGet();
+			}
+		}, new FileConverter() {
+
+			public ConversionResult<?> convert(CSVConversion conversion, CSVFile csvFile, CSVConfig importConfig,
+					CSVConversionConfig conversionConfig) {
+				configs.put(csvFile.getFilename(), conversionConfig);
+				return new ConversionResult<Void>() {
+
+					public Void getResult() {
+						return null;
+					}
+
+					public boolean hasConversionErrors() {
+						return false;
+					}
+
+					public String getConversionErrors() {
+						return "";
+					}
+
+					public long getSortingMemoryBudget() {
+						return -1;
+					}
+
+					public CSVConversionMetrics getMetrics() {
+						return new CSVConversionMetrics();
+					}
+				};
+			}
+		});
+		batchConversion.setNumThreads(2);
+		BatchReport report = batchConversion.convert(Arrays.asList(first, second, other, missing));
+
+		List<FileReport> files = report.getFiles();
+		assertEquals(4, files.size());
+		assertEquals(1, report.getFailedCount());
+		assertTrue(files.get(3).isFailed());
+		assertEquals(2, customized.get());
+		assertTrue(files.get(0).isConfigReused() ^ files.get(1).isConfigReused());
+		assertFalse(files.get(2).isConfigReused());
+
+		CSVConversionConfig firstConfig = configs.get("first.csv");
+		CSVConversionConfig secondConfig = configs.get("second.csv");
+		assertTrue(firstConfig != secondConfig);
+		assertEquals(firstConfig.getCaseColumns(), secondConfig.getCaseColumns());
+		assertEquals(firstConfig.getConversionMap().get("amount").getDataType(),
+				secondConfig.getConversionMap().get("amount").getDataType());
+	}
+
+	@Test
+	public void testRetrySniffing() throws Exception {
+		Path directory = createTempDirectory();
+		// The larger file is converted first
+		File first = createFile(directory, "first.csv", "case,activity\n1,A\n1,B\n");
+		File second = createFile(directory, "second.csv", "case,activity\n2,C\n");
+
+		final AtomicInteger customized = new AtomicInteger();
+		CSVBatchConversion batchConversion = new CSVBatchConversion(new ConfigCustomizer() {
+
+			public void customize(CSVConversionConfig conversionConfig) throws CSVConversionException {
+				if (customized.incrementAndGet() == 1) {
+					throw new CSVConversionException("Failing on purpose");
+				}
+			}
+		}, new FileConverter() {
+
+			public ConversionResult<?> convert(CSVConversion conversion, CSVFile csvFile, CSVConfig importConfig,
+					CSVConversionConfig conversionConfig) throws CSVConversionException {
+				return conversion.convertCSV(new NoOpProgressListenerImpl(), importConfig, conversionConfig,
+						Collections.singletonList(csvFile), new RecordingHandler());
+			}
+		});
+		batchConversion.setNumThreads(1);
+		BatchReport report = batchConversion.convert(Arrays.asList(first, second));
+
+		// The failure of the first file is not reused for the second file
+		List<FileReport> files = report.getFiles();
+		assertTrue(files.get(0).isFailed());
+		assertFalse(files.get(1).isFailed());
+		assertFalse(files.get(1).isConfigReused());
+		assertEquals(2, customized.get());
+		assertEquals(1, report.getDistinctHeaders());
+	}
+
+	@Test
+	public void testRowsAfterRestart() throws Exception {
+		Path directory = createTempDirectory();
+		// Case 1 appears again after case 2, which restarts the conversion with sorting
+		File file = createFile(directory, "log.csv", "case,activity\n1,A\n2,B\n1,C\n2,D\n");
+
+		CSVBatchConversion batchConversion = new CSVBatchConversion(new ConfigCustomizer() {
+
+			public void customize(CSVConversionConfig conversionConfig) throws CSVConversionException {
+				conversionConfig.setCaseColumns(Collections.singletonList("case"));
+				conversionConfig.setEventNameColumns(Collections.singletonList("activity"));
+				conversionConfig.setGroupingStrategy(GroupingStrategy.PRE_GROUPED);
+			}
+		}, new FileConverter() {
+
+			public ConversionResult<?> convert(CSVConversion conversion, CSVFile csvFile, CSVConfig importConfig,
+					CSVConversionConfig conversionConfig) throws CSVConversionException {
+				return conversion.convertCSV(new NoOpProgressListenerImpl(), importConfig, conversionConfig,
+						Collections.singletonList(csvFile), new RecordingHandler());
+			}
+		});
+		BatchReport report = batchConversion.convert(Arrays.asList(file));
+
+		assertEquals(0, report.getFailedCount());
+		assertEquals(4, report.getFiles().get(0).getRows());
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CSVCaseKeyTest {
+
+	private static void assertKey(CSVCaseKey caseKey, String expected, String[] row) {
+		assertEquals(expected, caseKey.format(row));
+		assertEquals(expected.hashCode(), caseKey.hash(row));
+		assertTrue(caseKey.matches(row, expected));
+	}
+
+	@Test
+	public void testSingleColumn() {
+		CSVCaseKey caseKey = new CSVCaseKey(new int[] { 1 }, "|");
+		assertKey(caseKey, "case1", new String[] { "A", "case1" });
+		assertKey(caseKey, "", new String[] { "A", null });
+		assertKey(caseKey, "{2}", new String[] { "A" });
+		assertFalse(caseKey.matches(new String[] { "A", "case1" }, "case10"));
+		assertFalse(caseKey.matches(new String[] { "A", "case10" }, "case1"));
+	}
+
+	@Test
+	public void testCompositeColumns() {
+		CSVCaseKey caseKey = new CSVCaseKey(new int[] { 2, 0 }, "|");
+		assertKey(caseKey, "x|1", new String[] { "1", "A", "x" });
+		assertKey(caseKey, "|1", new String[] { "1", "A", null });
+		// Same identifier as the concatenation, even though the cells differ
+		assertKey(caseKey, "x|y|1", new String[] { "y|1", "A", "x" });
+		assertKey(caseKey, "x|y|1", new String[] { "1", "A", "x|y" });
+		assertFalse(caseKey.matches(new String[] { "1", "A", "x" }, "x|2"));
+		assertFalse(caseKey.matches(new String[] { "1", "A", "x" }, "x1"));
+		assertFalse(caseKey.matches(new String[] { "1", "A", "x" }, "x|1|"));
+
+		CSVCaseKey noSeparator = new CSVCaseKey(new int[] { 0, 1 }, "");
+		assertKey(noSeparator, "1A", new String[] { "1", "A" });
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.processmining.log.csv.CSVTestUtils.createCSVFile;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+import static org.processmining.log.csv.CSVTestUtils.createConversionConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.CSVMappedFileReader;
+import org.processmining.log.csv.ICSVReader;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVConversionMetrics.Phase;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig.CSVMapping;
+import org.processmining.log.csvimport.config.CSVConversionConfig.Datatype;
+
+public class CSVConversionPipelineTest {
+
+	/**
+	 * Fails with an {@link Error} after reading some rows.
+	 */
+	private static final class FailingReader implements ICSVReader {
+
+		private final ICSVReader reader;
+		private int remainingRows;
+
+		FailingReader(ICSVReader reader, int remainingRows) {
+			this.reader = reader;
+			this.remainingRows = remainingRows;
+		}
+
+		public String[] readNext() throws IOException {
+			if (remainingRows-- == 0) {
+				throw new OutOfMemoryError("Simulated");
+			}
+			return reader.readNext();
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+
+	}
+
+	private static CSVFile createFile(int numRows) throws IOException {
+		StringBuilder sb = new StringBuilder("case,activity,time,amount\n");
+		for (int i = 0; i < numRows; i++) {
+			sb.append(i / 3).append(",act").append(i % 5).append(",2016-01-01 10:00:").append(10 + i % 50)
+					.append(',').append(i % 97 == 0 ? "invalid" : String.valueOf(i)).append('\n');
+		}
+		return createCSVFile(sb.toString());
+	}
+
+	private static List<String> convert(CSVFile csvFile, int numWorkers, List<String> caseIds,
+			RecordingHandler handler) throws Exception {
+		return convert(csvFile, numWorkers, caseIds, handler, new CSVConversionMetrics());
+	}
+
+	private static List<String> convert(CSVFile csvFile, int numWorkers, List<String> caseIds,
+			RecordingHandler handler, CSVConversionMetrics metrics) throws Exception {
+		return convert(csvFile, numWorkers, caseIds, handler, metrics, -1);
+	}
+
+	private static List<String> convert(CSVFile csvFile, int numWorkers, List<String> caseIds,
+			RecordingHandler handler, CSVConversionMetrics metrics, int failAfterRows) throws Exception {
+		CSVConfig config = createConfig();
+		CSVConversionConfig conversionConfig = createConversionConfig(csvFile, config);
+		conversionConfig.getConversionMap().get("time").setDataType(Datatype.TIME);
+		conversionConfig.getConversionMap().get("time").setPattern("yyyy-MM-dd HH:mm:ss");
+		conversionConfig.getConversionMap().get("amount").setDataType(Datatype.DISCRETE);
+
+		String[] header = csvFile.readHeader(config);
+		Map<Integer, CSVMapping> columnMap = new HashMap<>();
+		for (int i = 0; i < header.length; i++) {
+			columnMap.put(i, conversionConfig.getConversionMap().get(header[i]));
+		}
+		int[] caseColumn = new int[] { 0 };
+		int[] eventNameColumn = new int[] { 1 };
+		CSVConversionPlan plan = new CSVConversionPlan(conversionConfig, header, columnMap, caseColumn,
+				eventNameColumn, 2, -1, 100);
+		CSVConversionPlan[] workerPlans = new CSVConversionPlan[numWorkers];
+		for (int i = 0; i < numWorkers; i++) {
+			workerPlans[i] = new CSVConversionPlan(conversionConfig, header, columnMap, caseColumn, eventNameColumn,
+					2, -1, 0);
+		}
+
+		try (CSVMappedFileReader reader = new CSVMappedFileReader(csvFile.getFile(), config)) {
+			// Skip header before the pipeline starts reading
+			reader.readNext();
+			ICSVReader pipelineReader = failAfterRows >= 0 ? new FailingReader(reader, failAfterRows) : reader;
+			try (CSVConversionPipeline pipeline = new CSVConversionPipeline(pipelineReader, plan, workerPlans,
+					caseColumn, "|", metrics)) {
+				int lineIndex = 0;
+				while (pipeline.next()) {
+					assertEquals(lineIndex++, pipeline.getLineIndex());
+					caseIds.add(pipeline.getCaseId());
+					pipeline.getEvent().emit(handler);
+				}
+			}
+		}
+		return handler.getResult();
+	}
+
+	@Test
+	public void testSameResultAsSequential() throws Exception {
+		CSVFile csvFile = createFile(5000);
+		List<String> expectedCaseIds = new ArrayList<>();
+		List<String> expected = convert(csvFile, 0, expectedCaseIds, new RecordingHandler());
+		assertEquals(5000, expectedCaseIds.size());
+		for (int numWorkers : new int[] { 1, 3 }) {
+			List<String> caseIds = new ArrayList<>();
+			RecordingHandler handler = new RecordingHandler();
+			assertEquals(expected, convert(csvFile, numWorkers, caseIds, handler));
+			assertEquals(expectedCaseIds, caseIds);
+			// Event classes are still shared through the dictionary of the main plan
+			assertSame(handler.eventClasses.get(0), handler.eventClasses.get(5));
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		CSVFile csvFile = createFile(5000);
+		for (int numWorkers : new int[] { 0, 2 }) {
+			CSVConversionMetrics metrics = new CSVConversionMetrics();
+			convert(csvFile, numWorkers, new ArrayList<String>(), new RecordingHandler(), metrics);
+			assertEquals(5000, metrics.getRows(Phase.PARSING));
+			assertEquals(5000, metrics.getRows(Phase.CONVERSION));
+			assertTrue(metrics.getElapsedNanos(Phase.CONVERSION) > 0);
+			assertTrue(metrics.getPeakHeapBytes(Phase.CONVERSION) > 0);
+			assertFalse(metrics.hasMeasurements(Phase.SORTING));
+		}
+	}
+
+	@Test(expected = OutOfMemoryError.class, timeout = 10000)
+	public void testReaderError() throws Exception {
+		// The error is passed to the calling thread instead of leaving it waiting for the next batch
+		convert(createFile(5000), 2, new ArrayList<String>(), new RecordingHandler(), new CSVConversionMetrics(),
+				3000);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		List<String> caseIds = new ArrayList<>();
+		assertEquals(0, convert(createFile(0), 2, caseIds, new RecordingHandler()).size());
+	}
+
+}
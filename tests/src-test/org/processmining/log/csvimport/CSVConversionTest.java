@@ -0,0 +1,65 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.processmining.log.csv.CSVTestUtils.createCSVFile;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+import static org.processmining.log.csv.CSVTestUtils.createConversionConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.csvimport.CSVConversion.NoOpProgressListenerImpl;
+import org.processmining.log.csvimport.config.CSVConversionConfig;
+import org.processmining.log.csvimport.config.CSVConversionConfig.GroupingStrategy;
+
+public class CSVConversionTest {
+
+	// Rows of each case are contiguous, but the cases are not sorted
+	private static final String GROUPED = "case,activity\n2,A\n2,B\n1,C\n";
+
+	// Case 1 appears again after case 2
+	private static final String NOT_GROUPED = "case,activity\n1,A\n2,B\n1,C\n2,D\n";
+
+	/**
+	 * @return the traces and events, without attributes
+	 */
+	private static List<String> convert(String content, GroupingStrategy groupingStrategy) throws Exception {
+		CSVFile csvFile = createCSVFile(content);
+		CSVConfig config = createConfig();
+		CSVConversionConfig conversionConfig = createConversionConfig(csvFile, config);
+		conversionConfig.setGroupingStrategy(groupingStrategy);
+		List<String> calls = new CSVConversion().convertCSV(new NoOpProgressListenerImpl(), config,
+				conversionConfig, csvFile, new RecordingHandler()).getResult();
+		List<String> structure = new ArrayList<>();
+		for (String call : calls) {
+			if (call.startsWith("trace ") || call.startsWith("end ") || call.startsWith("event ")) {
+				structure.add(call);
+			}
+		}
+		return structure;
+	}
+
+	@Test
+	public void testPreGrouped() throws Exception {
+		// Cases are read in the order of the file
+		List<String> expected = Arrays.asList("trace 2", "event A null null", "event B null null", "end 2",
+				"trace 1", "event C null null", "end 1");
+		assertEquals(expected, convert(GROUPED, GroupingStrategy.PRE_GROUPED));
+		assertEquals(expected, convert(GROUPED, GroupingStrategy.AUTO_DETECT));
+	}
+
+	@Test
+	public void testPreGroupedFallback() throws Exception {
+		// The conversion is restarted with sorting once case 1 appears again
+		List<String> expected = Arrays.asList("trace 1", "event A null null", "event C null null", "end 1",
+				"trace 2", "event B null null", "event D null null", "end 2");
+		assertEquals(expected, convert(NOT_GROUPED, GroupingStrategy.SORT));
+		assertEquals(expected, convert(NOT_GROUPED, GroupingStrategy.PRE_GROUPED));
+		assertEquals(expected, convert(NOT_GROUPED, GroupingStrategy.AUTO_DETECT));
+	}
+
+}
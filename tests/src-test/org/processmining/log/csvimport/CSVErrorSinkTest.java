@@ -0,0 +1,64 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.processmining.log.csvimport.CSVErrorSink.ErrorKind;
+
+public class CSVErrorSinkTest {
+
+	@Test
+	public void testCountsAndSamples() throws IOException {
+		CSVErrorSink sink = new CSVErrorSink(3, null);
+		for (int i = 0; i < 1000; i++) {
+			sink.add(i + 2, 1, "time", "invalid" + i, new ParseException("Unparseable", 0));
+		}
+		sink.add(5, 2, "cost", "abc", new NumberFormatException("abc"));
+		sink.add(6, 1, "time", null, new NumberFormatException("null"));
+
+		assertEquals(1002, sink.getErrorCount());
+		List<ErrorKind> kinds = sink.getKinds();
+		assertEquals(3, kinds.size());
+		assertEquals(1000, kinds.get(0).getCount());
+		assertEquals(3, kinds.get(0).getSamples().size());
+		assertEquals("invalid0", kinds.get(0).getSamples().get(0).getRawValue());
+		assertEquals(2, kinds.get(0).getSamples().get(0).getLineNumber());
+		assertEquals("cost", kinds.get(1).getAttributeName());
+		assertEquals("NumberFormatException", kinds.get(2).getErrorType());
+		assertTrue(sink.getSummary().contains("1,000 errors"));
+
+		sink.clear();
+		assertFalse(sink.hasErrors());
+		assertEquals("", sink.getSummary());
+	}
+
+	@Test
+	public void testErrorFile() throws IOException {
+		File errorFile = File.createTempFile("errors", ".tsv.gz");
+		errorFile.deleteOnExit();
+		try (CSVErrorSink sink = new CSVErrorSink(1, errorFile)) {
+			sink.add(2, 0, "case", "a\tb", new IllegalArgumentException());
+			sink.add(3, 0, "case", "c", new IllegalArgumentException());
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+				new FileInputStream(errorFile)), StandardCharsets.UTF_8))) {
+			assertEquals("line\tcolumn\tattribute\terror\tvalue", reader.readLine());
+			assertEquals("2\t0\tcase\tIllegalArgumentException\ta\\tb", reader.readLine());
+			assertEquals("3\t0\tcase\tIllegalArgumentException\tc", reader.readLine());
+			assertEquals(null, reader.readLine());
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.processmining.log.csv.CSVTestUtils.createCSVFile;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.processmining.log.csv.ICSVReader;
+import org.processmining.log.csvimport.CSVConversion.NoOpProgressListenerImpl;
+import org.processmining.log.csvimport.CSVConversionMetrics.Phase;
+
+public class CSVHashGrouperTest {
+
+	private static List<String[]> createRows(int numRows, int numCases) {
+		List<String[]> rows = new ArrayList<>();
+		for (int i = 0; i < numRows; i++) {
+			rows.add(new String[] { "case" + (i * 7919 % numCases), String.valueOf(i) });
+		}
+		return rows;
+	}
+
+	private static CSVShards createShards(List<String[]> rows) throws Exception {
+		StringBuilder csv = new StringBuilder("case,row\n");
+		for (String[] row : rows) {
+			csv.append(row[0]).append(',').append(row[1]).append('\n');
+		}
+		return CSVShards.open(Collections.singletonList(createCSVFile(csv.toString())), createConfig());
+	}
+
+	private static List<String[]> readGroupedFile(File groupedFile) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		try (ICSVReader reader = CSVSorter.openSortedFile(groupedFile)) {
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				rows.add(row);
+			}
+		}
+		return rows;
+	}
+
+	private static List<String> listTempFiles(CSVShards shards) {
+		List<String> names = new ArrayList<>();
+		for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+			if (name.startsWith(shards.getFilename() + "-")) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Groups the rows with a budget of 1 MB, i.e., partitions larger than the
+	 * minimal in-memory size of 4 MB are partitioned again.
+	 */
+	private static CSVConversionMetrics assertGrouped(List<String[]> rows) throws Exception {
+		CSVShards shards = createShards(rows);
+		CSVConversionMetrics metrics = new CSVConversionMetrics();
+		File groupedFile = CSVHashGrouper.groupCSV(shards, new int[] { 0 }, "|", createConfig(), 1, 2, 1,
+				new CSVMemoryGovernor(0.9), new NoOpProgressListenerImpl(), metrics);
+		try {
+			List<String[]> groupedRows = readGroupedFile(groupedFile);
+			assertEquals(rows.size(), groupedRows.size());
+			// Each case occurs exactly once and keeps the order of its rows
+			Map<String, List<String[]>> expected = new LinkedHashMap<>();
+			for (String[] row : rows) {
+				if (!expected.containsKey(row[0])) {
+					expected.put(row[0], new ArrayList<String[]>());
+				}
+				expected.get(row[0]).add(row);
+			}
+			int i = 0;
+			while (i < groupedRows.size()) {
+				List<String[]> caseRows = expected.remove(groupedRows.get(i)[0]);
+				assertTrue("case " + groupedRows.get(i)[0] + " is not contiguous", caseRows != null);
+				for (String[] row : caseRows) {
+					assertArrayEquals(row, groupedRows.get(i++));
+				}
+			}
+			assertTrue(expected.isEmpty());
+		} finally {
+			groupedFile.delete();
+		}
+		assertEquals(Collections.emptyList(), listTempFiles(shards));
+		return metrics;
+	}
+
+	@Test
+	public void testGrouping() throws Exception {
+		CSVConversionMetrics metrics = assertGrouped(createRows(20000, 13));
+		// Partitions fit in memory, grouping only writes the output
+		assertTrue(metrics.getSpillBytesWritten(Phase.SPILL_MERGING) < 1.1 * metrics
+				.getSpillBytesWritten(Phase.SORTING));
+	}
+
+	@Test
+	public void testRepartitioning() throws Exception {
+		CSVConversionMetrics metrics = assertGrouped(createRows(100000, 1000));
+		// Both partitions exceed the memory and are written again before grouping, partitions written
+		// from the spill files are smaller as values from the dictionaries are not counted again
+		assertTrue(metrics.getSpillBytesWritten(Phase.SPILL_MERGING) > 1.25 * metrics
+				.getSpillBytesWritten(Phase.SORTING));
+	}
+
+	@Test
+	public void testSkewedCase() throws Exception {
+		// A single case cannot be split, it is grouped in memory once the maximal depth is reached
+		List<String[]> rows = createRows(80000, 1);
+		rows.addAll(createRows(100, 7));
+		assertGrouped(rows);
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.MessageFormat;
+
+import org.junit.Test;
+
+public class CSVLiteralTemplateTest {
+
+	private static final String[][] LINES = new String[][] { { "a", "b" }, { "x", null }, { "", "{1}" }, {} };
+
+	/**
+	 * Formats the lines with the template and with {@link MessageFormat} in
+	 * the way the conversion calls it, i.e., with the value of the cell as
+	 * first argument followed by the cells of the row.
+	 */
+	private static void assertSameAsMessageFormat(String pattern) {
+		CSVLiteralTemplate template = CSVLiteralTemplate.compile(pattern);
+		MessageFormat messageFormat = new MessageFormat(pattern);
+		for (String[] line : LINES) {
+			String value = line.length > 0 ? line[0] : null;
+			Object[] arguments = new Object[line.length + 1];
+			arguments[0] = value;
+			System.arraycopy(line, 0, arguments, 1, line.length);
+			assertEquals(pattern, messageFormat.format(arguments), template.format(value, line));
+		}
+	}
+
+	@Test
+	public void testArguments() {
+		assertSameAsMessageFormat("{0}");
+		assertSameAsMessageFormat("{2}");
+		assertSameAsMessageFormat("{1}-{2}");
+		assertSameAsMessageFormat("prefix {0} suffix");
+		assertSameAsMessageFormat("{2}{1}{0}{1}");
+		assertSameAsMessageFormat("{01}");
+		assertSameAsMessageFormat("");
+		assertSameAsMessageFormat("no arguments");
+	}
+
+	@Test
+	public void testMissingArguments() {
+		assertSameAsMessageFormat("{3}");
+		assertSameAsMessageFormat("{1} and {10}");
+	}
+
+	@Test
+	public void testQuotes() {
+		assertSameAsMessageFormat("'{0}' is {1}");
+		assertSameAsMessageFormat("it''s {1}");
+		assertSameAsMessageFormat("'quoted '' text' {2}");
+		assertSameAsMessageFormat("'{'{1}'}'");
+		// Unterminated quote, the rest of the pattern is literal
+		assertSameAsMessageFormat("it's {1}");
+		assertSameAsMessageFormat("''");
+	}
+
+	@Test
+	public void testSubFormats() {
+		// Left to MessageFormat
+		assertNull(CSVLiteralTemplate.compile("{1,number}"));
+		assertNull(CSVLiteralTemplate.compile("{1,choice,0#none|1#one}"));
+		assertNull(CSVLiteralTemplate.compile("{ 1 }"));
+		assertNull(CSVLiteralTemplate.compile("{1"));
+	}
+
+	@Test
+	public void testColumns() {
+		String[] line = new String[] { "a", null, "c" };
+		assertEquals("a|c", CSVLiteralTemplate.forColumns(new int[] { 0, 2 }, "|").format(null, line));
+		assertEquals("c|a|", CSVLiteralTemplate.forColumns(new int[] { 2, 0, 1 }, "|").format(null, line));
+		assertEquals("ac", CSVLiteralTemplate.forColumns(new int[] { 0, 2 }, "").format(null, line));
+		assertEquals("c", CSVLiteralTemplate.forColumns(new int[] { 2 }, "|").format(null, line));
+	}
+
+}
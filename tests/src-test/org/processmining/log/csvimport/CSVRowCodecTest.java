@@ -0,0 +1,100 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.processmining.log.csvimport.CSVRowCodec.RowReader;
+import org.processmining.log.csvimport.CSVRowCodec.RowWriter;
+
+public class CSVRowCodecTest {
+
+	private static List<String[]> roundTrip(List<String[]> rows, long[] dictionaryBytes) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		RowWriter writer = new RowWriter(bos);
+		for (String[] row : rows) {
+			writer.writeEntry(row);
+			dictionaryBytes[0] = Math.max(dictionaryBytes[0], writer.getDictionaryBytes());
+		}
+		writer.close();
+		List<String[]> result = new ArrayList<>();
+		try (RowReader reader = new RowReader(new ByteArrayInputStream(bos.toByteArray()))) {
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				result.add(row);
+			}
+		}
+		return result;
+	}
+
+	private static void assertRoundTrip(List<String[]> rows, long[] dictionaryBytes) throws IOException {
+		List<String[]> result = roundTrip(rows, dictionaryBytes);
+		assertEquals(rows.size(), result.size());
+		for (int i = 0; i < rows.size(); i++) {
+			assertArrayEquals("row " + i, rows.get(i), result.get(i));
+		}
+	}
+
+	@Test
+	public void testNullsAndLongValues() throws IOException {
+		char[] longValue = new char[1000];
+		Arrays.fill(longValue, '\u00e4');
+		List<String[]> rows = new ArrayList<>();
+		rows.add(new String[] { "a", null, "", new String(longValue) });
+		rows.add(new String[] { "a", "\uD83D\uDE00", null, new String(longValue) });
+		rows.add(new String[] {});
+		rows.add(new String[] { null });
+		assertRoundTrip(rows, new long[1]);
+	}
+
+	@Test
+	public void testUnpairedSurrogates() throws IOException {
+		// Values of the CSV file are not necessarily valid UTF-16, they are kept as they are
+		List<String[]> rows = new ArrayList<>();
+		rows.add(new String[] { "\uD83D", "a\uDE00b", "\uDE00\uD83D", "\uD83D\uDE00\uD83D" });
+		rows.add(new String[] { "\uD83D", "a\uDE00b", "\u0000\u07FF\u0800\uFFFF", "\uDBFF\uDFFF" });
+		assertRoundTrip(rows, new long[1]);
+	}
+
+	@Test
+	public void testDictionaryOverflow() throws IOException {
+		// A repeated column, a column of unique values and many distinct values in wide rows
+		List<String[]> rows = new ArrayList<>();
+		for (int i = 0; i < 50000; i++) {
+			String[] row = new String[20];
+			row[0] = "activity" + (i % 10);
+			row[1] = "2016-01-01T00:00:" + i;
+			for (int j = 2; j < row.length; j++) {
+				row[j] = "value" + j + "-" + (i % 20000);
+			}
+			rows.add(row);
+		}
+		long[] dictionaryBytes = new long[1];
+		assertRoundTrip(rows, dictionaryBytes);
+		assertTrue(dictionaryBytes[0] > 0);
+		assertTrue(dictionaryBytes[0] <= CSVRowCodec.MAX_DICTIONARY_BYTES);
+	}
+
+	@Test
+	public void testDroppedDictionary() throws IOException {
+		// Repeated at first, then unique values that drop the dictionary, then repeated again
+		List<String[]> rows = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			rows.add(new String[] { "case" + (i < 2000 ? i % 3 : i), i % 2 == 0 ? null : "A" });
+		}
+		for (int i = 0; i < 2000; i++) {
+			rows.add(new String[] { "case1", "B" });
+		}
+		assertRoundTrip(rows, new long[1]);
+		assertEquals(0, roundTrip(new ArrayList<String[]>(), new long[1]).size());
+	}
+
+}
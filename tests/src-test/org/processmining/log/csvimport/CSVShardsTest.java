@@ -0,0 +1,47 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.processmining.log.csv.CSVTestUtils.createCSVFile;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.processmining.log.csv.ICSVReader;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+
+public class CSVShardsTest {
+
+	@Test
+	public void testReadAllShards() throws Exception {
+		CSVShards shards = CSVShards.open(Arrays.asList(createCSVFile("case,activity\n1,A\n2,B\n"),
+				createCSVFile("case,activity\n"), createCSVFile("activity,case\nC,1\n")), createConfig());
+		assertArrayEquals(new String[] { "case", "activity" }, shards.getHeader());
+		try (ICSVReader reader = new CSVSorter.UncompressedCSVReaderWithoutHeader(shards, createConfig(), 2, 1)) {
+			assertArrayEquals(new String[] { "1", "A" }, reader.readNext());
+			assertArrayEquals(new String[] { "2", "B" }, reader.readNext());
+			// Columns are re-arranged to the order of the first file
+			assertArrayEquals(new String[] { "1", "C" }, reader.readNext());
+			assertNull(reader.readNext());
+			assertNull(reader.readNext());
+		}
+	}
+
+	@Test(expected = CSVConversionException.class)
+	public void testDifferentColumns() throws Exception {
+		CSVShards.open(Arrays.asList(createCSVFile("case,activity\n1,A\n"), createCSVFile("case,resource\n1,R\n")),
+				createConfig());
+	}
+
+	@Test
+	public void testFingerprint() {
+		assertEquals(CSVShards.fingerprint(new String[] { "a", "b", "c" }),
+				CSVShards.fingerprint(new String[] { "c", "a", "b" }));
+		assertFalse(CSVShards.fingerprint(new String[] { "ab", "c" }) == CSVShards
+				.fingerprint(new String[] { "a", "bc" }));
+	}
+
+}
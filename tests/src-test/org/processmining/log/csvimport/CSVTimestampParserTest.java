@@ -0,0 +1,100 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class CSVTimestampParserTest {
+
+	private static SimpleDateFormat createFormat(String pattern, String timeZone) {
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone(timeZone));
+		return format;
+	}
+
+	private static void assertSameAsDateFormat(String pattern, String timeZone, String value) throws ParseException {
+		SimpleDateFormat format = createFormat(pattern, timeZone);
+		long expected;
+		try {
+			expected = format.parse(value).getTime();
+		} catch (ParseException e) {
+			// Values rejected by the DateFormat are rejected as well
+			try {
+				long millis = new CSVTimestampParser(format).parseMillis(value);
+				fail(value + " parsed as " + millis);
+			} catch (ParseException expectedException) {
+			}
+			return;
+		}
+		assertEquals(value, expected, new CSVTimestampParser(format).parseMillis(value));
+	}
+
+	@Test
+	public void testISOFastPath() throws ParseException {
+		assertSameAsDateFormat("yyyy-MM-dd HH:mm:ss", "UTC", "2020-02-29 23:59:59");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "UTC", "2020-02-29T23:59:59.123+02:00");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", "UTC", "1999-12-31T23:59:59Z");
+		assertSameAsDateFormat("yyyy-MM-dd", "Europe/Berlin", "2016-07-01");
+	}
+
+	@Test
+	public void testZoneShapes() throws ParseException {
+		// X only reads the hours, the rest of the value is ignored by the DateFormat
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmX", "UTC", "2020-02-29T23:59+01");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmX", "UTC", "2020-02-29T23:59+0130");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmX", "UTC", "2020-02-29T23:59+01:30");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmX", "UTC", "2020-02-29T23:59Z");
+		// XX requires the minutes without colon
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXX", "UTC", "2020-02-29T23:59-0130");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXX", "UTC", "2020-02-29T23:59-01");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXX", "UTC", "2020-02-29T23:59-01:30");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXX", "UTC", "2020-02-29T23:59Z");
+		// XXX requires the minutes with colon
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXXX", "UTC", "2020-02-29T23:59+01:30");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXXX", "UTC", "2020-02-29T23:59+01");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXXX", "UTC", "2020-02-29T23:59+0130");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmXXX", "UTC", "2020-02-29T23:59+24:00");
+		// Z requires the minutes without colon and does not accept Z
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmZ", "UTC", "2020-02-29T23:59+0130");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmZ", "UTC", "2020-02-29T23:59+01");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mmZ", "UTC", "2020-02-29T23:59Z");
+	}
+
+	@Test
+	public void testDaylightSavingTime() throws ParseException {
+		assertSameAsDateFormat("yyyy-MM-dd HH:mm:ss", "Europe/Berlin", "2021-03-28 02:30:00");
+		assertSameAsDateFormat("yyyy-MM-dd HH:mm:ss", "Europe/Berlin", "2021-10-31 02:30:00");
+	}
+
+	@Test
+	public void testFractionDigits() throws ParseException {
+		CSVTimestampParser parser = new CSVTimestampParser(createFormat("yyyy-MM-dd HH:mm:ss.SSS", "UTC"));
+		assertEquals(123, parser.parseMillis("1970-01-01 00:00:00.123456789"));
+		// Same as SimpleDateFormat, the fraction is the number of milliseconds
+		assertEquals(5, parser.parseMillis("1970-01-01 00:00:00.5"));
+		assertEquals(5, parser.parseMillis("1970-01-01 00:00:00.05"));
+		assertEquals(50, parser.parseMillis("1970-01-01 00:00:00.050"));
+		assertSameAsDateFormat("yyyy-MM-dd HH:mm:ss.SSS", "UTC", "2020-02-29 23:59:59.5");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "UTC", "2020-02-29T23:59:59.05+02:00");
+		assertSameAsDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "UTC", "2020-02-29T23:59:59.1234+02:00");
+		// Fallback to the DateFormat with the legacy fix for more than three digits
+		CSVTimestampParser fallbackParser = new CSVTimestampParser(createFormat("dd.MM.yyyy HH:mm:ss.SSS", "UTC"));
+		assertEquals(540, fallbackParser.parseMillis("01.01.1970 00:00:00.540000"));
+	}
+
+	@Test
+	public void testLenientFallback() throws ParseException {
+		assertSameAsDateFormat("yyyy-MM-dd HH:mm", "UTC", "2020-13-01 10:00");
+	}
+
+	@Test(expected = ParseException.class)
+	public void testInvalidValue() throws ParseException {
+		new CSVTimestampParser(createFormat("yyyy-MM-dd", "UTC")).parseMillis("invalid");
+	}
+
+}
@@ -0,0 +1,135 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.processmining.log.csv.CSVTestUtils.createCSVFile;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+import org.processmining.log.csv.ICSVReader;
+import org.processmining.log.csvimport.CSVConversion.NoOpProgressListenerImpl;
+import org.processmining.log.csvimport.exception.CSVSortException;
+
+public class ParallelCSVSorterTest {
+
+	private static final int NUM_ROWS = 20000;
+
+	// Only compares the case, rows of the same case need to keep their order
+	private static final Comparator<String[]> CASE_COMPARATOR = new Comparator<String[]>() {
+
+		public int compare(String[] o1, String[] o2) {
+			return o1[0].compareTo(o2[0]);
+		}
+	};
+
+	private static List<String[]> createRows() {
+		List<String[]> rows = new ArrayList<>();
+		for (int i = 0; i < NUM_ROWS; i++) {
+			rows.add(new String[] { "case" + (i * 7919 % 13), String.valueOf(i) });
+		}
+		return rows;
+	}
+
+	private static CSVShards createShards(List<String[]> rows) throws Exception {
+		StringBuilder csv = new StringBuilder("case,row\n");
+		for (String[] row : rows) {
+			csv.append(row[0]).append(',').append(row[1]).append('\n');
+		}
+		return CSVShards.open(Collections.singletonList(createCSVFile(csv.toString())), createConfig());
+	}
+
+	private static File sort(CSVShards shards, Comparator<String[]> comparator, int maxFilesToMerge)
+			throws CSVSortException {
+		// A budget of 1 MB results in segments of 256 KB, i.e., about a dozen segments
+		return ParallelCSVSorter.sortCSV(shards, comparator, createConfig(), 1, 2, 1, null, 3, maxFilesToMerge,
+				new CSVMemoryGovernor(0.9), new NoOpProgressListenerImpl(), new CSVConversionMetrics());
+	}
+
+	private static List<String[]> readSortedFile(File sortedFile) throws IOException {
+		List<String[]> rows = new ArrayList<>();
+		try (ICSVReader reader = CSVSorter.openSortedFile(sortedFile)) {
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				rows.add(row);
+			}
+		}
+		return rows;
+	}
+
+	private static List<String> listTempFiles(CSVShards shards) {
+		List<String> names = new ArrayList<>();
+		for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+			if (name.startsWith(shards.getFilename() + "-")) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	private static void assertStableSort(int maxFilesToMerge) throws Exception {
+		List<String[]> rows = createRows();
+		CSVShards shards = createShards(rows);
+		File sortedFile = sort(shards, CASE_COMPARATOR, maxFilesToMerge);
+		try {
+			List<String[]> expected = new ArrayList<>(rows);
+			// Collections.sort is stable
+			Collections.sort(expected, CASE_COMPARATOR);
+			List<String[]> sortedRows = readSortedFile(sortedFile);
+			assertEquals(expected.size(), sortedRows.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertArrayEquals(expected.get(i), sortedRows.get(i));
+			}
+		} finally {
+			sortedFile.delete();
+		}
+		assertEquals(Collections.emptyList(), listTempFiles(shards));
+	}
+
+	@Test
+	public void testSingleMergeRound() throws Exception {
+		assertStableSort(0);
+	}
+
+	@Test
+	public void testSeveralMergeRounds() throws Exception {
+		// Merging three files at once requires three rounds
+		assertStableSort(3);
+	}
+
+	@Test
+	public void testFailureRemovesTempFiles() throws Exception {
+		CSVShards shards = createShards(createRows());
+		// Fails in one of the later segments while others are still sorted
+		Comparator<String[]> failingComparator = new Comparator<String[]>() {
+
+			public int compare(String[] o1, String[] o2) {
+				if (o1[1].equals("15000") || o2[1].equals("15000")) {
+					throw new IllegalStateException("Failing on purpose");
+				}
+				return CASE_COMPARATOR.compare(o1, o2);
+			}
+		};
+		try {
+			sort(shards, failingComparator, 3);
+			fail("Sorting should fail");
+		} catch (CSVSortException e) {
+			Throwable cause = e;
+			while (cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			assertEquals("Failing on purpose", cause.getMessage());
+		}
+		assertEquals(Collections.emptyList(), listTempFiles(shards));
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.processmining.log.csvimport;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csvimport.exception.CSVConversionException;
+import org.processmining.log.csvimport.handler.CSVConversionHandler;
+
+/**
+ * Records all calls as text, a restart of the conversion clears the calls.
+ */
+final class RecordingHandler implements CSVConversionHandler<List<String>> {
+
+	final List<String> calls = new ArrayList<>();
+	final List<String> eventClasses = new ArrayList<>();
+
+	public void startLog(CSVFile inputFile) {
+		calls.clear();
+		eventClasses.clear();
+	}
+
+	public void startTrace(String caseId) {
+		calls.add("trace " + caseId);
+	}
+
+	public void endTrace(String caseId) {
+		calls.add("end " + caseId);
+	}
+
+	public void startEvent(String eventClass, Date completionTime, Date startTime) {
+		eventClasses.add(eventClass);
+		calls.add("event " + eventClass + " " + completionTime + " " + startTime);
+	}
+
+	public void startAttribute(String name, String value) {
+		calls.add(name + "=" + value);
+	}
+
+	public void startAttribute(String name, long value) {
+		calls.add(name + "=" + value);
+	}
+
+	public void startAttribute(String name, double value) {
+		calls.add(name + "=" + value);
+	}
+
+	public void startAttribute(String name, Date value) {
+		calls.add(name + "=" + value);
+	}
+
+	public void startAttribute(String name, boolean value) {
+		calls.add(name + "=" + value);
+	}
+
+	public void endAttribute() {
+	}
+
+	public void endEvent() {
+	}
+
+	public void errorDetected(int lineNumber, int columnIndex, String attributeName, Object cellContent,
+			Exception e) throws CSVConversionException {
+		calls.add("error " + lineNumber + " " + attributeName + " " + cellContent);
+	}
+
+	public List<String> getResult() {
+		return calls;
+	}
+
+	public boolean hasConversionErrors() {
+		return false;
+	}
+
+	public String getConversionErrors() {
+		return "";
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.processmining.log.csvimport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimeSortKeyFunctionTest {
+
+	private static SimpleDateFormat createFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	@Test
+	public void testEncodingOrder() {
+		long[] times = new long[] { TimeSortKeyFunction.NO_TIME, Long.MIN_VALUE + 1, -86400000l, -1, 0, 1,
+				1451606400000l, Long.MAX_VALUE };
+		for (int i = 0; i < times.length - 1; i++) {
+			String key = TimeSortKeyFunction.encode(times[i], 1000);
+			// Earlier times are ordered first independent of the row number
+			assertTrue(times[i] + " < " + times[i + 1],
+					key.compareTo(TimeSortKeyFunction.encode(times[i + 1], 0)) < 0);
+			// Equal times are ordered by the row number
+			assertTrue(key.compareTo(TimeSortKeyFunction.encode(times[i], 1001)) < 0);
+			assertEquals(key.length(), TimeSortKeyFunction.encode(times[i + 1], 0xFFFFFFFFFFFFl).length());
+		}
+	}
+
+	@Test
+	public void testSortByCaseAndTime() {
+		// Columns: case, activity, completion time, start time
+		List<String[]> rows = new ArrayList<>();
+		rows.add(new String[] { "2", "late", "2016-01-01 12:00", "" });
+		rows.add(new String[] { "1", "started", "2016-01-01 12:00", "2016-01-01 09:00" });
+		rows.add(new String[] { "1", "completed", "2016-01-01 10:00", "" });
+		rows.add(new String[] { "2", "invalid", "not a time", "" });
+		rows.add(new String[] { "2", "early", "2016-01-01 11:00", "" });
+		rows.add(new String[] { "1", "tie", "2016-01-01 10:00", "" });
+		rows.add(new String[] { "1", "missing", null, null });
+
+		TimeSortKeyFunction sortKeyFunction = new TimeSortKeyFunction(2, createFormat(), 3, createFormat());
+		List<String[]> rowsWithKey = new ArrayList<>();
+		for (String[] row : rows) {
+			String[] rowWithKey = sortKeyFunction.apply(row);
+			assertEquals(row.length + 1, rowWithKey.length);
+			rowsWithKey.add(rowWithKey);
+		}
+		Collections.sort(rowsWithKey, new StringBasedImportOrdering(new int[] { 0 }, 4));
+
+		List<String> activities = new ArrayList<>();
+		for (String[] row : rowsWithKey) {
+			activities.add(row[0] + ":" + row[1]);
+		}
+		// Rows without a valid time come first, the start time is used if present, ties keep the original order
+		assertEquals(Arrays.asList("1:missing", "1:started", "1:completed", "1:tie", "2:invalid", "2:early",
+				"2:late"), activities);
+	}
+
+}
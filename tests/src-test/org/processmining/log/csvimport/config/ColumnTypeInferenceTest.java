@@ -0,0 +1,67 @@
+package org.processmining.log.csvimport.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.processmining.log.csvimport.config.CSVConversionConfig.Datatype;
+import org.processmining.log.csvimport.config.CSVConversionConfig.DatatypeWithPattern;
+
+public class ColumnTypeInferenceTest {
+
+	private static DatatypeWithPattern infer(String... values) {
+		ColumnTypeInference inference = new ColumnTypeInference(Collections.singleton("NULL"));
+		for (String value : values) {
+			inference.addValue(value);
+		}
+		return inference.getResult();
+	}
+
+	@Test
+	public void testDataTypes() {
+		assertEquals(Datatype.BOOLEAN, infer("true", "F", "", null).getType());
+		assertEquals(Datatype.DISCRETE, infer("1", "-20", "NULL").getType());
+		assertEquals(Datatype.CONTINUOUS, infer("1.5", "-2.0", "1E+10").getType());
+		assertEquals(Datatype.LITERAL, infer("1.5", "abc").getType());
+		assertEquals(Datatype.LITERAL, infer("NULL").getType());
+		DatatypeWithPattern time = infer("2016-01-01 10:00:00", "2016-12-31 23:59:59.123456");
+		assertEquals(Datatype.TIME, time.getType());
+		assertEquals("yyyy-M-d H:mm:ss", time.getPattern());
+	}
+
+	@Test
+	public void testConcurrentInference() throws Exception {
+		// Columns of different files are inferred concurrently in batch mode
+		final String[] values = new String[2000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = String.format("20%02d-%02d-%02dT%02d:%02d:%02d", i % 30, i % 12 + 1, i % 28 + 1, i % 24,
+					i % 60, (i * 7) % 60);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<DatatypeWithPattern>> results = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				results.add(executor.submit(new Callable<DatatypeWithPattern>() {
+
+					public DatatypeWithPattern call() throws Exception {
+						return infer(values);
+					}
+				}));
+			}
+			for (Future<DatatypeWithPattern> result : results) {
+				assertEquals(Datatype.TIME, result.get().getType());
+				assertEquals("yyyy-M-d'T'H:mm:ss", result.get().getPattern());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
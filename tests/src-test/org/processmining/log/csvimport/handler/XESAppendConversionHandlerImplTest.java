@@ -0,0 +1,190 @@
+package org.processmining.log.csvimport.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.processmining.log.csv.CSVTestUtils.createCSVFile;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+import static org.processmining.log.csv.CSVTestUtils.createConversionConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.deckfour.xes.extension.std.XConceptExtension;
+import org.deckfour.xes.extension.std.XTimeExtension;
+import org.deckfour.xes.factory.XFactory;
+import org.deckfour.xes.factory.XFactoryNaiveImpl;
+import org.deckfour.xes.info.impl.XLogInfoImpl;
+import org.deckfour.xes.model.XAttributable;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.junit.Test;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.config.CSVConfig;
+import org.processmining.log.utils.XUtils;
+
+public class XESAppendConversionHandlerImplTest {
+
+	private static final XFactory FACTORY = new XFactoryNaiveImpl();
+
+	private static CSVFile createFile() throws IOException {
+		return createCSVFile("case,activity,time\n");
+	}
+
+	private static XESAppendConversionHandlerImpl createHandler(CSVFile csvFile, XLog existingLog)
+			throws Exception {
+		CSVConfig config = createConfig();
+		return new XESAppendConversionHandlerImpl(config, createConversionConfig(csvFile, config), existingLog);
+	}
+
+	private static void assignName(XAttributable element, String name) {
+		XUtils.putAttribute(element,
+				FACTORY.createAttributeLiteral(XConceptExtension.KEY_NAME, name, XConceptExtension.instance()));
+	}
+
+	/**
+	 * @param caseId
+	 * @param events
+	 *            pairs of event name and time, or NULL for events without time
+	 * @return a trace of the existing log
+	 */
+	private static XTrace createTrace(String caseId, Object... events) {
+		XTrace trace = FACTORY.createTrace();
+		assignName(trace, caseId);
+		for (int i = 0; i < events.length; i += 2) {
+			XEvent event = FACTORY.createEvent();
+			assignName(event, (String) events[i]);
+			if (events[i + 1] != null) {
+				XUtils.putAttribute(event, FACTORY.createAttributeTimestamp(XTimeExtension.KEY_TIMESTAMP,
+						new Date((Integer) events[i + 1]), XTimeExtension.instance()));
+			}
+			trace.add(event);
+		}
+		return trace;
+	}
+
+	private static XLog createLog(XTrace... traces) {
+		XLog log = FACTORY.createLog();
+		log.addAll(Arrays.asList(traces));
+		return log;
+	}
+
+	/**
+	 * Converts the events of a case as the conversion does, i.e., sorted by
+	 * time with events without time first.
+	 */
+	private static void convertTrace(XESAppendConversionHandlerImpl handler, String caseId, Object... events) {
+		handler.startTrace(caseId);
+		for (int i = 0; i < events.length; i += 2) {
+			Date time = events[i + 1] != null ? new Date((Integer) events[i + 1]) : null;
+			handler.startEvent((String) events[i], time, null);
+			handler.endEvent();
+		}
+		handler.endTrace(caseId);
+	}
+
+	private static List<String> getEventNames(XTrace trace) {
+		List<String> names = new ArrayList<>();
+		for (XEvent event : trace) {
+			names.add(XUtils.getConceptName(event));
+		}
+		return names;
+	}
+
+	@Test
+	public void testInterleaved() throws Exception {
+		XTrace existingTrace = createTrace("1", "a", 10, "c", 30, "e", 50);
+		XLog log = createLog(existingTrace);
+		CSVFile csvFile = createFile();
+		XESAppendConversionHandlerImpl handler = createHandler(csvFile, log);
+		handler.startLog(csvFile);
+		convertTrace(handler, "1", "b", 20, "d", 40, "f", 60);
+		convertTrace(handler, "2", "x", 5);
+
+		assertEquals(log, handler.getResult());
+		assertEquals(2, log.size());
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), getEventNames(existingTrace));
+		assertEquals(Arrays.asList("x"), getEventNames(log.get(1)));
+		assertEquals(1, handler.getMergedTraces());
+		assertEquals(1, handler.getAppendedTraces());
+	}
+
+	@Test
+	public void testWithoutTimestamps() throws Exception {
+		// Events without time are added at the end, both when interleaving and when all new events are later
+		XTrace mergedTrace = createTrace("1", "a", 10, "c", 30);
+		XTrace deltaTrace = createTrace("2", "a", 10, "c", 30);
+		XLog log = createLog(mergedTrace, deltaTrace);
+		CSVFile csvFile = createFile();
+		XESAppendConversionHandlerImpl handler = createHandler(csvFile, log);
+		handler.startLog(csvFile);
+		convertTrace(handler, "1", "x", null, "b", 20);
+		convertTrace(handler, "2", "y", null, "z", null, "d", 40);
+		handler.getResult();
+
+		assertEquals(Arrays.asList("a", "b", "c", "x"), getEventNames(mergedTrace));
+		assertEquals(Arrays.asList("a", "c", "d", "y", "z"), getEventNames(deltaTrace));
+	}
+
+	@Test
+	public void testTies() throws Exception {
+		// Existing events are kept before new events with the same time
+		XTrace existingTrace = createTrace("1", "a", 10, "b", 20);
+		XLog log = createLog(existingTrace);
+		CSVFile csvFile = createFile();
+		XESAppendConversionHandlerImpl handler = createHandler(csvFile, log);
+		handler.startLog(csvFile);
+		convertTrace(handler, "1", "c", 10, "d", 20);
+		handler.getResult();
+
+		assertEquals(Arrays.asList("a", "c", "b", "d"), getEventNames(existingTrace));
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		XTrace existingTrace = createTrace("1", "a", 10, "c", 30);
+		XLog log = createLog(existingTrace);
+		CSVFile csvFile = createFile();
+		XESAppendConversionHandlerImpl handler = createHandler(csvFile, log);
+		handler.startLog(csvFile);
+		convertTrace(handler, "1", "b", 20);
+		convertTrace(handler, "2", "x", 5);
+		// Conversion is restarted, e.g., after detecting that the rows are not grouped by case
+		handler.startLog(csvFile);
+		convertTrace(handler, "1", "b", 20);
+		convertTrace(handler, "2", "x", 5);
+		handler.getResult();
+		// Calling it again does not change the log
+		handler.getResult();
+
+		assertEquals(2, log.size());
+		assertEquals(Arrays.asList("a", "b", "c"), getEventNames(existingTrace));
+		assertEquals(Arrays.asList("x"), getEventNames(log.get(1)));
+		assertEquals(1, handler.getMergedTraces());
+		assertEquals(1, handler.getAppendedTraces());
+	}
+
+	@Test
+	public void testExtensionsAddedWithResult() throws Exception {
+		XLog log = createLog(createTrace("1", "a", 10));
+		CSVFile csvFile = createFile();
+		XESAppendConversionHandlerImpl handler = createHandler(csvFile, log);
+		handler.startLog(csvFile);
+		convertTrace(handler, "1", "b", 20);
+		// The conversion might still fail, the existing log is not touched
+		assertTrue(log.getExtensions().isEmpty());
+		assertTrue(log.getClassifiers().isEmpty());
+
+		handler.getResult();
+		assertFalse(log.getExtensions().isEmpty());
+		assertTrue(log.getClassifiers().contains(XLogInfoImpl.NAME_CLASSIFIER));
+		// Calling it again does not add the classifier twice
+		handler.getResult();
+		assertEquals(1, log.getClassifiers().size());
+	}
+
+}
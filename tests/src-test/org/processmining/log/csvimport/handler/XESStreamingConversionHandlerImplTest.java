@@ -0,0 +1,143 @@
+package org.processmining.log.csvimport.handler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.processmining.log.csv.CSVTestUtils.createConfig;
+import static org.processmining.log.csv.CSVTestUtils.createConversionConfig;
+import static org.processmining.log.csv.CSVTestUtils.createTempDirectory;
+import static org.processmining.log.csv.CSVTestUtils.createTempFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.processmining.log.csv.CSVFile;
+import org.processmining.log.csv.CSVFileReferenceUnivocityImpl;
+import org.processmining.log.csv.config.CSVConfig;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class XESStreamingConversionHandlerImplTest {
+
+	private static CSVFile createFile(Path directory) throws IOException {
+		return new CSVFileReferenceUnivocityImpl(createTempFile(directory, "log.csv", "case,activity,note\n"));
+	}
+
+	private static XESStreamingConversionHandlerImpl createHandler(CSVFile csvFile, File xesFile) throws Exception {
+		CSVConfig config = createConfig();
+		return new XESStreamingConversionHandlerImpl(config, createConversionConfig(csvFile, config), xesFile,
+				false);
+	}
+
+	private static void convertTrace(XESStreamingConversionHandlerImpl handler, String caseId, String eventName,
+			String note) {
+		handler.startTrace(caseId);
+		handler.startEvent(eventName, new Date(0), null);
+		handler.startAttribute("note", note);
+		handler.endAttribute();
+		handler.endEvent();
+		handler.endTrace(caseId);
+	}
+
+	private static String getValue(Element element, String key) {
+		NodeList attributes = element.getChildNodes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			if (attributes.item(i) instanceof Element) {
+				Element attribute = (Element) attributes.item(i);
+				if (key.equals(attribute.getAttribute("key"))) {
+					return attribute.getAttribute("value");
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String[] listFiles(Path directory) {
+		// No temporary files should be left
+		String[] names = directory.toFile().list();
+		Arrays.sort(names);
+		return names;
+	}
+
+	private static Document parse(File xesFile) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xesFile);
+	}
+
+	@Test
+	public void testEscaping() throws Exception {
+		Path directory = createTempDirectory();
+		File xesFile = directory.resolve("log.xes").toFile();
+		xesFile.deleteOnExit();
+		String note = "say \"hi\" & 'bye' <now>\r\nline\t2\u0001";
+		CSVFile csvFile = createFile(directory);
+		try (XESStreamingConversionHandlerImpl handler = createHandler(csvFile, xesFile)) {
+			handler.startLog(csvFile);
+			convertTrace(handler, "c&1", "a<b>", note);
+			assertEquals(xesFile, handler.getResult());
+		}
+
+		String xml = new String(Files.readAllBytes(xesFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(xml.contains("value=\"say &quot;hi&quot; &amp; &apos;bye&apos; &lt;now&gt;&#13;&#10;line&#9;2 \""));
+
+		NodeList traces = parse(xesFile).getElementsByTagName("trace");
+		assertEquals(1, traces.getLength());
+		Element trace = (Element) traces.item(0);
+		assertEquals("c&1", getValue(trace, "concept:name"));
+		Element event = (Element) trace.getElementsByTagName("event").item(0);
+		assertEquals("a<b>", getValue(event, "concept:name"));
+		// Control characters that are not allowed in XML are replaced
+		assertEquals("say \"hi\" & 'bye' <now>\r\nline\t2 ", getValue(event, "note"));
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		Path directory = createTempDirectory();
+		File xesFile = directory.resolve("log.xes").toFile();
+		xesFile.deleteOnExit();
+		Files.write(xesFile.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+		CSVFile csvFile = createFile(directory);
+		try (XESStreamingConversionHandlerImpl handler = createHandler(csvFile, xesFile)) {
+			handler.startLog(csvFile);
+			convertTrace(handler, "1", "a", "first");
+			// Conversion is restarted, e.g., after detecting that the rows are not grouped by case
+			handler.startLog(csvFile);
+			convertTrace(handler, "2", "b", "second");
+			assertEquals("old", new String(Files.readAllBytes(xesFile.toPath()), StandardCharsets.UTF_8));
+			handler.getResult();
+			// Finishing twice returns the same file
+			assertEquals(xesFile, handler.getResult());
+		}
+
+		NodeList traces = parse(xesFile).getElementsByTagName("trace");
+		assertEquals(1, traces.getLength());
+		assertEquals("2", getValue((Element) traces.item(0), "concept:name"));
+		assertArrayEquals(new String[] { "log.csv", "log.xes" }, listFiles(directory));
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		Path directory = createTempDirectory();
+		File xesFile = directory.resolve("log.xes").toFile();
+		xesFile.deleteOnExit();
+		Files.write(xesFile.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+		CSVFile csvFile = createFile(directory);
+		try (XESStreamingConversionHandlerImpl handler = createHandler(csvFile, xesFile)) {
+			handler.startLog(csvFile);
+			convertTrace(handler, "1", "a", "first");
+			// Conversion fails before the result is requested
+		}
+
+		assertEquals("old", new String(Files.readAllBytes(xesFile.toPath()), StandardCharsets.UTF_8));
+		assertArrayEquals(new String[] { "log.csv", "log.xes" }, listFiles(directory));
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.processmining.log.formats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class DateFormatClassifierTest {
+
+	private static final String[] VALUES = new String[] { "2016-01-02", "2016-1-2 3:04", "2016-01-02 03:04:05",
+			"2016-01-02T03:04:05.6+01:00", "2016-01-02T03:04:05.123Z", "2016-01-02 03:04:05.123456",
+			"2016-01-02 03:04:05 PST", "2016-01-02 03:04:05GMT+01:00", "2016-01-02 03:04:05-0800",
+			"2016/01/02 03:04", " 2016-01-02", "2016-01-02  03:04", "2016-01-02\t03:04", "1/2/2016",
+			"01/02/2016 13:14:15.000", "13/12/2016 01:02", "-2016-01-02", "20160102", "2016-01-02 foo",
+			"02 Jan 2016", "Sat, 2 Jan 2016 03:04:05 +0100", "3:04 PM", "2016.01.02 at 03:04:05 UTC", "" };
+
+	private static List<Date> createDates() {
+		List<Date> dates = new ArrayList<>();
+		dates.add(new Date(0));
+		// Single and two digit months, days and hours
+		dates.add(new Date(1451703845006l));
+		dates.add(new Date(1481655723999l));
+		return dates;
+	}
+
+	/**
+	 * Asserts that every format that parses (a prefix of) a value is a
+	 * candidate, and that the classifier parses the value as the first format
+	 * that parses the whole value.
+	 */
+	private static void assertAcceptsParsedValues(DateFormatClassifier classifier, List<String> values) {
+		List<DateFormat> formats = classifier.getFormats();
+		for (String value : values) {
+			BitSet candidates = classifier.getCandidates(value);
+			Date expected = null;
+			for (int i = 0; i < formats.size(); i++) {
+				ParsePosition pos = new ParsePosition(0);
+				Date date = formats.get(i).parse(value, pos);
+				if (date != null) {
+					assertTrue(getPattern(formats.get(i)) + " parses '" + value + "'", candidates.get(i));
+					if (expected == null && pos.getIndex() == value.length()) {
+						expected = date;
+					}
+				}
+			}
+			assertEquals(value, expected, classifier.parse(value));
+		}
+	}
+
+	private static String getPattern(DateFormat format) {
+		return format instanceof SimpleDateFormat ? ((SimpleDateFormat) format).toPattern() : format.toString();
+	}
+
+	@Test
+	public void testStandardFormats() {
+		DateFormatClassifier classifier = StandardDateFormats.getStandardDateFormatClassifier();
+		List<String> values = new ArrayList<>(Arrays.asList(VALUES));
+		for (DateFormat format : classifier.getFormats()) {
+			for (Date date : createDates()) {
+				values.add(format.format(date));
+			}
+		}
+		assertAcceptsParsedValues(classifier, values);
+		// Only some of the formats need to be tried
+		assertTrue(classifier.getCandidates("2016-01-02").cardinality() < classifier.getFormats().size());
+	}
+
+	@Test
+	public void testTextFields() {
+		List<DateFormat> formats = new ArrayList<>();
+		for (String pattern : new String[] { "dd MMM yyyy", "EEE, d MMM yyyy HH:mm:ss Z", "h:mm a",
+				"yyyy.MM.dd 'at' HH:mm:ss z", "yyyyMMdd", "d MMMM yyyy G", "''yy-MM-dd''" }) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("Europe/Berlin"));
+			formats.add(format);
+		}
+		DateFormatClassifier classifier = new DateFormatClassifier(formats);
+		List<String> values = new ArrayList<>(Arrays.asList(VALUES));
+		for (DateFormat format : formats) {
+			for (Date date : createDates()) {
+				values.add(format.format(date));
+			}
+		}
+		assertAcceptsParsedValues(classifier, values);
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.processmining.log.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+
+	private static byte[] createData(int size) {
+		// Compressible, but not trivially
+		Random random = new Random(42);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	private static byte[] gzip(byte[] data, int offset, int length) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+			gzip.write(data, offset, length);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Writes the data as BGZF members of at most 64 KB as done by bgzip.
+	 */
+	private static byte[] bgzip(byte[] data) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (int offset = 0; offset <= data.length; offset += 65280) {
+			int length = Math.min(65280, data.length - offset);
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			byte[] compressed = new byte[length + 1024];
+			int compressedLength = deflater.deflate(compressed);
+			deflater.end();
+			CRC32 crc = new CRC32();
+			crc.update(data, offset, length);
+			int blockSize = 18 + compressedLength + 8;
+			bos.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+			writeShort(bos, blockSize - 1);
+			bos.write(compressed, 0, compressedLength);
+			writeInt(bos, (int) crc.getValue());
+			writeInt(bos, length);
+			if (length == 0) {
+				break;
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	private static void writeShort(ByteArrayOutputStream bos, int value) {
+		bos.write(value & 0xFF);
+		bos.write((value >> 8) & 0xFF);
+	}
+
+	private static void writeInt(ByteArrayOutputStream bos, int value) {
+		writeShort(bos, value & 0xFFFF);
+		writeShort(bos, (value >> 16) & 0xFFFF);
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while ((read = is.read(buffer)) != -1) {
+			bos.write(buffer, 0, read);
+		}
+		is.close();
+		return bos.toByteArray();
+	}
+
+	@Test
+	public void testSingleMember() throws IOException {
+		byte[] data = createData(1024 * 1024 + 17);
+		assertArrayEquals(data, readAll(ReadAheadInputStream.forGZIP(new ByteArrayInputStream(gzip(data, 0,
+				data.length)))));
+	}
+
+	@Test
+	public void testMultipleMembers() throws IOException {
+		byte[] data = createData(300000);
+		ByteArrayOutputStream members = new ByteArrayOutputStream();
+		members.write(gzip(data, 0, 100000));
+		members.write(gzip(data, 100000, 200000));
+		assertArrayEquals(data,
+				readAll(ReadAheadInputStream.forGZIP(new ByteArrayInputStream(members.toByteArray()))));
+	}
+
+	@Test
+	public void testBGZF() throws IOException {
+		byte[] data = createData(1024 * 1024 + 17);
+		assertArrayEquals(data, readAll(ReadAheadInputStream.forGZIP(new ByteArrayInputStream(bgzip(data)))));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertArrayEquals(new byte[0], readAll(ReadAheadInputStream.forGZIP(new ByteArrayInputStream(gzip(
+				new byte[0], 0, 0)))));
+		assertArrayEquals(new byte[0], readAll(ReadAheadInputStream.forStream(new ByteArrayInputStream(new byte[0]))));
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorrupt() throws IOException {
+		byte[] compressed = bgzip(createData(100000));
+		compressed[100] ^= 0xFF;
+		readAll(ReadAheadInputStream.forGZIP(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test(timeout = 60000)
+	public void testAbandoned() throws Exception {
+		final AtomicBoolean sourceClosed = new AtomicBoolean();
+		// Endless input, the read-ahead thread blocks once the ring is full
+		InputStream source = new InputStream() {
+
+			public int read() {
+				return 'a';
+			}
+
+			public void close() {
+				sourceClosed.set(true);
+			}
+		};
+		readSomeBytes(source);
+		// The stream is neither drained nor closed, the read-ahead thread needs to notice
+		while (!sourceClosed.get()) {
+			System.gc();
+			Thread.sleep(100);
+		}
+	}
+
+	private static void readSomeBytes(InputStream source) throws IOException {
+		InputStream is = ReadAheadInputStream.forStream(source);
+		assertEquals('a', is.read());
+	}
+
+}